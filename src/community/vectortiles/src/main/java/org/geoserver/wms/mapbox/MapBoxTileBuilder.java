@@ -12,6 +12,7 @@ import java.util.Map;
 
 import no.ecc.vectortile.VectorTileEncoder;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.vector.VectorTileBuilder;
@@ -27,25 +28,49 @@ import com.vividsolutions.jts.geom.Geometry;
  */
 public class MapBoxTileBuilder implements VectorTileBuilder {
 
+    /**
+     * Set to false to encode tiles with the <code>java-vector-tile</code> library instead of the
+     * {@link MapBoxTileEncoder}
+     */
+    public static final String DIRECT_ENCODING_PROPERTY = "org.geoserver.wms.mapbox.MapBoxTileBuilder.directEncoding";
+
+    static final boolean DIRECT_ENCODING = !"false".equalsIgnoreCase(GeoServerExtensions
+            .getProperty(DIRECT_ENCODING_PROPERTY));
+
     private VectorTileEncoder encoder;
 
+    private MapBoxTileEncoder directEncoder;
+
     public MapBoxTileBuilder(Rectangle mapSize, ReferencedEnvelope mapArea) {
+        this(mapSize, mapArea, DIRECT_ENCODING);
+    }
+
+    MapBoxTileBuilder(Rectangle mapSize, ReferencedEnvelope mapArea, boolean directEncoding) {
         final int extent = Math.max(mapSize.width, mapSize.height);
-        final int polygonClipBuffer = extent / 32;
-        final boolean autoScale = false;
-        this.encoder = new VectorTileEncoder(extent, polygonClipBuffer, autoScale);
+        if (directEncoding) {
+            // geometries are already clipped to the tile by the pipeline
+            this.directEncoder = new MapBoxTileEncoder(extent);
+        } else {
+            final int polygonClipBuffer = extent / 32;
+            final boolean autoScale = false;
+            this.encoder = new VectorTileEncoder(extent, polygonClipBuffer, autoScale);
+        }
     }
 
     @Override
     public void addFeature(String layerName, String featureId, String geometryName,
             Geometry geometry, Map<String, Object> properties) {
 
-        encoder.addFeature(layerName, properties, geometry);
+        if (directEncoder != null) {
+            directEncoder.addFeature(layerName, properties, geometry);
+        } else {
+            encoder.addFeature(layerName, properties, geometry);
+        }
     }
 
     @Override
     public RawMap build(WMSMapContent mapContent) throws IOException {
-        byte[] contents = encoder.encode();
+        byte[] contents = directEncoder != null ? directEncoder.encode() : encoder.encode();
         return new RawMap(mapContent, contents, MIME_TYPE);
     }
 
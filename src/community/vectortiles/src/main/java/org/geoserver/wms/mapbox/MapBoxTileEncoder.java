@@ -0,0 +1,561 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.mapbox;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes a Mapbox Vector Tile (version 2 of the specification) straight from the coordinate
+ * sequences of the geometries, without building intermediate protobuf objects.
+ * <p>
+ * Geometries are expected in tile coordinates, already clipped and simplified by the vector tile
+ * pipeline. Coordinates are rounded to the integer grid, repeated points are dropped, and lines
+ * and rings that collapse on the grid are skipped. Rings are written with the orientation required
+ * by the specification, exterior rings clockwise and holes counter clockwise in tile coordinates.
+ * </p>
+ * <p>
+ * Each layer encodes its features as they are added, and keeps its attribute keys and values in
+ * dictionaries, numbers being looked up by their primitive value, so that every distinct key and
+ * value is written once. Scratch arrays are reused across features. The encoder is not thread
+ * safe.
+ * </p>
+ */
+final class MapBoxTileEncoder {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int POINT = 1;
+
+    static final int LINESTRING = 2;
+
+    static final int POLYGON = 3;
+
+    static final int MOVE_TO = 1;
+
+    static final int LINE_TO = 2;
+
+    static final int CLOSE_PATH = 7;
+
+    final int extent;
+
+    final Map<String, Layer> layers = new LinkedHashMap<>();
+
+    /** Command encoded geometry of the current feature */
+    int[] commands = new int[256];
+
+    int commandCount;
+
+    /** Tags of the current feature, as key and value index pairs */
+    int[] tags = new int[32];
+
+    int tagCount;
+
+    /** Rounded coordinates of the current line or ring, as x and y pairs */
+    int[] xy = new int[256];
+
+    /** The geometry cursor, relative to which the next coordinate is encoded */
+    int cursorX, cursorY;
+
+    MapBoxTileEncoder(int extent) {
+        this.extent = extent;
+    }
+
+    /**
+     * Adds a feature to the layer. Multi polygons and heterogeneous collections are split in one
+     * feature per member, null attribute values are skipped.
+     */
+    public void addFeature(String layerName, Map<String, ?> attributes, Geometry geometry) {
+        if (geometry instanceof MultiPolygon
+                || geometry.getClass().equals(GeometryCollection.class)) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                addFeature(layerName, attributes, geometry.getGeometryN(i));
+            }
+            return;
+        }
+
+        commandCount = 0;
+        cursorX = 0;
+        cursorY = 0;
+        int type;
+        if (geometry instanceof Point || geometry instanceof MultiPoint) {
+            type = POINT;
+            encodePoints(geometry);
+        } else if (geometry instanceof LineString) {
+            type = LINESTRING;
+            encodeLine(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof MultiLineString) {
+            type = LINESTRING;
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                encodeLine(((LineString) geometry.getGeometryN(i)).getCoordinateSequence());
+            }
+        } else if (geometry instanceof Polygon) {
+            type = POLYGON;
+            Polygon polygon = (Polygon) geometry;
+            if (encodeRing(polygon.getExteriorRing().getCoordinateSequence(), true)) {
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    encodeRing(polygon.getInteriorRingN(i).getCoordinateSequence(), false);
+                }
+            }
+        } else {
+            return;
+        }
+        if (commandCount == 0) {
+            return;
+        }
+
+        Layer layer = layers.get(layerName);
+        if (layer == null) {
+            layer = new Layer(layerName);
+            layers.put(layerName, layer);
+        }
+        tagCount = 0;
+        for (Map.Entry<String, ?> e : attributes.entrySet()) {
+            Object value = e.getValue();
+            if (value == null) {
+                continue;
+            }
+            tags = ensureCapacity(tags, tagCount + 2);
+            tags[tagCount++] = layer.key(e.getKey());
+            tags[tagCount++] = layer.value(value);
+        }
+        layer.addFeature(type, tags, tagCount, commands, commandCount);
+    }
+
+    /**
+     * Returns the encoded tile
+     */
+    public byte[] encode() {
+        Buffer tile = new Buffer(size());
+        for (Layer layer : layers.values()) {
+            layer.writeTo(tile, extent);
+        }
+        return tile.bytes;
+    }
+
+    int size() {
+        int size = 0;
+        for (Layer layer : layers.values()) {
+            int layerSize = layer.size(extent);
+            size += 1 + Buffer.varintSize(layerSize) + layerSize;
+        }
+        return size;
+    }
+
+    void encodePoints(Geometry geometry) {
+        int count = geometry.getNumGeometries();
+        command(MOVE_TO, count);
+        for (int i = 0; i < count; i++) {
+            CoordinateSequence cs = ((Point) geometry.getGeometryN(i)).getCoordinateSequence();
+            moveCursor((int) Math.round(cs.getX(0)), (int) Math.round(cs.getY(0)));
+        }
+    }
+
+    void encodeLine(CoordinateSequence cs) {
+        int count = round(cs, false);
+        if (count < 2) {
+            return;
+        }
+        command(MOVE_TO, 1);
+        moveCursor(xy[0], xy[1]);
+        command(LINE_TO, count - 1);
+        for (int i = 1; i < count; i++) {
+            moveCursor(xy[2 * i], xy[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Encodes a ring, returning false if it collapsed on the integer grid
+     */
+    boolean encodeRing(CoordinateSequence cs, boolean exterior) {
+        int count = round(cs, true);
+        if (count < 3) {
+            return false;
+        }
+        // twice the signed area, positive for clockwise rings in tile coordinates
+        long area = 0;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            area += (long) xy[2 * j] * xy[2 * i + 1] - (long) xy[2 * i] * xy[2 * j + 1];
+        }
+        if (area == 0) {
+            return false;
+        }
+
+        command(MOVE_TO, 1);
+        moveCursor(xy[0], xy[1]);
+        command(LINE_TO, count - 1);
+        if ((area > 0) == exterior) {
+            for (int i = 1; i < count; i++) {
+                moveCursor(xy[2 * i], xy[2 * i + 1]);
+            }
+        } else {
+            for (int i = count - 1; i > 0; i--) {
+                moveCursor(xy[2 * i], xy[2 * i + 1]);
+            }
+        }
+        command(CLOSE_PATH, 1);
+        return true;
+    }
+
+    /**
+     * Rounds the coordinates to the integer grid in {@link #xy}, dropping repeated points and, for
+     * rings, the closing point. Returns the number of points kept.
+     */
+    int round(CoordinateSequence cs, boolean ring) {
+        int size = cs.size();
+        xy = ensureCapacity(xy, 2 * size);
+        int count = 0;
+        int px = 0, py = 0;
+        for (int i = 0; i < size; i++) {
+            int x = (int) Math.round(cs.getX(i));
+            int y = (int) Math.round(cs.getY(i));
+            if (count > 0 && x == px && y == py) {
+                continue;
+            }
+            xy[2 * count] = x;
+            xy[2 * count + 1] = y;
+            px = x;
+            py = y;
+            count++;
+        }
+        if (ring && count > 1 && xy[0] == px && xy[1] == py) {
+            count--;
+        }
+        return count;
+    }
+
+    void command(int id, int count) {
+        commands = ensureCapacity(commands, commandCount + 1);
+        commands[commandCount++] = (id & 0x7) | (count << 3);
+    }
+
+    void moveCursor(int x, int y) {
+        commands = ensureCapacity(commands, commandCount + 2);
+        commands[commandCount++] = zigZag(x - cursorX);
+        commands[commandCount++] = zigZag(y - cursorY);
+        cursorX = x;
+        cursorY = y;
+    }
+
+    static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    static int[] ensureCapacity(int[] array, int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    /**
+     * A tile layer, holding its encoded features and attribute dictionaries
+     */
+    static final class Layer {
+
+        final byte[] name;
+
+        final Buffer features = new Buffer(1024);
+
+        final Buffer keys = new Buffer(128);
+
+        final Buffer values = new Buffer(128);
+
+        final Map<String, Integer> keyIndex = new HashMap<>();
+
+        final Map<String, Integer> stringValues = new HashMap<>();
+
+        final LongIndex longValues = new LongIndex();
+
+        final LongIndex doubleValues = new LongIndex();
+
+        final LongIndex floatValues = new LongIndex();
+
+        int trueValue = -1, falseValue = -1;
+
+        int valueCount;
+
+        Layer(String name) {
+            this.name = name.getBytes(UTF8);
+        }
+
+        int key(String key) {
+            Integer index = keyIndex.get(key);
+            if (index == null) {
+                index = keyIndex.size();
+                keyIndex.put(key, index);
+                byte[] bytes = key.getBytes(UTF8);
+                keys.writeByte(0x1A);
+                keys.writeVarint(bytes.length);
+                keys.writeBytes(bytes);
+            }
+            return index;
+        }
+
+        int value(Object value) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                long l = ((Number) value).longValue();
+                int index = longValues.get(l);
+                if (index < 0) {
+                    index = valueCount++;
+                    longValues.put(l, index);
+                    long zigZag = (l << 1) ^ (l >> 63);
+                    values.writeByte(0x22);
+                    values.writeVarint(1 + Buffer.varintSize(zigZag));
+                    values.writeByte(0x30);
+                    values.writeVarint(zigZag);
+                }
+                return index;
+            } else if (value instanceof Float) {
+                int bits = Float.floatToIntBits((Float) value);
+                int index = floatValues.get(bits);
+                if (index < 0) {
+                    index = valueCount++;
+                    floatValues.put(bits, index);
+                    values.writeByte(0x22);
+                    values.writeVarint(5);
+                    values.writeByte(0x15);
+                    values.writeFixed(bits, 4);
+                }
+                return index;
+            } else if (value instanceof Number) {
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                int index = doubleValues.get(bits);
+                if (index < 0) {
+                    index = valueCount++;
+                    doubleValues.put(bits, index);
+                    values.writeByte(0x22);
+                    values.writeVarint(9);
+                    values.writeByte(0x19);
+                    values.writeFixed(bits, 8);
+                }
+                return index;
+            } else if (value instanceof Boolean) {
+                boolean b = (Boolean) value;
+                int index = b ? trueValue : falseValue;
+                if (index < 0) {
+                    index = valueCount++;
+                    if (b) {
+                        trueValue = index;
+                    } else {
+                        falseValue = index;
+                    }
+                    values.writeByte(0x22);
+                    values.writeVarint(2);
+                    values.writeByte(0x38);
+                    values.writeVarint(b ? 1 : 0);
+                }
+                return index;
+            } else {
+                String s = value.toString();
+                Integer index = stringValues.get(s);
+                if (index == null) {
+                    index = valueCount++;
+                    stringValues.put(s, index);
+                    byte[] bytes = s.getBytes(UTF8);
+                    values.writeByte(0x22);
+                    values.writeVarint(1 + Buffer.varintSize(bytes.length) + bytes.length);
+                    values.writeByte(0x0A);
+                    values.writeVarint(bytes.length);
+                    values.writeBytes(bytes);
+                }
+                return index;
+            }
+        }
+
+        void addFeature(int type, int[] tags, int tagCount, int[] commands, int commandCount) {
+            int tagsSize = Buffer.packedSize(tags, tagCount);
+            int geometrySize = Buffer.packedSize(commands, commandCount);
+            int size = 2 + 1 + Buffer.varintSize(geometrySize) + geometrySize;
+            if (tagCount > 0) {
+                size += 1 + Buffer.varintSize(tagsSize) + tagsSize;
+            }
+
+            features.writeByte(0x12);
+            features.writeVarint(size);
+            if (tagCount > 0) {
+                features.writeByte(0x12);
+                features.writeVarint(tagsSize);
+                for (int i = 0; i < tagCount; i++) {
+                    features.writeVarint(tags[i]);
+                }
+            }
+            features.writeByte(0x18);
+            features.writeByte(type);
+            features.writeByte(0x22);
+            features.writeVarint(geometrySize);
+            for (int i = 0; i < commandCount; i++) {
+                features.writeVarint(commands[i] & 0xFFFFFFFFL);
+            }
+        }
+
+        int size(int extent) {
+            return 1 + Buffer.varintSize(name.length) + name.length + features.size + keys.size
+                    + values.size + 1 + Buffer.varintSize(extent) + 2;
+        }
+
+        void writeTo(Buffer tile, int extent) {
+            tile.writeByte(0x1A);
+            tile.writeVarint(size(extent));
+            tile.writeByte(0x0A);
+            tile.writeVarint(name.length);
+            tile.writeBytes(name);
+            tile.writeBytes(features.bytes, features.size);
+            tile.writeBytes(keys.bytes, keys.size);
+            tile.writeBytes(values.bytes, values.size);
+            tile.writeByte(0x28);
+            tile.writeVarint(extent);
+            // version
+            tile.writeByte(0x78);
+            tile.writeByte(2);
+        }
+    }
+
+    /**
+     * A growable byte array with the protobuf primitive encodings
+     */
+    static final class Buffer {
+
+        byte[] bytes;
+
+        int size;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void ensureCapacity(int capacity) {
+            if (bytes.length < capacity) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] b) {
+            writeBytes(b, b.length);
+        }
+
+        void writeBytes(byte[] b, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(b, 0, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarint(long value) {
+            if (size + 10 > bytes.length) {
+                ensureCapacity(size + varintSize(value));
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        /** Writes the lowest bytes of the value, little endian */
+        void writeFixed(long value, int length) {
+            ensureCapacity(size + length);
+            for (int i = 0; i < length; i++) {
+                bytes[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        static int varintSize(long value) {
+            int size = 1;
+            while ((value & ~0x7FL) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+
+        static int packedSize(int[] values, int count) {
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                size += varintSize(values[i] & 0xFFFFFFFFL);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * An open addressing map from long keys to non negative indexes, avoiding the boxing of
+     * numeric attribute values
+     */
+    static final class LongIndex {
+
+        long[] keys = new long[16];
+
+        int[] indexes = new int[16];
+
+        int size;
+
+        LongIndex() {
+            Arrays.fill(indexes, -1);
+        }
+
+        /**
+         * Returns the index of the key, or -1 if missing
+         */
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask);; i = (i + 1) & mask) {
+                int index = indexes[i];
+                if (index < 0 || keys[i] == key) {
+                    return index;
+                }
+            }
+        }
+
+        void put(long key, int index) {
+            if (2 * (size + 1) > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldIndexes = indexes;
+                keys = new long[oldKeys.length * 2];
+                indexes = new int[oldKeys.length * 2];
+                Arrays.fill(indexes, -1);
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldIndexes[i] >= 0) {
+                        put(oldKeys[i], oldIndexes[i]);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (indexes[i] >= 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (indexes[i] < 0) {
+                size++;
+            }
+            keys[i] = key;
+            indexes[i] = index;
+        }
+
+        static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
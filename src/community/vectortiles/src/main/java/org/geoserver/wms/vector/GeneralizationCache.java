@@ -0,0 +1,346 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Caches the geometries of vector tile features simplified in their native CRS, by layer, feature
+ * id and generalization level, so that the tiles of a zoom level do not simplify the full
+ * resolution geometries over and over.
+ * <p>
+ * The level is the power of two right below the simplification distance of the tile, so all the
+ * tiles of a zoom level share the same simplified geometries, simplified slightly less than the
+ * tile requires. The pipeline still runs its own simplification on them, which is cheap on the
+ * reduced geometries. The geometries are stored with packed coordinate sequences, holding the
+ * ordinates in a single array. Points are never cached, nor are features with generated, non
+ * persistent identifiers, or the features of SQL views.
+ * </p>
+ * <p>
+ * The cache is populated lazily, by the tile requests or by seeding the vector tile layers. The
+ * geometries of the features updated or deleted by a WFS transaction are evicted once the
+ * transaction is committed, modifying or removing a feature type or a store clears the whole
+ * cache. Changes made to the data outside of GeoServer cannot be tracked, which is why the cache
+ * is disabled unless a size is set in bytes with the {@value #MAX_SIZE_PROPERTY} property.
+ * </p>
+ */
+public class GeneralizationCache implements TransactionPlugin, CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(GeneralizationCache.class);
+
+    public static final String MAX_SIZE_PROPERTY = "org.geoserver.wms.vector.GeneralizationCache.maxSize";
+
+    static final String TRANSACTION_INFO_PLACEHOLDER = "VECTOR_TILES_GENERALIZATION_PLACEHOLDER";
+
+    static final GeometryFactory PACKED_FACTORY = new GeometryFactory(
+            new PackedCoordinateSequenceFactory(PackedCoordinateSequenceFactory.DOUBLE, 2));
+
+    final boolean enabled;
+
+    final Cache<Key, Geometry> geometries;
+
+    /** The levels found in the cache, used to evict all the geometries of a feature */
+    final Set<Integer> levels = ConcurrentHashMap.<Integer> newKeySet();
+
+    /**
+     * Incremented on each invalidation, used to avoid caching geometries read before a change was
+     * committed
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    public GeneralizationCache(Catalog catalog) {
+        this(catalog, getMaxSizeProperty());
+    }
+
+    GeneralizationCache(Catalog catalog, long maxSize) {
+        this.enabled = maxSize > 0;
+        this.geometries = CacheBuilder.newBuilder().maximumWeight(Math.max(maxSize, 0))
+                .weigher(new Weigher<Key, Geometry>() {
+
+                    public int weigh(Key key, Geometry geometry) {
+                        return 64 + 2 * (key.type.length() + key.id.length()) + 16
+                                * geometry.getNumPoints();
+                    }
+                }).build();
+        if (enabled && catalog != null) {
+            catalog.addListener(this);
+        }
+    }
+
+    static long getMaxSizeProperty() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_PROPERTY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + MAX_SIZE_PROPERTY + ": " + value
+                        + ", disabling the cache", e);
+            }
+        }
+        return 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the key identifying a feature type in the cache
+     */
+    static String typeKey(String namespaceURI, String localPart) {
+        return namespaceURI == null || namespaceURI.isEmpty() ? localPart : namespaceURI + ":"
+                + localPart;
+    }
+
+    static String typeKey(Name name) {
+        return typeKey(name.getNamespaceURI(), name.getLocalPart());
+    }
+
+    static String typeKey(QName name) {
+        return typeKey(name.getNamespaceURI(), name.getLocalPart());
+    }
+
+    /**
+     * Returns true if the geometries of the feature type can be cached, SQL views cannot as the
+     * features read depend on the view parameters of the request
+     */
+    static boolean isCacheable(FeatureTypeInfo info) {
+        return info != null
+                && !info.getMetadata().containsKey(FeatureTypeInfo.JDBC_VIRTUAL_TABLE);
+    }
+
+    /**
+     * Returns the current generation, to be passed to
+     * {@link #generalize(String, String, Geometry, double, long)} for the features read afterwards
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the feature geometry simplified at the level of the specified distance, from the
+     * cache or computing and caching it, unless the cache has been invalidated since the specified
+     * generation
+     */
+    Geometry generalize(String type, String id, Geometry geometry, double distance,
+            long generation) {
+        if (!enabled || id == null || id.contains("fid-") || geometry == null
+                || geometry.getDimension() == 0 || !(distance > 0)
+                || Double.isInfinite(distance)) {
+            // non persistent ids are generated as "fid-" plus a unique identifier, possibly
+            // prefixed by the type name
+            return geometry;
+        }
+        int level = Math.getExponent(distance);
+        Key key = new Key(type, id, level);
+        Geometry simplified = geometries.getIfPresent(key);
+        if (simplified != null) {
+            return simplified;
+        }
+
+        simplified = TopologyPreservingSimplifier.simplify(geometry, Math.scalb(1d, level));
+        simplified = PACKED_FACTORY.createGeometry(simplified);
+        if (this.generation.get() == generation) {
+            levels.add(level);
+            geometries.put(key, simplified);
+            // an invalidation might have run between the check and the put
+            if (this.generation.get() != generation) {
+                geometries.invalidate(key);
+            }
+        }
+        return simplified;
+    }
+
+    /**
+     * Evicts the geometries of the specified features
+     */
+    void invalidate(String type, Set<String> ids) {
+        generation.incrementAndGet();
+        for (String id : ids) {
+            for (Integer level : levels) {
+                geometries.invalidate(new Key(type, id, level));
+            }
+        }
+    }
+
+    /**
+     * Evicts all geometries
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        geometries.invalidateAll();
+    }
+
+    /**
+     * Returns the number of cached geometries
+     */
+    public long size() {
+        return geometries.size();
+    }
+
+    /**
+     * Collects the identifiers of the features being updated or deleted, they are evicted after
+     * the commit
+     */
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        TransactionEventType type = event.getType();
+        if (!enabled
+                || !(TransactionEventType.PRE_UPDATE.equals(type) || TransactionEventType.PRE_DELETE
+                        .equals(type))) {
+            return;
+        }
+        try {
+            Set<String> ids = getAffectedIds(event.getRequest(), typeKey(event.getLayerName()));
+            try (SimpleFeatureIterator it = event.getAffectedFeatures().features()) {
+                while (it.hasNext()) {
+                    ids.add(it.next().getID());
+                }
+            }
+        } catch (RuntimeException e) {
+            // never make the transaction fail due to the cache, clear it instead
+            LOGGER.log(Level.WARNING, "Error collecting the features affected by a transaction", e);
+            clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> getAffectedIds(TransactionType transaction, String type) {
+        Map<Object, Object> extendedProperties = transaction.getExtendedProperties();
+        Map<String, Set<String>> byType = (Map<String, Set<String>>) extendedProperties
+                .get(TRANSACTION_INFO_PLACEHOLDER);
+        if (byType == null) {
+            byType = new HashMap<String, Set<String>>();
+            extendedProperties.put(TRANSACTION_INFO_PLACEHOLDER, byType);
+        }
+        Set<String> ids = byType.get(type);
+        if (ids == null) {
+            ids = new HashSet<String>();
+            byType.put(type, ids);
+        }
+        return ids;
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    @SuppressWarnings("unchecked")
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        Map<String, Set<String>> byType = (Map<String, Set<String>>) request
+                .getExtendedProperties().get(TRANSACTION_INFO_PLACEHOLDER);
+        if (!committed || byType == null) {
+            return;
+        }
+        for (Map.Entry<String, Set<String>> entry : byType.entrySet()) {
+            invalidate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    void handleChange(CatalogInfo source) {
+        if (source instanceof FeatureTypeInfo || source instanceof DataStoreInfo) {
+            clear();
+        }
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // new layers have nothing cached
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        handleChange(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event, the change is not applied yet
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        handleChange(event.getSource());
+    }
+
+    public void reloaded() {
+        clear();
+    }
+
+    /**
+     * The key of a simplified geometry
+     */
+    static final class Key {
+
+        final String type;
+
+        final String id;
+
+        final int level;
+
+        Key(String type, String id, int level) {
+            this.type = type;
+            this.id = id;
+            this.level = level;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * type.hashCode() + id.hashCode()) + level;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return level == other.level && id.equals(other.id) && type.equals(other.type);
+        }
+    }
+}
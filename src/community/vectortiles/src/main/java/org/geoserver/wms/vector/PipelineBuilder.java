@@ -270,12 +270,19 @@ class PipelineBuilder {
 
         private final Geometry clippingPolygon;
 
+        private final Envelope clippingEnvelope;
+
         Clip(Geometry clippingPolygon) {
             this.clippingPolygon = clippingPolygon;
+            this.clippingEnvelope = clippingPolygon.getEnvelopeInternal();
         }
 
         @Override
         protected Geometry _run(Geometry geom) throws Exception {
+            // most features of a tile are fully inside it, no need for an overlay then
+            if (clippingEnvelope.contains(geom.getEnvelopeInternal())) {
+                return geom;
+            }
             Geometry clipped = geom.intersection(clippingPolygon);
             return clipped;
         }
@@ -35,6 +35,7 @@ import org.opengis.feature.Feature;
 import org.opengis.feature.GeometryAttribute;
 import org.opengis.feature.Property;
 import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.Name;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -56,6 +57,8 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
 
     private boolean transformToScreenCoordinates;
 
+    private GeneralizationCache generalizationCache;
+
     public VectorTileMapOutputFormat(WMS wms, VectorTileBuilderFactory tileBuilderFactory) {
         super(tileBuilderFactory.getMimeType(), tileBuilderFactory.getOutputFormats());
         this.wms = wms;
@@ -74,6 +77,13 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         this.transformToScreenCoordinates = useScreenCoords;
     }
 
+    /**
+     * Sets the cache of the geometries simplified for each zoom level, if enabled
+     */
+    public void setGeneralizationCache(GeneralizationCache generalizationCache) {
+        this.generalizationCache = generalizationCache;
+    }
+
     @Override
     public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException, IOException {
         checkNotNull(mapContent);
@@ -121,6 +131,18 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
             Query query = getStyleQuery(layer, mapContent);
             query.getHints().remove(Hints.SCREENMAP);
 
+            String typeKey = null;
+            long generation = 0;
+            if (generalizationCache != null && generalizationCache.isEnabled()) {
+                Name typeName = featureSource.getSchema().getName();
+                if (GeneralizationCache.isCacheable(wms.getCatalog().getFeatureTypeByName(
+                        typeName))) {
+                    typeKey = GeneralizationCache.typeKey(typeName);
+                    generation = generalizationCache.getGeneration();
+                }
+            }
+            final double simplificationDistance = builder.context.sourceCRSSimplificationDistance;
+
             FeatureCollection<?, ?> features = featureSource.getFeatures(query);
             Feature feature;
             Stopwatch sw = Stopwatch.createStarted();
@@ -136,6 +158,11 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
 
                     originalGeom = (Geometry) feature.getDefaultGeometryProperty().getValue();
                     try {
+                        if (typeKey != null) {
+                            originalGeom = generalizationCache.generalize(typeKey, feature
+                                    .getIdentifier().getID(), originalGeom,
+                                    simplificationDistance, generation);
+                        }
                         finalGeom = pipeline.execute(originalGeom);
                     } catch (Exception processingException) {
                         processingException.printStackTrace();
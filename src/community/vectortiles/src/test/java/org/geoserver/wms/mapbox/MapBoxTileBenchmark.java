@@ -0,0 +1,156 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.mapbox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import no.ecc.vectortile.VectorTileEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Compares the <code>java-vector-tile</code> encoder with the {@link MapBoxTileEncoder} on tiles
+ * resembling OpenStreetMap data, as they come out of the vector tile pipeline: buildings, roads
+ * and points of interest in screen coordinates, with OSM like attributes.
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line, adding
+ * <code>-prof gc</code> to compare the allocation rates as well.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MapBoxTileBenchmark {
+
+    static final int EXTENT = 512;
+
+    static final String[] HIGHWAYS = { "motorway", "primary", "secondary", "tertiary",
+            "residential", "service", "footway" };
+
+    static final String[] AMENITIES = { "restaurant", "cafe", "school", "pharmacy", "bank",
+            "parking", "fuel" };
+
+    /** Urban tiles are dense in buildings and short roads, rural ones have fewer, longer roads */
+    @Param({ "urban", "rural" })
+    String area;
+
+    List<String> layers = new ArrayList<>();
+
+    List<Geometry> geometries = new ArrayList<>();
+
+    List<Map<String, Object>> properties = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        boolean urban = "urban".equals(area);
+        Random random = new Random(0);
+        GeometryFactory gf = new GeometryFactory();
+
+        for (int i = 0; i < (urban ? 2000 : 100); i++) {
+            double x = random.nextDouble() * EXTENT;
+            double y = random.nextDouble() * EXTENT;
+            double size = 2 + random.nextDouble() * 10;
+            double angle = random.nextDouble() * Math.PI;
+            Coordinate[] ring = new Coordinate[5 + random.nextInt(4)];
+            for (int j = 0; j < ring.length - 1; j++) {
+                double a = angle + 2 * Math.PI * j / (ring.length - 1);
+                ring[j] = new Coordinate(x + size * Math.cos(a), y + size * Math.sin(a));
+            }
+            ring[ring.length - 1] = ring[0];
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("osm_id", 100000000L + random.nextInt(100000000));
+            props.put("building", random.nextInt(10) == 0 ? "commercial" : "yes");
+            if (random.nextInt(3) == 0) {
+                props.put("levels", 1 + random.nextInt(8));
+            }
+            add("buildings", gf.createPolygon(ring), props);
+        }
+
+        for (int i = 0; i < (urban ? 400 : 60); i++) {
+            int n = urban ? 5 + random.nextInt(40) : 50 + random.nextInt(400);
+            Coordinate[] line = new Coordinate[n];
+            double x = random.nextDouble() * EXTENT;
+            double y = random.nextDouble() * EXTENT;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            for (int j = 0; j < n; j++) {
+                line[j] = new Coordinate(x, y);
+                angle += (random.nextDouble() - 0.5) * 0.5;
+                x = Math.max(0, Math.min(EXTENT, x + 3 * Math.cos(angle)));
+                y = Math.max(0, Math.min(EXTENT, y + 3 * Math.sin(angle)));
+            }
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("osm_id", 100000000L + random.nextInt(100000000));
+            props.put("highway", HIGHWAYS[random.nextInt(HIGHWAYS.length)]);
+            props.put("name", "Street " + random.nextInt(urban ? 200 : 20));
+            props.put("maxspeed", 10 * (3 + random.nextInt(10)));
+            props.put("oneway", random.nextBoolean());
+            add("roads", gf.createLineString(line), props);
+        }
+
+        for (int i = 0; i < (urban ? 500 : 20); i++) {
+            Coordinate c = new Coordinate(random.nextDouble() * EXTENT, random.nextDouble()
+                    * EXTENT);
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("osm_id", 100000000L + random.nextInt(100000000));
+            props.put("amenity", AMENITIES[random.nextInt(AMENITIES.length)]);
+            props.put("name", "Place " + i);
+            add("pois", gf.createPoint(c), props);
+        }
+    }
+
+    void add(String layer, Geometry geometry, Map<String, Object> props) {
+        layers.add(layer);
+        geometries.add(geometry);
+        properties.add(props);
+    }
+
+    @Benchmark
+    public byte[] library() {
+        VectorTileEncoder encoder = new VectorTileEncoder(EXTENT, EXTENT / 32, false);
+        for (int i = 0; i < geometries.size(); i++) {
+            encoder.addFeature(layers.get(i), properties.get(i), geometries.get(i));
+        }
+        return encoder.encode();
+    }
+
+    @Benchmark
+    public byte[] direct() {
+        MapBoxTileEncoder encoder = new MapBoxTileEncoder(EXTENT);
+        for (int i = 0; i < geometries.size(); i++) {
+            encoder.addFeature(layers.get(i), properties.get(i), geometries.get(i));
+        }
+        return encoder.encode();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MapBoxTileBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
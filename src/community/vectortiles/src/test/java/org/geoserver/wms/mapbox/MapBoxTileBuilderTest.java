@@ -28,6 +28,7 @@ import com.google.common.collect.ListMultimap;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 
@@ -97,4 +98,76 @@ public class MapBoxTileBuilderTest {
         assertEquals(line, lineFeature.getGeometry());
         assertEquals(lineProps, lineFeature.getAttributes());
     }
+
+    @Test
+    public void testPolygonsAndAttributes() throws Exception {
+        MapBoxTileBuilder tileBuilder = new MapBoxTileBuilder(new Rectangle(256, 256),
+                new ReferencedEnvelope());
+
+        // counter clockwise exterior ring and clockwise hole, the encoder has to reverse both
+        Geometry polygon = geom("POLYGON((10 10, 10 110, 110 110, 110 10, 10 10), "
+                + "(20 20, 40 20, 40 40, 20 40, 20 20))");
+        Map<String, Object> props = ImmutableMap.<String, Object> of("name", "poly", "count", 5,
+                "area", 100.5d, "ratio", 0.5f, "valid", true);
+        tileBuilder.addFeature("Polygons", "unused", "unused", polygon, props);
+        tileBuilder.addFeature("Polygons", "unused", "unused",
+                geom("MULTIPOLYGON(((0 0, 0 5, 5 5, 5 0, 0 0)), ((7 7, 7 9, 9 9, 9 7, 7 7)))"),
+                props);
+
+        WMSMapContent mapContent = mock(WMSMapContent.class);
+        ListMultimap<String, Feature> features = decode(tileBuilder.build(mapContent));
+
+        // the multipolygon is split in two features
+        assertEquals(3, features.get("Polygons").size());
+        Feature feature = features.get("Polygons").get(0);
+        assertTrue(feature.getGeometry() instanceof Polygon);
+        assertTrue(polygon.equalsTopo(feature.getGeometry()));
+        assertEquals(1, ((Polygon) feature.getGeometry()).getNumInteriorRing());
+        Map<String, Object> attributes = feature.getAttributes();
+        assertEquals("poly", attributes.get("name"));
+        assertEquals(5L, ((Number) attributes.get("count")).longValue());
+        assertEquals(100.5d, ((Number) attributes.get("area")).doubleValue(), 0d);
+        assertEquals(0.5f, ((Number) attributes.get("ratio")).floatValue(), 0f);
+        assertEquals(Boolean.TRUE, attributes.get("valid"));
+        assertEquals(attributes, features.get("Polygons").get(2).getAttributes());
+    }
+
+    @Test
+    public void testCollapsedGeometries() throws Exception {
+        MapBoxTileBuilder tileBuilder = new MapBoxTileBuilder(new Rectangle(256, 256),
+                new ReferencedEnvelope());
+
+        Map<String, Object> props = ImmutableMap.<String, Object> of("name", "collapsed");
+        tileBuilder.addFeature("Lines", "unused", "unused", geom("LINESTRING(0 0, 0.2 0.3)"),
+                props);
+        tileBuilder.addFeature("Polygons", "unused", "unused",
+                geom("POLYGON((0 0, 0.3 0, 0.3 0.3, 0 0.3, 0 0))"), props);
+        tileBuilder.addFeature("Lines", "unused", "unused",
+                geom("LINESTRING(0 0, 0.2 0.3, 1 1, 1.1 1.1, 2 2)"), props);
+
+        WMSMapContent mapContent = mock(WMSMapContent.class);
+        ListMultimap<String, Feature> features = decode(tileBuilder.build(mapContent));
+
+        assertEquals(1, features.size());
+        // repeated points on the integer grid are dropped
+        Geometry line = features.get("Lines").get(0).getGeometry();
+        assertEquals(geom("LINESTRING(0 0, 1 1, 2 2)"), line);
+    }
+
+    @Test
+    public void testLibraryEncoding() throws Exception {
+        MapBoxTileBuilder tileBuilder = new MapBoxTileBuilder(new Rectangle(256, 256),
+                new ReferencedEnvelope(), false);
+
+        Geometry line = geom("LINESTRING(0 0, 1 1, 2 2)");
+        Map<String, Object> lineProps = ImmutableMap.<String, Object> of("name", "line1");
+        tileBuilder.addFeature("Lines", "unused", "unused", line, lineProps);
+
+        WMSMapContent mapContent = mock(WMSMapContent.class);
+        ListMultimap<String, Feature> features = decode(tileBuilder.build(mapContent));
+
+        assertEquals(1, features.size());
+        assertEquals(line, features.get("Lines").get(0).getGeometry());
+        assertEquals(lineProps, features.get("Lines").get(0).getAttributes());
+    }
 }
@@ -0,0 +1,129 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeneralizationCacheTest {
+
+    static final String TYPE = GeneralizationCache.typeKey("http://test", "roads");
+
+    GeneralizationCache cache;
+
+    Geometry line;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new GeneralizationCache(null, 1024 * 1024);
+        line = new WKTReader().read("LINESTRING(0 0, 1 0.1, 2 0, 3 0.1, 4 0, 10 0, 10 10)");
+    }
+
+    @Test
+    public void testGeneralize() throws Exception {
+        Geometry simplified = cache.generalize(TYPE, "roads.1", line, 1.5, 0);
+        assertTrue(simplified.getNumPoints() < line.getNumPoints());
+        assertEquals(1, cache.size());
+
+        // same level, same geometry
+        assertSame(simplified, cache.generalize(TYPE, "roads.1", line, 1.9, 0));
+        // other levels are cached separately
+        Geometry detailed = cache.generalize(TYPE, "roads.1", line, 0.01, 0);
+        assertNotSame(simplified, detailed);
+        assertEquals(line.getNumPoints(), detailed.getNumPoints());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        // generated ids and points
+        cache.generalize(TYPE, "fid-7a3b2c", line, 1.5, 0);
+        cache.generalize(TYPE, "roads.fid-7a3b2c", line, 1.5, 0);
+        Geometry point = new WKTReader().read("POINT(1 1)");
+        assertSame(point, cache.generalize(TYPE, "roads.2", point, 1.5, 0));
+        assertEquals(0, cache.size());
+
+        // invalidated since the features were read
+        cache.clear();
+        cache.generalize(TYPE, "roads.1", line, 1.5, 0);
+        assertEquals(0, cache.size());
+
+        // disabled
+        GeneralizationCache disabled = new GeneralizationCache(null, 0);
+        assertSame(line, disabled.generalize(TYPE, "roads.1", line, 1.5, 0));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void testSqlViewsNotCacheable() throws Exception {
+        FeatureTypeInfo table = mock(FeatureTypeInfo.class);
+        when(table.getMetadata()).thenReturn(new MetadataMap());
+        assertTrue(GeneralizationCache.isCacheable(table));
+
+        FeatureTypeInfo view = mock(FeatureTypeInfo.class);
+        MetadataMap metadata = new MetadataMap();
+        metadata.put(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, "view");
+        when(view.getMetadata()).thenReturn(metadata);
+        assertFalse(GeneralizationCache.isCacheable(view));
+
+        // not a catalog layer
+        assertFalse(GeneralizationCache.isCacheable(null));
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        cache.generalize(TYPE, "roads.1", line, 1.5, 0);
+        cache.generalize(TYPE, "roads.1", line, 0.1, 0);
+        cache.generalize(TYPE, "roads.2", line, 1.5, 0);
+        assertEquals(3, cache.size());
+
+        SimpleFeatureType type = DataUtilities.createType("roads", "geom:LineString");
+        SimpleFeature feature = SimpleFeatureBuilder.build(type, new Object[] { line }, "roads.1");
+
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        TransactionType transaction = mock(TransactionType.class);
+        when(transaction.getExtendedProperties()).thenReturn(extendedProperties);
+        TransactionEvent event = mock(TransactionEvent.class);
+        when(event.getType()).thenReturn(TransactionEventType.PRE_UPDATE);
+        when(event.getLayerName()).thenReturn(new QName("http://test", "roads"));
+        when(event.getRequest()).thenReturn(transaction);
+        when(event.getAffectedFeatures()).thenReturn(DataUtilities.collection(feature));
+
+        cache.dataStoreChange(event);
+        // nothing evicted until the commit
+        assertEquals(3, cache.size());
+        cache.afterTransaction(transaction, null, false);
+        assertEquals(3, cache.size());
+
+        cache.afterTransaction(transaction, null, true);
+        assertEquals(1, cache.size());
+    }
+}
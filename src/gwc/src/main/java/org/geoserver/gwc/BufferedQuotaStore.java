@@ -0,0 +1,882 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * A {@link QuotaStore} summing up the tile counts, quota and hits updates in memory and applying
+ * them to the wrapped store in batches, instead of updating the database for every tile cached or
+ * served.
+ * <p>
+ * The updates are summed per tile page in striped maps, so that concurrent tile requests seldom
+ * contend on the same lock. Every second the sums are appended to a local journal file, which is
+ * merged and applied to the wrapped store by a background thread every
+ * {@value #DEFAULT_COMPACT_INTERVAL} milliseconds. A journal left behind by a shutdown or crash is
+ * applied on startup, so at most the last second of updates can be lost.
+ * </p>
+ * <p>
+ * Quota reads include the updates not applied yet. The pages queries used to pick the tiles to
+ * expire apply the updates still in memory first, the ones already in the journal reach the
+ * database with the next compaction. The layer and gridset removals apply all the pending updates
+ * first.
+ * </p>
+ * <p>
+ * The journal must not be shared, each node of a cluster needs its own journal directory.
+ * </p>
+ */
+public class BufferedQuotaStore implements QuotaStore {
+
+    static final Logger LOGGER = Logging.getLogger(BufferedQuotaStore.class);
+
+    /**
+     * System/context/env variable to turn off the buffering, and update the quota store for each
+     * tile instead
+     */
+    public static final String ENABLED_PROPERTY = "org.geoserver.gwc.BufferedQuotaStore.enabled";
+
+    /**
+     * System/context/env variable pointing to a node local directory for the journal. Required to
+     * buffer the updates of a JDBC quota store, whose cache directory may be shared by the nodes of
+     * a cluster.
+     */
+    public static final String JOURNAL_DIRECTORY_PROPERTY =
+            "org.geoserver.gwc.BufferedQuotaStore.journalDirectory";
+
+    static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    static final long DEFAULT_COMPACT_INTERVAL = 30000;
+
+    static final int STRIPES = 16;
+
+    static final String JOURNAL = "quota.journal";
+
+    static final String COMPACTING = "quota.journal.compacting";
+
+    /** Journal record types */
+    static final byte TILE_SET = 'T', QUOTA = 'Q', PAGE = 'P', END = 'E';
+
+    private final QuotaStore delegate;
+
+    private final File journalFile;
+
+    private final File compactingFile;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /** The tile sets seen so far, by id */
+    private final Map<String, TileSet> tileSets = new ConcurrentHashMap<String, TileSet>();
+
+    /** The bytes accounted for but not applied to the delegate yet, by tile set id */
+    private final Map<String, AtomicLong> unappliedBytes =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Guards the journal stream */
+    private final Object journalLock = new Object();
+
+    /** Serializes the compactions */
+    private final Object compactLock = new Object();
+
+    /**
+     * Taken in write mode while a batch is applied to the delegate, so that quota reads do not
+     * count it twice
+     */
+    private final ReadWriteLock applyLock = new ReentrantReadWriteLock();
+
+    private final ScheduledExecutorService executor;
+
+    private FileOutputStream journalOut;
+
+    private DataOutputStream journal;
+
+    private volatile boolean buffering = true;
+
+    /**
+     * Returns true unless buffering has been disabled with {@link #ENABLED_PROPERTY}
+     */
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(GeoServerExtensions.getProperty(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Returns the journal directory set with {@link #JOURNAL_DIRECTORY_PROPERTY}, or null if not
+     * set
+     */
+    public static File getConfiguredJournalDirectory() {
+        String directory = GeoServerExtensions.getProperty(JOURNAL_DIRECTORY_PROPERTY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+        return new File(directory.trim());
+    }
+
+    /**
+     * @param delegate the store the updates are applied to
+     * @param directory the directory holding the journal
+     */
+    public BufferedQuotaStore(QuotaStore delegate, File directory) throws IOException {
+        this(delegate, directory, DEFAULT_FLUSH_INTERVAL, DEFAULT_COMPACT_INTERVAL);
+    }
+
+    /**
+     * Builds a store flushing and compacting at the given intervals, or only when told to if they
+     * are not positive
+     */
+    BufferedQuotaStore(QuotaStore delegate, File directory, long flushInterval,
+            long compactInterval) throws IOException {
+        this.delegate = delegate;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create the disk quota journal directory "
+                    + directory.getAbsolutePath());
+        }
+        this.journalFile = new File(directory, JOURNAL);
+        this.compactingFile = new File(directory, COMPACTING);
+        recover();
+        openJournal();
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GWC disk quota journal");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (flushInterval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    try {
+                        flush();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to flush the disk quota journal", e);
+                    }
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        if (compactInterval > 0) {
+            // the first run applies what has been recovered from the journal
+            executor.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    try {
+                        compact();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to apply the disk quota journal", e);
+                    }
+                }
+            }, 0, compactInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the wrapped store
+     */
+    public QuotaStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Accounts for the journals left behind, and drops the incomplete batch at the end of the
+     * journal, if any, so that new batches can be appended to it
+     */
+    private void recover() throws IOException {
+        Batch recovered = new Batch();
+        if (compactingFile.exists()) {
+            readJournal(compactingFile, recovered);
+        }
+        if (journalFile.exists()) {
+            long valid = readJournal(journalFile, recovered);
+            if (valid < journalFile.length()) {
+                LOGGER.warning("Dropping the incomplete disk quota updates at the end of "
+                        + journalFile.getAbsolutePath());
+                try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                    raf.setLength(valid);
+                }
+            }
+        }
+        tileSets.putAll(recovered.tileSets);
+        for (Map.Entry<String, Long> entry : recovered.bytes.entrySet()) {
+            getUnappliedBytes(entry.getKey()).addAndGet(entry.getValue());
+        }
+    }
+
+    private void openJournal() throws IOException {
+        journalOut = new FileOutputStream(journalFile, true);
+        journal = new DataOutputStream(new BufferedOutputStream(journalOut));
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalOut = null;
+        }
+    }
+
+    /**
+     * Appends the updates accumulated in memory to the journal
+     */
+    public void flush() throws IOException, InterruptedException {
+        synchronized (journalLock) {
+            Batch batch = drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (journal == null) {
+                applyPending(batch);
+                return;
+            }
+            long valid = journalOut.getChannel().position();
+            try {
+                batch.write(journal);
+                journal.writeByte(END);
+                journal.flush();
+                journalOut.getFD().sync();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write the disk quota journal, "
+                        + "applying the updates straight to the quota store", e);
+                closeJournalQuietly();
+                applyPending(batch);
+                // drop the partial batch, a new stream is needed as the buffer may hold part of it
+                try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                    raf.setLength(valid);
+                }
+                openJournal();
+            }
+        }
+    }
+
+    private void closeJournalQuietly() {
+        try {
+            closeJournal();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close the disk quota journal", e);
+        } finally {
+            journal = null;
+            journalOut = null;
+        }
+    }
+
+    /**
+     * Flushes the updates accumulated in memory, and applies the journal to the wrapped store
+     */
+    public void compact() throws IOException, InterruptedException {
+        synchronized (compactLock) {
+            // a journal whose application failed last time goes first, so that it's not overwritten
+            if (compactingFile.exists()) {
+                applyJournal(compactingFile);
+            }
+            synchronized (journalLock) {
+                flush();
+                if (journal == null || journalFile.length() == 0) {
+                    return;
+                }
+                closeJournal();
+                Files.move(journalFile.toPath(), compactingFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                openJournal();
+            }
+            applyJournal(compactingFile);
+        }
+    }
+
+    private void applyJournal(File file) throws IOException, InterruptedException {
+        Batch batch = new Batch();
+        readJournal(file, batch);
+        applyLock.writeLock().lock();
+        try {
+            apply(batch);
+            if (!file.delete()) {
+                throw new IOException("Could not delete the applied disk quota journal "
+                        + file.getAbsolutePath());
+            }
+            release(batch);
+        } finally {
+            applyLock.writeLock().unlock();
+        }
+    }
+
+    private void applyPending(Batch batch) throws InterruptedException {
+        applyLock.writeLock().lock();
+        try {
+            apply(batch);
+            release(batch);
+        } finally {
+            applyLock.writeLock().unlock();
+        }
+    }
+
+    private void release(Batch batch) {
+        for (Map.Entry<String, Long> entry : batch.bytes.entrySet()) {
+            getUnappliedBytes(entry.getKey()).addAndGet(-entry.getValue());
+        }
+    }
+
+    /**
+     * Reads the complete batches of the journal into the target batch
+     *
+     * @return the length of the journal part holding complete batches
+     */
+    static long readJournal(File file, Batch target) throws IOException {
+        long valid = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            DataInputStream in = new DataInputStream(counter);
+            Batch current = new Batch();
+            int type;
+            while ((type = in.read()) != -1) {
+                switch (type) {
+                case TILE_SET:
+                    String layerName = in.readUTF();
+                    String gridsetId = in.readUTF();
+                    String blobFormat = in.readUTF();
+                    String parametersId = in.readBoolean() ? in.readUTF() : null;
+                    current.addTileSet(new TileSet(layerName, gridsetId, blobFormat, parametersId));
+                    break;
+                case QUOTA:
+                    current.addBytes(in.readUTF(), in.readLong());
+                    break;
+                case PAGE:
+                    PageKey key = new PageKey(in.readUTF(), in.readInt(), in.readInt(),
+                            in.readInt());
+                    current.addPage(key, in.readInt(), in.readInt(), in.readLong());
+                    break;
+                case END:
+                    target.merge(current);
+                    current = new Batch();
+                    valid = counter.getCount();
+                    break;
+                default:
+                    LOGGER.warning("Unexpected record in the disk quota journal "
+                            + file.getAbsolutePath() + ", ignoring the rest of it");
+                    return valid;
+                }
+            }
+        } catch (EOFException e) {
+            // the last batch was being written while shutting down, it's lost
+        }
+        return valid;
+    }
+
+    /**
+     * Applies a batch to the delegate, the tile counts and quota first, the hits after, so that
+     * the pages hit exist
+     */
+    private void apply(Batch batch) throws InterruptedException {
+        Map<String, List<PageStatsPayload>> counts = new HashMap<String, List<PageStatsPayload>>();
+        List<PageStatsPayload> hits = new ArrayList<PageStatsPayload>();
+        for (Map.Entry<PageKey, PageDelta> entry : batch.pages.entrySet()) {
+            PageKey key = entry.getKey();
+            PageDelta delta = entry.getValue();
+            TilePage page = new TilePage(key.tileSetId, key.x, key.y, key.z);
+            TileSet tileSet = getTileSet(batch, key.tileSetId);
+            if (delta.tiles != 0) {
+                PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+                payload.setNumTiles(delta.tiles);
+                List<PageStatsPayload> payloads = counts.get(key.tileSetId);
+                if (payloads == null) {
+                    payloads = new ArrayList<PageStatsPayload>();
+                    counts.put(key.tileSetId, payloads);
+                }
+                payloads.add(payload);
+            }
+            if (delta.hits != 0 || delta.lastAccess != 0) {
+                PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+                payload.setNumHits(delta.hits);
+                payload.setLastAccessTime(delta.lastAccess);
+                hits.add(payload);
+            }
+        }
+
+        Set<String> tileSetIds = new HashSet<String>(counts.keySet());
+        tileSetIds.addAll(batch.bytes.keySet());
+        for (String tileSetId : tileSetIds) {
+            TileSet tileSet = getTileSet(batch, tileSetId);
+            if (tileSet == null) {
+                LOGGER.warning("Unknown tile set " + tileSetId
+                        + ", dropping its pending disk quota updates");
+                continue;
+            }
+            Long bytes = batch.bytes.get(tileSetId);
+            Quota quota = new Quota(BigInteger.valueOf(bytes == null ? 0 : bytes));
+            List<PageStatsPayload> payloads = counts.get(tileSetId);
+            if (payloads == null) {
+                payloads = Collections.emptyList();
+            }
+            delegate.addToQuotaAndTileCounts(tileSet, quota, payloads);
+        }
+
+        if (!hits.isEmpty()) {
+            try {
+                delegate.addHitsAndSetAccesTime(hits).get();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to update the disk quota page hits", e);
+            }
+        }
+    }
+
+    private TileSet getTileSet(Batch batch, String tileSetId) throws InterruptedException {
+        TileSet tileSet = batch.tileSets.get(tileSetId);
+        if (tileSet == null) {
+            tileSet = tileSets.get(tileSetId);
+        }
+        if (tileSet == null) {
+            tileSet = delegate.getTileSetById(tileSetId);
+        }
+        return tileSet;
+    }
+
+    private Batch drain() {
+        Batch batch = new Batch();
+        for (Stripe stripe : stripes) {
+            Batch drained;
+            synchronized (stripe) {
+                drained = stripe.batch;
+                stripe.batch = new Batch();
+            }
+            batch.merge(drained);
+        }
+        return batch;
+    }
+
+    private Stripe getStripe(Object key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    private AtomicLong getUnappliedBytes(String tileSetId) {
+        AtomicLong bytes = unappliedBytes.get(tileSetId);
+        if (bytes == null) {
+            synchronized (unappliedBytes) {
+                bytes = unappliedBytes.get(tileSetId);
+                if (bytes == null) {
+                    bytes = new AtomicLong();
+                    unappliedBytes.put(tileSetId, bytes);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private void addPage(TilePage page, int tiles, int hits, long lastAccess) {
+        PageKey key = new PageKey(page.getTileSetId(), page.getPageX(), page.getPageY(),
+                page.getZoomLevel());
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.batch.addPage(key, tiles, hits, lastAccess);
+        }
+    }
+
+    /**
+     * Applies all the pending updates to the delegate, to be called before the operations that
+     * need them in the database
+     */
+    private void sync() {
+        if (!buffering) {
+            return;
+        }
+        try {
+            compact();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to apply the pending disk quota updates", e);
+        }
+    }
+
+    /**
+     * Applies the updates accumulated in memory straight to the delegate, without going through
+     * the journal. Cheaper than {@link #sync()}, for the operations that can do without the updates
+     * already in the journal.
+     */
+    private void applyBuffered() {
+        if (!buffering) {
+            return;
+        }
+        try {
+            Batch batch = drain();
+            if (!batch.isEmpty()) {
+                applyPending(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies all the pending updates and stops buffering, all the following updates will go
+     * straight to the wrapped store. Used when the wrapped store is about to be replaced, so that a
+     * new store can take over the journal.
+     */
+    public void stopBuffering() throws IOException, InterruptedException {
+        if (!buffering) {
+            return;
+        }
+        buffering = false;
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        compact();
+        synchronized (journalLock) {
+            closeJournal();
+            // updates that raced with the shutdown
+            Batch batch = drain();
+            if (!batch.isEmpty()) {
+                applyPending(batch);
+            }
+        }
+    }
+
+    private void forget(String layerName, String gridSetId) {
+        for (Iterator<TileSet> it = tileSets.values().iterator(); it.hasNext();) {
+            TileSet tileSet = it.next();
+            if (tileSet.getLayerName().equals(layerName)
+                    && (gridSetId == null || tileSet.getGridsetId().equals(gridSetId))) {
+                it.remove();
+                unappliedBytes.remove(tileSet.getId());
+            }
+        }
+    }
+
+    private Quota addUnapplied(Quota quota, long bytes) {
+        if (bytes == 0 || quota == null) {
+            return quota;
+        }
+        return new Quota(quota.getBytes().add(BigInteger.valueOf(bytes)));
+    }
+
+    public TilePageCalculator getTilePageCalculator() {
+        return delegate.getTilePageCalculator();
+    }
+
+    public void createLayer(String layerName) throws InterruptedException {
+        delegate.createLayer(layerName);
+    }
+
+    public Quota getGloballyUsedQuota() throws InterruptedException {
+        applyLock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (AtomicLong unapplied : unappliedBytes.values()) {
+                bytes += unapplied.get();
+            }
+            return addUnapplied(delegate.getGloballyUsedQuota(), bytes);
+        } finally {
+            applyLock.readLock().unlock();
+        }
+    }
+
+    public Quota getUsedQuotaByTileSetId(String tileSetId) throws InterruptedException {
+        applyLock.readLock().lock();
+        try {
+            AtomicLong unapplied = unappliedBytes.get(tileSetId);
+            return addUnapplied(delegate.getUsedQuotaByTileSetId(tileSetId),
+                    unapplied == null ? 0 : unapplied.get());
+        } finally {
+            applyLock.readLock().unlock();
+        }
+    }
+
+    public Quota getUsedQuotaByLayerName(String layerName) throws InterruptedException {
+        applyLock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Map.Entry<String, AtomicLong> entry : unappliedBytes.entrySet()) {
+                TileSet tileSet = tileSets.get(entry.getKey());
+                if (tileSet != null && tileSet.getLayerName().equals(layerName)) {
+                    bytes += entry.getValue().get();
+                }
+            }
+            return addUnapplied(delegate.getUsedQuotaByLayerName(layerName), bytes);
+        } finally {
+            applyLock.readLock().unlock();
+        }
+    }
+
+    public void deleteLayer(String layerName) {
+        sync();
+        delegate.deleteLayer(layerName);
+        forget(layerName, null);
+    }
+
+    public void renameLayer(String oldLayerName, String newLayerName) throws InterruptedException {
+        sync();
+        delegate.renameLayer(oldLayerName, newLayerName);
+        forget(oldLayerName, null);
+    }
+
+    public void deleteGridSubset(String layerName, String gridSetId) {
+        sync();
+        delegate.deleteGridSubset(layerName, gridSetId);
+        forget(layerName, gridSetId);
+    }
+
+    public long[][] getTilesForPage(TilePage page) throws InterruptedException {
+        return delegate.getTilesForPage(page);
+    }
+
+    public Set<TileSet> getTileSets() {
+        return delegate.getTileSets();
+    }
+
+    public TileSet getTileSetById(String tileSetId) throws InterruptedException {
+        return delegate.getTileSetById(tileSetId);
+    }
+
+    public void accept(TileSetVisitor visitor) {
+        delegate.accept(visitor);
+    }
+
+    public void addToQuotaAndTileCounts(TileSet tileSet, Quota quotaDiff,
+            Collection<PageStatsPayload> tileCountDiffs) throws InterruptedException {
+        if (!buffering) {
+            delegate.addToQuotaAndTileCounts(tileSet, quotaDiff, tileCountDiffs);
+            return;
+        }
+        String tileSetId = tileSet.getId();
+        if (!tileSets.containsKey(tileSetId)) {
+            tileSets.put(tileSetId, tileSet);
+        }
+        long bytes = quotaDiff == null ? 0 : quotaDiff.getBytes().longValue();
+        Stripe stripe = getStripe(tileSetId);
+        synchronized (stripe) {
+            stripe.batch.addTileSet(tileSet);
+            if (bytes != 0) {
+                stripe.batch.addBytes(tileSetId, bytes);
+            }
+        }
+        if (bytes != 0) {
+            getUnappliedBytes(tileSetId).addAndGet(bytes);
+        }
+        if (tileCountDiffs != null) {
+            for (PageStatsPayload payload : tileCountDiffs) {
+                addPage(payload.getPage(), payload.getNumTiles(), 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Accumulates the hits, the returned future does not carry the updated page stats, as they
+     * are computed later
+     */
+    public Future<List<PageStats>> addHitsAndSetAccesTime(
+            Collection<PageStatsPayload> statsUpdates) {
+        if (!buffering) {
+            return delegate.addHitsAndSetAccesTime(statsUpdates);
+        }
+        for (PageStatsPayload payload : statsUpdates) {
+            addPage(payload.getPage(), 0, payload.getNumHits(), payload.getLastAccessTime());
+        }
+        return Futures.immediateFuture(Collections.<PageStats> emptyList());
+    }
+
+    public TilePage getLeastFrequentlyUsedPage(Set<String> layerNames) throws InterruptedException {
+        applyBuffered();
+        return delegate.getLeastFrequentlyUsedPage(layerNames);
+    }
+
+    public TilePage getLeastRecentlyUsedPage(Set<String> layerNames) throws InterruptedException {
+        applyBuffered();
+        return delegate.getLeastRecentlyUsedPage(layerNames);
+    }
+
+    public PageStats setTruncated(TilePage tilePage) throws InterruptedException {
+        applyBuffered();
+        return delegate.setTruncated(tilePage);
+    }
+
+    public void close() throws Exception {
+        stopBuffering();
+        delegate.close();
+    }
+
+    /**
+     * A lock protected batch, one for each stripe
+     */
+    static final class Stripe {
+        Batch batch = new Batch();
+    }
+
+    /**
+     * The updates accumulated for a set of tile pages and tile sets
+     */
+    static final class Batch {
+
+        final Map<PageKey, PageDelta> pages = new HashMap<PageKey, PageDelta>();
+
+        final Map<String, Long> bytes = new HashMap<String, Long>();
+
+        final Map<String, TileSet> tileSets = new HashMap<String, TileSet>();
+
+        boolean isEmpty() {
+            return pages.isEmpty() && bytes.isEmpty();
+        }
+
+        void addTileSet(TileSet tileSet) {
+            if (!tileSets.containsKey(tileSet.getId())) {
+                tileSets.put(tileSet.getId(), tileSet);
+            }
+        }
+
+        void addBytes(String tileSetId, long diff) {
+            Long current = bytes.get(tileSetId);
+            bytes.put(tileSetId, current == null ? diff : current + diff);
+        }
+
+        void addPage(PageKey key, int tiles, int hits, long lastAccess) {
+            PageDelta delta = pages.get(key);
+            if (delta == null) {
+                delta = new PageDelta();
+                pages.put(key, delta);
+            }
+            delta.tiles += tiles;
+            delta.hits += hits;
+            delta.lastAccess = Math.max(delta.lastAccess, lastAccess);
+        }
+
+        void merge(Batch other) {
+            for (TileSet tileSet : other.tileSets.values()) {
+                addTileSet(tileSet);
+            }
+            for (Map.Entry<String, Long> entry : other.bytes.entrySet()) {
+                addBytes(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<PageKey, PageDelta> entry : other.pages.entrySet()) {
+                PageDelta delta = entry.getValue();
+                addPage(entry.getKey(), delta.tiles, delta.hits, delta.lastAccess);
+            }
+        }
+
+        /**
+         * Writes the batch records, without the end marker
+         */
+        void write(DataOutputStream out) throws IOException {
+            for (TileSet tileSet : tileSets.values()) {
+                out.writeByte(TILE_SET);
+                out.writeUTF(tileSet.getLayerName());
+                out.writeUTF(tileSet.getGridsetId());
+                out.writeUTF(tileSet.getBlobFormat());
+                out.writeBoolean(tileSet.getParametersId() != null);
+                if (tileSet.getParametersId() != null) {
+                    out.writeUTF(tileSet.getParametersId());
+                }
+            }
+            for (Map.Entry<String, Long> entry : bytes.entrySet()) {
+                out.writeByte(QUOTA);
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            for (Map.Entry<PageKey, PageDelta> entry : pages.entrySet()) {
+                PageKey key = entry.getKey();
+                PageDelta delta = entry.getValue();
+                out.writeByte(PAGE);
+                out.writeUTF(key.tileSetId);
+                out.writeInt(key.x);
+                out.writeInt(key.y);
+                out.writeInt(key.z);
+                out.writeInt(delta.tiles);
+                out.writeInt(delta.hits);
+                out.writeLong(delta.lastAccess);
+            }
+        }
+    }
+
+    static final class PageKey {
+
+        final String tileSetId;
+
+        final int x;
+
+        final int y;
+
+        final int z;
+
+        PageKey(String tileSetId, int x, int y, int z) {
+            this.tileSetId = tileSetId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = tileSetId.hashCode();
+            result = 31 * result + x;
+            result = 31 * result + y;
+            result = 31 * result + z;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) obj;
+            return x == other.x && y == other.y && z == other.z
+                    && tileSetId.equals(other.tileSetId);
+        }
+    }
+
+    static final class PageDelta {
+
+        int tiles;
+
+        int hits;
+
+        long lastAccess;
+    }
+}
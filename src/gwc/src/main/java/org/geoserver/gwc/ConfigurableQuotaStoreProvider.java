@@ -7,6 +7,7 @@ package org.geoserver.gwc;
 
 import static org.geowebcache.diskquota.DiskQuotaMonitor.GWC_DISKQUOTA_DISABLED;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.logging.Level;
@@ -25,6 +26,7 @@ import org.geowebcache.diskquota.jdbc.JDBCConfiguration;
 import org.geowebcache.diskquota.jdbc.JDBCQuotaStoreFactory;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
 import org.geowebcache.layer.TileLayer;
+import org.geowebcache.storage.DefaultStorageFinder;
 import org.springframework.context.ApplicationContext;
 
 /**
@@ -37,6 +39,8 @@ import org.springframework.context.ApplicationContext;
 public class ConfigurableQuotaStoreProvider extends QuotaStoreProvider {
     
     static final Logger LOGGER = Logging.getLogger(ConfigurableQuotaStoreProvider.class);
+
+    static final String JOURNAL_DIRECTORY = "diskquota_journal";
     
     Exception exception;
     TilePageCalculator calculator;
@@ -83,6 +87,13 @@ public class ConfigurableQuotaStoreProvider extends QuotaStoreProvider {
             
             try {
                 store = getQuotaStoreByName(quotaStoreName);
+                if (BufferedQuotaStore.isEnabled()) {
+                    File journalDirectory = getJournalDirectory(quotaStoreName);
+                    if (journalDirectory != null) {
+                        stopBuffering();
+                        store = new BufferedQuotaStore(store, journalDirectory);
+                    }
+                }
                 exception = null;
             } catch(Exception e) {
                 LOGGER.log(Level.SEVERE, "Failed to get a quota store, " +
@@ -118,6 +129,49 @@ public class ConfigurableQuotaStoreProvider extends QuotaStoreProvider {
 
     }
 
+    /**
+     * Returns the directory of the {@link BufferedQuotaStore} journal, or null if the updates
+     * should not be buffered. The cache directory is used unless a node local one is configured,
+     * but not for the JDBC store, as its cache directory may be shared by a cluster.
+     */
+    private File getJournalDirectory(String quotaStoreName) {
+        File configured = BufferedQuotaStore.getConfiguredJournalDirectory();
+        if (configured != null) {
+            return configured;
+        }
+        if ("JDBC".equals(quotaStoreName)) {
+            LOGGER.info("Not buffering the JDBC disk quota updates, set "
+                    + BufferedQuotaStore.JOURNAL_DIRECTORY_PROPERTY
+                    + " to a node local directory to enable it");
+            return null;
+        }
+        DefaultStorageFinder finder = GeoServerExtensions.bean(DefaultStorageFinder.class,
+                applicationContext);
+        try {
+            return new File(finder.getDefaultPath(), JOURNAL_DIRECTORY);
+        } catch (ConfigurationException e) {
+            LOGGER.log(Level.WARNING, "Could not locate the cache directory, "
+                    + "not buffering the disk quota updates", e);
+            return null;
+        }
+    }
+
+    /**
+     * Makes sure the journal of the current store, if any, is no longer in use
+     */
+    private void stopBuffering() throws IOException {
+        if (this.store != null) {
+            QuotaStore current = ((ConfigurableQuotaStore) this.store).getStore();
+            if (current instanceof BufferedQuotaStore) {
+                try {
+                    ((BufferedQuotaStore) current).stopBuffering();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
     /**
      * The exception occurred during the last attempt to load the quota store, if any
      * @return
@@ -54,18 +54,27 @@ import org.geoserver.gwc.layer.CatalogStyleChangeListener;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
+import org.geoserver.gwc.seed.SeedingScheduler;
+import org.geoserver.gwc.seed.SeedingThrottle;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.EnviromentInjectionCallback;
+import org.geoserver.ows.Request;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.KvpMap;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.security.AccessLimits;
 import org.geoserver.security.CoverageAccessLimits;
 import org.geoserver.security.DataAccessLimits;
+import org.geoserver.security.OperationSecurityCallback;
 import org.geoserver.security.WMSAccessLimits;
 import org.geoserver.security.WrapperPolicy;
 import org.geoserver.security.decorators.SecuredLayerInfo;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
@@ -75,6 +84,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.ows.ServiceException;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
+import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.GeoWebCacheExtensions;
@@ -118,6 +128,7 @@ import org.geowebcache.storage.CompositeBlobStore;
 import org.geowebcache.storage.DefaultStorageFinder;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
 import org.geowebcache.storage.TileRange;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
@@ -168,6 +179,13 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
     static final Logger log = Logging.getLogger(GWC.class);
 
+    /**
+     * Pixels the dirty geometries are grown by when the symbol size of a style cannot be estimated
+     * 
+     * @see #getTruncateBuffer(String)
+     */
+    static final int DEFAULT_TRUNCATE_BUFFER = 32;
+
     /**
      * @see #getResponseEncoder(MimeType, RenderedImageMap)
      */
@@ -419,6 +437,161 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return intersectingBounds;
     }
 
+    /**
+     * Truncates the tiles touched by the given geometries, rather than all the tiles intersecting
+     * their bounds.
+     * <p>
+     * The geometries are grown by {@link #getTruncateBuffer(String)} pixels and the tiles they
+     * touch computed for each gridset and zoom level, then removed for all the cached styles and
+     * formats. The zoom levels where the geometries touch too many tiles are truncated by bounds.
+     * </p>
+     * 
+     * @param layerName the name of the layer to truncate
+     * @param dirtyArea the geometries, in the declared CRS of the layer
+     */
+    public void truncate(final String layerName, final Geometry dirtyArea)
+            throws GeoWebCacheException {
+
+        final TileLayer tileLayer = tld.getTileLayer(layerName);
+        final CoordinateReferenceSystem declaredCrs = getDeclaredCrs(layerName);
+        final int buffer = getTruncateBuffer(layerName);
+        final Set<String> styleNames = getCachedStyles(layerName);
+        if (styleNames.size() == 0) {
+            styleNames.add("");
+        }
+        final String defaultStyle = tileLayer.getStyles();
+
+        for (String gridSetId : tileLayer.getGridSubsets()) {
+            final GridSubset gridSubset = tileLayer.getGridSubset(gridSetId);
+            final Geometry gridSetArea;
+            try {
+                SRS srs = gridSubset.getSRS();
+                CoordinateReferenceSystem gridSetCrs = CRS.decode("EPSG:" + srs.getNumber(), true);
+                MathTransform tx = CRS.findMathTransform(declaredCrs, gridSetCrs, true);
+                gridSetArea = JTS.transform(dirtyArea, tx);
+            } catch (Exception e) {
+                log.warning("Can't truncate layer " + layerName
+                        + ": error transforming the dirty area to layer gridset " + gridSetId
+                        + ": " + e.getMessage());
+                continue;
+            }
+
+            // the tile rectangles by zoom level, shared by all styles and formats
+            final GeometryTileCover cover = new GeometryTileCover(gridSubset, gridSetArea, buffer);
+            final Map<Integer, List<long[]>> rectangles = new HashMap<Integer, List<long[]>>();
+            for (int z = gridSubset.getZoomStart(); z <= gridSubset.getZoomStop(); z++) {
+                List<long[]> zoomRectangles = cover.getRectangles(z);
+                if (zoomRectangles == null) {
+                    zoomRectangles = Collections.singletonList(cover.getCoverage(z));
+                }
+                if (!zoomRectangles.isEmpty()) {
+                    rectangles.put(z, zoomRectangles);
+                }
+            }
+            if (rectangles.isEmpty()) {
+                continue;
+            }
+
+            for (String style : styleNames) {
+                Map<String, String> parameters;
+                if (style.length() == 0 || style.equals(defaultStyle)) {
+                    parameters = null;
+                } else {
+                    parameters = Collections.singletonMap("STYLES", style);
+                }
+                for (MimeType mime : tileLayer.getMimeTypes()) {
+                    truncate(tileLayer, gridSubset, rectangles, mime.getFormat(), parameters);
+                }
+            }
+        }
+    }
+
+    private void truncate(final TileLayer layer, final GridSubset gridSubset,
+            final Map<Integer, List<long[]>> rectangles, final String formatName,
+            final Map<String, String> parameters) throws GeoWebCacheException {
+        // resolve the parameters and mime type the same way the truncate tasks do
+        SeedRequest req = new SeedRequest(layer.getName(), null, gridSubset.getName(), 1,
+                gridSubset.getZoomStart(), gridSubset.getZoomStop(), formatName, TRUNCATE,
+                parameters);
+        final TileRange layerRange = TileBreeder.createTileRange(req, layer);
+        final String gridSetId = gridSubset.getName();
+
+        try {
+            for (Map.Entry<Integer, List<long[]>> entry : rectangles.entrySet()) {
+                final int z = entry.getKey();
+                for (long[] r : entry.getValue()) {
+                    if (r[0] == r[2] && r[1] == r[3]) {
+                        storageBroker.delete(TileObject.createQueryTileObject(layer.getName(),
+                                new long[] { r[0], r[1], z }, gridSetId, formatName,
+                                layerRange.getParameters()));
+                    } else {
+                        long[][] rangeBounds = new long[z + 1][];
+                        rangeBounds[z] = new long[] { r[0], r[1], r[2], r[3], z };
+                        storageBroker.delete(new TileRange(layer.getName(), gridSetId, z, z,
+                                rangeBounds, layerRange.getMimeType(), layerRange
+                                        .getParameters()));
+                    }
+                }
+            }
+        } catch (StorageException e) {
+            throw propagate(getRootCause(e));
+        }
+    }
+
+    /**
+     * Returns the pixels the geometries of a layer are grown by when truncating the tiles they
+     * touch: the WMS buffer of the layer if set, or else the max symbol size of its styles, at
+     * least {@link #DEFAULT_TRUNCATE_BUFFER} if the size of some symbols cannot be estimated, e.g.
+     * when depending on attributes.
+     */
+    int getTruncateBuffer(final String layerName) {
+        final List<LayerInfo> layers = new ArrayList<LayerInfo>();
+        final List<StyleInfo> styles = new ArrayList<StyleInfo>();
+        LayerInfo layerInfo = getLayerInfoByName(layerName);
+        if (layerInfo != null) {
+            layers.add(layerInfo);
+        } else {
+            LayerGroupInfo layerGroup = getLayerGroupByName(layerName);
+            if (layerGroup != null) {
+                layers.addAll(layerGroup.layers());
+                styles.addAll(layerGroup.styles());
+            }
+        }
+
+        int layerBuffer = 0;
+        for (LayerInfo layer : layers) {
+            Integer buffer = layer.getMetadata().get(LayerInfo.BUFFER, Integer.class);
+            if (buffer != null) {
+                layerBuffer = Math.max(layerBuffer, buffer);
+            }
+            styles.add(layer.getDefaultStyle());
+            styles.addAll(layer.getStyles());
+        }
+        if (layerBuffer > 0) {
+            return layerBuffer;
+        }
+
+        MetaBufferEstimator estimator = new MetaBufferEstimator();
+        boolean accurate = true;
+        for (StyleInfo style : styles) {
+            if (style == null) {
+                continue;
+            }
+            try {
+                style.getStyle().accept(estimator);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Can't estimate the symbol size of style " + style.getName(),
+                        e);
+                accurate = false;
+            }
+        }
+        int buffer = estimator.getBuffer();
+        if (!accurate || !estimator.isEstimateAccurate()) {
+            buffer = Math.max(buffer, DEFAULT_TRUNCATE_BUFFER);
+        }
+        return buffer;
+    }
+
     /**
      * @param layerName
      *            name of the layer to truncate, non {@code null}
@@ -1224,6 +1397,49 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return new ByteArrayResource(resp.getBytes());
     }
     
+    /**
+     * Runs a GetMap request straight against the WMS service, skipping the KVP parsing and the
+     * {@link Dispatcher} round trip of {@link #dispatchOwsRequest(Map, Cookie[])}.
+     * <p>
+     * The service access rules are checked and the current user is injected in the env function
+     * as the dispatcher callbacks would do, the caller is responsible for clearing the env function
+     * values and the {@link RasterCleaner} once the map is encoded. Control flow and monitoring
+     * are not applied, on purpose, seeding is throttled on its own.
+     * </p>
+     *
+     * @param request
+     *            a fully parsed GetMap request
+     * @return the rendered map
+     */
+    public WebMap getMap(final GetMapRequest request) throws Exception {
+        Request owsRequest = new Request();
+        owsRequest.setService("WMS");
+        owsRequest.setVersion(request.getVersion());
+        owsRequest.setRequest("GetMap");
+        owsRequest.setKvp(new KvpMap());
+        owsRequest.setRawKvp(request.getRawKvp());
+        OperationSecurityCallback security = GeoServerExtensions
+                .bean(OperationSecurityCallback.class);
+        if (security != null) {
+            security.operationDispatched(owsRequest, null);
+        }
+        new EnviromentInjectionCallback().init(owsRequest);
+
+        // the target, not the proxy, the seeding interceptor would swallow the map
+        WebMapService wms = (WebMapService) GeoServerExtensions.bean("wmsServiceTarget");
+        return wms.getMap(request);
+    }
+
+    /**
+     * @return the throttle of the seeding tasks, or {@code null} if there is no
+     *         {@link SeedingScheduler}
+     */
+    public SeedingThrottle getSeedingThrottle() {
+        SeedingScheduler scheduler = GeoServerExtensions.bean(SeedingScheduler.class,
+                applicationContext);
+        return scheduler == null ? null : scheduler.getThrottle();
+    }
+
     public void proxyOwsRequest(ConveyorTile tile) throws Exception {
         HttpServletRequest actualRequest = tile.servletReq;
         
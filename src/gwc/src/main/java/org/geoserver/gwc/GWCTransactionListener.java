@@ -29,22 +29,29 @@ import org.geoserver.wfs.TransactionEventType;
 import org.geoserver.wfs.TransactionPlugin;
 import org.geoserver.wfs.WFSException;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
-import org.geowebcache.GeoWebCacheException;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
 
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
 /**
  * Listens to transactions (so far only issued by WFS) and truncates the cache for the affected area
  * of the layers involved in the transaction.
  * <p>
- * A Spring bean singleton of this class needs to be declared in order for GeoServer transactions to
- * pick it up automatically and forward transaction events to it.
+ * The affected area is made of the geometries of the inserted, updated and deleted features, only
+ * the tiles they touch are truncated, in the background, by the {@link GeometryTruncator}. The
+ * bounds of the affected features are used instead when a single change affects more than
+ * {@link #MAX_GEOMETRIES} features.
  * </p>
  * <p>
- * TODO: upon deletion, only truncate if feature count > 0
+ * A Spring bean singleton of this class needs to be declared in order for GeoServer transactions to
+ * pick it up automatically and forward transaction events to it.
  * </p>
  * 
  * @author Arne Kepp
@@ -58,13 +65,25 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     final private GWC gwc;
 
+    final private GeometryTruncator truncator;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
+    /**
+     * Max features of a change whose geometries are collected, past it the bounds of the features
+     * are used
+     */
+    static final int MAX_GEOMETRIES = 1000;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
     /**
      * @param gwc
+     * @param truncator
      */
-    public GWCTransactionListener(final GWC gwc) {
+    public GWCTransactionListener(final GWC gwc, final GeometryTruncator truncator) {
         this.gwc = gwc;
+        this.truncator = truncator;
     }
 
     /**
@@ -90,7 +109,7 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     /**
      * If transaction's succeeded then truncate the affected layers at the transaction affected
-     * bounds
+     * geometries
      * 
      * @see org.geoserver.wfs.TransactionPlugin#afterTransaction
      */
@@ -109,13 +128,13 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     private void afterTransactionInternal(final TransactionType transaction, boolean committed) {
 
-        final Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
+        final Map<String, List<Geometry>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
         if (byLayerDirtyRegions.isEmpty()) {
             return;
         }
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
-            List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
-            ReferencedEnvelope dirtyRegion;
+            List<Geometry> dirtyList = byLayerDirtyRegions.get(tileLayerName);
+            Geometry dirtyRegion;
             try {
                 dirtyRegion = merge(tileLayerName, dirtyList);
             } catch (Exception e) {
@@ -125,28 +144,26 @@ public class GWCTransactionListener implements TransactionPlugin {
             if (dirtyRegion == null) {
                 continue;
             }
-            try {
-                gwc.truncate(tileLayerName, dirtyRegion);
-            } catch (GeoWebCacheException e) {
-                log.warning("Error truncating tile layer " + tileLayerName
-                        + " for transaction affected bounds " + dirtyRegion);
-            }
+            truncator.truncate(tileLayerName, dirtyRegion);
         }
     }
 
-    private ReferencedEnvelope merge(final String tileLayerName,
-            final List<ReferencedEnvelope> dirtyList) throws TransformException, FactoryException {
+    private Geometry merge(final String tileLayerName, final List<Geometry> dirtyList)
+            throws TransformException, FactoryException {
         if (dirtyList.size() == 0) {
             return null;
         }
 
         final CoordinateReferenceSystem declaredCrs = gwc.getDeclaredCrs(tileLayerName);
-        ReferencedEnvelope merged = new ReferencedEnvelope(declaredCrs);
-        for (ReferencedEnvelope env : dirtyList) {
-            ReferencedEnvelope transformedDirtyRegion = env.transform(declaredCrs, true, 1000);
-            merged.expandToInclude(transformedDirtyRegion);
+        List<Geometry> transformed = new ArrayList<Geometry>(dirtyList.size());
+        for (Geometry dirty : dirtyList) {
+            CoordinateReferenceSystem crs = (CoordinateReferenceSystem) dirty.getUserData();
+            if (crs != null && !CRS.equalsIgnoreMetadata(crs, declaredCrs)) {
+                dirty = JTS.transform(dirty, CRS.findMathTransform(crs, declaredCrs, true));
+            }
+            transformed.add(dirty);
         }
-        return merged;
+        return geometryFactory.buildGeometry(transformed);
     }
 
     /**
@@ -158,7 +175,7 @@ public class GWCTransactionListener implements TransactionPlugin {
     }
 
     /**
-     * Collects the per TileLayer affected bounds
+     * Collects the per TileLayer affected geometries
      * 
      * @see org.geoserver.wfs.TransactionListener#dataStoreChange(org.geoserver.wfs.TransactionEvent)
      */
@@ -194,40 +211,74 @@ public class GWCTransactionListener implements TransactionPlugin {
         }
 
         final SimpleFeatureCollection affectedFeatures = event.getAffectedFeatures();
-        final ReferencedEnvelope affectedBounds = affectedFeatures.getBounds();
+        final Geometry affectedArea = getAffectedArea(affectedFeatures);
+        if (affectedArea.isEmpty()) {
+            return;
+        }
 
         final TransactionType transaction = event.getRequest();
 
         for (String tileLayerName : affectedTileLayers) {
-            addLayerDirtyRegion(transaction, tileLayerName, affectedBounds);
+            addLayerDirtyRegion(transaction, tileLayerName, affectedArea);
+        }
+    }
+
+    /**
+     * Returns the geometries of the features, or their bounds if there are too many of them, with
+     * their CRS as user data
+     */
+    private Geometry getAffectedArea(final SimpleFeatureCollection affectedFeatures) {
+        final CoordinateReferenceSystem crs = affectedFeatures.getSchema()
+                .getCoordinateReferenceSystem();
+        final List<Geometry> geometries = new ArrayList<Geometry>();
+        Geometry area = null;
+        SimpleFeatureIterator it = affectedFeatures.features();
+        try {
+            while (it.hasNext()) {
+                if (geometries.size() == MAX_GEOMETRIES) {
+                    area = JTS.toGeometry(affectedFeatures.getBounds());
+                    break;
+                }
+                Geometry geometry = (Geometry) it.next().getDefaultGeometry();
+                if (geometry != null) {
+                    geometries.add(geometry);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (area == null) {
+            area = geometryFactory.createGeometryCollection(geometries
+                    .toArray(new Geometry[geometries.size()]));
         }
+        area.setUserData(crs);
+        return area;
     }
 
     @SuppressWarnings("unchecked")
-    private Map<String, List<ReferencedEnvelope>> getByLayerDirtyRegions(
-            final TransactionType transaction) {
+    private Map<String, List<Geometry>> getByLayerDirtyRegions(final TransactionType transaction) {
 
         final Map<Object, Object> extendedProperties = transaction.getExtendedProperties();
-        Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions;
-        byLayerDirtyRegions = (Map<String, List<ReferencedEnvelope>>) extendedProperties
+        Map<String, List<Geometry>> byLayerDirtyRegions;
+        byLayerDirtyRegions = (Map<String, List<Geometry>>) extendedProperties
                 .get(GWC_TRANSACTION_INFO_PLACEHOLDER);
         if (byLayerDirtyRegions == null) {
-            byLayerDirtyRegions = new HashMap<String, List<ReferencedEnvelope>>();
+            byLayerDirtyRegions = new HashMap<String, List<Geometry>>();
             extendedProperties.put(GWC_TRANSACTION_INFO_PLACEHOLDER, byLayerDirtyRegions);
         }
         return byLayerDirtyRegions;
     }
 
     private void addLayerDirtyRegion(final TransactionType transaction, final String tileLayerName,
-            final ReferencedEnvelope affectedBounds) {
+            final Geometry affectedArea) {
 
-        Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
+        Map<String, List<Geometry>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
 
-        List<ReferencedEnvelope> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
+        List<Geometry> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
         if (layerDirtyRegion == null) {
-            layerDirtyRegion = new ArrayList<ReferencedEnvelope>(2);
+            layerDirtyRegion = new ArrayList<Geometry>(2);
             byLayerDirtyRegions.put(tileLayerName, layerDirtyRegion);
         }
-        layerDirtyRegion.add(affectedBounds);
+        layerDirtyRegion.add(affectedArea);
     }
 }
@@ -0,0 +1,159 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.geometry.jts.JTS;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Computes the tiles of a grid subset touched by a set of geometries, each geometry being grown by
+ * a buffer in pixels accounting for the size of the symbols used to paint it.
+ * <p>
+ * The tiles of a zoom level are returned as a list of rectangles, found by splitting the tile
+ * range covering the geometries in halves until each half is either outside of the geometries,
+ * fully inside a geometry, or a single tile. A long diagonal line thus results in a strip of single
+ * tiles, and a polygon in a few large rectangles for its inside plus single tiles along its
+ * boundary.
+ * </p>
+ */
+class GeometryTileCover {
+
+    /**
+     * Max rectangles computed for a zoom level, past it the whole tile range covering the
+     * geometries is used instead
+     */
+    static final int MAX_RECTANGLES = 10000;
+
+    private final GridSubset gridSubset;
+
+    private final int buffer;
+
+    private final STRtree index = new STRtree();
+
+    private final Envelope bounds = new Envelope();
+
+    /**
+     * @param gridSubset the grid subset to compute the tiles of
+     * @param area the geometries, in the grid subset CRS
+     * @param buffer the pixels to grow the geometries by
+     */
+    GeometryTileCover(GridSubset gridSubset, Geometry area, int buffer) {
+        this.gridSubset = gridSubset;
+        this.buffer = buffer;
+        add(area);
+    }
+
+    private void add(Geometry area) {
+        // heterogeneous collections do not support the spatial predicates, index their parts
+        if (area.getClass().equals(GeometryCollection.class)) {
+            for (int i = 0; i < area.getNumGeometries(); i++) {
+                add(area.getGeometryN(i));
+            }
+        } else if (!area.isEmpty()) {
+            index.insert(area.getEnvelopeInternal(), PreparedGeometryFactory.prepare(area));
+            bounds.expandToInclude(area.getEnvelopeInternal());
+        }
+    }
+
+    /**
+     * Returns the tiles touched by the geometries at the given zoom level as a list of
+     * <code>{minx, miny, maxx, maxy}</code> tile rectangles, possibly empty, or {@code null} if
+     * there are more than {@link #MAX_RECTANGLES}
+     */
+    List<long[]> getRectangles(int zoomLevel) {
+        long[] coverage = getCoverage(zoomLevel);
+        if (coverage == null) {
+            return Collections.emptyList();
+        }
+        double distance = getDistance(zoomLevel);
+        List<long[]> rectangles = new ArrayList<long[]>();
+        if (!collect(coverage[0], coverage[1], coverage[2], coverage[3], zoomLevel, distance,
+                rectangles)) {
+            return null;
+        }
+        return rectangles;
+    }
+
+    /**
+     * Returns the tile range covering the buffered geometries at the given zoom level as
+     * <code>{minx, miny, maxx, maxy, z}</code>, or {@code null} if they are outside of the grid
+     * subset
+     */
+    long[] getCoverage(int zoomLevel) {
+        if (bounds.isNull()) {
+            return null;
+        }
+        Envelope env = new Envelope(bounds);
+        env.expandBy(getDistance(zoomLevel));
+        BoundingBox bbox = new BoundingBox(env.getMinX(), env.getMinY(), env.getMaxX(),
+                env.getMaxY());
+        long[] coverage = gridSubset.getCoverageIntersection(zoomLevel, bbox);
+        if (coverage == null || coverage[0] > coverage[2] || coverage[1] > coverage[3]) {
+            return null;
+        }
+        return coverage;
+    }
+
+    private double getDistance(int zoomLevel) {
+        return buffer * gridSubset.getGridSet().getGrid(zoomLevel).getResolution();
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean collect(long minx, long miny, long maxx, long maxy, int z, double distance,
+            List<long[]> rectangles) {
+        BoundingBox lower = gridSubset.boundsFromIndex(new long[] { minx, miny, z });
+        BoundingBox upper = gridSubset.boundsFromIndex(new long[] { maxx, maxy, z });
+        Envelope env = new Envelope(lower.getMinX(), upper.getMaxX(), lower.getMinY(),
+                upper.getMaxY());
+        env.expandBy(distance);
+
+        List<PreparedGeometry> candidates = index.query(env);
+        if (candidates.isEmpty()) {
+            return true;
+        }
+        final boolean single = minx == maxx && miny == maxy;
+        final Polygon rect = JTS.toGeometry(env);
+        boolean intersects = false;
+        boolean covered = false;
+        for (PreparedGeometry candidate : candidates) {
+            if (candidate.intersects(rect)) {
+                intersects = true;
+                if (single || candidate.contains(rect)) {
+                    covered = true;
+                    break;
+                }
+            }
+        }
+        if (!intersects) {
+            return true;
+        }
+        if (covered) {
+            rectangles.add(new long[] { minx, miny, maxx, maxy });
+            return rectangles.size() <= MAX_RECTANGLES;
+        }
+        if (maxx - minx >= maxy - miny) {
+            long mid = (minx + maxx) / 2;
+            return collect(minx, miny, mid, maxy, z, distance, rectangles)
+                    && collect(mid + 1, miny, maxx, maxy, z, distance, rectangles);
+        } else {
+            long mid = (miny + maxy) / 2;
+            return collect(minx, miny, maxx, mid, z, distance, rectangles)
+                    && collect(minx, mid + 1, maxx, maxy, z, distance, rectangles);
+        }
+    }
+}
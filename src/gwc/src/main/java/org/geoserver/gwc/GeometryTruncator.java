@@ -0,0 +1,138 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Truncates the tiles touched by edited geometries in the background, so that transactions do not
+ * wait for the truncation.
+ * <p>
+ * The geometries queued for the same layer within {@value #DELAY_PROPERTY} milliseconds (1000 by
+ * default) are truncated together by {@link GWC#truncate(String, Geometry)}, so that a burst of
+ * edits results in a single pass over the cache.
+ * </p>
+ */
+public class GeometryTruncator implements DisposableBean {
+
+    private static final Logger LOGGER = Logging.getLogger(GeometryTruncator.class);
+
+    public static final String DELAY_PROPERTY = "org.geoserver.gwc.GeometryTruncator.delay";
+
+    static final long DEFAULT_DELAY = 1000;
+
+    private final GWC gwc;
+
+    private final long delay;
+
+    private final ScheduledExecutorService executor;
+
+    /** The geometries waiting to be truncated, by layer, guarded by itself */
+    private final Map<String, List<Geometry>> pending = new LinkedHashMap<String, List<Geometry>>();
+
+    private boolean scheduled;
+
+    public GeometryTruncator(GWC gwc) {
+        this(gwc, getDelay());
+    }
+
+    GeometryTruncator(GWC gwc, long delay) {
+        this.gwc = gwc;
+        this.delay = delay;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GWC geometry truncator");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    static long getDelay() {
+        String value = GeoServerExtensions.getProperty(DELAY_PROPERTY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + DELAY_PROPERTY + ": " + value + ", using "
+                        + DEFAULT_DELAY);
+            }
+        }
+        return DEFAULT_DELAY;
+    }
+
+    /**
+     * Queues the truncation of the tiles touched by the given geometries
+     *
+     * @param layerName the name of the tile layer
+     * @param dirtyArea the geometries, in the declared CRS of the layer
+     */
+    public void truncate(final String layerName, final Geometry dirtyArea) {
+        synchronized (pending) {
+            List<Geometry> geometries = pending.get(layerName);
+            if (geometries == null) {
+                geometries = new ArrayList<Geometry>();
+                pending.put(layerName, geometries);
+            }
+            geometries.add(dirtyArea);
+            if (!scheduled) {
+                scheduled = true;
+                executor.schedule(new Runnable() {
+
+                    public void run() {
+                        flush();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Truncates the queued geometries
+     */
+    public void flush() {
+        Map<String, List<Geometry>> batch;
+        synchronized (pending) {
+            batch = new LinkedHashMap<String, List<Geometry>>(pending);
+            pending.clear();
+            scheduled = false;
+        }
+        for (Map.Entry<String, List<Geometry>> entry : batch.entrySet()) {
+            String layerName = entry.getKey();
+            List<Geometry> geometries = entry.getValue();
+            Geometry dirtyArea = geometries.size() == 1 ? geometries.get(0)
+                    : new GeometryFactory().buildGeometry(geometries);
+            try {
+                gwc.truncate(layerName, dirtyArea);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error truncating tile layer " + layerName
+                        + " for the transaction affected geometries", e);
+            }
+        }
+    }
+
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+        // do not leave stale tiles behind
+        flush();
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,22 +28,33 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.PublishedType;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
+import org.geoserver.gwc.seed.SeedingThrottle;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.util.KvpMap;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMap;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.config.ConfigurationException;
@@ -90,6 +102,29 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
     public static final ThreadLocal<WebMap> WEB_MAP = new ThreadLocal<WebMap>();
 
+    /**
+     * Set to false to send the seeding GetMap requests through the OWS dispatcher, like the
+     * interactive ones
+     */
+    public static final String DIRECT_GETMAP_PROPERTY = "org.geoserver.gwc.layer.GeoServerTileLayer.directGetMap";
+
+    static final boolean DIRECT_GETMAP = !"false".equalsIgnoreCase(GeoServerExtensions
+            .getProperty(DIRECT_GETMAP_PROPERTY));
+
+    /**
+     * The only GetMap parameters the direct path handles, anything else coming from the parameter
+     * filters requires the full KVP parsing
+     */
+    static final Set<String> DIRECT_GETMAP_PARAMS = new HashSet<String>(Arrays.asList("SERVICE",
+            "VERSION", "REQUEST", "LAYERS", "SRS", "FORMAT", "WIDTH", "HEIGHT", "BBOX",
+            "EXCEPTIONS", "STYLES", "TRANSPARENT", GWC_SEED_INTERCEPT_TOKEN));
+
+    /**
+     * The styles already checked against the layer attributes, by name, the empty string standing
+     * for the default style
+     */
+    private final Map<String, Style> checkedStyles = new ConcurrentHashMap<String, Style>();
+
     private String configErrorMessage;
 
     private Map<String, GridSubset> subSets;
@@ -581,6 +616,12 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
                 lock.release();
             }
             metaTile.dispose();
+            if (isSeeding(tile)) {
+                // no dispatcher cleans up after seeding threads, the images queued while encoding
+                // the meta tile and the env values would pile up in their thread locals
+                RasterCleaner.dispose();
+                EnvFunction.clearLocalValues();
+            }
         }
 
 
@@ -617,6 +658,15 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             throws Exception {
 
         Map<String, String> params = buildGetMap(tile, metaTile);
+        if (DIRECT_GETMAP && isSeeding(tile)) {
+            // seeding, no outer request to run through the dispatcher
+            WMS wms = WMS.get();
+            GetMapRequest request = wms == null ? null : buildDirectGetMap(wms, params, metaTile);
+            if (request != null) {
+                return GWC.get().getMap(request);
+            }
+        }
+
         WebMap map;
         try {
             HttpServletRequest actualRequest = tile.servletReq;
@@ -634,6 +684,115 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return map;
     }
 
+    /**
+     * Whether the tile is requested by a seeding thread, outside of any OWS request
+     */
+    private boolean isSeeding(ConveyorTile tile) {
+        return tile.servletReq == null && Dispatcher.REQUEST.get() == null;
+    }
+
+    /**
+     * Builds the GetMap request for a (meta)tile of a plain vector or raster layer straight from
+     * the tile parameters, the way {@link GetMapKvpRequestReader} would parse them.
+     *
+     * @return the request, or {@code null} if it needs the full KVP parsing: layer groups,
+     *         cascaded layers, dimensions, parameter filters other than the style
+     */
+    @SuppressWarnings("unchecked")
+    GetMapRequest buildDirectGetMap(final WMS wms, final Map<String, String> params,
+            final MetaTile metaTile) throws Exception {
+        if (!DIRECT_GETMAP_PARAMS.containsAll(params.keySet())) {
+            return null;
+        }
+        // let the dispatcher report the disabled service
+        if (!wms.getServiceInfo().isEnabled()) {
+            return null;
+        }
+        PublishedInfo published = getPublishedInfo();
+        if (!(published instanceof LayerInfo)) {
+            return null;
+        }
+        // look it up again through the secured catalog, as the dispatched request would
+        final LayerInfo layer = wms.getCatalog().getLayer(published.getId());
+        final PublishedType type = layer == null ? null : layer.getType();
+        if ((type != PublishedType.VECTOR && type != PublishedType.RASTER)
+                || hasDimensions(layer.getResource())) {
+            return null;
+        }
+        String styleName = params.get("STYLES") == null ? "" : params.get("STYLES").trim();
+        if (styleName.indexOf(',') >= 0) {
+            return null;
+        }
+
+        MapLayerInfo mapLayer = new MapLayerInfo(layer);
+        Style style = getCheckedStyle(wms, layer, mapLayer, styleName);
+
+        GetMapRequest request = new GetMapRequest();
+        request.setRequest("GetMap");
+        request.setVersion("1.1.1");
+        request.setGet(true);
+        request.setRawKvp(new KvpMap(params));
+        String srs = params.get("SRS");
+        request.setSRS(srs);
+        request.setCrs(CRS.decode(srs));
+        BoundingBox bbox = metaTile.getMetaTileBounds();
+        request.setBbox(new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox
+                .getMaxY()));
+        request.setWidth(metaTile.getMetaTileWidth());
+        request.setHeight(metaTile.getMetaTileHeight());
+        request.setFormat(params.get("FORMAT"));
+        // the parameter filters can override the transparency requested by the seeding
+        String transparent = params.get("TRANSPARENT");
+        request.setTransparent(transparent == null || Boolean.parseBoolean(transparent.trim()));
+        request.setExceptions(params.get("EXCEPTIONS"));
+        request.setLayers(Collections.singletonList(mapLayer));
+        request.setStyles(Collections.singletonList(style));
+        return request;
+    }
+
+    private boolean hasDimensions(ResourceInfo resource) {
+        MetadataMap metadata = resource.getMetadata();
+        for (String key : new String[] { ResourceInfo.TIME, ResourceInfo.ELEVATION }) {
+            DimensionInfo dimension = metadata.get(key, DimensionInfo.class);
+            if (dimension != null && dimension.isEnabled()) {
+                return true;
+            }
+        }
+        for (String key : metadata.keySet()) {
+            if (key.startsWith(ResourceInfo.CUSTOM_DIMENSION_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves the requested style, checking it can be applied to the layer only the first time
+     * it's used, or after it has been reloaded
+     */
+    private Style getCheckedStyle(WMS wms, LayerInfo layer, MapLayerInfo mapLayer,
+            String styleName) throws IOException {
+        Style style;
+        if (styleName.isEmpty()) {
+            StyleInfo defaultStyle = layer.getDefaultStyle();
+            style = defaultStyle == null ? null : defaultStyle.getStyle();
+            if (style == null) {
+                throw new ServiceException("Could not find a default style for "
+                        + mapLayer.getName(), "NoDefaultStyle");
+            }
+        } else {
+            style = wms.getStyleByName(styleName);
+            if (style == null) {
+                throw new ServiceException("No such style: " + styleName, "StyleNotDefined");
+            }
+        }
+        if (checkedStyles.get(styleName) != style) {
+            GetMapKvpRequestReader.checkStyle(style, mapLayer);
+            checkedStyles.put(styleName, style);
+        }
+        return style;
+    }
+
     private GeoServerMetaTile createMetaTile(ConveyorTile tile, final int metaX, final int metaY) {
         GeoServerMetaTile metaTile;
 
@@ -761,7 +920,22 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         if (!tile.getMimeType().supportsTiling()) {
             metaX = metaY = 1;
         }
-        getMetatilingReponse(tile, tryCache, metaX, metaY);
+        SeedingThrottle throttle = GWC.get().getSeedingThrottle();
+        if (throttle == null) {
+            getMetatilingReponse(tile, tryCache, metaX, metaY);
+            return;
+        }
+        try {
+            throttle.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException("Interrupted while waiting to seed " + tile);
+        }
+        try {
+            getMetatilingReponse(tile, tryCache, metaX, metaY);
+        } finally {
+            throttle.release();
+        }
     }
 
     /**
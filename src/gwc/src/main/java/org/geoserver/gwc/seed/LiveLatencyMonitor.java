@@ -0,0 +1,64 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+
+/**
+ * Measures the latency of the live OWS requests, from their arrival in the dispatcher to the end
+ * of the response, so including the time spent waiting in the control-flow queues. Nested requests
+ * and the requests issued by the seeding threads are not measured.
+ * <p>
+ * The {@link SeedingScheduler} reads the average latency of the requests completed in each
+ * interval with {@link #sample()}.
+ * </p>
+ */
+public class LiveLatencyMonitor extends AbstractDispatcherCallback {
+
+    /** Start time and nesting depth of the request being run by the current thread */
+    static final ThreadLocal<long[]> REQUEST = new ThreadLocal<long[]>();
+
+    final AtomicLong time = new AtomicLong();
+
+    final AtomicLong count = new AtomicLong();
+
+    @Override
+    public Request init(Request request) {
+        long[] current = REQUEST.get();
+        if (current != null) {
+            current[1]++;
+        } else if (!SeedingThrottle.isSeeding()) {
+            REQUEST.set(new long[] { System.nanoTime(), 1 });
+        }
+        return request;
+    }
+
+    @Override
+    public void finished(Request request) {
+        long[] current = REQUEST.get();
+        if (current != null && --current[1] == 0) {
+            REQUEST.remove();
+            record(System.nanoTime() - current[0]);
+        }
+    }
+
+    void record(long nanos) {
+        time.addAndGet(nanos);
+        count.incrementAndGet();
+    }
+
+    /**
+     * Returns the average latency in milliseconds of the requests completed since the last call,
+     * or zero if there were none
+     */
+    public double sample() {
+        long n = count.getAndSet(0);
+        long t = time.getAndSet(0);
+        return n == 0 ? 0 : t / 1e6 / n;
+    }
+}
@@ -0,0 +1,237 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.GWCTask.TYPE;
+
+/**
+ * A seed, reseed or truncate job run by the {@link SeedingScheduler} one zoom level at a time.
+ * <p>
+ * The checkpoint of the job is the next zoom level to run, the levels before it are complete,
+ * along with the state of the job, so that the failed ones are reported but not run again.
+ * </p>
+ */
+public class SeedJob {
+
+    /**
+     * The states of a job
+     */
+    public enum State {
+        RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    static final String PARAMETER_PREFIX = "parameter.";
+
+    long id;
+
+    final String layerName;
+
+    final String gridSetId;
+
+    final String format;
+
+    final TYPE type;
+
+    final int zoomStart;
+
+    final int zoomStop;
+
+    final int threadCount;
+
+    final BoundingBox bounds;
+
+    final Map<String, String> parameters;
+
+    /** The zoom level being run, or to run next */
+    int zoom;
+
+    /** The tiles done in the completed zoom levels */
+    long tilesDone;
+
+    long tilesTotal;
+
+    volatile State state = State.RUNNING;
+
+    volatile String message;
+
+    /** The tasks running the current zoom level */
+    volatile GWCTask[] tasks;
+
+    /** Time and tiles done when the job was started or resumed, used to compute the rate */
+    long startTime = System.currentTimeMillis();
+
+    long startTiles;
+
+    public SeedJob(String layerName, String gridSetId, String format, TYPE type, int zoomStart,
+            int zoomStop, int threadCount, BoundingBox bounds, Map<String, String> parameters) {
+        this.layerName = layerName;
+        this.gridSetId = gridSetId;
+        this.format = format;
+        this.type = type;
+        this.zoomStart = zoomStart;
+        this.zoomStop = zoomStop;
+        this.threadCount = Math.max(1, threadCount);
+        this.bounds = bounds;
+        this.parameters = parameters == null ? Collections.<String, String> emptyMap()
+                : parameters;
+        this.zoom = zoomStart;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public String getGridSetId() {
+        return gridSetId;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public TYPE getType() {
+        return type;
+    }
+
+    public int getZoomStart() {
+        return zoomStart;
+    }
+
+    public int getZoomStop() {
+        return zoomStop;
+    }
+
+    public synchronized int getZoom() {
+        return zoom;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the reason of the failure of the job, if any
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the tiles done so far, including those of the zoom level being run
+     */
+    public synchronized long getTilesDone() {
+        long done = tilesDone;
+        GWCTask[] running = tasks;
+        if (running != null) {
+            for (GWCTask task : running) {
+                done += task.getTilesDone();
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Returns the estimated number of tiles of the job
+     */
+    public long getTilesTotal() {
+        return tilesTotal;
+    }
+
+    /**
+     * Returns the tiles done per second since the job was started or resumed
+     */
+    public double getTilesPerSecond() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed <= 0 ? 0 : (getTilesDone() - startTiles) * 1000d / elapsed;
+    }
+
+    /**
+     * Returns the estimated time to completion in seconds, or -1 if unknown
+     */
+    public long getEta() {
+        if (state != State.RUNNING) {
+            return state == State.DONE ? 0 : -1;
+        }
+        double rate = getTilesPerSecond();
+        return rate <= 0 ? -1 : Math.round(Math.max(0, tilesTotal - getTilesDone()) / rate);
+    }
+
+    /**
+     * Moves the checkpoint to the next zoom level
+     */
+    synchronized void levelDone(long tiles) {
+        tilesDone += tiles;
+        zoom++;
+        tasks = null;
+    }
+
+    Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty("layer", layerName);
+        props.setProperty("gridSet", gridSetId);
+        props.setProperty("format", format);
+        props.setProperty("type", type.name());
+        props.setProperty("zoomStart", String.valueOf(zoomStart));
+        props.setProperty("zoomStop", String.valueOf(zoomStop));
+        props.setProperty("threadCount", String.valueOf(threadCount));
+        if (bounds != null) {
+            props.setProperty("bounds", bounds.toString());
+        }
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            props.setProperty(PARAMETER_PREFIX + entry.getKey(), entry.getValue());
+        }
+        synchronized (this) {
+            props.setProperty("zoom", String.valueOf(zoom));
+            props.setProperty("tilesDone", String.valueOf(tilesDone));
+        }
+        props.setProperty("tilesTotal", String.valueOf(tilesTotal));
+        props.setProperty("state", state.name());
+        if (message != null) {
+            props.setProperty("message", message);
+        }
+        return props;
+    }
+
+    static SeedJob fromProperties(long id, Properties props) {
+        String bbox = props.getProperty("bounds");
+        BoundingBox bounds = null;
+        if (bbox != null) {
+            String[] ordinates = bbox.split(",");
+            bounds = new BoundingBox(Double.parseDouble(ordinates[0]),
+                    Double.parseDouble(ordinates[1]), Double.parseDouble(ordinates[2]),
+                    Double.parseDouble(ordinates[3]));
+        }
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(PARAMETER_PREFIX)) {
+                parameters.put(key.substring(PARAMETER_PREFIX.length()), props.getProperty(key));
+            }
+        }
+        SeedJob job = new SeedJob(props.getProperty("layer"), props.getProperty("gridSet"),
+                props.getProperty("format"), TYPE.valueOf(props.getProperty("type")),
+                Integer.parseInt(props.getProperty("zoomStart")), Integer.parseInt(props
+                        .getProperty("zoomStop")), Integer.parseInt(props
+                        .getProperty("threadCount")), bounds, parameters);
+        job.id = id;
+        job.zoom = Integer.parseInt(props.getProperty("zoom"));
+        job.tilesDone = Long.parseLong(props.getProperty("tilesDone"));
+        job.tilesTotal = Long.parseLong(props.getProperty("tilesTotal"));
+        job.startTiles = job.tilesDone;
+        job.state = State.valueOf(props.getProperty("state", State.RUNNING.name()));
+        job.message = props.getProperty("message");
+        return job;
+    }
+}
@@ -0,0 +1,421 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.gwc.GWC;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.GWCTask.STATE;
+import org.geowebcache.seed.SeedRequest;
+import org.geowebcache.seed.TileBreeder;
+import org.geowebcache.storage.TileRange;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Runs seed, reseed and truncate jobs in the background of the live traffic.
+ * <p>
+ * Each job is handed to the {@link TileBreeder} one zoom level at a time, the next level being
+ * saved as a checkpoint in the data directory once a level is complete, so that the jobs still
+ * running when GeoServer is stopped are resumed from their last complete level after a restart.
+ * The checkpoint of a failed job is kept to report it after a restart, but the job is not resumed,
+ * and it is deleted along with the job once cancelled or purged.
+ * </p>
+ * <p>
+ * All the seeding tasks, including those started by the GWC REST API and the web UI, go through
+ * the {@link SeedingThrottle} of the scheduler, seeding at most {@value #SHARE_PROPERTY} (0.5 by
+ * default) times the number of CPUs or WMS rendering threads, whichever is lower, tiles at the
+ * same time. The limit is computed on first use, once the WMS configuration is available. The latency of the live requests is sampled every second and when it is above
+ * {@value #LATENCY_THRESHOLD_PROPERTY} milliseconds (1000 by default, 0 to disable) the seeding
+ * concurrency is halved, down to pausing seeding, then raised back one tile at a time once the
+ * latency is below the threshold again.
+ * </p>
+ */
+public class SeedingScheduler implements InitializingBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(SeedingScheduler.class);
+
+    public static final String SHARE_PROPERTY = "org.geoserver.gwc.seed.SeedingScheduler.share";
+
+    public static final String LATENCY_THRESHOLD_PROPERTY = "org.geoserver.gwc.seed.SeedingScheduler.latencyThreshold";
+
+    static final double DEFAULT_SHARE = 0.5;
+
+    static final long DEFAULT_LATENCY_THRESHOLD = 1000;
+
+    /** Milliseconds between two latency samples and job checks */
+    static final long INTERVAL = 1000;
+
+    /** The directory holding the job checkpoints, in the data directory */
+    static final String CHECKPOINTS_DIR = "gwc-seeding";
+
+    /** Completed jobs kept for reporting */
+    static final int MAX_COMPLETED = 100;
+
+    final TileBreeder breeder;
+
+    final GeoServerResourceLoader resourceLoader;
+
+    final LiveLatencyMonitor monitor;
+
+    final double share;
+
+    volatile SeedingThrottle throttle;
+
+    final long latencyThreshold;
+
+    final Map<Long, SeedJob> jobs = new ConcurrentSkipListMap<Long, SeedJob>();
+
+    final AtomicLong ids = new AtomicLong();
+
+    volatile double latency;
+
+    ScheduledExecutorService executor;
+
+    public SeedingScheduler(TileBreeder breeder, GeoServerResourceLoader resourceLoader,
+            LiveLatencyMonitor monitor) {
+        // the WMS beans might not be ready yet, the throttle is built on first use
+        this(breeder, resourceLoader, monitor, null, getDoubleProperty(SHARE_PROPERTY,
+                DEFAULT_SHARE), (long) getDoubleProperty(LATENCY_THRESHOLD_PROPERTY,
+                DEFAULT_LATENCY_THRESHOLD));
+    }
+
+    SeedingScheduler(TileBreeder breeder, GeoServerResourceLoader resourceLoader,
+            LiveLatencyMonitor monitor, int maxPermits, long latencyThreshold) {
+        this(breeder, resourceLoader, monitor, new SeedingThrottle(maxPermits), DEFAULT_SHARE,
+                latencyThreshold);
+    }
+
+    private SeedingScheduler(TileBreeder breeder, GeoServerResourceLoader resourceLoader,
+            LiveLatencyMonitor monitor, SeedingThrottle throttle, double share,
+            long latencyThreshold) {
+        this.breeder = breeder;
+        this.resourceLoader = resourceLoader;
+        this.monitor = monitor;
+        this.throttle = throttle;
+        this.share = share;
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    static double getDoubleProperty(String name, double defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The max number of tiles seeded at the same time, the share of the CPUs or of the WMS
+     * rendering threads, whichever is lower. Falls back on the CPUs if there is no WMS.
+     */
+    static int getMaxPermits(double share) {
+        int slots = Runtime.getRuntime().availableProcessors();
+        WMS wms = WMS.get();
+        WMSInfo info = wms != null ? wms.getServiceInfo() : null;
+        if (info != null && info.getMaxRenderingThreads() > 0) {
+            slots = Math.min(slots, info.getMaxRenderingThreads());
+        }
+        return Math.max(1, (int) Math.round(share * slots));
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        resume();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GWC seeding scheduler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                tick();
+            }
+        }, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() throws Exception {
+        // the checkpoints are left in place, the running jobs will be resumed on restart
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public SeedingThrottle getThrottle() {
+        SeedingThrottle result = throttle;
+        if (result == null) {
+            synchronized (this) {
+                result = throttle;
+                if (result == null) {
+                    result = new SeedingThrottle(getMaxPermits(share));
+                    throttle = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the average latency of the live requests in the last interval, in milliseconds
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    public List<SeedJob> getJobs() {
+        return new ArrayList<SeedJob>(jobs.values());
+    }
+
+    public SeedJob getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Validates and queues a job, it will be started within a second
+     *
+     * @return the job identifier
+     * @throws IllegalArgumentException if the layer, gridset or zoom levels are not valid
+     */
+    public long submit(SeedJob job) throws IllegalArgumentException {
+        TileLayer layer = GWC.get().getTileLayerByName(job.layerName);
+        GridSubset subset = layer.getGridSubset(job.gridSetId);
+        if (subset == null) {
+            throw new IllegalArgumentException("Layer " + job.layerName + " has no gridset "
+                    + job.gridSetId);
+        }
+        if (job.zoomStart > job.zoomStop || job.zoomStart < subset.getZoomStart()
+                || job.zoomStop > subset.getZoomStop()) {
+            throw new IllegalArgumentException("Invalid zoom levels " + job.zoomStart + "-"
+                    + job.zoomStop + ", the gridset has levels " + subset.getZoomStart() + "-"
+                    + subset.getZoomStop());
+        }
+        job.tilesTotal = estimateTiles(subset, job.bounds, job.zoomStart, job.zoomStop);
+        job.id = ids.incrementAndGet();
+        saveCheckpoint(job);
+        jobs.put(job.id, job);
+        purge();
+        return job.id;
+    }
+
+    static long estimateTiles(GridSubset subset, BoundingBox bounds, int zoomStart, int zoomStop) {
+        long total = 0;
+        for (int z = zoomStart; z <= zoomStop; z++) {
+            long[] coverage = bounds == null ? subset.getCoverage(z) : subset
+                    .getCoverageIntersection(z, bounds);
+            if (coverage != null) {
+                total += (coverage[2] - coverage[0] + 1) * (coverage[3] - coverage[1] + 1);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Stops a running job and removes its checkpoint, or removes a completed job from the list
+     *
+     * @return false if there is no such job
+     */
+    public boolean cancel(long id) {
+        SeedJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        synchronized (job) {
+            if (job.state == SeedJob.State.RUNNING) {
+                job.state = SeedJob.State.CANCELLED;
+                GWCTask[] tasks = job.tasks;
+                if (tasks != null) {
+                    for (GWCTask task : tasks) {
+                        breeder.terminateGWCTask(task.getTaskId());
+                    }
+                }
+                deleteCheckpoint(job);
+            } else {
+                jobs.remove(id);
+                deleteCheckpoint(job);
+            }
+        }
+        return true;
+    }
+
+    void tick() {
+        try {
+            latency = monitor.sample();
+            getThrottle().adjust(latencyThreshold > 0 && latency > latencyThreshold);
+            for (SeedJob job : jobs.values()) {
+                synchronized (job) {
+                    if (job.state == SeedJob.State.RUNNING) {
+                        advance(job);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Error running the seeding jobs", e);
+        }
+    }
+
+    /**
+     * Checks the tasks of the current zoom level, moving to the next level once they are all done
+     */
+    void advance(SeedJob job) {
+        GWCTask[] tasks = job.tasks;
+        if (tasks != null) {
+            long tiles = 0;
+            for (GWCTask task : tasks) {
+                STATE state = task.getState();
+                if (state == STATE.ABORTED || state == STATE.DEAD) {
+                    fail(job, "Task " + task.getTaskId() + " of zoom level " + job.zoom + " is "
+                            + state);
+                    return;
+                } else if (state != STATE.DONE) {
+                    return;
+                }
+                tiles += task.getTilesDone();
+            }
+            job.levelDone(tiles);
+            if (job.zoom > job.zoomStop) {
+                job.state = SeedJob.State.DONE;
+                deleteCheckpoint(job);
+                return;
+            }
+            saveCheckpoint(job);
+        }
+
+        try {
+            job.tasks = dispatch(job);
+        } catch (GeoWebCacheException | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Cannot run seeding job " + job.id, e);
+            fail(job, e.getMessage());
+        }
+    }
+
+    /**
+     * Hands the current zoom level of the job to the breeder
+     *
+     * @return the tasks running the zoom level
+     */
+    GWCTask[] dispatch(SeedJob job) throws GeoWebCacheException {
+        TileLayer layer = GWC.get().getTileLayerByName(job.layerName);
+        SeedRequest request = new SeedRequest(job.layerName, job.bounds, job.gridSetId,
+                job.threadCount, job.zoom, job.zoom, job.format, job.type, job.parameters);
+        TileRange range = TileBreeder.createTileRange(request, layer);
+        GWCTask[] tasks = breeder.createTasks(range, job.type, job.threadCount, false);
+        breeder.dispatchTasks(tasks);
+        return tasks;
+    }
+
+    /**
+     * Marks the job as failed, the checkpoint records the failure so that the job is not resumed
+     * on restart
+     */
+    void fail(SeedJob job, String message) {
+        job.state = SeedJob.State.FAILED;
+        job.message = message;
+        saveCheckpoint(job);
+    }
+
+    /**
+     * Removes the oldest completed jobs
+     */
+    void purge() {
+        int completed = 0;
+        for (SeedJob job : getJobs()) {
+            if (job.state != SeedJob.State.RUNNING) {
+                completed++;
+            }
+        }
+        for (SeedJob job : getJobs()) {
+            if (completed <= MAX_COMPLETED) {
+                break;
+            }
+            if (job.state != SeedJob.State.RUNNING) {
+                jobs.remove(job.id);
+                deleteCheckpoint(job);
+                completed--;
+            }
+        }
+    }
+
+    Resource getCheckpoint(SeedJob job) {
+        return resourceLoader.get(CHECKPOINTS_DIR).get(job.id + ".properties");
+    }
+
+    void saveCheckpoint(SeedJob job) {
+        try (OutputStream out = getCheckpoint(job).out()) {
+            job.toProperties().store(out, null);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot save the checkpoint of seeding job " + job.id, e);
+        }
+    }
+
+    void deleteCheckpoint(SeedJob job) {
+        getCheckpoint(job).delete();
+    }
+
+    /**
+     * Loads the jobs left running at the last shutdown, and the failed ones
+     */
+    void resume() {
+        for (Resource checkpoint : resourceLoader.get(CHECKPOINTS_DIR).list()) {
+            String name = checkpoint.name();
+            if (!name.endsWith(".properties")) {
+                continue;
+            }
+            try (InputStream in = checkpoint.in()) {
+                Properties props = new Properties();
+                props.load(in);
+                long id = Long.parseLong(name.substring(0, name.length() - ".properties".length()));
+                SeedJob job = SeedJob.fromProperties(id, props);
+                jobs.put(id, job);
+                if (ids.get() < id) {
+                    ids.set(id);
+                }
+                if (job.state == SeedJob.State.RUNNING) {
+                    LOGGER.info("Resuming seeding job " + id + " on layer " + job.layerName
+                            + " from zoom level " + job.zoom);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cannot resume seeding job from " + checkpoint.path(),
+                        e);
+            }
+        }
+    }
+}
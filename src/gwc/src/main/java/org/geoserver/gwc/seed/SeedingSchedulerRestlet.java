@@ -0,0 +1,155 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.geotools.util.logging.Logging;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+
+/**
+ * REST access to the {@link SeedingScheduler}:
+ * <ul>
+ * <li><code>GET /gwc/rest/seeding.json</code> reports the throttle state and the progress, rate and
+ * ETA of the jobs</li>
+ * <li><code>POST /gwc/rest/seeding.json</code> submits a job, e.g.
+ * <code>{"layer":"topp:states","gridSet":"EPSG:4326","format":"image/png","type":"seed",
+ * "zoomStart":0,"zoomStop":10,"threadCount":2,"bounds":[-180,-90,0,90],
+ * "parameters":{"STYLES":"population"}}</code></li>
+ * <li><code>GET /gwc/rest/seeding/{job}.json</code> reports a single job</li>
+ * <li><code>DELETE /gwc/rest/seeding/{job}.json</code> cancels a running job, or removes a
+ * completed one from the list</li>
+ * </ul>
+ */
+public class SeedingSchedulerRestlet extends Restlet {
+
+    static final Logger LOGGER = Logging.getLogger(SeedingSchedulerRestlet.class);
+
+    final SeedingScheduler scheduler;
+
+    public SeedingSchedulerRestlet(SeedingScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void handle(Request request, Response response) {
+        Method method = request.getMethod();
+        String jobId = (String) request.getAttributes().get("job");
+        try {
+            if (Method.GET.equals(method)) {
+                if (jobId == null) {
+                    response.setEntity(getStatus().toString(), MediaType.APPLICATION_JSON);
+                } else {
+                    SeedJob job = scheduler.getJob(Long.parseLong(jobId));
+                    if (job == null) {
+                        response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+                    } else {
+                        response.setEntity(toJSON(job).toString(), MediaType.APPLICATION_JSON);
+                    }
+                }
+            } else if (Method.POST.equals(method) && jobId == null) {
+                SeedJob job = parse(JSONObject.fromObject(request.getEntity().getText()));
+                scheduler.submit(job);
+                response.setStatus(Status.SUCCESS_CREATED);
+                response.setEntity(toJSON(job).toString(), MediaType.APPLICATION_JSON);
+            } else if (Method.DELETE.equals(method) && jobId != null) {
+                if (!scheduler.cancel(Long.parseLong(jobId))) {
+                    response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+                }
+            } else {
+                response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            }
+        } catch (IllegalArgumentException | JSONException e) {
+            response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error reading the seeding job", e);
+            response.setStatus(Status.SERVER_ERROR_INTERNAL, e.getMessage());
+        }
+    }
+
+    JSONObject getStatus() {
+        SeedingThrottle throttle = scheduler.getThrottle();
+        JSONObject json = new JSONObject();
+        json.put("maxConcurrency", throttle.getMaxPermits());
+        json.put("concurrency", throttle.getLimit());
+        json.put("active", throttle.getActive());
+        json.put("paused", throttle.isPaused());
+        json.put("tilesSeeded", throttle.getTilesSeeded());
+        json.put("latency", scheduler.getLatency());
+        json.put("latencyThreshold", scheduler.getLatencyThreshold());
+        JSONArray jobs = new JSONArray();
+        for (SeedJob job : scheduler.getJobs()) {
+            jobs.add(toJSON(job));
+        }
+        json.put("jobs", jobs);
+        return json;
+    }
+
+    static JSONObject toJSON(SeedJob job) {
+        JSONObject json = new JSONObject();
+        json.put("id", job.getId());
+        json.put("layer", job.getLayerName());
+        json.put("gridSet", job.getGridSetId());
+        json.put("format", job.getFormat());
+        json.put("type", job.getType().name().toLowerCase());
+        json.put("zoomStart", job.getZoomStart());
+        json.put("zoomStop", job.getZoomStop());
+        json.put("zoom", job.getZoom());
+        json.put("state", job.getState().name());
+        if (job.getMessage() != null) {
+            json.put("message", job.getMessage());
+        }
+        json.put("tilesDone", job.getTilesDone());
+        json.put("tilesTotal", job.getTilesTotal());
+        json.put("tilesPerSecond", job.getTilesPerSecond());
+        json.put("eta", job.getEta());
+        return json;
+    }
+
+    static SeedJob parse(JSONObject json) {
+        if (!json.has("layer") || !json.has("gridSet") || !json.has("zoomStart")
+                || !json.has("zoomStop")) {
+            throw new IllegalArgumentException(
+                    "The job must specify layer, gridSet, zoomStart and zoomStop");
+        }
+        TYPE type = TYPE.valueOf(json.optString("type", "seed").toUpperCase());
+        BoundingBox bounds = null;
+        JSONArray bbox = json.optJSONArray("bounds");
+        if (bbox != null) {
+            if (bbox.size() != 4) {
+                throw new IllegalArgumentException("The bounds must be [minx,miny,maxx,maxy]");
+            }
+            bounds = new BoundingBox(bbox.getDouble(0), bbox.getDouble(1), bbox.getDouble(2),
+                    bbox.getDouble(3));
+        }
+        Map<String, String> parameters = new HashMap<String, String>();
+        JSONObject params = json.optJSONObject("parameters");
+        if (params != null) {
+            for (Iterator<?> it = params.keys(); it.hasNext();) {
+                String key = (String) it.next();
+                parameters.put(key, params.getString(key));
+            }
+        }
+        return new SeedJob(json.getString("layer"), json.getString("gridSet"), json.optString(
+                "format", "image/png"), type, json.getInt("zoomStart"), json.getInt("zoomStop"),
+                json.optInt("threadCount", 1), bounds, parameters);
+    }
+}
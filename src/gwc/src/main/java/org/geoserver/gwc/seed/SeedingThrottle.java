@@ -0,0 +1,107 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of (meta)tiles seeded at the same time, whatever the number of seeding threads
+ * of the running tasks.
+ * <p>
+ * The seeding threads call {@link #acquire()} before seeding a tile and {@link #release()} once
+ * done, waiting while the limit is reached. The limit starts at {@link #getMaxPermits()} and is
+ * moved by {@link #adjust(boolean)}: halved each time the live requests are overloaded, down to
+ * zero, that is, seeding paused, and raised by one otherwise.
+ * </p>
+ */
+public class SeedingThrottle {
+
+    static final ThreadLocal<Boolean> SEEDING = new ThreadLocal<Boolean>();
+
+    final int maxPermits;
+
+    int limit;
+
+    int active;
+
+    final AtomicLong tiles = new AtomicLong();
+
+    /**
+     * @param maxPermits the max number of tiles seeded at the same time
+     */
+    public SeedingThrottle(int maxPermits) {
+        this.maxPermits = Math.max(1, maxPermits);
+        this.limit = this.maxPermits;
+    }
+
+    /**
+     * Returns true if the current thread is seeding a tile
+     */
+    public static boolean isSeeding() {
+        return SEEDING.get() != null;
+    }
+
+    /**
+     * Waits until a tile can be seeded
+     */
+    public void acquire() throws InterruptedException {
+        synchronized (this) {
+            while (active >= limit) {
+                wait();
+            }
+            active++;
+        }
+        SEEDING.set(Boolean.TRUE);
+    }
+
+    /**
+     * Releases the permit taken by {@link #acquire()}
+     */
+    public void release() {
+        SEEDING.remove();
+        tiles.incrementAndGet();
+        synchronized (this) {
+            active--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Moves the limit according to the load of the live requests
+     *
+     * @param overloaded whether the live requests are above the latency threshold
+     */
+    public synchronized void adjust(boolean overloaded) {
+        if (overloaded) {
+            limit = limit / 2;
+        } else if (limit < maxPermits) {
+            limit++;
+            notifyAll();
+        }
+    }
+
+    public int getMaxPermits() {
+        return maxPermits;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized boolean isPaused() {
+        return limit == 0;
+    }
+
+    /**
+     * Returns the number of (meta)tiles seeded since startup, cache hits included
+     */
+    public long getTilesSeeded() {
+        return tiles.get();
+    }
+}
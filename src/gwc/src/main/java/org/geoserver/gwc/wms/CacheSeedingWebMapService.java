@@ -29,6 +29,10 @@ import org.geotools.util.logging.Logging;
  * the server with too many requests. That is, adheres to the expectations of the control-flow and
  * monitoring modules by not bypassing the dispatcher.
  * </p>
+ * <p>
+ * Seeding requests on plain layers call the WMS service directly instead, unless
+ * {@link GeoServerTileLayer#DIRECT_GETMAP_PROPERTY} is set to false.
+ * </p>
  * 
  * @author Gabriel Roldan
  * 
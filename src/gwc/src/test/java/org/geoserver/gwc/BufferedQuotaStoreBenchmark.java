@@ -0,0 +1,145 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the tiles per second the disk quota accounting sustains when tiles are cached and
+ * served by concurrent requests, each tile resulting in a tile count update and a hit, comparing
+ * the {@link BufferedQuotaStore} with updating the wrapped store for every tile.
+ * <p>
+ * The wrapped store simulates a database serializing the updates, spending {@link #rowCost} CPU
+ * tokens per updated page. The buffered path should sustain well over 10k tiles/s, the target of
+ * a busy seeding or tile serving node, even when the direct path falls below it.
+ * </p>
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@Threads(8)
+public class BufferedQuotaStoreBenchmark {
+
+    static final int PAGES = 1000;
+
+    @Param({ "0", "10000" })
+    int rowCost;
+
+    TileSet tileSet = new TileSet("topp:states", "EPSG:900913", "image/png", null);
+
+    QuotaStore direct;
+
+    BufferedQuotaStore buffered;
+
+    File directory;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("quota-journal").toFile();
+        direct = new SerializingQuotaStore(rowCost);
+        buffered = new BufferedQuotaStore(new SerializingQuotaStore(rowCost), directory);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        buffered.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Benchmark
+    public void direct() throws Exception {
+        cacheAndServeTile(direct);
+    }
+
+    @Benchmark
+    public void buffered() throws Exception {
+        cacheAndServeTile(buffered);
+    }
+
+    void cacheAndServeTile(QuotaStore store) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        TilePage page = new TilePage(tileSet.getId(), random.nextInt(PAGES), 0, 10);
+
+        PageStatsPayload tiles = new PageStatsPayload(page, tileSet);
+        tiles.setNumTiles(1);
+        store.addToQuotaAndTileCounts(tileSet, new Quota(BigInteger.valueOf(20000)),
+                Collections.singletonList(tiles));
+
+        PageStatsPayload hits = new PageStatsPayload(page, tileSet);
+        hits.setNumHits(1);
+        hits.setLastAccessTime(System.currentTimeMillis());
+        store.addHitsAndSetAccesTime(Collections.singletonList(hits));
+    }
+
+    /**
+     * Simulates a database taking a lock and spending some CPU for each page update
+     */
+    static class SerializingQuotaStore extends DummyQuotaStore {
+
+        final int rowCost;
+
+        SerializingQuotaStore(int rowCost) {
+            super(null);
+            this.rowCost = rowCost;
+        }
+
+        @Override
+        public synchronized void addToQuotaAndTileCounts(TileSet tileSet, Quota quotaDiff,
+                Collection<PageStatsPayload> tileCountDiffs) throws InterruptedException {
+            Blackhole.consumeCPU(rowCost * (1 + tileCountDiffs.size()));
+        }
+
+        @Override
+        public synchronized Future<List<PageStats>> addHitsAndSetAccesTime(
+                Collection<PageStatsPayload> statsUpdates) {
+            Blackhole.consumeCPU(rowCost * statsUpdates.size());
+            return super.addHitsAndSetAccesTime(statsUpdates);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BufferedQuotaStoreBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,248 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BufferedQuotaStoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File directory;
+
+    private CountingQuotaStore delegate;
+
+    private BufferedQuotaStore store;
+
+    private TileSet tileSet = new TileSet("topp:states", "EPSG:4326", "image/png", null);
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temp.newFolder("journal");
+        delegate = new CountingQuotaStore();
+        // no background threads, the tests flush and compact explicitly
+        store = new BufferedQuotaStore(delegate, directory, 0, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void testTileCountsAggregated() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.addToQuotaAndTileCounts(tileSet, quota(1000), tiles(page(1, 2, 3), 1));
+        }
+        store.addToQuotaAndTileCounts(tileSet, quota(-500), tiles(page(1, 2, 3), -1));
+        assertEquals(0, delegate.updates);
+        // pending updates are included in the quota reads
+        assertEquals(BigInteger.valueOf(9500), store.getGloballyUsedQuota().getBytes());
+        assertEquals(BigInteger.valueOf(9500), store.getUsedQuotaByTileSetId(tileSet.getId())
+                .getBytes());
+        assertEquals(BigInteger.valueOf(9500), store.getUsedQuotaByLayerName("topp:states")
+                .getBytes());
+
+        store.compact();
+        assertEquals(1, delegate.updates);
+        assertEquals(9, delegate.tiles.get("1/2/3").intValue());
+        assertEquals(9500, delegate.bytes);
+        // not counted twice once applied
+        assertEquals(BigInteger.valueOf(9500), store.getGloballyUsedQuota().getBytes());
+        assertEquals(0, new File(directory, BufferedQuotaStore.JOURNAL).length());
+        assertFalse(new File(directory, BufferedQuotaStore.COMPACTING).exists());
+    }
+
+    @Test
+    public void testHitsAggregated() throws Exception {
+        store.addHitsAndSetAccesTime(hits(page(0, 0, 1), 2, 1000));
+        store.addHitsAndSetAccesTime(hits(page(0, 0, 1), 3, 3000));
+        store.addHitsAndSetAccesTime(hits(page(0, 0, 1), 1, 2000));
+        assertEquals(0, delegate.hitUpdates);
+
+        store.flush();
+        store.compact();
+        assertEquals(1, delegate.hitUpdates);
+        assertEquals(6, delegate.hits.get("0/0/1").intValue());
+        assertEquals(3000, delegate.lastAccess.get("0/0/1").longValue());
+    }
+
+    @Test
+    public void testJournalReplay() throws Exception {
+        store.addToQuotaAndTileCounts(tileSet, quota(2048), tiles(page(4, 5, 6), 2));
+        store.addHitsAndSetAccesTime(hits(page(4, 5, 6), 7, 1000));
+        store.flush();
+        // a batch cut short by a crash
+        try (FileOutputStream fos = new FileOutputStream(new File(directory,
+                BufferedQuotaStore.JOURNAL), true)) {
+            fos.write(new byte[] { BufferedQuotaStore.QUOTA, 0, 3, 'a' });
+        }
+
+        // restart without closing, the journal is all that is left
+        CountingQuotaStore restarted = new CountingQuotaStore();
+        BufferedQuotaStore replayed = new BufferedQuotaStore(restarted, directory, 0, 0);
+        try {
+            assertEquals(BigInteger.valueOf(2048), replayed.getGloballyUsedQuota().getBytes());
+            replayed.compact();
+            assertEquals(2048, restarted.bytes);
+            assertEquals(2, restarted.tiles.get("4/5/6").intValue());
+            assertEquals(7, restarted.hits.get("4/5/6").intValue());
+            assertEquals(BigInteger.valueOf(2048), replayed.getGloballyUsedQuota().getBytes());
+        } finally {
+            replayed.close();
+        }
+    }
+
+    @Test
+    public void testPendingAppliedBeforeExpiration() throws Exception {
+        store.addToQuotaAndTileCounts(tileSet, quota(100), tiles(page(0, 0, 0), 1));
+        store.getLeastRecentlyUsedPage(Collections.singleton("topp:states"));
+        assertEquals(1, delegate.updates);
+        assertEquals(100, delegate.bytes);
+    }
+
+    @Test
+    public void testExpirationDoesNotCompact() throws Exception {
+        store.addToQuotaAndTileCounts(tileSet, quota(100), tiles(page(0, 0, 0), 1));
+        store.flush();
+        store.addToQuotaAndTileCounts(tileSet, quota(50), tiles(page(0, 0, 0), 1));
+        store.setTruncated(page(0, 0, 0));
+        // only the updates in memory are applied, the journal waits for the next compaction
+        assertEquals(1, delegate.updates);
+        assertEquals(50, delegate.bytes);
+        assertTrue(new File(directory, BufferedQuotaStore.JOURNAL).length() > 0);
+        assertEquals(BigInteger.valueOf(150), store.getGloballyUsedQuota().getBytes());
+
+        store.compact();
+        assertEquals(150, delegate.bytes);
+        assertEquals(BigInteger.valueOf(150), store.getGloballyUsedQuota().getBytes());
+    }
+
+    @Test
+    public void testStopBuffering() throws Exception {
+        store.addToQuotaAndTileCounts(tileSet, quota(100), tiles(page(0, 0, 0), 1));
+        store.stopBuffering();
+        assertEquals(1, delegate.updates);
+
+        store.addToQuotaAndTileCounts(tileSet, quota(100), tiles(page(0, 0, 0), 1));
+        assertEquals(2, delegate.updates);
+        assertEquals(200, delegate.bytes);
+    }
+
+    private TilePage page(int x, int y, int z) {
+        return new TilePage(tileSet.getId(), x, y, z);
+    }
+
+    private Quota quota(long bytes) {
+        return new Quota(BigInteger.valueOf(bytes));
+    }
+
+    private List<PageStatsPayload> tiles(TilePage page, int tiles) {
+        PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+        payload.setNumTiles(tiles);
+        return Collections.singletonList(payload);
+    }
+
+    private List<PageStatsPayload> hits(TilePage page, int hits, long lastAccess) {
+        PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+        payload.setNumHits(hits);
+        payload.setLastAccessTime(lastAccess);
+        return Collections.singletonList(payload);
+    }
+
+    static String key(TilePage page) {
+        return page.getPageX() + "/" + page.getPageY() + "/" + page.getZoomLevel();
+    }
+
+    /**
+     * Sums up the updates it receives
+     */
+    static class CountingQuotaStore extends DummyQuotaStore {
+
+        int updates;
+
+        int hitUpdates;
+
+        long bytes;
+
+        Map<String, Integer> tiles = new HashMap<String, Integer>();
+
+        Map<String, Integer> hits = new HashMap<String, Integer>();
+
+        Map<String, Long> lastAccess = new HashMap<String, Long>();
+
+        CountingQuotaStore() {
+            super(null);
+        }
+
+        @Override
+        public synchronized void addToQuotaAndTileCounts(TileSet tileSet, Quota quotaDiff,
+                Collection<PageStatsPayload> tileCountDiffs) throws InterruptedException {
+            updates++;
+            bytes += quotaDiff.getBytes().longValue();
+            for (PageStatsPayload payload : tileCountDiffs) {
+                String key = key(payload.getPage());
+                Integer current = tiles.get(key);
+                tiles.put(key, (current == null ? 0 : current) + payload.getNumTiles());
+            }
+        }
+
+        @Override
+        public synchronized Future<List<PageStats>> addHitsAndSetAccesTime(
+                Collection<PageStatsPayload> statsUpdates) {
+            hitUpdates++;
+            for (PageStatsPayload payload : statsUpdates) {
+                String key = key(payload.getPage());
+                Integer current = hits.get(key);
+                hits.put(key, (current == null ? 0 : current) + payload.getNumHits());
+                lastAccess.put(key, payload.getLastAccessTime());
+            }
+            return super.addHitsAndSetAccesTime(new ArrayList<PageStatsPayload>());
+        }
+
+        @Override
+        public synchronized Quota getGloballyUsedQuota() throws InterruptedException {
+            return new Quota(BigInteger.valueOf(bytes));
+        }
+
+        @Override
+        public synchronized Quota getUsedQuotaByTileSetId(String tileSetId)
+                throws InterruptedException {
+            return getGloballyUsedQuota();
+        }
+
+        @Override
+        public synchronized Quota getUsedQuotaByLayerName(String layerName)
+                throws InterruptedException {
+            return getGloballyUsedQuota();
+        }
+    }
+}
@@ -799,7 +799,11 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
 
     private QuotaStore getActualStore(ConfigurableQuotaStoreProvider provider)
             throws ConfigurationException, IOException {
-        return ((ConfigurableQuotaStore) provider.getQuotaStore()).getStore();
+        QuotaStore store = ((ConfigurableQuotaStore) provider.getQuotaStore()).getStore();
+        if (store instanceof BufferedQuotaStore) {
+            store = ((BufferedQuotaStore) store).getDelegate();
+        }
+        return store;
     }
     
 
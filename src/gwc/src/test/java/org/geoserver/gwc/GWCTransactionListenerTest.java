@@ -5,13 +5,16 @@
  */
 package org.geoserver.gwc;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -31,23 +34,36 @@ import net.opengis.wfs.TransactionType;
 
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.google.common.collect.ImmutableSet;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
 
 public class GWCTransactionListenerTest {
 
     private GWC mediator;
 
+    private GeometryTruncator truncator;
+
     private GWCTransactionListener listener;
 
     @Before
     public void setUp() throws Exception {
         mediator = mock(GWC.class);
-        listener = new GWCTransactionListener(mediator);
+        truncator = mock(GeometryTruncator.class);
+        listener = new GWCTransactionListener(mediator, truncator);
     }
 
     @Test
@@ -151,13 +167,40 @@ public class GWCTransactionListenerTest {
                 .containsKey(GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER));
 
         @SuppressWarnings("unchecked")
-        Map<String, List<ReferencedEnvelope>> placeHolder = (Map<String, List<ReferencedEnvelope>>) extendedProperties
+        Map<String, List<Geometry>> placeHolder = (Map<String, List<Geometry>>) extendedProperties
                 .get(GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER);
 
         assertNotNull(placeHolder.get("theLayer"));
 
-        assertSame(affectedBounds, placeHolder.get("theLayer").get(0));
-        assertSame(affectedBounds, placeHolder.get("theGroup").get(0));
+        Geometry affectedArea = placeHolder.get("theLayer").get(0);
+        assertSame(affectedArea, placeHolder.get("theGroup").get(0));
+        assertEquals(1, affectedArea.getNumGeometries());
+        assertTrue(JTS.toGeometry(affectedBounds).equalsExact(affectedArea.getGeometryN(0)));
+        assertSame(WGS84, affectedArea.getUserData());
+    }
+
+    @Test
+    public void testDataStoreChangeInsertManyFeatures() {
+
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        int count = GWCTransactionListener.MAX_GEOMETRIES + 1;
+        ReferencedEnvelope[] affectedBounds = new ReferencedEnvelope[count];
+        for (int i = 0; i < affectedBounds.length; i++) {
+            affectedBounds[i] = new ReferencedEnvelope(i * 0.125, i * 0.125 + 0.125, 0, 1,
+                    WGS84);
+        }
+
+        issueInsert(extendedProperties, affectedBounds);
+
+        @SuppressWarnings("unchecked")
+        Map<String, List<Geometry>> placeHolder = (Map<String, List<Geometry>>) extendedProperties
+                .get(GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER);
+
+        // too many features, falls back to the bounds
+        Geometry affectedArea = placeHolder.get("theLayer").get(0);
+        assertTrue(affectedArea instanceof Polygon);
+        assertEquals(new Envelope(0, affectedBounds.length * 0.125, 0, 1),
+                affectedArea.getEnvelopeInternal());
     }
 
     @Test
@@ -181,17 +224,25 @@ public class GWCTransactionListenerTest {
         ReferencedEnvelope expectedEnv = new ReferencedEnvelope(affectedBounds1);
         expectedEnv.expandToInclude(affectedBounds2);
 
-        verify(mediator, times(1)).truncate(eq("theLayer"), eq(expectedEnv));
-        verify(mediator, times(1)).truncate(eq("theGroup"), eq(expectedEnv));
-
+        ArgumentCaptor<Geometry> layerArea = ArgumentCaptor.forClass(Geometry.class);
+        ArgumentCaptor<Geometry> groupArea = ArgumentCaptor.forClass(Geometry.class);
+        verify(truncator, times(1)).truncate(eq("theLayer"), layerArea.capture());
+        verify(truncator, times(1)).truncate(eq("theGroup"), groupArea.capture());
+        assertEquals(expectedEnv, new ReferencedEnvelope(layerArea.getValue()
+                .getEnvelopeInternal(), WGS84));
+        assertEquals(expectedEnv, new ReferencedEnvelope(groupArea.getValue()
+                .getEnvelopeInternal(), WGS84));
+
+        // the affected bounds are not truncated as a whole
+        verify(mediator, never()).truncate(anyString(), any(ReferencedEnvelope.class));
     }
 
     /**
      * Issues a fake dataStoreChange insert event that affects two tile layers: "theLayer" and
-     * "theGroup"
+     * "theGroup", inserting a feature for each of the given bounds
      */
     private void issueInsert(Map<Object, Object> extendedProperties,
-            ReferencedEnvelope affectedBounds) {
+            ReferencedEnvelope... affectedBounds) {
 
         TransactionType transaction = mock(TransactionType.class);
         when(transaction.getExtendedProperties()).thenReturn(extendedProperties);
@@ -214,8 +265,16 @@ public class GWCTransactionListenerTest {
 
         ImmutableSet.of("theLayer", "theGroup"));
 
-        SimpleFeatureCollection affectedFeatures = mock(SimpleFeatureCollection.class);
-        when(affectedFeatures.getBounds()).thenReturn(affectedBounds);
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("testType");
+        tb.add("geom", Polygon.class, WGS84);
+        SimpleFeatureType featureType = tb.buildFeatureType();
+        SimpleFeature[] features = new SimpleFeature[affectedBounds.length];
+        for (int i = 0; i < affectedBounds.length; i++) {
+            features[i] = SimpleFeatureBuilder.build(featureType,
+                    new Object[] { JTS.toGeometry(affectedBounds[i]) }, "testType." + i);
+        }
+        SimpleFeatureCollection affectedFeatures = DataUtilities.collection(features);
         when(event.getAffectedFeatures()).thenReturn(affectedFeatures);
 
         listener.dataStoreChange(event);
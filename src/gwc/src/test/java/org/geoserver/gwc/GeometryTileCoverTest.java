@@ -0,0 +1,102 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.geotools.geometry.jts.JTS;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+public class GeometryTileCoverTest {
+
+    private GridSubset gridSubset;
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    @Before
+    public void setUp() {
+        // level z has 2^(z+1) x 2^z tiles of 256 pixels
+        gridSubset = GridSubsetFactory
+                .createGridSubSet(new GridSetBroker(false, false).WORLD_EPSG4326);
+    }
+
+    @Test
+    public void testDiagonalLine() {
+        LineString diagonal = gf.createLineString(new Coordinate[] { new Coordinate(-180, -90),
+                new Coordinate(180, 90) });
+        GeometryTileCover cover = new GeometryTileCover(gridSubset, diagonal, 0);
+
+        List<long[]> rectangles = cover.getRectangles(4);
+        // a strip of single tiles along the diagonal rather than the 32x16 tiles of its bounds
+        assertTrue(rectangles.size() < 32 * 16 / 4);
+        for (long[] r : rectangles) {
+            assertEquals(r[0], r[2]);
+            assertEquals(r[1], r[3]);
+        }
+        for (long x = 0; x < 32; x++) {
+            assertTrue(contains(rectangles, x, x / 2));
+        }
+        assertFalse(contains(rectangles, 0, 15));
+        assertFalse(contains(rectangles, 31, 0));
+    }
+
+    @Test
+    public void testCoveringPolygon() {
+        GeometryTileCover cover = new GeometryTileCover(gridSubset, JTS.toGeometry(new Envelope(
+                -180, 180, -90, 90)), 0);
+
+        List<long[]> rectangles = cover.getRectangles(3);
+        assertEquals(1, rectangles.size());
+        assertArrayEquals(new long[] { 0, 0, 15, 7 }, rectangles.get(0));
+    }
+
+    @Test
+    public void testBuffer() {
+        // a small square in the middle of tile 4,2 of level 2, 45 degrees tiles
+        GeometryTileCover cover = new GeometryTileCover(gridSubset, JTS.toGeometry(new Envelope(
+                20, 25, 20, 25)), 0);
+        assertEquals(1, countTiles(cover.getRectangles(2)));
+        assertTrue(contains(cover.getRectangles(2), 4, 2));
+
+        // growing it by one tile touches the neighbours
+        cover = new GeometryTileCover(gridSubset, JTS.toGeometry(new Envelope(20, 25, 20, 25)),
+                256);
+        assertEquals(9, countTiles(cover.getRectangles(2)));
+        assertTrue(contains(cover.getRectangles(2), 3, 1));
+        assertTrue(contains(cover.getRectangles(2), 5, 3));
+        assertFalse(contains(cover.getRectangles(2), 6, 2));
+    }
+
+    private boolean contains(List<long[]> rectangles, long x, long y) {
+        for (long[] r : rectangles) {
+            if (x >= r[0] && x <= r[2] && y >= r[1] && y <= r[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long countTiles(List<long[]> rectangles) {
+        long count = 0;
+        for (long[] r : rectangles) {
+            count += (r[2] - r[0] + 1) * (r[3] - r[1] + 1);
+        }
+        return count;
+    }
+}
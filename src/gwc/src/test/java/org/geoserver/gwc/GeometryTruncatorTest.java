@@ -0,0 +1,89 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import org.geowebcache.GeoWebCacheException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class GeometryTruncatorTest {
+
+    private GWC gwc;
+
+    private GeometryTruncator truncator;
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    @Before
+    public void setUp() {
+        gwc = mock(GWC.class);
+        // long enough for the background flush not to interfere
+        truncator = new GeometryTruncator(gwc, 60 * 60 * 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        truncator.destroy();
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        Geometry p1 = gf.createPoint(new Coordinate(0, 0));
+        Geometry p2 = gf.createPoint(new Coordinate(1, 1));
+        Geometry p3 = gf.createPoint(new Coordinate(2, 2));
+        truncator.truncate("theLayer", p1);
+        truncator.truncate("theLayer", p2);
+        truncator.truncate("theGroup", p3);
+        verifyNoMoreInteractions(gwc);
+
+        truncator.flush();
+        ArgumentCaptor<Geometry> area = ArgumentCaptor.forClass(Geometry.class);
+        verify(gwc, times(1)).truncate(eq("theLayer"), area.capture());
+        assertEquals(2, area.getValue().getNumGeometries());
+        verify(gwc, times(1)).truncate(eq("theGroup"), eq(p3));
+
+        // nothing left
+        truncator.flush();
+        verifyNoMoreInteractions(gwc);
+    }
+
+    @Test
+    public void testBackgroundFlush() throws Exception {
+        truncator.destroy();
+        truncator = new GeometryTruncator(gwc, 10);
+        Geometry p1 = gf.createPoint(new Coordinate(0, 0));
+        truncator.truncate("theLayer", p1);
+        verify(gwc, timeout(5000)).truncate(eq("theLayer"), eq(p1));
+    }
+
+    @Test
+    public void testErrorDoesNotStopFlush() throws Exception {
+        doThrow(new GeoWebCacheException("fake")).when(gwc).truncate(eq("theLayer"),
+                any(Geometry.class));
+        Geometry p1 = gf.createPoint(new Coordinate(0, 0));
+        Geometry p2 = gf.createPoint(new Coordinate(1, 1));
+        truncator.truncate("theLayer", p1);
+        truncator.truncate("theGroup", p2);
+
+        truncator.flush();
+        verify(gwc, times(1)).truncate(eq("theGroup"), eq(p2));
+    }
+}
@@ -51,12 +51,19 @@ import org.geoserver.catalog.impl.NamespaceInfoImpl;
 import org.geoserver.catalog.impl.StyleInfoImpl;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.config.XMLGridSubset;
 import org.geowebcache.conveyor.Conveyor.CacheResult;
@@ -82,6 +89,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.vividsolutions.jts.geom.Envelope;
 
 public class GeoServerTileLayerTest {
 
@@ -548,6 +556,124 @@ public class GeoServerTileLayerTest {
         verify(mockGWC, times(1)).getResponseEncoder(eq(mimeType), isA(RenderedImageMap.class));
     }
 
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testGetTileSeedingCleanup() throws Exception {
+        Resource mockResult = mock(Resource.class);
+        Mockito.when(mockGWC.dispatchOwsRequest((Map) anyObject(), (Cookie[]) anyObject()))
+                .thenReturn(mockResult);
+
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        RenderedImageMap fakeDispatchedMap = new RenderedImageMap(new WMSMapContent(), image,
+                "image/png");
+        RenderedImageMapResponse fakeResponseEncoder = mock(RenderedImageMapResponse.class);
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject())).thenReturn(
+                fakeResponseEncoder);
+
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        // a seeding request, no servlet request around it
+        ConveyorTile tile = new ConveyorTile(storageBroker, layerInfoTileLayer.getName(),
+                "EPSG:4326", new long[] { 0, 0, 0 }, mimeType, null, null, null);
+
+        // what the encoding of the meta tile leaves behind
+        RasterCleaner.addImage(image);
+        EnvFunction.setLocalValue("GSUSER", "admin");
+
+        GeoServerTileLayer.WEB_MAP.set(fakeDispatchedMap);
+        layerInfoTileLayer.getTile(tile);
+        assertNull(new RasterCleaner().getImages());
+        assertNull(EnvFunction.getLocalValues().get("GSUSER"));
+    }
+
+    @Test
+    public void testBuildDirectGetMap() throws Exception {
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+        layerGroupInfoTileLayer = new GeoServerTileLayer(layerGroup, defaults, gridSetBroker);
+
+        // raster layers skip the style attributes check, which needs the data
+        layerInfo.setType(PublishedType.RASTER);
+        StyleBuilder sb = new StyleBuilder();
+        Style defaultStyle = sb.createStyle(sb.createRasterSymbolizer());
+        Style alternateStyle = sb.createStyle(sb.createRasterSymbolizer());
+        StyleInfo defaultStyleInfo = mock(StyleInfo.class);
+        when(defaultStyleInfo.getStyle()).thenReturn(defaultStyle);
+        layerInfo.setDefaultStyle(defaultStyleInfo);
+
+        Catalog securedCatalog = mock(Catalog.class);
+        when(securedCatalog.getLayer(eq(layerInfo.getId()))).thenReturn(layerInfo);
+        WMSInfo wmsInfo = mock(WMSInfo.class);
+        when(wmsInfo.isEnabled()).thenReturn(true);
+        WMS wms = mock(WMS.class);
+        when(wms.getServiceInfo()).thenReturn(wmsInfo);
+        when(wms.getCatalog()).thenReturn(securedCatalog);
+        when(wms.getStyleByName("alternateStyle-1")).thenReturn(alternateStyle);
+
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        GeoServerMetaTile metaTile = new GeoServerMetaTile(
+                layerInfoTileLayer.getGridSubset("EPSG:4326"), mimeType, null, new long[] { 0, 0,
+                        0 }, 1, 1, 0);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("SERVICE", "WMS");
+        params.put("VERSION", "1.1.1");
+        params.put("REQUEST", "GetMap");
+        params.put("LAYERS", layerInfoTileLayer.getName());
+        params.put("SRS", "EPSG:4326");
+        params.put("FORMAT", "image/png");
+        params.put("WIDTH", "256");
+        params.put("HEIGHT", "256");
+        params.put("BBOX", metaTile.getMetaTileBounds().toString());
+        params.put("EXCEPTIONS", "SE_XML");
+        params.put("STYLES", "");
+        params.put("TRANSPARENT", "true");
+        params.put(GeoServerTileLayer.GWC_SEED_INTERCEPT_TOKEN, "true");
+
+        GetMapRequest request = layerInfoTileLayer.buildDirectGetMap(wms, params, metaTile);
+        assertNotNull(request);
+        assertEquals(1, request.getLayers().size());
+        assertSame(layerInfo, request.getLayers().get(0).getLayerInfo());
+        assertSame(defaultStyle, request.getStyles().get(0));
+        assertEquals(new Envelope(-180, 0, -90, 90), request.getBbox());
+        assertEquals(256, request.getWidth());
+        assertEquals(256, request.getHeight());
+        assertEquals("EPSG:4326", request.getSRS());
+        assertNotNull(request.getCrs());
+        assertEquals("image/png", request.getFormat());
+        assertTrue(request.isTransparent());
+        assertEquals("true", request.getRawKvp().get(GeoServerTileLayer.GWC_SEED_INTERCEPT_TOKEN));
+
+        params.put("STYLES", "alternateStyle-1");
+        request = layerInfoTileLayer.buildDirectGetMap(wms, params, metaTile);
+        assertSame(alternateStyle, request.getStyles().get(0));
+
+        // transparency overridden by a parameter filter
+        params.put("TRANSPARENT", "false");
+        request = layerInfoTileLayer.buildDirectGetMap(wms, params, metaTile);
+        assertFalse(request.isTransparent());
+        params.put("TRANSPARENT", "true");
+
+        // parameters needing the full KVP parsing
+        params.put("ENV", "color:FF0000");
+        assertNull(layerInfoTileLayer.buildDirectGetMap(wms, params, metaTile));
+        params.remove("ENV");
+
+        // layer groups
+        assertNull(layerGroupInfoTileLayer.buildDirectGetMap(wms, params, metaTile));
+
+        // disabled service, left to the dispatcher
+        when(wmsInfo.isEnabled()).thenReturn(false);
+        assertNull(layerInfoTileLayer.buildDirectGetMap(wms, params, metaTile));
+        when(wmsInfo.isEnabled()).thenReturn(true);
+
+        // hidden by the secured catalog
+        when(securedCatalog.getLayer(eq(layerInfo.getId()))).thenReturn(null);
+        assertNull(layerInfoTileLayer.buildDirectGetMap(wms, params, metaTile));
+    }
+
     @Test
     public void testGetMimeTypes() throws Exception {
 
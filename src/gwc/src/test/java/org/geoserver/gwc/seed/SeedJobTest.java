@@ -0,0 +1,79 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Properties;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.junit.Test;
+
+public class SeedJobTest {
+
+    @Test
+    public void testCheckpointRoundTrip() {
+        SeedJob job = new SeedJob("topp:states", "EPSG:4326", "image/png", TYPE.RESEED, 2, 8,
+                3, new BoundingBox(-180, -90, 0, 90), Collections.singletonMap("STYLES",
+                        "population"));
+        job.id = 7;
+        job.tilesTotal = 1000;
+        job.levelDone(10);
+        job.levelDone(40);
+
+        SeedJob resumed = SeedJob.fromProperties(7, job.toProperties());
+        assertEquals(7, resumed.getId());
+        assertEquals("topp:states", resumed.getLayerName());
+        assertEquals("EPSG:4326", resumed.getGridSetId());
+        assertEquals("image/png", resumed.getFormat());
+        assertEquals(TYPE.RESEED, resumed.getType());
+        assertEquals(2, resumed.getZoomStart());
+        assertEquals(8, resumed.getZoomStop());
+        assertEquals(3, resumed.threadCount);
+        assertEquals(new BoundingBox(-180, -90, 0, 90), resumed.bounds);
+        assertEquals(Collections.singletonMap("STYLES", "population"), resumed.parameters);
+        // resumes from the first incomplete level
+        assertEquals(4, resumed.getZoom());
+        assertEquals(50, resumed.getTilesDone());
+        assertEquals(1000, resumed.getTilesTotal());
+        assertEquals(SeedJob.State.RUNNING, resumed.getState());
+    }
+
+    @Test
+    public void testCheckpointNoBounds() {
+        SeedJob job = new SeedJob("topp:states", "EPSG:900913", "image/jpeg", TYPE.TRUNCATE, 0,
+                3, 1, null, null);
+        Properties props = job.toProperties();
+        SeedJob resumed = SeedJob.fromProperties(1, props);
+        assertNull(resumed.bounds);
+        assertEquals(0, resumed.parameters.size());
+        assertEquals(0, resumed.getZoom());
+    }
+
+    @Test
+    public void testCheckpointFailed() {
+        SeedJob job = new SeedJob("topp:states", "EPSG:4326", "image/png", TYPE.SEED, 0, 3, 1,
+                null, null);
+        job.state = SeedJob.State.FAILED;
+        job.message = "Task 1 of zoom level 0 is DEAD";
+
+        SeedJob resumed = SeedJob.fromProperties(1, job.toProperties());
+        assertEquals(SeedJob.State.FAILED, resumed.getState());
+        assertEquals("Task 1 of zoom level 0 is DEAD", resumed.getMessage());
+    }
+
+    @Test
+    public void testEta() {
+        SeedJob job = new SeedJob("topp:states", "EPSG:4326", "image/png", TYPE.SEED, 0, 1, 1,
+                null, null);
+        job.tilesTotal = 100;
+        assertEquals(-1, job.getEta());
+        job.state = SeedJob.State.DONE;
+        assertEquals(0, job.getEta());
+    }
+}
@@ -0,0 +1,150 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import net.sf.json.JSONObject;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+
+public class SeedingSchedulerRestletTest {
+
+    private SeedingScheduler scheduler;
+
+    private SeedingSchedulerRestlet restlet;
+
+    private SeedJob job;
+
+    @Before
+    public void setUp() {
+        job = new SeedJob("topp:states", "EPSG:4326", "image/png", TYPE.SEED, 0, 4, 2, null,
+                null);
+        job.id = 3;
+        job.tilesTotal = 100;
+
+        scheduler = mock(SeedingScheduler.class);
+        when(scheduler.getThrottle()).thenReturn(new SeedingThrottle(4));
+        when(scheduler.getJobs()).thenReturn(Arrays.asList(job));
+        when(scheduler.getJob(3)).thenReturn(job);
+        when(scheduler.cancel(3)).thenReturn(true);
+        restlet = new SeedingSchedulerRestlet(scheduler);
+    }
+
+    @Test
+    public void testGetStatus() throws Exception {
+        Response response = handle(Method.GET, null, null);
+        assertEquals(Status.SUCCESS_OK, response.getStatus());
+        JSONObject json = JSONObject.fromObject(response.getEntity().getText());
+        assertEquals(4, json.getInt("maxConcurrency"));
+        assertFalse(json.getBoolean("paused"));
+        assertEquals(1, json.getJSONArray("jobs").size());
+        assertEquals(3, json.getJSONArray("jobs").getJSONObject(0).getInt("id"));
+    }
+
+    @Test
+    public void testGetJob() throws Exception {
+        Response response = handle(Method.GET, "3", null);
+        JSONObject json = JSONObject.fromObject(response.getEntity().getText());
+        assertEquals("topp:states", json.getString("layer"));
+        assertEquals("seed", json.getString("type"));
+        assertEquals("RUNNING", json.getString("state"));
+        assertEquals(100, json.getInt("tilesTotal"));
+
+        assertEquals(Status.CLIENT_ERROR_NOT_FOUND, handle(Method.GET, "4", null).getStatus());
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        Response response = handle(Method.POST, null, "{\"layer\":\"topp:states\","
+                + "\"gridSet\":\"EPSG:4326\",\"type\":\"truncate\",\"zoomStart\":1,"
+                + "\"zoomStop\":3,\"bounds\":[-180,-90,0,90],\"parameters\":{\"STYLES\":\"pop\"}}");
+        assertEquals(Status.SUCCESS_CREATED, response.getStatus());
+        JSONObject json = JSONObject.fromObject(response.getEntity().getText());
+        assertEquals("truncate", json.getString("type"));
+        assertEquals(1, json.getInt("zoomStart"));
+        assertEquals(3, json.getInt("zoomStop"));
+        verify(scheduler).submit(any(SeedJob.class));
+    }
+
+    @Test
+    public void testParse() {
+        SeedJob parsed = SeedingSchedulerRestlet.parse(JSONObject.fromObject("{\"layer\":\"a\","
+                + "\"gridSet\":\"EPSG:4326\",\"zoomStart\":0,\"zoomStop\":2,"
+                + "\"bounds\":[-180,-90,0,90],\"parameters\":{\"STYLES\":\"pop\"}}"));
+        assertEquals(TYPE.SEED, parsed.getType());
+        assertEquals("image/png", parsed.getFormat());
+        assertEquals(1, parsed.threadCount);
+        assertEquals(new BoundingBox(-180, -90, 0, 90), parsed.bounds);
+        assertEquals("pop", parsed.parameters.get("STYLES"));
+    }
+
+    @Test
+    public void testPostInvalid() throws Exception {
+        Response response = handle(Method.POST, null, "{\"layer\":\"topp:states\"}");
+        assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, response.getStatus());
+
+        response = handle(Method.POST, null, "{\"layer\":\"topp:states\","
+                + "\"gridSet\":\"EPSG:4326\",\"zoomStart\":0,\"zoomStop\":3,\"bounds\":[0,0]}");
+        assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, response.getStatus());
+
+        // rejected by the scheduler
+        when(scheduler.submit(any(SeedJob.class))).thenThrow(
+                new IllegalArgumentException("Invalid zoom levels"));
+        response = handle(Method.POST, null, "{\"layer\":\"topp:states\","
+                + "\"gridSet\":\"EPSG:4326\",\"zoomStart\":0,\"zoomStop\":99}");
+        assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, response.getStatus());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        Response response = handle(Method.DELETE, "3", null);
+        assertEquals(Status.SUCCESS_OK, response.getStatus());
+        verify(scheduler).cancel(3);
+
+        assertEquals(Status.CLIENT_ERROR_NOT_FOUND, handle(Method.DELETE, "4", null)
+                .getStatus());
+    }
+
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        Response response = handle(Method.PUT, null, "{}");
+        assertEquals(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED, response.getStatus());
+        response = handle(Method.DELETE, null, null);
+        assertEquals(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED, response.getStatus());
+        assertNull(response.getEntity());
+        verify(scheduler, never()).cancel(3);
+    }
+
+    private Response handle(Method method, String jobId, String body) {
+        Request request = new Request(method, "http://localhost/geoserver/gwc/rest/seeding.json");
+        if (jobId != null) {
+            request.getAttributes().put("job", jobId);
+        }
+        if (body != null) {
+            request.setEntity(body, MediaType.APPLICATION_JSON);
+        }
+        Response response = new Response(request);
+        restlet.handle(request, response);
+        return response;
+    }
+}
@@ -0,0 +1,257 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.gwc.GWC;
+import org.geoserver.platform.GeoServerExtensionsHelper.ExtensionsHelperRule;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.seed.GWCTask;
+import org.geowebcache.seed.GWCTask.STATE;
+import org.geowebcache.seed.GWCTask.TYPE;
+import org.geowebcache.seed.TileBreeder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SeedingSchedulerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Rule
+    public ExtensionsHelperRule extensions = new ExtensionsHelperRule();
+
+    private GeoServerResourceLoader resourceLoader;
+
+    private TileBreeder breeder;
+
+    private TestScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        resourceLoader = new GeoServerResourceLoader(temp.newFolder("data"));
+        breeder = mock(TileBreeder.class);
+        scheduler = new TestScheduler();
+
+        GridSetBroker gridSetBroker = new GridSetBroker(false, false);
+        TileLayer layer = mock(TileLayer.class);
+        when(layer.getGridSubset("EPSG:4326")).thenReturn(
+                GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326));
+        GWC gwc = mock(GWC.class);
+        when(gwc.getTileLayerByName("topp:states")).thenReturn(layer);
+        GWC.set(gwc);
+    }
+
+    @After
+    public void tearDown() {
+        GWC.set(null);
+    }
+
+    @Test
+    public void testAdvance() throws Exception {
+        SeedJob job = newJob(0, 1);
+        long id = scheduler.submit(job);
+        assertEquals(10, job.getTilesTotal());
+        assertEquals(Resource.Type.RESOURCE, scheduler.getCheckpoint(job).getType());
+
+        scheduler.tick();
+        assertEquals(1, scheduler.dispatched.size());
+        assertEquals(0, scheduler.dispatched.get(0).intValue());
+
+        // still running, nothing changes
+        scheduler.tick();
+        assertEquals(1, scheduler.dispatched.size());
+
+        scheduler.complete(2);
+        scheduler.tick();
+        assertEquals(2, scheduler.dispatched.size());
+        assertEquals(1, scheduler.dispatched.get(1).intValue());
+        assertEquals(1, checkpoint(id).getZoom());
+        assertEquals(2, checkpoint(id).getTilesDone());
+
+        scheduler.complete(8);
+        scheduler.tick();
+        assertEquals(SeedJob.State.DONE, job.getState());
+        assertEquals(10, job.getTilesDone());
+        assertEquals(Resource.Type.UNDEFINED, scheduler.getCheckpoint(job).getType());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        SeedJob job = newJob(0, 1);
+        long id = scheduler.submit(job);
+        scheduler.tick();
+        when(scheduler.tasks[0].getState()).thenReturn(STATE.DEAD);
+        scheduler.tick();
+        assertEquals(SeedJob.State.FAILED, job.getState());
+        assertTrue(job.getMessage().contains("DEAD"));
+
+        // reported after a restart, but not run again
+        TestScheduler restarted = new TestScheduler();
+        restarted.resume();
+        assertEquals(SeedJob.State.FAILED, restarted.getJob(id).getState());
+        restarted.tick();
+        assertTrue(restarted.dispatched.isEmpty());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        long id = scheduler.submit(newJob(0, 1));
+        scheduler.tick();
+        scheduler.complete(2);
+        scheduler.tick();
+
+        // restart, the job goes on from the first incomplete level
+        TestScheduler restarted = new TestScheduler();
+        restarted.resume();
+        SeedJob resumed = restarted.getJob(id);
+        assertEquals(SeedJob.State.RUNNING, resumed.getState());
+        assertEquals(1, resumed.getZoom());
+        assertEquals(2, resumed.getTilesDone());
+        restarted.tick();
+        assertEquals(1, restarted.dispatched.size());
+        assertEquals(1, restarted.dispatched.get(0).intValue());
+
+        // new jobs don't reuse the identifier
+        assertTrue(restarted.submit(newJob(0, 0)) > id);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        SeedJob job = newJob(0, 1);
+        long id = scheduler.submit(job);
+        scheduler.tick();
+
+        assertTrue(scheduler.cancel(id));
+        assertEquals(SeedJob.State.CANCELLED, job.getState());
+        verify(breeder).terminateGWCTask(1);
+        assertEquals(Resource.Type.UNDEFINED, scheduler.getCheckpoint(job).getType());
+
+        // a second cancel removes it from the list
+        assertTrue(scheduler.cancel(id));
+        assertNull(scheduler.getJob(id));
+        assertFalse(scheduler.cancel(id));
+    }
+
+    @Test
+    public void testCancelFailed() throws Exception {
+        SeedJob job = newJob(0, 1);
+        long id = scheduler.submit(job);
+        scheduler.fail(job, "failed");
+        assertEquals(Resource.Type.RESOURCE, scheduler.getCheckpoint(job).getType());
+
+        assertTrue(scheduler.cancel(id));
+        assertNull(scheduler.getJob(id));
+        assertEquals(Resource.Type.UNDEFINED, scheduler.getCheckpoint(job).getType());
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        List<SeedJob> failed = new ArrayList<SeedJob>();
+        for (int i = 0; i <= SeedingScheduler.MAX_COMPLETED; i++) {
+            SeedJob job = newJob(0, 0);
+            scheduler.submit(job);
+            scheduler.fail(job, "failed");
+            failed.add(job);
+        }
+        scheduler.purge();
+
+        // the oldest is gone, along with its checkpoint
+        SeedJob oldest = failed.get(0);
+        assertNull(scheduler.getJob(oldest.getId()));
+        assertEquals(Resource.Type.UNDEFINED, scheduler.getCheckpoint(oldest).getType());
+        SeedJob newest = failed.get(failed.size() - 1);
+        assertEquals(newest, scheduler.getJob(newest.getId()));
+        assertEquals(SeedingScheduler.MAX_COMPLETED, scheduler.getJobs().size());
+    }
+
+    @Test
+    public void testMaxPermitsWithoutWMS() throws Exception {
+        // no WMS bean, and the global rendering pool disabled
+        extensions.property("USE_GLOBAL_RENDERING_POOL", "false");
+        SeedingScheduler scheduler = new SeedingScheduler(breeder, resourceLoader,
+                mock(LiveLatencyMonitor.class));
+        int cpus = Runtime.getRuntime().availableProcessors();
+        assertEquals(Math.max(1, Math.round(0.5 * cpus)), scheduler.getThrottle()
+                .getMaxPermits());
+        assertSame(scheduler.getThrottle(), scheduler.getThrottle());
+    }
+
+    @Test
+    public void testMaxPermitsFromWMS() throws Exception {
+        WMSInfo info = mock(WMSInfo.class);
+        when(info.getMaxRenderingThreads()).thenReturn(2);
+        WMS wms = mock(WMS.class);
+        when(wms.getServiceInfo()).thenReturn(info);
+        extensions.singleton("wms", wms, WMS.class);
+
+        SeedingScheduler scheduler = new SeedingScheduler(breeder, resourceLoader,
+                mock(LiveLatencyMonitor.class));
+        assertEquals(1, scheduler.getThrottle().getMaxPermits());
+    }
+
+    private SeedJob newJob(int zoomStart, int zoomStop) {
+        return new SeedJob("topp:states", "EPSG:4326", "image/png", TYPE.SEED, zoomStart,
+                zoomStop, 1, null, null);
+    }
+
+    private SeedJob checkpoint(long id) throws Exception {
+        TestScheduler reader = new TestScheduler();
+        reader.resume();
+        return reader.getJob(id);
+    }
+
+    /**
+     * Records the zoom levels dispatched instead of handing them to the breeder
+     */
+    class TestScheduler extends SeedingScheduler {
+
+        List<Integer> dispatched = new ArrayList<Integer>();
+
+        GWCTask[] tasks;
+
+        TestScheduler() {
+            super(breeder, resourceLoader, mock(LiveLatencyMonitor.class), 2, 1000);
+        }
+
+        @Override
+        GWCTask[] dispatch(SeedJob job) {
+            dispatched.add(job.zoom);
+            GWCTask task = mock(GWCTask.class);
+            when(task.getTaskId()).thenReturn(1L);
+            when(task.getState()).thenReturn(STATE.RUNNING);
+            tasks = new GWCTask[] { task };
+            return tasks;
+        }
+
+        /**
+         * Completes the tasks of the current zoom level
+         */
+        void complete(long tiles) {
+            when(tasks[0].getState()).thenReturn(STATE.DONE);
+            when(tasks[0].getTilesDone()).thenReturn(tiles);
+        }
+    }
+}
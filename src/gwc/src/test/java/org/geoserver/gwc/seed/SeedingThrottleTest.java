@@ -0,0 +1,104 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SeedingThrottleTest {
+
+    @Test
+    public void testAdjust() {
+        SeedingThrottle throttle = new SeedingThrottle(4);
+        assertEquals(4, throttle.getLimit());
+
+        // not overloaded, stays at the max
+        throttle.adjust(false);
+        assertEquals(4, throttle.getLimit());
+
+        // halved down to pausing
+        throttle.adjust(true);
+        assertEquals(2, throttle.getLimit());
+        throttle.adjust(true);
+        assertEquals(1, throttle.getLimit());
+        throttle.adjust(true);
+        assertEquals(0, throttle.getLimit());
+        assertTrue(throttle.isPaused());
+        throttle.adjust(true);
+        assertEquals(0, throttle.getLimit());
+
+        // raised back one at a time
+        throttle.adjust(false);
+        assertEquals(1, throttle.getLimit());
+        assertFalse(throttle.isPaused());
+        for (int i = 0; i < 10; i++) {
+            throttle.adjust(false);
+        }
+        assertEquals(4, throttle.getLimit());
+    }
+
+    @Test
+    public void testAcquireWaitsForPermit() throws Exception {
+        final SeedingThrottle throttle = new SeedingThrottle(1);
+        throttle.acquire();
+        assertTrue(SeedingThrottle.isSeeding());
+        assertEquals(1, throttle.getActive());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread seeder = new Thread() {
+            public void run() {
+                try {
+                    throttle.acquire();
+                    acquired.countDown();
+                    throttle.release();
+                } catch (InterruptedException e) {
+                    // test fails on the latch
+                }
+            }
+        };
+        seeder.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        throttle.release();
+        assertFalse(SeedingThrottle.isSeeding());
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        seeder.join();
+        assertEquals(0, throttle.getActive());
+        assertEquals(2, throttle.getTilesSeeded());
+    }
+
+    @Test
+    public void testPausedUntilRaised() throws Exception {
+        final SeedingThrottle throttle = new SeedingThrottle(2);
+        throttle.adjust(true);
+        throttle.adjust(true);
+        assertTrue(throttle.isPaused());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread seeder = new Thread() {
+            public void run() {
+                try {
+                    throttle.acquire();
+                    acquired.countDown();
+                    throttle.release();
+                } catch (InterruptedException e) {
+                    // test fails on the latch
+                }
+            }
+        };
+        seeder.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        throttle.adjust(false);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        seeder.join();
+    }
+}
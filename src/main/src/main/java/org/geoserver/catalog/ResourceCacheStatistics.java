@@ -0,0 +1,91 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Point in time statistics of one of the {@link ResourcePool} caches.
+ * <p>
+ * Load times are expressed in nanoseconds.
+ * </p>
+ */
+public class ResourceCacheStatistics {
+
+    String name;
+
+    String specification;
+
+    long size;
+
+    CacheStats stats;
+
+    public ResourceCacheStatistics(String name, String specification, long size, CacheStats stats) {
+        this.name = name;
+        this.specification = specification;
+        this.size = size;
+        this.stats = stats;
+    }
+
+    /**
+     * The cache name, e.g. {@link ResourcePool#DATASTORE_CACHE}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The Guava cache specification the cache has been built from, empty if the cache is not
+     * bounded
+     */
+    public String getSpecification() {
+        return specification;
+    }
+
+    /**
+     * The approximate number of entries in the cache
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return stats.hitCount();
+    }
+
+    public long getMissCount() {
+        return stats.missCount();
+    }
+
+    public double getHitRate() {
+        return stats.hitRate();
+    }
+
+    public long getLoadSuccessCount() {
+        return stats.loadSuccessCount();
+    }
+
+    public long getLoadExceptionCount() {
+        return stats.loadExceptionCount();
+    }
+
+    public long getTotalLoadTime() {
+        return stats.totalLoadTime();
+    }
+
+    public double getAverageLoadPenalty() {
+        return stats.averageLoadPenalty();
+    }
+
+    public long getEvictionCount() {
+        return stats.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceCacheStatistics[name=" + name + ", specification=" + specification
+                + ", size=" + size + ", " + stats + "]";
+    }
+}
@@ -16,23 +16,38 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,6 +77,7 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.platform.resource.ResourceListener;
 import org.geoserver.platform.resource.ResourceNotification;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
@@ -96,7 +112,6 @@ import org.geotools.gml2.GML;
 import org.geotools.measure.Measure;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.Schemas;
 import org.opengis.coverage.grid.GridCoverage;
@@ -116,9 +131,22 @@ import org.opengis.referencing.crs.SingleCRS;
 import org.opengis.referencing.cs.CoordinateSystem;
 import org.opengis.referencing.operation.TransformException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.vfny.geoserver.global.GeoServerFeatureLocking;
 import org.vfny.geoserver.util.DataStoreUtils;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * Provides access to resources such as datastores, coverage readers, and 
  * feature types.
@@ -135,6 +163,14 @@ import org.vfny.geoserver.util.DataStoreUtils;
  * <li>{@link #hintCoverageReaderCache} </li>
  * <li>{@link #styleCache} </li>
  * </p>
+ * <p>
+ * The caches are bounded and each one can be tuned with a Guava {@link CacheBuilderSpec} provided
+ * by a system property, servlet context parameter or environment variable named after the cache,
+ * e.g. <code>-Dorg.geoserver.catalog.ResourcePool.dataStoreCache=maximumSize=500,expireAfterAccess=2h</code>.
+ * Caches holding live connections (data stores, coverage readers, WMS servers) are not bounded by
+ * default, as evicting them disposes resources that might still be in use. Hit, miss and load
+ * statistics are available via {@link #getCacheStatistics()}.
+ * </p>
  * 
  * @author Justin Deoliveira, Boundless
  */
@@ -176,9 +212,37 @@ public class ResourcePool {
     }
     
     /**
-     * Default number of hard references
+     * Default number of cached feature types
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * Default maximum number of cached coordinate reference systems and styles
+     */
+    static int CRS_CACHE_SIZE_DEFAULT = 10000;
+    static int STYLE_CACHE_SIZE_DEFAULT = 5000;
+
+    /**
+     * Prefix of the properties used to configure the caches, see {@link #getCacheSpec(String, String)}
+     */
+    static final String CACHE_SPEC_PROPERTY_PREFIX = "org.geoserver.catalog.ResourcePool.";
+
+    /**
+     * Property setting the default load timeout in milliseconds, see {@link #setLoadTimeout(long)}
+     */
+    static final String LOAD_TIMEOUT_PROPERTY = "org.geoserver.catalog.ResourcePool.loadTimeout";
+
+    /**
+     * Cache names, as used in the configuration properties and statistics
+     */
+    public static final String CRS_CACHE = "crsCache";
+    public static final String DATASTORE_CACHE = "dataStoreCache";
+    public static final String FEATURETYPE_CACHE = "featureTypeCache";
+    public static final String FEATURETYPE_ATTRIBUTE_CACHE = "featureTypeAttributeCache";
+    public static final String COVERAGE_READER_CACHE = "coverageReaderCache";
+    public static final String HINT_COVERAGE_READER_CACHE = "hintCoverageReaderCache";
+    public static final String WMS_CACHE = "wmsCache";
+    public static final String STYLE_CACHE = "styleCache";
     
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
@@ -195,6 +259,8 @@ public class ResourcePool {
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
+    volatile long loadTimeout;
+    ExecutorService loadExecutor;
 
     /**
      * Creates a new instance of the resource pool.
@@ -231,6 +297,16 @@ public class ResourcePool {
         styleCache = createStyleCache();
 
         listeners = new CopyOnWriteArrayList<Listener>();
+        
+        String timeout = GeoServerExtensions.getProperty(LOAD_TIMEOUT_PROPERTY);
+        if (timeout != null) {
+            try {
+                loadTimeout = Long.parseLong(timeout.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + LOAD_TIMEOUT_PROPERTY + ": " + timeout
+                        + ", loads will wait with no timeout");
+            }
+        }
     }
 
     /**
@@ -271,7 +347,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new CrsCache();
     }
 
     /**
@@ -377,7 +453,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new StyleCache();
     }
 
     /**
@@ -404,6 +480,9 @@ public class ResourcePool {
      * </p>
      */
     public void setFeatureTypeCacheSize(int featureTypeCacheSize) {
+        if (featureTypeCacheSize <= 0) {
+            featureTypeCacheSize = FEATURETYPE_CACHE_SIZE_DEFAULT;
+        }
         synchronized (this) {
             featureTypeCache.clear();
             featureTypeCache = createFeatureTypeCache(featureTypeCacheSize);
@@ -423,6 +502,42 @@ public class ResourcePool {
             this.coverageExecutor = coverageExecutor;
         }
     }
+
+    /**
+     * Returns the maximum time, in milliseconds, a request waits for a feature type or coverage 
+     * reader to be loaded, zero or negative if it waits with no limit.
+     */
+    public long getLoadTimeout() {
+        return loadTimeout;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, a request waits for a feature type or coverage 
+     * reader to be loaded.
+     * <p>
+     * When positive the loads run in a separate thread pool: concurrent requests for the same
+     * resource share the same load, and a request giving up after the timeout gets an 
+     * {@link IOException} while the load keeps going and caches its result for the following 
+     * requests. When zero or negative (the default, unless the 
+     * <code>org.geoserver.catalog.ResourcePool.loadTimeout</code> property is set) resources are
+     * loaded in the requesting thread.
+     * </p>
+     */
+    public void setLoadTimeout(long loadTimeout) {
+        this.loadTimeout = loadTimeout;
+    }
+
+    /**
+     * The thread pool running the loads when a load timeout is set, created on demand
+     */
+    synchronized ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ResourcePoolLoader-");
+            threadFactory.setDaemon(true);
+            loadExecutor = Executors.newCachedThreadPool(threadFactory);
+        }
+        return loadExecutor;
+    }
     
     /**
      * Adds a pool listener.
@@ -455,29 +570,18 @@ public class ResourcePool {
      * @throws IOException In the event the srsName can not be parsed or leads 
      * to an exception in the underlying call to CRS.decode.
      */
-    public CoordinateReferenceSystem getCRS( String srsName )
+    public CoordinateReferenceSystem getCRS( final String srsName )
         throws IOException {
         
         if(srsName == null)
             return null;
         
-        CoordinateReferenceSystem crs = crsCache.get( srsName );
-        if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
-                if ( crs == null ) {
-                    try {
-                        crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
-                    }
-                    catch( Exception e) {
-                        throw (IOException) new IOException().initCause(e);
-                    }
-                }
+        return cached(crsCache, srsName, new Callable<CoordinateReferenceSystem>() {
+            @Override
+            public CoordinateReferenceSystem call() throws Exception {
+                return CRS.decode( srsName );
             }
-        }
-        
-        return crs;
+        });
     }
     
     /**
@@ -518,112 +622,18 @@ public class ResourcePool {
      * @throws IOException Any errors that occur connecting to the resource.
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
-        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
         try {
-            String id = info.getId();
-            dataStore = dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        // call this method to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = ResourcePool.getParams(connectionParameters, catalog.getResourceLoader() );
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        if (factory == null) {
-                            throw new IOException("Failed to find the datastore factory for "
-                                    + info.getName()
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
-                    }
-                } 
-            }
-            
-            return dataStore;
-        } catch (Exception e) {
-            // if anything goes wrong we have to clean up the store anyways
-            if(dataStore != null) {
-                try {
-                    dataStore.dispose();
-                } catch(Exception ex) {
-                    // fine, we had to try
+            // cache only if the id is not null, no need to cache the stores
+            // returned from un-saved DataStoreInfo objects (it would be actually
+            // harmful, NPE when trying to dispose of them)
+            return cached(dataStoreCache, info.getId(), new Callable<DataAccess>() {
+                @Override
+                public DataAccess call() throws Exception {
+                    return createDataStore(info);
                 }
-            }
+            });
+        } catch (Exception e) {
             if(e instanceof IOException) {
                 throw (IOException) e;
             } else {
@@ -631,6 +641,90 @@ public class ResourcePool {
             }
         }
     }
+
+    /**
+     * Creates the underlying resource for a DataAccess, without caching it.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore(DataStoreInfo info) throws IOException {
+        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+        
+        // call this method to execute the hack which recognizes 
+        // urls which are relative to the data directory
+        // TODO: find a better way to do this
+        connectionParameters = ResourcePool.getParams(connectionParameters, catalog.getResourceLoader() );
+        
+        // obtain the factory
+        DataAccessFactory factory = null;
+        try {
+            factory = getDataStoreFactory(info);
+        } catch(IOException e) {
+            throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                    + ", did you forget to install the store extension jar?");
+        }
+        if (factory == null) {
+            throw new IOException("Failed to find the datastore factory for "
+                    + info.getName()
+                    + ", did you forget to install the store extension jar?");
+        }
+        Param[] params = factory.getParametersInfo();
+        
+        //ensure that the namespace parameter is set for the datastore
+        if (!connectionParameters.containsKey( "namespace") && params != null) {
+            //if we grabbed the factory, check that the factory actually supports
+            // a namespace parameter, if we could not get the factory, assume that
+            // it does
+            boolean supportsNamespace = true;
+            supportsNamespace = false;
+            
+            for ( Param p : params ) {
+                if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                    supportsNamespace = true;
+                    break;
+                }
+            }
+            
+            if ( supportsNamespace ) {
+                WorkspaceInfo ws = info.getWorkspace();
+                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                if ( ns == null ) {
+                    ns = info.getCatalog().getDefaultNamespace();
+                }
+                if ( ns != null ) {
+                    connectionParameters.put( "namespace", ns.getURI() );
+                }    
+            }
+        }
+        
+        // see if the store has a repository param, if so, pass the one wrapping
+        // the store
+        if(params != null) {
+            for ( Param p : params ) {
+                if(Repository.class.equals(p.getType())) {
+                    connectionParameters.put(p.getName(), repository);
+                }
+            }
+        }
+        
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+        if (dataStore == null) {
+            /*
+             * Preserve DataStore retyping behaviour by calling
+             * DataAccessFinder.getDataStore after the call to
+             * DataStoreUtils.getDataStore above.
+             * 
+             * TODO: DataAccessFinder can also find DataStores, and when retyping is
+             * supported for DataAccess, we can use a single mechanism.
+             */
+            dataStore = DataAccessFinder.getDataStore(connectionParameters);
+        }
+        
+        if ( dataStore == null ) {
+            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
+        }
+        
+        return dataStore;
+    }
         
     /**
      * Process conneciton parameters into a synchronized map.
@@ -696,7 +790,7 @@ public class ResourcePool {
         dataStoreCache.remove( info.getId() );
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -708,33 +802,25 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
-        //check the cache
-        List<AttributeTypeInfo> atts = featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
+        //check the cache, attributes are cached only if the id is not null -> the feature type 
+        // is not new
+        return cached(featureTypeAttributeCache, info.getId(), new Callable<List<AttributeTypeInfo>>() {
+            @Override
+            public List<AttributeTypeInfo> call() throws Exception {
+                //load from feature type
+                List<AttributeTypeInfo> atts = loadAttributes(info);
+                
+                //check for a schema override
+                try {
+                    handleSchemaOverride(atts,info);
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, 
+                        "Error occured applying schema override for "+info.getName(), e);
                 }
+                return atts;
             }
-        }
-        
-        return atts;
+        });
     }
     
     public List<AttributeTypeInfo> loadAttributes(FeatureTypeInfo info) throws IOException {
@@ -868,6 +954,9 @@ public class ResourcePool {
     FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
         try {
             return tryGetFeatureType(info, handleProjectionPolicy);
+        } catch (LoadTimeoutException ex) {
+            // the load is still running, flushing the store would make it fail
+            throw ex;
         } catch (Exception ex) {
             LOGGER.log(Level.WARNING,
                     "Error while getting feature type, flushing cache and retrying: {0}",
@@ -885,29 +974,22 @@ public class ResourcePool {
                            getNonCacheableFeatureType(info, handleProjectionPolicy);
     }
 
-    FeatureType getCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+    FeatureType getCacheableFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
         String key = getFeatureTypeInfoKey(info, handleProjectionPolicy);
-        FeatureType ft = featureTypeCache.get( key );
-        if ( ft == null ) {
-            synchronized ( featureTypeCache ) {
-                ft = featureTypeCache.get( key );
-                if ( ft == null ) {
-
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    FeatureTypeCallback initializer = getFeatureTypeInitializer(info, dataAccess);
-                    if (initializer != null) {
-                        initializer.initialize(info, dataAccess, null);
-                    }
-                    // ft = jstore.getSchema(vt.getName());
-                    ft = dataAccess.getSchema(info.getQualifiedNativeName());
-                    ft = buildFeatureType(info, handleProjectionPolicy, ft);
-
-                    featureTypeCache.put( key, ft );
+        return cached(featureTypeCache, key, new Callable<FeatureType>() {
+            @Override
+            public FeatureType call() throws Exception {
+                //grab the underlying feature type
+                DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+                FeatureTypeCallback initializer = getFeatureTypeInitializer(info, dataAccess);
+                if (initializer != null) {
+                    initializer.initialize(info, dataAccess, null);
                 }
+                // ft = jstore.getSchema(vt.getName());
+                FeatureType ft = dataAccess.getSchema(info.getQualifiedNativeName());
+                return buildFeatureType(info, handleProjectionPolicy, ft);
             }
-        }
-        return ft;
+        }, loadTimeout);
     }
 
     private FeatureType getNonCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
@@ -1389,7 +1471,6 @@ public class ResourcePool {
         
         // look into the cache
         GridCoverageReader reader = null;
-        Object key;
         if ( hints != null && info.getId() != null) {
             // expand the hints if necessary
             final String formatName = gridFormat.getName();
@@ -1405,52 +1486,11 @@ public class ResourcePool {
                 }
             }
             
-            key = new CoverageHintReaderKey(info.getId(), hints);
-            reader = hintCoverageReaderCache.get( key );
+            CoverageHintReaderKey key = new CoverageHintReaderKey(info.getId(), hints);
+            reader = cached(hintCoverageReaderCache, key, new CoverageReaderLoader(info, gridFormat, hints), loadTimeout);
         } else {
-            key = info.getId();
-            if(key != null) {
-                reader = coverageReaderCache.get( key );
-            }
-        }
-        
-        // if not found in cache, create it
-        if(reader == null) {
-            synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-                if (key != null) {
-                    if (hints != null) {
-                        reader = hintCoverageReaderCache.get(key);
-                    } else {
-                        reader = coverageReaderCache.get(key);
-                    }
-                }
-                if (reader == null) {
-                    /////////////////////////////////////////////////////////
-                    //
-                    // Getting coverage reader using the format and the real path.
-                    //
-                    // /////////////////////////////////////////////////////////
-                    final String url = info.getURL();
-                    GeoServerResourceLoader loader = catalog.getResourceLoader();
-                    final File obj = loader.url(url);
-
-                    // In case no File is returned, provide the original String url
-                    final Object input = obj != null ? obj : url;  
-
-                    // readers might change the provided hints, pass down a defensive copy
-                    reader = gridFormat.getReader(input, new Hints(hints));
-                    if(reader == null) {
-                        throw new IOException("Failed to create reader from " + url + " and hints " + hints);
-                    }
-                    if(key != null) {
-                        if(hints != null) {
-                            hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                        } else {
-                            coverageReaderCache.put((String) key, reader);
-                        }
-                    }
-                }
-            }
+            // readers created for unsaved stores (null id) are not cached
+            reader = cached(coverageReaderCache, info.getId(), new CoverageReaderLoader(info, gridFormat, hints), loadTimeout);
         }
 
         if (coverageInfo != null) {
@@ -1486,6 +1526,46 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Creates a coverage reader using the store format and its resolved url
+     */
+    class CoverageReaderLoader implements Callable<GridCoverageReader> {
+        CoverageStoreInfo info;
+
+        AbstractGridFormat gridFormat;
+
+        Hints hints;
+
+        CoverageReaderLoader(CoverageStoreInfo info, AbstractGridFormat gridFormat, Hints hints) {
+            this.info = info;
+            this.gridFormat = gridFormat;
+            this.hints = hints;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public GridCoverageReader call() throws Exception {
+            /////////////////////////////////////////////////////////
+            //
+            // Getting coverage reader using the format and the real path.
+            //
+            // /////////////////////////////////////////////////////////
+            final String url = info.getURL();
+            GeoServerResourceLoader loader = catalog.getResourceLoader();
+            final File obj = loader.url(url);
+
+            // In case no File is returned, provide the original String url
+            final Object input = obj != null ? obj : url;  
+
+            // readers might change the provided hints, pass down a defensive copy
+            GridCoverageReader reader = gridFormat.getReader(input, new Hints(hints));
+            if(reader == null) {
+                throw new IOException("Failed to create reader from " + url + " and hints " + hints);
+            }
+            return reader;
+        }
+    }
+
     /**
      * Clears any cached readers for the coverage.
      */
@@ -1639,25 +1719,17 @@ public class ResourcePool {
      * @param info The WMS configuration
      * @throws IOException
      */
-    public WebMapServer getWebMapServer(WMSStoreInfo info) throws IOException {
+    public WebMapServer getWebMapServer(final WMSStoreInfo info) throws IOException {
         try {
-            String id = info.getId();
-            WebMapServer wms = wmsCache.get(id);
-            if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client = getHTTPClient(info);
-                        String capabilitiesURL = info.getCapabilitiesURL();
-                        URL serverURL = new URL(capabilitiesURL);
-                        wms = new WebMapServer(serverURL, client);
-                        
-                        wmsCache.put(id, wms);
-                    }
+            return cached(wmsCache, info.getId(), new Callable<WebMapServer>() {
+                @Override
+                public WebMapServer call() throws Exception {
+                    HTTPClient client = getHTTPClient(info);
+                    String capabilitiesURL = info.getCapabilitiesURL();
+                    URL serverURL = new URL(capabilitiesURL);
+                    return new WebMapServer(serverURL, client);
                 }
-            }
-
-            return wms;
+            });
         } catch (IOException ioe) {
             throw ioe;
         } catch (Exception e) {
@@ -1743,36 +1815,48 @@ public class ResourcePool {
      * @throws IOException Any parsing errors.
      */
     public Style getStyle( final StyleInfo info ) throws IOException {
-        Style style = styleCache.get( info );
-        if ( style == null ) {
-            synchronized (styleCache) {
-                style = styleCache.get( info );
-                if ( style == null ) {
-                    style = dataDir().parsedStyle(info);
-
-                    if (style == null) {
-                        throw new ServiceException("Could not extract a UserStyle definition from "
-                                + info.getName());
-                    }
+        return cached(styleCache, info, new Callable<Style>() {
+            @Override
+            public Style call() throws Exception {
+                Style style = dataDir().parsedStyle(info);
+
+                if (style == null) {
+                    throw new ServiceException("Could not extract a UserStyle definition from "
+                            + info.getName());
+                }
 
-                    // remove this when wms works off style info
-                    style.setName( info.getName() );
-                    styleCache.put( info, style );
-                    
-                    final Resource styleResource = dataDir().style(info);
-                    styleResource.addListener( new ResourceListener() {
-                        @Override
-                        public void changed(ResourceNotification notify) {
-                            styleCache.remove(info);
-                            styleResource.removeListener( this );
-                        }
-                    });
-                    
+                // remove this when wms works off style info
+                style.setName( info.getName() );
+                
+                StyleResourceListener listener = new StyleResourceListener(info, dataDir().style(info));
+                if (styleCache instanceof StyleCache) {
+                    ((StyleCache) styleCache).listeners.put(info, listener);
                 }
+                
+                return style;
             }
+        });
+    }
+
+    /**
+     * Drops the cached style when its file changes
+     */
+    class StyleResourceListener implements ResourceListener {
+        StyleInfo info;
+
+        Resource styleResource;
+
+        StyleResourceListener(StyleInfo info, Resource styleResource) {
+            this.info = info;
+            this.styleResource = styleResource;
+            styleResource.addListener(this);
+        }
+
+        @Override
+        public void changed(ResourceNotification notify) {
+            styleCache.remove(info);
+            styleResource.removeListener( this );
         }
-        
-        return style;
     }
 
     /**
@@ -1900,62 +1984,357 @@ public class ResourcePool {
         wmsCache.clear();
         styleCache.clear();
         listeners.clear();
+        synchronized (this) {
+            if (loadExecutor != null) {
+                loadExecutor.shutdownNow();
+                loadExecutor = null;
+            }
+        }
     }
     
+    /**
+     * Looks up a resource in one of the caches, loading and caching it if missing.
+     * <p>
+     * {@link CatalogResourceCache} instances load each key on its own, so a slow load only
+     * blocks the callers asking for the same resource. Caches provided by subclasses as plain maps
+     * are locked during the load instead. A <code>null</code> key means the resource is not
+     * cacheable (e.g., it belongs to a not yet saved catalog object), it is loaded every time.
+     * </p>
+     */
+    <K, V> V cached(Map<K, V> cache, K key, Callable<? extends V> loader) throws IOException {
+        return cached(cache, key, loader, 0);
+    }
+
+    /**
+     * Same as {@link #cached(Map, Object, Callable)}, but waits at most <code>timeout</code> 
+     * milliseconds for the resource to be loaded, see {@link CatalogResourceCache#get(Object, Callable, long)}
+     */
+    @SuppressWarnings("unchecked")
+    <K, V> V cached(Map<K, V> cache, K key, Callable<? extends V> loader, long timeout)
+            throws IOException {
+        if (key == null) {
+            return load(loader);
+        }
+        if (cache instanceof CatalogResourceCache) {
+            return ((CatalogResourceCache<K, V>) cache).get(key, loader, timeout);
+        }
+
+        V value = cache.get(key);
+        if (value == null) {
+            synchronized (cache) {
+                value = cache.get(key);
+                if (value == null) {
+                    value = load(loader);
+                    if (value != null) {
+                        cache.put(key, value);
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    static <V> V load(Callable<? extends V> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            Throwables.propagateIfPossible(e, IOException.class);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns the specification used to build a cache, as a {@link CacheBuilderSpec} string.
+     * <p>
+     * The specification is looked up with {@link GeoServerExtensions#getProperty(String)} using
+     * the cache name prefixed by <code>org.geoserver.catalog.ResourcePool.</code>, if not found or
+     * invalid the default one is used.
+     * </p>
+     */
+    static String getCacheSpec(String name, String defaultSpec) {
+        String spec = GeoServerExtensions.getProperty(CACHE_SPEC_PROPERTY_PREFIX + name);
+        if (spec != null) {
+            try {
+                CacheBuilderSpec.parse(spec);
+                return spec;
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Invalid specification '" + spec + "' for the " + name
+                        + ", using '" + defaultSpec + "' instead", e);
+            }
+        }
+        return defaultSpec;
+    }
+
+    /**
+     * Returns the statistics of the resource caches, keyed by cache name.
+     * <p>
+     * Caches that are not {@link CatalogResourceCache} instances (e.g., plain maps provided by 
+     * subclasses) do not collect statistics and are not included.
+     * </p>
+     */
+    public Map<String, ResourceCacheStatistics> getCacheStatistics() {
+        Map<String, ResourceCacheStatistics> result = new LinkedHashMap<String, ResourceCacheStatistics>();
+        for (Map<?, ?> cache : Arrays.asList(crsCache, dataStoreCache, featureTypeCache,
+                featureTypeAttributeCache, coverageReaderCache, hintCoverageReaderCache,
+                wmsCache, styleCache)) {
+            if (cache instanceof CatalogResourceCache) {
+                ResourceCacheStatistics stats = ((CatalogResourceCache<?, ?>) cache).getStatistics();
+                result.put(stats.getName(), stats);
+            }
+        }
+        return result;
+    }
+
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The cache is a bounded Guava cache built from a {@link CacheBuilderSpec}, see 
+     * {@link ResourcePool#getCacheSpec(String, String)}. Entries are disposed when they are 
+     * removed, evicted or expire. If the specification uses <code>maximumWeight</code> the 
+     * entries are weighted with {@link #weigh(Object, Object)}.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends AbstractMap<K, V> {
+
+        final String name;
+
+        final String spec;
+
+        final Cache<K, V> cache;
+
+        final ConcurrentMap<K, V> map;
+
+        /**
+         * Loads in progress in the load executor, shared by all the requests waiting for the same key
+         */
+        final ConcurrentMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+        public CatalogResourceCache(String name, String defaultSpec) {
+            this.name = name;
+            this.spec = getCacheSpec(name, defaultSpec);
+
+            CacheBuilder<K, V> builder = CacheBuilder.from(spec).recordStats()
+                    .removalListener(new RemovalListener<K, V>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<K, V> notification) {
+                            // replaced values are handled by whoever replaced them, collected
+                            // ones (soft or weak values) are gone already
+                            V value = notification.getValue();
+                            if (notification.getCause() == RemovalCause.REPLACED || value == null) {
+                                return;
+                            }
+                            try {
+                                dispose(notification.getKey(), value);
+                            } catch (Exception e) {
+                                LOGGER.log(Level.WARNING, "Error disposing entry: "
+                                        + notification.getKey(), e);
+                            }
+                        }
+                    });
+            if (spec.contains("maximumWeight")) {
+                builder = builder.weigher(new Weigher<K, V>() {
+                    @Override
+                    public int weigh(K key, V value) {
+                        return CatalogResourceCache.this.weigh(key, value);
+                    }
+                });
+            }
+            this.cache = builder.build();
+            this.map = cache.asMap();
+        }
 
-        public CatalogResourceCache() {
-            this(100);
+        /**
+         * Returns the value associated to the key, loading it if missing. Concurrent calls for
+         * the same key wait for a single load, calls for other keys are not blocked.
+         */
+        public V get(K key, Callable<? extends V> loader) throws IOException {
+            try {
+                return cache.get(key, loader);
+            } catch (InvalidCacheLoadException e) {
+                // the loader returned null, nothing to cache
+                return null;
+            } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                Throwables.propagateIfPossible(cause, IOException.class);
+                throw new IOException(cause);
+            }
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
+        /**
+         * Returns the value associated to the key, loading it if missing and waiting at most 
+         * <code>timeout</code> milliseconds for the load to complete.
+         * <p>
+         * The load runs in the resource pool load executor, carrying over the thread locals of the
+         * request that started it. Requests for the same key arriving while the load is in progress
+         * wait for it instead of starting a new one. A non positive timeout loads in the calling 
+         * thread, as {@link #get(Object, Callable)} does.
+         * </p>
+         */
+        public V get(final K key, final Callable<? extends V> loader, long timeout)
+                throws IOException {
+            if (timeout <= 0) {
+                return get(key, loader);
+            }
 
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
+            // no need to hand over to another thread if the value is there already
+            if (map.containsKey(key)) {
+                V value = cache.getIfPresent(key);
+                if (value != null) {
+                    return value;
                 }
-            };
+            }
+
+            CompletableFuture<V> future = loading.get(key);
+            if (future == null) {
+                final CompletableFuture<V> load = new CompletableFuture<V>();
+                future = loading.putIfAbsent(key, load);
+                if (future == null) {
+                    future = load;
+                    final ThreadLocalsTransfer threadLocals = new ThreadLocalsTransfer();
+                    try {
+                        getLoadExecutor().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                threadLocals.apply();
+                                try {
+                                    load.complete(get(key, loader));
+                                } catch (Throwable t) {
+                                    load.completeExceptionally(t);
+                                } finally {
+                                    loading.remove(key, load);
+                                    threadLocals.cleanup();
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        loading.remove(key, load);
+                        throw new IOException("Could not schedule the load of " + key + " in the " 
+                                + name, e);
+                    }
+                }
+            }
+
+            try {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new LoadTimeoutException("Timed out after " + timeout + "ms waiting for "
+                        + key + " to be loaded in the " + name
+                        + ", the load continues in background");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + key
+                        + " to be loaded in the " + name);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                Throwables.propagateIfPossible(cause, IOException.class);
+                throw new IOException(cause);
+            }
+        }
+
+        public ResourceCacheStatistics getStatistics() {
+            return new ResourceCacheStatistics(name, spec, cache.size(), cache.stats());
+        }
+
+        @Override
+        public V get(Object key) {
+            return key == null ? null : map.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && map.containsKey(key);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return map.put(key, value);
         }
 
         @Override
         public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, object);
-            }
-            return object;
+            // disposal happens in the removal listener
+            return key == null ? null : map.remove(key);
         }
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
-                try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
-                }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
-                }
-            }
-            super.clear();
+            cache.invalidateAll();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return map.keySet();
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return map.entrySet();
+        }
+
+        /**
+         * Weight of an entry, used only when the cache is bounded by <code>maximumWeight</code>
+         */
+        protected int weigh(K key, V value) {
+            return 1;
         }
 
         protected abstract void dispose(K key, V object);
     }
+
+    class CrsCache extends CatalogResourceCache<String, CoordinateReferenceSystem> {
+
+        CrsCache() {
+            super(CRS_CACHE, "maximumSize=" + CRS_CACHE_SIZE_DEFAULT);
+        }
+
+        @Override
+        protected void dispose(String key, CoordinateReferenceSystem crs) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Keeps track of the listeners used to clear the cached styles when their file changes, so that
+     * they can be removed when the style is evicted
+     */
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+
+        // identity based, the style info hash code changes when the style is modified
+        Map<StyleInfo, StyleResourceListener> listeners = Collections
+                .synchronizedMap(new IdentityHashMap<StyleInfo, StyleResourceListener>());
+
+        StyleCache() {
+            super(STYLE_CACHE, "maximumSize=" + STYLE_CACHE_SIZE_DEFAULT);
+        }
+
+        @Override
+        protected void dispose(StyleInfo info, Style style) {
+            StyleResourceListener listener = listeners.remove(info);
+            if (listener != null) {
+                listener.styleResource.removeListener(listener);
+            }
+        }
+    }
     
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super(FEATURETYPE_CACHE, "maximumSize=" + maxSize);
+        }
+
+        @Override
+        protected int weigh(String key, FeatureType featureType) {
+            return Math.max(1, featureType.getDescriptors().size());
         }
         
         protected void dispose(String key, FeatureType featureType) {
@@ -1980,6 +2359,11 @@ public class ResourcePool {
      */
     @SuppressWarnings("rawtypes")
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+
+        DataStoreCache() {
+            super(DATASTORE_CACHE, "");
+        }
+
         /**
          * Ensure data access entry is removed from catalog, and
          * ensure DataAccess dispose is called to return system resources.
@@ -2013,6 +2397,10 @@ public class ResourcePool {
     }
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
+
+        CoverageReaderCache() {
+            super(COVERAGE_READER_CACHE, "");
+        }
         
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
@@ -2033,6 +2421,10 @@ public class ResourcePool {
     }
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
+
+        CoverageHintReaderCache() {
+            super(HINT_COVERAGE_READER_CACHE, "");
+        }
         
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
@@ -2053,6 +2445,18 @@ public class ResourcePool {
         
     }
     
+    /**
+     * Thrown when a resource could not be loaded within the configured load timeout, see 
+     * {@link ResourcePool#setLoadTimeout(long)}
+     */
+    public static class LoadTimeoutException extends IOException {
+        private static final long serialVersionUID = -4412926431003939318L;
+
+        public LoadTimeoutException(String message) {
+            super(message);
+        }
+    }
+
     /**
      * The key in the {@link CoverageHintReaderCache}
      * 
@@ -2103,7 +2507,12 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super(FEATURETYPE_ATTRIBUTE_CACHE, "maximumSize=" + size);
+        }
+
+        @Override
+        protected int weigh(String key, List<AttributeTypeInfo> attributes) {
+            return Math.max(1, attributes.size());
         }
 
         @Override
@@ -2114,6 +2523,10 @@ public class ResourcePool {
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        WMSCache() {
+            super(WMS_CACHE, "");
+        }
+
         @Override
         protected void dispose(String key, WebMapServer server) {
             HTTPClient client = server.getHTTPClient();
@@ -0,0 +1,152 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Registers a {@link ResourceCacheMBean} for each of the {@link ResourcePool} caches in the
+ * platform MBean server, under the <code>org.geoserver:type=ResourcePool,cache=name</code>
+ * object names.
+ * <p>
+ * The MBeans look up the resource pool of the catalog on each call, so they keep working when
+ * the pool or its caches are replaced.
+ * </p>
+ */
+public class ResourcePoolMBeanExporter implements InitializingBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ResourcePoolMBeanExporter.class);
+
+    static final List<String> CACHES = Arrays.asList(ResourcePool.CRS_CACHE,
+            ResourcePool.DATASTORE_CACHE, ResourcePool.FEATURETYPE_CACHE,
+            ResourcePool.FEATURETYPE_ATTRIBUTE_CACHE, ResourcePool.COVERAGE_READER_CACHE,
+            ResourcePool.HINT_COVERAGE_READER_CACHE, ResourcePool.WMS_CACHE,
+            ResourcePool.STYLE_CACHE);
+
+    Catalog catalog;
+
+    List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public ResourcePoolMBeanExporter(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String cache : CACHES) {
+            try {
+                ObjectName name = new ObjectName("org.geoserver:type=ResourcePool,cache=" + cache);
+                // another application context in the same JVM might have registered it already
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(new StandardMBean(new ResourceCache(cache),
+                        ResourceCacheMBean.class), name);
+                registered.add(name);
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Unable to register the " + cache + " in JMX", e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "Unable to unregister " + name + " from JMX", e);
+            }
+        }
+        registered.clear();
+    }
+
+    class ResourceCache implements ResourceCacheMBean {
+
+        String cache;
+
+        ResourceCache(String cache) {
+            this.cache = cache;
+        }
+
+        ResourceCacheStatistics stats() {
+            ResourceCacheStatistics stats = catalog.getResourcePool().getCacheStatistics()
+                    .get(cache);
+            if (stats == null) {
+                throw new IllegalStateException("The " + cache
+                        + " does not collect statistics in this resource pool");
+            }
+            return stats;
+        }
+
+        @Override
+        public String getSpecification() {
+            return stats().getSpecification();
+        }
+
+        @Override
+        public long getSize() {
+            return stats().getSize();
+        }
+
+        @Override
+        public long getHitCount() {
+            return stats().getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return stats().getMissCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return stats().getHitRate();
+        }
+
+        @Override
+        public long getLoadSuccessCount() {
+            return stats().getLoadSuccessCount();
+        }
+
+        @Override
+        public long getLoadExceptionCount() {
+            return stats().getLoadExceptionCount();
+        }
+
+        @Override
+        public long getTotalLoadTime() {
+            return stats().getTotalLoadTime();
+        }
+
+        @Override
+        public double getAverageLoadPenalty() {
+            return stats().getAverageLoadPenalty();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return stats().getEvictionCount();
+        }
+    }
+}
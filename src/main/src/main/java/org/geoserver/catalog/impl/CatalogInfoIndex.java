@@ -0,0 +1,694 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.Predicates;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * In memory index over one family of catalog objects (layers, resources, stores, ...) held by
+ * {@link DefaultCatalogFacade}.
+ * <p>
+ * Objects are always indexed by id. In addition a fixed set of commonly queried, single valued
+ * properties (name, prefixed name, workspace, store, default style, ...) can be indexed for
+ * equality lookups. Property indexes are built lazily on first use and then maintained
+ * incrementally on {@link #add(CatalogInfo) add} and {@link #remove(CatalogInfo) remove}. A
+ * {@link #modified(String, CatalogInfo, Collection) save} drops the indexes of the changed
+ * properties, and of the properties {@link #derived(String, String...) derived} from them, they
+ * will be rebuilt on the next query that needs them.
+ * Since saving an object can change the properties of other objects as well (e.g. renaming a
+ * workspace changes the workspace name of its stores) the facade also drops the indexes of the
+ * properties reached through the saved object with {@link #invalidate(String, Collection)}.
+ * </p>
+ * <p>
+ * The objects of each index bucket are sorted in insertion order the first time they are
+ * requested, and the sorted list is kept until the bucket changes.
+ * </p>
+ * <p>
+ * The index can also {@link #query(Filter) plan} an OGC filter, turning equality comparisons
+ * against indexed properties (combined with AND/OR) into index lookups. The result of a query is
+ * a superset of the objects matching the filter, callers still have to evaluate the filter on
+ * the returned candidates.
+ * </p>
+ */
+public class CatalogInfoIndex<T extends CatalogInfo> {
+
+    /**
+     * Property path used to look up objects by id
+     */
+    static final String ID = "id";
+
+    /**
+     * Keeps the insertion order, used to return results in the same order the original lists
+     * would have
+     */
+    static final Comparator<Entry<?>> INSERTION_ORDER = new Comparator<Entry<?>>() {
+        @Override
+        public int compare(Entry<?> e1, Entry<?> e2) {
+            return Long.compare(e1.seq, e2.seq);
+        }
+    };
+
+    /**
+     * The kind of values held by a property index
+     */
+    enum Kind {
+        NONE, STRING, BOOLEAN, ENUM
+    }
+
+    /**
+     * An indexed object along with its insertion sequence number
+     */
+    static class Entry<T> {
+        final T info;
+
+        final long seq;
+
+        Entry(T info, long seq) {
+            this.info = info;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * A set of entries keyed by id, caching their insertion ordered list until modified. Only
+     * modified while holding the index lock, read without locking.
+     */
+    static class Bucket<T> {
+
+        final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+
+        /**
+         * Bumped after each modification, a sorted list is valid only for the version it was
+         * computed from
+         */
+        volatile long version;
+
+        volatile Sorted<T> sorted;
+
+        void put(String id, Entry<T> entry) {
+            entries.put(id, entry);
+            version++;
+        }
+
+        Entry<T> remove(String id) {
+            Entry<T> removed = entries.remove(id);
+            if (removed != null) {
+                version++;
+            }
+            return removed;
+        }
+
+        void clear() {
+            entries.clear();
+            version++;
+        }
+
+        Entry<T> get(String id) {
+            return entries.get(id);
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        /**
+         * Returns the objects in insertion order, unmodifiable
+         */
+        List<T> sorted() {
+            long v = version;
+            Sorted<T> current = sorted;
+            if (current != null && current.version == v) {
+                return current.list;
+            }
+            List<T> list = sort(entries.values());
+            sorted = new Sorted<T>(v, list);
+            return list;
+        }
+
+        static <T> List<T> sort(Collection<Entry<T>> entries) {
+            List<Entry<T>> list = new ArrayList<Entry<T>>(entries);
+            Collections.sort(list, INSERTION_ORDER);
+            List<T> result = new ArrayList<T>(list.size());
+            for (Entry<T> e : list) {
+                result.add(e.info);
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    /**
+     * A sorted bucket list along with the bucket version it was computed from
+     */
+    static class Sorted<T> {
+        final long version;
+
+        final List<T> list;
+
+        Sorted(long version, List<T> list) {
+            this.version = version;
+            this.list = list;
+        }
+    }
+
+    /**
+     * Equality index of a single property
+     */
+    static class PropertyIndex<T> {
+
+        final PropertyName property;
+
+        final ConcurrentMap<Object, Bucket<T>> buckets = new ConcurrentHashMap<Object, Bucket<T>>();
+
+        /**
+         * The bucket key of each indexed id, so that removals don't need to scan the buckets
+         */
+        final Map<String, Object> keys = new HashMap<String, Object>();
+
+        volatile Kind kind = Kind.NONE;
+
+        PropertyIndex(String path) {
+            this.property = Predicates.factory.property(path);
+        }
+
+        /**
+         * Adds the entry to the index, returns false if the property value is not indexable
+         */
+        boolean add(String id, Entry<T> entry) {
+            Object value;
+            try {
+                value = property.evaluate(entry.info);
+            } catch (RuntimeException e) {
+                return false;
+            }
+            if (value == null) {
+                remove(id);
+                return true;
+            }
+            Kind k = kindOf(value);
+            if (k == null || (kind != Kind.NONE && kind != k)) {
+                return false;
+            }
+            kind = k;
+            Object key = k == Kind.ENUM ? ((Enum<?>) value).name() : value;
+            Object oldKey = keys.put(id, key);
+            if (oldKey != null && !oldKey.equals(key)) {
+                removeFromBucket(oldKey, id);
+            }
+            Bucket<T> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket<T>();
+                buckets.put(key, bucket);
+            }
+            bucket.put(id, entry);
+            return true;
+        }
+
+        void remove(String id) {
+            Object key = keys.remove(id);
+            if (key != null) {
+                removeFromBucket(key, id);
+            }
+        }
+
+        private void removeFromBucket(Object key, String id) {
+            Bucket<T> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(id);
+                if (bucket.isEmpty()) {
+                    buckets.remove(key);
+                }
+            }
+        }
+
+        /**
+         * Returns the entries whose property value matches the literal, or null if the literal
+         * can't be matched against this index
+         */
+        Bucket<T> get(Object literal) {
+            if (literal == null) {
+                return null;
+            }
+            Object key;
+            switch (kind) {
+            case NONE:
+                // no non null values, nothing can match a non null literal
+                return emptyBucket();
+            case STRING:
+                if (!(literal instanceof String)) {
+                    return null;
+                }
+                key = literal;
+                break;
+            case BOOLEAN:
+                if (literal instanceof Boolean) {
+                    key = literal;
+                } else if ("true".equalsIgnoreCase(String.valueOf(literal))
+                        || "false".equalsIgnoreCase(String.valueOf(literal))) {
+                    key = Boolean.valueOf(String.valueOf(literal));
+                } else {
+                    return null;
+                }
+                break;
+            case ENUM:
+                if (literal instanceof Enum) {
+                    key = ((Enum<?>) literal).name();
+                } else if (literal instanceof String) {
+                    key = literal;
+                } else {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+            }
+            Bucket<T> bucket = buckets.get(key);
+            return bucket == null ? PropertyIndex.<T> emptyBucket() : bucket;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Bucket<T> emptyBucket() {
+            return (Bucket<T>) EMPTY;
+        }
+
+        static Kind kindOf(Object value) {
+            if (value instanceof String) {
+                return Kind.STRING;
+            }
+            if (value instanceof Boolean) {
+                return Kind.BOOLEAN;
+            }
+            if (value instanceof Enum) {
+                return Kind.ENUM;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * marker for properties that turned out not to be indexable
+     */
+    static final PropertyIndex<?> NOT_INDEXABLE = new PropertyIndex<Object>(ID);
+
+    /**
+     * The bucket returned when nothing matches, never modified
+     */
+    static final Bucket<?> EMPTY = new Bucket<Object>();
+
+    final Set<String> indexable;
+
+    /**
+     * The indexable properties whose value is computed from other properties, along with the
+     * paths of the properties they are computed from
+     */
+    final Map<String, List<String>> derived = new HashMap<String, List<String>>();
+
+    final Bucket<T> ids = new Bucket<T>();
+
+    final ConcurrentMap<String, PropertyIndex<T>> properties = new ConcurrentHashMap<String, PropertyIndex<T>>();
+
+    final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a new index.
+     *
+     * @param indexable The property paths that can be indexed for equality lookups, in addition
+     *        to "id"
+     */
+    public CatalogInfoIndex(String... indexable) {
+        this.indexable = new HashSet<String>(Arrays.asList(indexable));
+    }
+
+    /**
+     * Declares an indexable property computed from other properties, e.g. the prefixed name, so
+     * that its index is dropped along with the ones of its sources
+     *
+     * @param property The derived property path
+     * @param sources The paths of the properties it is computed from
+     * @return this index
+     */
+    public CatalogInfoIndex<T> derived(String property, String... sources) {
+        derived.put(property, Arrays.asList(sources));
+        return this;
+    }
+
+    /**
+     * Adds an object to the index.
+     */
+    public synchronized void add(T info) {
+        String id = info.getId();
+        if (id == null) {
+            return;
+        }
+        Entry<T> entry = new Entry<T>(info, sequence.getAndIncrement());
+        Entry<T> previous = ids.get(id);
+        if (previous != null) {
+            removeFromProperties(id);
+        }
+        ids.put(id, entry);
+        for (Map.Entry<String, PropertyIndex<T>> e : properties.entrySet()) {
+            PropertyIndex<T> index = e.getValue();
+            if (index != NOT_INDEXABLE && !index.add(id, entry)) {
+                properties.put(e.getKey(), notIndexable());
+            }
+        }
+    }
+
+    /**
+     * Removes an object from the index.
+     */
+    public synchronized void remove(T info) {
+        String id = info.getId();
+        if (id == null) {
+            return;
+        }
+        ids.remove(id);
+        removeFromProperties(id);
+    }
+
+    private void removeFromProperties(String id) {
+        for (PropertyIndex<T> index : properties.values()) {
+            if (index != NOT_INDEXABLE) {
+                index.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Notifies the index an object has been saved, without knowing what changed.
+     *
+     * @param oldId The id of the object before the changes were committed
+     * @param info The object, after the changes were committed
+     */
+    public void modified(String oldId, T info) {
+        modified(oldId, info, null);
+    }
+
+    /**
+     * Notifies the index an object has been saved.
+     *
+     * @param oldId The id of the object before the changes were committed
+     * @param info The object, after the changes were committed
+     * @param changed The names of the changed properties, or null if unknown
+     */
+    public synchronized void modified(String oldId, T info, Collection<String> changed) {
+        if (oldId != null && !oldId.equals(info.getId())) {
+            Entry<T> entry = ids.remove(oldId);
+            if (entry != null) {
+                removeFromProperties(oldId);
+                if (info.getId() != null) {
+                    ids.put(info.getId(), entry);
+                }
+            }
+            // the ids of the property indexes are stale
+            properties.clear();
+            return;
+        }
+        invalidate("", changed);
+    }
+
+    /**
+     * Drops all the property indexes, forcing them to be rebuilt on the next query.
+     */
+    public synchronized void invalidate() {
+        properties.clear();
+    }
+
+    /**
+     * Drops the indexes of the properties reached through the specified path prefix whose next
+     * segment is one of the changed properties, along with the ones derived from them, forcing
+     * them to be rebuilt on the next query.
+     *
+     * @param prefix The path leading to the modified object, e.g. "store.workspace.", or the
+     *        empty string for the indexed objects themselves
+     * @param changed The names of the changed properties of the modified object, or null if
+     *        unknown
+     */
+    public synchronized void invalidate(String prefix, Collection<String> changed) {
+        if (changed != null && changed.isEmpty()) {
+            return;
+        }
+        for (Iterator<String> it = properties.keySet().iterator(); it.hasNext();) {
+            String path = it.next();
+            if (affected(path, prefix, changed)) {
+                it.remove();
+            } else if (derived.containsKey(path)) {
+                for (String source : derived.get(path)) {
+                    if (affected(source, prefix, changed)) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean affected(String path, String prefix, Collection<String> changed) {
+        if (!path.startsWith(prefix)) {
+            return false;
+        }
+        if (changed == null) {
+            return true;
+        }
+        String rest = path.substring(prefix.length());
+        int dot = rest.indexOf('.');
+        return changed.contains(dot < 0 ? rest : rest.substring(0, dot));
+    }
+
+    /**
+     * Clears the index and re-populates it with the specified objects
+     */
+    public synchronized void reindex(Collection<? extends T> infos) {
+        clear();
+        for (T info : infos) {
+            add(info);
+        }
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+        properties.clear();
+    }
+
+    /**
+     * Looks up an object by id.
+     */
+    public T get(String id) {
+        if (id == null) {
+            return null;
+        }
+        Entry<T> entry = ids.get(id);
+        if (entry == null) {
+            return null;
+        }
+        // double check in case the id was changed in place
+        return id.equals(entry.info.getId()) ? entry.info : null;
+    }
+
+    /**
+     * Returns the number of indexed objects
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the objects whose property is equal to the specified value, in insertion order, or
+     * null if the property cannot be indexed
+     */
+    public List<T> get(String property, Object value) {
+        if (ID.equals(property)) {
+            if (!(value instanceof String)) {
+                return null;
+            }
+            T info = get((String) value);
+            return info == null ? Collections.<T> emptyList() : Collections.singletonList(info);
+        }
+        PropertyIndex<T> index = index(property);
+        if (index == null) {
+            return null;
+        }
+        Bucket<T> bucket = index.get(value);
+        return bucket == null ? null : bucket.sorted();
+    }
+
+    /**
+     * Returns the objects that may have the property equal to the specified value, in insertion
+     * order. Unlike {@link #get(String, Object)} this method falls back on returning all the
+     * objects when the property cannot be indexed, callers are expected to check the property
+     * value themselves.
+     */
+    public List<T> candidates(String property, Object value) {
+        List<T> matches = get(property, value);
+        return matches != null ? matches : all();
+    }
+
+    /**
+     * Returns the first object in insertion order whose property is equal to the specified value.
+     *
+     * @return the object, or null if none matched
+     */
+    public T getFirst(String property, Object value) {
+        List<T> matches = get(property, value);
+        if (matches != null) {
+            return matches.isEmpty() ? null : matches.get(0);
+        }
+        Filter filter = Predicates.equal(property, value);
+        for (T info : all()) {
+            if (filter.evaluate(info)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Plans the filter against the index.
+     *
+     * @return The candidate objects, in insertion order, possibly matching the filter, or null if
+     *         the filter cannot be answered from the index and a full scan is required. The list
+     *         is unmodifiable.
+     */
+    public List<T> query(Filter filter) {
+        Bucket<T> bucket = plan(filter);
+        if (bucket == null) {
+            return null;
+        }
+        return bucket.sorted();
+    }
+
+    /**
+     * Returns all the indexed objects, in insertion order. The list is unmodifiable.
+     */
+    public List<T> all() {
+        return ids.sorted();
+    }
+
+    Bucket<T> plan(Filter filter) {
+        if (filter == null || Filter.INCLUDE.equals(filter)) {
+            return ids;
+        }
+        if (Filter.EXCLUDE.equals(filter)) {
+            return PropertyIndex.<T> emptyBucket();
+        }
+        if (filter instanceof PropertyIsEqualTo) {
+            return plan((PropertyIsEqualTo) filter);
+        }
+        if (filter instanceof And) {
+            // the smallest candidate set among the indexable children wins
+            Bucket<T> smallest = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Bucket<T> candidates = plan(child);
+                if (candidates != null && (smallest == null || candidates.size() < smallest.size())) {
+                    smallest = candidates;
+                }
+            }
+            return smallest;
+        }
+        if (filter instanceof Or) {
+            // all children must be indexable, otherwise a scan is needed anyways
+            Bucket<T> union = new Bucket<T>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                Bucket<T> candidates = plan(child);
+                if (candidates == null) {
+                    return null;
+                }
+                union.entries.putAll(candidates.entries);
+            }
+            return union;
+        }
+        return null;
+    }
+
+    Bucket<T> plan(PropertyIsEqualTo equal) {
+        if (!equal.isMatchingCase()) {
+            return null;
+        }
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        if (e1 instanceof Literal && e2 instanceof PropertyName) {
+            Expression tmp = e1;
+            e1 = e2;
+            e2 = tmp;
+        }
+        if (!(e1 instanceof PropertyName) || !(e2 instanceof Literal)) {
+            return null;
+        }
+        String property = ((PropertyName) e1).getPropertyName();
+        Object value = ((Literal) e2).getValue();
+        if (ID.equals(property)) {
+            if (!(value instanceof String)) {
+                return null;
+            }
+            Entry<T> entry = ids.get((String) value);
+            if (entry == null) {
+                return PropertyIndex.<T> emptyBucket();
+            }
+            Bucket<T> single = new Bucket<T>();
+            single.entries.put((String) value, entry);
+            return single;
+        }
+        PropertyIndex<T> index = index(property);
+        return index == null ? null : index.get(value);
+    }
+
+    /**
+     * Returns the index for the specified property, building it if necessary, or null if the
+     * property can't be indexed
+     */
+    PropertyIndex<T> index(String property) {
+        if (!indexable.contains(property)) {
+            return null;
+        }
+        PropertyIndex<T> index = properties.get(property);
+        if (index == null) {
+            synchronized (this) {
+                index = properties.get(property);
+                if (index == null) {
+                    index = new PropertyIndex<T>(property);
+                    for (Map.Entry<String, Entry<T>> e : ids.entries.entrySet()) {
+                        if (!index.add(e.getKey(), e.getValue())) {
+                            index = notIndexable();
+                            break;
+                        }
+                    }
+                    properties.put(property, index);
+                }
+            }
+        }
+        return index == NOT_INDEXABLE ? null : index;
+    }
+
+    @SuppressWarnings("unchecked")
+    PropertyIndex<T> notIndexable() {
+        return (PropertyIndex<T>) NOT_INDEXABLE;
+    }
+}
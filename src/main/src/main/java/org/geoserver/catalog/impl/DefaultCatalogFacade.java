@@ -7,15 +7,21 @@ package org.geoserver.catalog.impl;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -77,13 +83,10 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
      */
     protected HashMap<String, WorkspaceInfo> workspaces = new HashMap<String, WorkspaceInfo>();
     
-    //JD: Using a CopyOnWriteArrayList is a temporary measure here to deal with some 
-    // concurrency issues around layer access. See GEOS-4404. Long term solution is to us
-    // concurrent collections (set and map) for all the collections in this class
     /**
      * layers
      */
-    protected List<LayerInfo> layers = new CopyOnWriteArrayList<LayerInfo>();
+    protected List<LayerInfo> layers = new ArrayList<LayerInfo>();
 
     /**
      * maps
@@ -93,20 +96,75 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * layer groups
      */
-    protected List<LayerGroupInfo> layerGroups = new CopyOnWriteArrayList<LayerGroupInfo>();
+    protected List<LayerGroupInfo> layerGroups = new ArrayList<LayerGroupInfo>();
     
     /**
      * styles
      */
-    protected List<StyleInfo> styles = new CopyOnWriteArrayList<StyleInfo>();
+    protected List<StyleInfo> styles = new ArrayList<StyleInfo>();
+
+    /**
+     * Immutable view of the above collections used by all the read operations. The collections
+     * are only modified while holding the facade lock, after which a new snapshot is published.
+     * See GEOS-4404 for the concurrency issues this replaces.
+     */
+    protected transient volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * Indexes over the above collections, used to answer lookups and {@link #list} queries
+     * without scanning. They are transient, and rebuilt by {@link #resolve()} after
+     * deserialization.
+     */
+    protected transient CatalogInfoIndex<StoreInfo> storeIndex;
+
+    protected transient CatalogInfoIndex<ResourceInfo> resourceIndex;
+
+    protected transient CatalogInfoIndex<LayerInfo> layerIndex;
+
+    protected transient CatalogInfoIndex<LayerGroupInfo> layerGroupIndex;
+
+    protected transient CatalogInfoIndex<StyleInfo> styleIndex;
+
+    protected transient CatalogInfoIndex<MapInfo> mapIndex;
+
+    protected transient CatalogInfoIndex<NamespaceInfo> namespaceIndex;
+
+    protected transient CatalogInfoIndex<WorkspaceInfo> workspaceIndex;
 
     /**
      * the catalog
      */
     private CatalogImpl catalog;
-    
+
     public DefaultCatalogFacade(Catalog catalog) {
         setCatalog(catalog);
+        createIndexes();
+    }
+
+    void createIndexes() {
+        storeIndex = new CatalogInfoIndex<StoreInfo>("name", "type", "enabled", "workspace.id",
+                "workspace.name");
+        resourceIndex = new CatalogInfoIndex<ResourceInfo>("name", "nativeName", "prefixedName",
+                "enabled", "advertised", "namespace.id", "namespace.prefix", "store.id",
+                "store.name", "store.workspace.id", "store.workspace.name").derived(
+                "prefixedName", "name", "namespace.prefix");
+        layerIndex = new CatalogInfoIndex<LayerInfo>("name", "prefixedName", "enabled",
+                "advertised", "resource.id", "resource.name", "resource.enabled",
+                "resource.advertised", "resource.namespace.id", "resource.namespace.prefix",
+                "resource.store.id", "resource.store.name", "resource.store.enabled",
+                "resource.store.workspace.id", "resource.store.workspace.name",
+                "defaultStyle.id", "defaultStyle.name")
+                .derived("name", "resource.name")
+                .derived("prefixedName", "resource.name", "resource.store.workspace.name");
+        layerGroupIndex = new CatalogInfoIndex<LayerGroupInfo>("name", "prefixedName", "mode",
+                "workspace.id", "workspace.name", "rootLayer.id", "rootLayerStyle.id").derived(
+                "prefixedName", "name", "workspace.name");
+        styleIndex = new CatalogInfoIndex<StyleInfo>("name", "prefixedName", "filename", "format",
+                "workspace.id", "workspace.name").derived("prefixedName", "name",
+                "workspace.name");
+        mapIndex = new CatalogInfoIndex<MapInfo>("name", "enabled");
+        namespaceIndex = new CatalogInfoIndex<NamespaceInfo>("prefix", "name", "URI");
+        workspaceIndex = new CatalogInfoIndex<WorkspaceInfo>("name");
     }
     
     public void setCatalog(Catalog catalog) {
@@ -122,8 +180,10 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public StoreInfo add(StoreInfo store) {
         resolve(store);
-        synchronized(stores) {
+        synchronized(this) {
             stores.put(store.getClass(), store);
+            storeIndex.add(store);
+            snapshot = snapshot.withStores(snapshot.stores.append(store));
         }
         return ModificationProxy.create(store, StoreInfo.class);
     }
@@ -131,13 +191,15 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     public void remove(StoreInfo store) {
         store = unwrap(store);
 
-        synchronized(stores) {
+        synchronized(this) {
             stores.remove(store.getClass(),store);
+            storeIndex.remove(store);
+            snapshot = snapshot.withStores(snapshot.stores.without(store));
         }
     }
     
     public void save(StoreInfo store) {
-        saved(store);
+        saved(store, storeIndex);
     }
     
     public <T extends StoreInfo> T detach(T store) {
@@ -145,12 +207,9 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
-        List l = lookup(clazz, stores);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            StoreInfo store = (StoreInfo) i.next();
-            if (id.equals(store.getId())) {
-                return ModificationProxy.create( (T) store, clazz );
-            }
+        StoreInfo store = storeIndex.get(id);
+        if (clazz.isInstance(store)) {
+            return ModificationProxy.create( (T) store, clazz );
         }
 
         return null;
@@ -159,7 +218,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace,
             String name, Class<T> clazz) {
         
-        List l = lookup(clazz, stores);
+        List l = lookup(clazz, storeIndex.candidates("name", name));
         if (workspace == ANY_WORKSPACE) {
             //do an exhaustive search through all workspaces
             ArrayList matches = new ArrayList();
@@ -195,7 +254,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             workspace = getDefaultWorkspace();
         }
 
-        List all = lookup(clazz, stores);
+        List all = lookup(clazz, storeIndex.candidates("workspace.id", workspace.getId()));
         List matches = new ArrayList();
 
         for (Iterator s = all.iterator(); s.hasNext();) {
@@ -209,12 +268,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public List getStores(Class clazz) {
-        return ModificationProxy.createList(lookup(clazz, stores) , clazz);
+        return ModificationProxy.createList(snapshot.stores(clazz) , clazz);
     }
     
     public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
-        if(defaultStores.containsKey(workspace.getId())) {
-            DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+        DataStoreInfo defaultStore = snapshot.defaultStores.get(workspace.getId());
+        if(defaultStore != null) {
             return ModificationProxy.create(defaultStore, DataStoreInfo.class);
         } else {
             return null;
@@ -222,14 +281,16 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
-        DataStoreInfo old = defaultStores.get(workspace.getId());
-        synchronized(defaultStores) {
+        DataStoreInfo old;
+        synchronized(this) {
+            old = defaultStores.get(workspace.getId());
             if (store != null) {
                 defaultStores.put(workspace.getId(), store);    
             }
             else {
                 defaultStores.remove(workspace.getId());
             }
+            snapshot = snapshot.withDefaultStores(defaultStores);
         }
         
         //fire change event
@@ -242,22 +303,26 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public ResourceInfo add(ResourceInfo resource) {
         resolve(resource);
-        synchronized(resources) {
+        synchronized(this) {
             resources.put(resource.getClass(), resource);
+            resourceIndex.add(resource);
+            snapshot = snapshot.withResources(snapshot.resources.append(resource));
         }
         return ModificationProxy.create(resource, ResourceInfo.class);
     }
     
     public void remove(ResourceInfo resource) {
         resource = unwrap(resource);
-        synchronized(resources) {
+        synchronized(this) {
             resources.remove(resource.getClass(), resource);
+            resourceIndex.remove(resource);
+            snapshot = snapshot.withResources(snapshot.resources.without(resource));
         }
     }
     
    
     public void save(ResourceInfo resource) {
-        saved(resource);
+        saved(resource, resourceIndex);
     }
     
     public <T extends ResourceInfo> T detach(T resource) {
@@ -265,12 +330,9 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
-        List l = lookup(clazz, resources);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) i.next();
-            if (id.equals(resource.getId())) {
-                return ModificationProxy.create((T) resource, clazz );
-            }
+        ResourceInfo resource = resourceIndex.get(id);
+        if (clazz.isInstance(resource)) {
+            return ModificationProxy.create((T) resource, clazz );
         }
 
         return null;
@@ -278,7 +340,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name, Class<T> clazz) {
         
-        List l = lookup(clazz, resources);
+        List l = lookup(clazz, resourceIndex.candidates("name", name));
         
         if (namespace == ANY_NAMESPACE) {
             //do an exhaustive lookup
@@ -310,19 +372,21 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
  
     public List getResources(Class clazz) {
-        return ModificationProxy.createList( lookup(clazz,resources), clazz );
+        return ModificationProxy.createList( snapshot.resources(clazz), clazz );
     }
     
     public List getResourcesByNamespace(NamespaceInfo namespace, Class clazz) {
         //TODO: support ANY_NAMESPACE?
         
-        List all = lookup(clazz, resources);
-        List matches = new ArrayList();
-
         if ( namespace == null ) {
             namespace = getDefaultNamespace();
         }
 
+        List all = namespace != null ? 
+                lookup(clazz, resourceIndex.candidates("namespace.id", namespace.getId())) : 
+                snapshot.resources(clazz);
+        List matches = new ArrayList();
+
         for (Iterator r = all.iterator(); r.hasNext();) {
             ResourceInfo resource = (ResourceInfo) r.next();
             if (namespace != null ) {
@@ -340,7 +404,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public <T extends ResourceInfo> T getResourceByStore(StoreInfo store,
             String name, Class<T> clazz) {
-        List all = lookup(clazz,resources);
+        List all = lookup(clazz, resourceIndex.candidates("name", name));
         for (Iterator r = all.iterator(); r.hasNext(); ) {
             ResourceInfo resource = (ResourceInfo) r.next();
             if ( name.equals( resource.getName() ) && store.equals( resource.getStore() ) ) {
@@ -353,7 +417,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public <T extends ResourceInfo> List<T> getResourcesByStore(
             StoreInfo store, Class<T> clazz) {
-        List all = lookup(clazz,resources);
+        List all = lookup(clazz, resourceIndex.candidates("store.id", store.getId()));
         List matches = new ArrayList();
         
         for (Iterator r = all.iterator(); r.hasNext();) {
@@ -371,17 +435,26 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public LayerInfo add(LayerInfo layer) {
         resolve(layer);
-        layers.add(layer);
+        synchronized(this) {
+            layers.add(layer);
+            layerIndex.add(layer);
+            snapshot = snapshot.withLayers(snapshot.layers.append(layer));
+        }
         
         return ModificationProxy.create(layer, LayerInfo.class);
     }
     
     public void remove(LayerInfo layer) {
-        layers.remove(unwrap(layer));
+        synchronized(this) {
+            layer = unwrap(layer);
+            layers.remove(layer);
+            layerIndex.remove(layer);
+            snapshot = snapshot.withLayers(snapshot.layers.without(layer));
+        }
     }
     
     public void save(LayerInfo layer) {
-        saved(layer);
+        saved(layer, layerIndex);
     }
     
     public LayerInfo detach(LayerInfo layer) {
@@ -389,28 +462,18 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public LayerInfo getLayer(String id) {
-        for (LayerInfo layer : layers) {
-            if (id.equals(layer.getId())) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
-
-        return null;
+        LayerInfo layer = layerIndex.get(id);
+        return layer != null ? ModificationProxy.create( layer, LayerInfo.class ) : null;
     }
     
     public LayerInfo getLayerByName(String name) {
-        for (LayerInfo layer : layers) {
-            if ( name.equals( layer.getName() ) ) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
-      
-        return null;
+        LayerInfo layer = layerIndex.getFirst("name", name);
+        return layer != null ? ModificationProxy.create( layer, LayerInfo.class ) : null;
     }
     
     public List<LayerInfo> getLayers(ResourceInfo resource) {
         List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
+        for (LayerInfo layer : layerIndex.candidates("resource.id", resource.getId())) {
             if ( resource.equals( layer.getResource() ) ) {
                 matches.add( layer );
             }
@@ -421,7 +484,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public List<LayerInfo> getLayers(StyleInfo style) {
         List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
+        for (LayerInfo layer : snapshot.layers()) {
             if ( style.equals( layer.getDefaultStyle() ) || layer.getStyles().contains( style ) ) {
                 matches.add( layer );
             }
@@ -431,7 +494,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public List<LayerInfo> getLayers() {
-        return ModificationProxy.createList( new ArrayList(layers), LayerInfo.class );
+        return ModificationProxy.createList( snapshot.layers(), LayerInfo.class );
     }
     
     //
@@ -439,21 +502,26 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public MapInfo add(MapInfo map) {
         resolve(map);
-        synchronized(maps) {
+        synchronized(this) {
             maps.add(map);
+            mapIndex.add(map);
+            snapshot = snapshot.withMaps(snapshot.maps.append(map));
         }
         
         return ModificationProxy.create(map, MapInfo.class);
     }
 
     public void remove(MapInfo map) {
-        synchronized(maps) {
-            maps.remove(unwrap(map));
+        synchronized(this) {
+            map = unwrap(map);
+            maps.remove(map);
+            mapIndex.remove(map);
+            snapshot = snapshot.withMaps(snapshot.maps.without(map));
         }
     }
 
     public void save(MapInfo map) {
-        saved( map );
+        saved(map, mapIndex);
     }
     
     public MapInfo detach(MapInfo map) {
@@ -461,27 +529,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public MapInfo getMap(String id) {
-        for (MapInfo map : maps) {
-            if (id.equals(map.getId())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        MapInfo map = mapIndex.get(id);
+        return map != null ? ModificationProxy.create(map,MapInfo.class) : null;
     }
 
     public MapInfo getMapByName(String name) {
-        for (MapInfo map : maps) {
-            if (name.equals(map.getName())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        MapInfo map = mapIndex.getFirst("name", name);
+        return map != null ? ModificationProxy.create(map,MapInfo.class) : null;
     }
     
     public List<MapInfo> getMaps() {
-        return ModificationProxy.createList( new ArrayList(maps), MapInfo.class );
+        return ModificationProxy.createList( snapshot.maps(), MapInfo.class );
     }
     
     //
@@ -489,8 +547,10 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public LayerGroupInfo add (LayerGroupInfo layerGroup) {
         resolve(layerGroup);
-        synchronized(layerGroups) {
+        synchronized(this) {
             layerGroups.add( layerGroup );
+            layerGroupIndex.add(layerGroup);
+            snapshot = snapshot.withLayerGroups(snapshot.layerGroups.append(layerGroup));
         }
         return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
     }
@@ -499,8 +559,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
      * @see org.geoserver.catalog.impl.CatalogDAO#remove(org.geoserver.catalog.LayerGroupInfo)
      */
     public void remove(LayerGroupInfo layerGroup) {
-        synchronized(layerGroups) {
-            layerGroups.remove( unwrap(layerGroup) );
+        synchronized(this) {
+            layerGroup = unwrap(layerGroup);
+            layerGroups.remove( layerGroup );
+            layerGroupIndex.remove(layerGroup);
+            snapshot = snapshot.withLayerGroups(snapshot.layerGroups.without(layerGroup));
         }
     }
     
@@ -508,7 +571,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
      * @see org.geoserver.catalog.impl.CatalogDAO#save(org.geoserver.catalog.LayerGroupInfo)
      */
     public void save(LayerGroupInfo layerGroup) {
-        saved(layerGroup);
+        saved(layerGroup, layerGroupIndex);
     }
     
     public LayerGroupInfo detach(LayerGroupInfo layerGroup) {
@@ -516,7 +579,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public List<LayerGroupInfo> getLayerGroups() {
-        return ModificationProxy.createList( new ArrayList(layerGroups), LayerGroupInfo.class );
+        return ModificationProxy.createList( snapshot.layerGroups(), LayerGroupInfo.class );
     }
 
 
@@ -529,7 +592,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         List<LayerGroupInfo> matches = new ArrayList();
 
-        for (Iterator s = layerGroups.iterator(); s.hasNext();) {
+        for (Iterator s = snapshot.layerGroups().iterator(); s.hasNext();) {
             LayerGroupInfo layerGroup = (LayerGroupInfo) s.next();
             boolean match = false;
             if (workspace == NO_WORKSPACE) {
@@ -549,13 +612,9 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public LayerGroupInfo getLayerGroup(String id) {
-        for (LayerGroupInfo layerGroup : layerGroups ) {
-            if ( id.equals( layerGroup.getId() ) ) {
-                return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
-            }
-        }
-        
-        return null;
+        LayerGroupInfo layerGroup = layerGroupIndex.get(id);
+        return layerGroup != null ? 
+                ModificationProxy.create(layerGroup,LayerGroupInfo.class) : null;
     }
     
     @Override
@@ -568,7 +627,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         ArrayList<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>(2);
 
-        for (LayerGroupInfo layerGroup : layerGroups) {
+        for (LayerGroupInfo layerGroup : layerGroupIndex.candidates("name", name)) {
             if (!name.equals(layerGroup.getName())) {
                 continue;
             }
@@ -598,22 +657,28 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public NamespaceInfo add(NamespaceInfo namespace) {
         resolve(namespace);
-        synchronized(namespaces) {
+        synchronized(this) {
             namespaces.put(namespace.getPrefix(),namespace);
+            namespaceIndex.add(namespace);
+            snapshot = snapshot.withNamespaces(namespaces);
         }
         
         return ModificationProxy.create(namespace, NamespaceInfo.class);
     }
     
     public void remove(NamespaceInfo namespace) {
-        synchronized(namespaces) {
+        synchronized(this) {
             NamespaceInfo defaultNamespace = getDefaultNamespace();
             if (namespace.equals(defaultNamespace)) {
                 namespaces.remove(null);
                 namespaces.remove(Catalog.DEFAULT);
             }
             
-            namespaces.remove(namespace.getPrefix());
+            NamespaceInfo removed = namespaces.remove(namespace.getPrefix());
+            if (removed != null) {
+                namespaceIndex.remove(removed);
+            }
+            snapshot = snapshot.withNamespaces(namespaces);
         }
     }
 
@@ -623,13 +688,14 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         NamespaceInfo ns = (NamespaceInfo) h.getProxyObject();
         if ( !namespace.getPrefix().equals( ns.getPrefix() ) ) {
-            synchronized (namespaces) {
+            synchronized (this) {
                 namespaces.remove( ns.getPrefix() );
                 namespaces.put( namespace.getPrefix(), ns );
+                snapshot = snapshot.withNamespaces(namespaces);
             }
         }
         
-        saved(namespace);
+        saved(namespace, namespaceIndex);
     }
 
     public NamespaceInfo detach(NamespaceInfo namespace) {
@@ -637,19 +703,23 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public NamespaceInfo getDefaultNamespace() {
-        return namespaces.get(null) != null ? 
-                ModificationProxy.create(namespaces.get( null ),NamespaceInfo.class) : null;
+        NamespaceInfo ns = snapshot.namespaces.get(null);
+        return ns != null ? ModificationProxy.create(ns,NamespaceInfo.class) : null;
     }
 
     public void setDefaultNamespace(NamespaceInfo defaultNamespace) {
-        NamespaceInfo ns = defaultNamespace != null ? namespaces.get(defaultNamespace.getPrefix()) : null;
-        NamespaceInfo old = namespaces.get(null);
-        if(ns != null) {
-            namespaces.put( null, ns );
-            namespaces.put( Catalog.DEFAULT, ns );
-        } else {
-            namespaces.remove( null);
-            namespaces.remove( Catalog.DEFAULT);
+        NamespaceInfo old;
+        synchronized (this) {
+            NamespaceInfo ns = defaultNamespace != null ? namespaces.get(defaultNamespace.getPrefix()) : null;
+            old = namespaces.get(null);
+            if(ns != null) {
+                namespaces.put( null, ns );
+                namespaces.put( Catalog.DEFAULT, ns );
+            } else {
+                namespaces.remove( null);
+                namespaces.remove( Catalog.DEFAULT);
+            }
+            snapshot = snapshot.withNamespaces(namespaces);
         }
         
         //fire change event
@@ -659,39 +729,24 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public NamespaceInfo getNamespace(String id) {
-        for (NamespaceInfo namespace : namespaces.values() ) {
-            if (id.equals(namespace.getId())) {
-                return ModificationProxy.create( namespace, NamespaceInfo.class ); 
-            }
-        }
-
-        return null;
+        NamespaceInfo namespace = namespaceIndex.get(id);
+        return namespace != null ? 
+                ModificationProxy.create( namespace, NamespaceInfo.class ) : null;
     }
 
     public NamespaceInfo getNamespaceByPrefix(String prefix) {
-        NamespaceInfo ns = namespaces.get( prefix ); 
+        NamespaceInfo ns = snapshot.namespaces.get( prefix ); 
         return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class ) : null;
     }
 
     public NamespaceInfo getNamespaceByURI(String uri) {
-        for (NamespaceInfo namespace : namespaces.values() ) {
-            if (uri.equals(namespace.getURI())) {
-                return ModificationProxy.create( namespace, NamespaceInfo.class );
-            }
-        }
-
-        return null;
+        NamespaceInfo namespace = namespaceIndex.getFirst("URI", uri);
+        return namespace != null ? 
+                ModificationProxy.create( namespace, NamespaceInfo.class ) : null;
     }
 
     public List getNamespaces() {
-        ArrayList<NamespaceInfo> ns = new ArrayList<NamespaceInfo>();
-        for ( Map.Entry<String,NamespaceInfo> e : namespaces.entrySet() ) {
-            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT)) 
-                continue;
-            ns.add( e.getValue() );
-        }
-        
-        return ModificationProxy.createList( ns, NamespaceInfo.class );
+        return ModificationProxy.createList( snapshot.namespaceList, NamespaceInfo.class );
     }
 
     //
@@ -700,15 +755,21 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     // Workspace methods
     public WorkspaceInfo add(WorkspaceInfo workspace) {
         resolve(workspace);
-        synchronized (workspaces) {
+        synchronized (this) {
             workspaces.put( workspace.getName(), workspace );
+            workspaceIndex.add(workspace);
+            snapshot = snapshot.withWorkspaces(workspaces);
         }
         return ModificationProxy.create(workspace, WorkspaceInfo.class);
     }
     
     public void remove(WorkspaceInfo workspace) {
-        synchronized(workspaces) {
-            workspaces.remove( workspace.getName() );
+        synchronized(this) {
+            WorkspaceInfo removed = workspaces.remove( workspace.getName() );
+            if (removed != null) {
+                workspaceIndex.remove(removed);
+            }
+            snapshot = snapshot.withWorkspaces(workspaces);
         }
     }
     
@@ -718,13 +779,14 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         WorkspaceInfo ws = (WorkspaceInfo) h.getProxyObject();
         if ( !workspace.getName().equals( ws.getName() ) ) {
-            synchronized (workspaces) {
+            synchronized (this) {
                 workspaces.remove( ws.getName() );
                 workspaces.put( workspace.getName(), ws );
+                snapshot = snapshot.withWorkspaces(workspaces);
             }
         }
         
-        saved(workspace);
+        saved(workspace, workspaceIndex);
     }
 
     public WorkspaceInfo detach(WorkspaceInfo workspace) {
@@ -732,14 +794,15 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public WorkspaceInfo getDefaultWorkspace() {
-        return workspaces.containsKey( null ) ? 
-                ModificationProxy.create( workspaces.get( null ), WorkspaceInfo.class ) : null;
+        WorkspaceInfo ws = snapshot.workspaces.get(null);
+        return ws != null ? ModificationProxy.create( ws, WorkspaceInfo.class ) : null;
     }
     
     public void setDefaultWorkspace(WorkspaceInfo workspace) {
-        WorkspaceInfo old = workspaces.get(null);
+        WorkspaceInfo old;
         
-        synchronized(workspaces) {
+        synchronized(this) {
+            old = workspaces.get(null);
             if (workspace != null) {
                 WorkspaceInfo ws = workspaces.get(workspace.getName());
                 workspaces.put( null, ws );
@@ -749,7 +812,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 workspaces.remove(null);
                 workspaces.remove("default");
             }
-            
+            snapshot = snapshot.withWorkspaces(workspaces);
         }
         
         //fire change event
@@ -758,33 +821,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public List<WorkspaceInfo> getWorkspaces() {
-        ArrayList<WorkspaceInfo> ws = new ArrayList<WorkspaceInfo>();
-        
-        //strip out default namespace
-        for ( Map.Entry<String, WorkspaceInfo> e : workspaces.entrySet() ) {
-            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT) ) {
-                continue;
-            }
-            
-            ws.add( e.getValue() );
-        }
-        
-        return ModificationProxy.createList( ws, WorkspaceInfo.class );
+        return ModificationProxy.createList( snapshot.workspaceList, WorkspaceInfo.class );
     }
     
     public WorkspaceInfo getWorkspace(String id) {
-        for ( WorkspaceInfo ws : workspaces.values() ) {
-            if ( id.equals( ws.getId() ) ) {
-                return ModificationProxy.create(ws,WorkspaceInfo.class);
-            }
-        }
-        
-        return null;
+        WorkspaceInfo ws = workspaceIndex.get(id);
+        return ws != null ? ModificationProxy.create(ws,WorkspaceInfo.class) : null;
     }
     
     public WorkspaceInfo getWorkspaceByName(String name) {
-        return workspaces.containsKey(name) ? 
-                ModificationProxy.create( workspaces.get( name ), WorkspaceInfo.class ) : null;
+        WorkspaceInfo ws = snapshot.workspaces.get(name);
+        return ws != null ? ModificationProxy.create( ws, WorkspaceInfo.class ) : null;
     }
     
     //
@@ -792,20 +839,25 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public StyleInfo add(StyleInfo style) {
         resolve(style);
-        synchronized(styles) {
+        synchronized(this) {
             styles.add(style);
+            styleIndex.add(style);
+            snapshot = snapshot.withStyles(snapshot.styles.append(style));
         }
         return ModificationProxy.create(style, StyleInfo.class);
     }
 
     public void remove(StyleInfo style) {
-        synchronized(styles) {
-            styles.remove(unwrap(style));
+        synchronized(this) {
+            style = unwrap(style);
+            styles.remove(style);
+            styleIndex.remove(style);
+            snapshot = snapshot.withStyles(snapshot.styles.without(style));
         }
     }
 
     public void save(StyleInfo style) {
-        saved( style );
+        saved(style, styleIndex);
     }
 
     public StyleInfo detach(StyleInfo style) {
@@ -813,24 +865,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public StyleInfo getStyle(String id) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (id.equals(style.getId())) {
-                return ModificationProxy.create(style,StyleInfo.class);
-            }
-        }
-
-        return null;
+        StyleInfo style = styleIndex.get(id);
+        return style != null ? ModificationProxy.create(style,StyleInfo.class) : null;
     }
 
     public StyleInfo getStyleByName(String name) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (name.equals(style.getName())) {
-                return ModificationProxy.create(style, StyleInfo.class);
-            }
-        }
-        return null;
+        StyleInfo style = styleIndex.getFirst("name", name);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
     }
 
     @Override
@@ -844,7 +885,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if (workspace == ANY_WORKSPACE) {
             //do an exhaustive search through all workspaces
             ArrayList<StyleInfo> matches = new ArrayList();
-            for (Iterator i = styles.iterator(); i.hasNext();) {
+            for (Iterator i = styleIndex.candidates("name", name).iterator(); i.hasNext();) {
                 StyleInfo style = (StyleInfo) i.next();
                 if ( name.equals( style.getName() ) ) {
                     matches.add( style );
@@ -856,7 +897,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             }
         }
         else {
-            for (Iterator i = styles.iterator(); i.hasNext();) {
+            for (Iterator i = styleIndex.candidates("name", name).iterator(); i.hasNext();) {
                 StyleInfo style = (StyleInfo) i.next();
                 if (name.equals(style.getName())) {
                     if (style.getWorkspace() != null && style.getWorkspace().equals(workspace) || 
@@ -870,7 +911,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public List<StyleInfo> getStyles() {
-        return ModificationProxy.createList(new ArrayList<StyleInfo>(styles), StyleInfo.class);
+        return ModificationProxy.createList(snapshot.styles(), StyleInfo.class);
     }
 
     public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
@@ -882,7 +923,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         List<StyleInfo> matches = new ArrayList();
 
-        for (Iterator s = styles.iterator(); s.hasNext();) {
+        for (Iterator s = snapshot.styles().iterator(); s.hasNext();) {
             StyleInfo style = (StyleInfo) s.next();
             boolean match = false;
             if (workspace == NO_WORKSPACE) {
@@ -916,7 +957,144 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return result;
     }
 
-    public void dispose() {
+    <T> List<T> lookup(Class<T> clazz, List<?> candidates) {
+        ArrayList<T> result = new ArrayList<T>();
+        for (Object o : candidates) {
+            if (clazz.isInstance(o)) {
+                result.add((T) o);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Commits the changes to the object and notifies the indexes of the properties it changed
+     */
+    <T extends CatalogInfo> void saved(T info, CatalogInfoIndex<T> index) {
+        T real = unwrap(info);
+        String oldId = real.getId();
+        if (ModificationProxy.handler(info) == null) {
+            // no way to tell what changed
+            saved(info);
+            index.modified(oldId, real);
+            invalidateIndexes();
+            return;
+        }
+        // the changes are gone once committed, collect them first
+        Map<CatalogInfo, Collection<String>> changes =
+                new IdentityHashMap<CatalogInfo, Collection<String>>();
+        changes(info, changes);
+        saved(info);
+        index.modified(oldId, real, changes.get(real));
+        for (Map.Entry<CatalogInfo, Collection<String>> e : changes.entrySet()) {
+            invalidate(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Collects the changed properties of the proxied object, and of the catalog objects modified
+     * in place through it (e.g. store.getWorkspace().setName(...))
+     */
+    void changes(Object info, Map<CatalogInfo, Collection<String>> changes) {
+        ModificationProxy h = ModificationProxy.handler(info);
+        if (h == null || !(h.getProxyObject() instanceof CatalogInfo)) {
+            return;
+        }
+        CatalogInfo real = (CatalogInfo) h.getProxyObject();
+        if (changes.containsKey(real)) {
+            return;
+        }
+        changes.put(real, h.getPropertyNames());
+        for (Object value : h.getProperties().values()) {
+            if (value instanceof Proxy) {
+                ModificationProxy nested = ModificationProxy.handler(value);
+                if (nested != null && nested.isDirty()) {
+                    changes(value, changes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the indexes of the properties affected by a change to the specified object, in its
+     * own family and in the families referencing it
+     */
+    void invalidate(CatalogInfo info, Collection<String> changed) {
+        if (info instanceof WorkspaceInfo) {
+            workspaceIndex.invalidate("", changed);
+            storeIndex.invalidate("workspace.", changed);
+            resourceIndex.invalidate("store.workspace.", changed);
+            layerIndex.invalidate("resource.store.workspace.", changed);
+            layerGroupIndex.invalidate("workspace.", changed);
+            styleIndex.invalidate("workspace.", changed);
+        } else if (info instanceof NamespaceInfo) {
+            namespaceIndex.invalidate("", changed);
+            resourceIndex.invalidate("namespace.", changed);
+            layerIndex.invalidate("resource.namespace.", changed);
+        } else if (info instanceof StoreInfo) {
+            storeIndex.invalidate("", changed);
+            resourceIndex.invalidate("store.", changed);
+            layerIndex.invalidate("resource.store.", changed);
+        } else if (info instanceof ResourceInfo) {
+            resourceIndex.invalidate("", changed);
+            layerIndex.invalidate("resource.", changed);
+        } else if (info instanceof StyleInfo) {
+            styleIndex.invalidate("", changed);
+            layerIndex.invalidate("defaultStyle.", changed);
+            layerGroupIndex.invalidate("rootLayerStyle.", changed);
+        } else if (info instanceof LayerInfo) {
+            layerIndex.invalidate("", changed);
+            layerGroupIndex.invalidate("rootLayer.", changed);
+            if (changed != null && changed.contains("name")) {
+                // the layer name is the resource name
+                Collection<String> name = Collections.singleton("name");
+                resourceIndex.invalidate("", name);
+                layerIndex.invalidate("resource.", name);
+            }
+        } else if (info instanceof LayerGroupInfo) {
+            layerGroupIndex.invalidate("", changed);
+        } else if (info instanceof MapInfo) {
+            mapIndex.invalidate("", changed);
+        }
+    }
+
+    void invalidateIndexes() {
+        for (CatalogInfoIndex<?> index : indexes()) {
+            index.invalidate();
+        }
+    }
+
+    List<CatalogInfoIndex<?>> indexes() {
+        return Arrays.<CatalogInfoIndex<?>> asList(storeIndex, resourceIndex, layerIndex,
+                layerGroupIndex, styleIndex, mapIndex, namespaceIndex, workspaceIndex);
+    }
+
+    /**
+     * Rebuilds the indexes and the read snapshot from the current contents of the facade
+     */
+    protected synchronized void reindex() {
+        if (storeIndex == null) {
+            createIndexes();
+        }
+        snapshot = Snapshot.EMPTY
+                .withStores(SnapshotList.copyOf(lookup(StoreInfo.class, stores)))
+                .withResources(SnapshotList.copyOf(lookup(ResourceInfo.class, resources)))
+                .withLayers(SnapshotList.copyOf(layers))
+                .withLayerGroups(SnapshotList.copyOf(layerGroups))
+                .withStyles(SnapshotList.copyOf(styles)).withMaps(SnapshotList.copyOf(maps))
+                .withNamespaces(namespaces).withWorkspaces(workspaces)
+                .withDefaultStores(defaultStores);
+        storeIndex.reindex(snapshot.stores());
+        resourceIndex.reindex(snapshot.resources());
+        layerIndex.reindex(snapshot.layers());
+        layerGroupIndex.reindex(snapshot.layerGroups());
+        styleIndex.reindex(snapshot.styles());
+        mapIndex.reindex(snapshot.maps());
+        namespaceIndex.reindex(snapshot.namespaceList);
+        workspaceIndex.reindex(snapshot.workspaceList);
+    }
+
+    public synchronized void dispose() {
         if ( stores != null ) stores.clear();
         if ( defaultStores != null ) defaultStores.clear();
         if ( resources != null ) resources.clear();
@@ -926,6 +1104,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if ( layerGroups != null ) layerGroups.clear();
         if ( maps != null ) maps.clear();
         if ( styles != null ) styles.clear();
+        if ( storeIndex != null ) {
+            for (CatalogInfoIndex<?> index : indexes()) {
+                index.clear();
+            }
+        }
+        snapshot = Snapshot.EMPTY;
     }
     
     public void resolve() {
@@ -952,6 +1136,9 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if ( stores == null ) {
             stores = new MultiHashMap();
         }
+        if ( defaultStores == null ) {
+            defaultStores = new HashMap<String, DataStoreInfo>();
+        }
         for ( Object o : stores.values() ) {
             resolve((StoreInfoImpl)o);
         }
@@ -974,7 +1161,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //layers
         if ( layers == null ) {
-            layers = new CopyOnWriteArrayList<LayerInfo>();
+            layers = new ArrayList<LayerInfo>();
         }
         for ( LayerInfo l : layers ) { 
             resolve(l);
@@ -995,6 +1182,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         for ( MapInfo m : maps ) {
             resolve(m);
         }
+
+        reindex();
     }
 
     public void syncTo(CatalogFacade dao) {
@@ -1011,6 +1200,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             other.maps = maps;
             other.layerGroups = layerGroups;
             other.styles = styles;
+            other.reindex();
         }
         else {
             //do a manual import
@@ -1144,31 +1334,32 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     public <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of,
             final Filter filter, final SortBy[] sortByList) {
-        List<T> all;
-
-        T t = null;
-        if (NamespaceInfo.class.isAssignableFrom(of)) {
-            all = getNamespaces();
-        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getWorkspaces();
-        } else if (StoreInfo.class.isAssignableFrom(of)) {
-            all = getStores(of);
-        } else if (ResourceInfo.class.isAssignableFrom(of)) {
-            all = getResources(of);
-        } else if (LayerInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getLayers();
-        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getLayerGroups();
-        } else if (PublishedInfo.class.isAssignableFrom(of)) {
-            all = new ArrayList<>();
-            all.addAll((List<T>) getLayers());
-            all.addAll((List<T>) getLayerGroups());
-        } else if (StyleInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getStyles();
-        } else if (MapInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) getMaps();
-        } else {
-            throw new IllegalArgumentException("Unknown type: " + of);
+        List<T> all = query(of, filter);
+        if (all == null) {
+            // can't be answered from the indexes, scan all the objects
+            if (NamespaceInfo.class.isAssignableFrom(of)) {
+                all = getNamespaces();
+            } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+                all = (List<T>) getWorkspaces();
+            } else if (StoreInfo.class.isAssignableFrom(of)) {
+                all = getStores(of);
+            } else if (ResourceInfo.class.isAssignableFrom(of)) {
+                all = getResources(of);
+            } else if (LayerInfo.class.isAssignableFrom(of)) {
+                all = (List<T>) getLayers();
+            } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+                all = (List<T>) getLayerGroups();
+            } else if (PublishedInfo.class.isAssignableFrom(of)) {
+                all = new ArrayList<>();
+                all.addAll((List<T>) getLayers());
+                all.addAll((List<T>) getLayerGroups());
+            } else if (StyleInfo.class.isAssignableFrom(of)) {
+                all = (List<T>) getStyles();
+            } else if (MapInfo.class.isAssignableFrom(of)) {
+                all = (List<T>) getMaps();
+            } else {
+                throw new IllegalArgumentException("Unknown type: " + of);
+            }
         }
 
         if (null != sortByList) {
@@ -1197,6 +1388,56 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return Iterables.filter(all, filterAdapter);
     }
 
+    /**
+     * Uses the indexes to find the candidate objects matching the filter.
+     * 
+     * @return the candidates, wrapped in modification proxies, or null if the filter cannot be
+     *         answered from the indexes and all the objects need to be scanned
+     */
+    <T extends CatalogInfo> List<T> query(final Class<? super T> of, final Filter filter) {
+        if (filter == null || Filter.INCLUDE.equals(filter)) {
+            // nothing to gain, the full list is needed anyways
+            return null;
+        }
+
+        List<? extends CatalogInfo> candidates;
+        if (NamespaceInfo.class.isAssignableFrom(of)) {
+            candidates = namespaceIndex.query(filter);
+        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            candidates = workspaceIndex.query(filter);
+        } else if (StoreInfo.class.isAssignableFrom(of)) {
+            candidates = storeIndex.query(filter);
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            candidates = resourceIndex.query(filter);
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            candidates = layerIndex.query(filter);
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            candidates = layerGroupIndex.query(filter);
+        } else if (PublishedInfo.class.isAssignableFrom(of)) {
+            List<LayerInfo> layerCandidates = layerIndex.query(filter);
+            List<LayerGroupInfo> groupCandidates = layerCandidates != null ? 
+                    layerGroupIndex.query(filter) : null;
+            if (groupCandidates == null) {
+                return null;
+            }
+            List<PublishedInfo> published = new ArrayList<PublishedInfo>(layerCandidates);
+            published.addAll(groupCandidates);
+            candidates = published;
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            candidates = styleIndex.query(filter);
+        } else if (MapInfo.class.isAssignableFrom(of)) {
+            candidates = mapIndex.query(filter);
+        } else {
+            throw new IllegalArgumentException("Unknown type: " + of);
+        }
+
+        if (candidates == null) {
+            return null;
+        }
+        List<T> matches = (List) lookup(of, candidates);
+        return ModificationProxy.createList(matches, (Class) of);
+    }
+
     private Comparator<Object> comparator(final SortBy sortOrder) {
         return new Comparator<Object>() {
             @Override
@@ -1219,4 +1460,269 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         };
     }
 
+
+    /**
+     * Immutable snapshot of the facade contents.
+     * <p>
+     * Readers grab the current snapshot from a volatile field without any locking or copying,
+     * writers publish a new snapshot in which only the modified family of objects is replaced,
+     * the others are shared with the previous snapshot. The family lists are
+     * {@link SnapshotList append shared}, so adding many objects in a row, like the catalog loader
+     * does, does not copy the whole family for each object.
+     * </p>
+     */
+    protected static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(SnapshotList.<StoreInfo> empty(),
+                SnapshotList.<ResourceInfo> empty(), SnapshotList.<LayerInfo> empty(),
+                SnapshotList.<LayerGroupInfo> empty(), SnapshotList.<StyleInfo> empty(),
+                SnapshotList.<MapInfo> empty(), Collections.<String, NamespaceInfo> emptyMap(),
+                Collections.<String, WorkspaceInfo> emptyMap(),
+                Collections.<String, DataStoreInfo> emptyMap());
+
+        final SnapshotList<StoreInfo> stores;
+
+        final SnapshotList<ResourceInfo> resources;
+
+        final SnapshotList<LayerInfo> layers;
+
+        final SnapshotList<LayerGroupInfo> layerGroups;
+
+        final SnapshotList<StyleInfo> styles;
+
+        final SnapshotList<MapInfo> maps;
+
+        /**
+         * namespaces keyed by prefix, including the null/"default" keys for the default one
+         */
+        final Map<String, NamespaceInfo> namespaces;
+
+        /**
+         * workspaces keyed by name, including the null/"default" keys for the default one
+         */
+        final Map<String, WorkspaceInfo> workspaces;
+
+        final Map<String, DataStoreInfo> defaultStores;
+
+        final List<NamespaceInfo> namespaceList;
+
+        final List<WorkspaceInfo> workspaceList;
+
+        /**
+         * Stores and resources filtered by type, computed on demand
+         */
+        final ConcurrentMap<Class<?>, List<?>> storesByType = new ConcurrentHashMap<Class<?>, List<?>>();
+
+        final ConcurrentMap<Class<?>, List<?>> resourcesByType = new ConcurrentHashMap<Class<?>, List<?>>();
+
+        Snapshot(SnapshotList<StoreInfo> stores, SnapshotList<ResourceInfo> resources,
+                SnapshotList<LayerInfo> layers, SnapshotList<LayerGroupInfo> layerGroups,
+                SnapshotList<StyleInfo> styles, SnapshotList<MapInfo> maps,
+                Map<String, NamespaceInfo> namespaces, Map<String, WorkspaceInfo> workspaces,
+                Map<String, DataStoreInfo> defaultStores) {
+            this.stores = stores;
+            this.resources = resources;
+            this.layers = layers;
+            this.layerGroups = layerGroups;
+            this.styles = styles;
+            this.maps = maps;
+            this.namespaces = namespaces;
+            this.workspaces = workspaces;
+            this.defaultStores = defaultStores;
+            this.namespaceList = withoutDefault(namespaces);
+            this.workspaceList = withoutDefault(workspaces);
+        }
+
+        Snapshot withStores(SnapshotList<StoreInfo> stores) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    namespaces, workspaces, defaultStores);
+        }
+
+        Snapshot withResources(SnapshotList<ResourceInfo> resources) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    namespaces, workspaces, defaultStores);
+        }
+
+        Snapshot withLayers(SnapshotList<LayerInfo> layers) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    namespaces, workspaces, defaultStores);
+        }
+
+        Snapshot withLayerGroups(SnapshotList<LayerGroupInfo> layerGroups) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    namespaces, workspaces, defaultStores);
+        }
+
+        Snapshot withStyles(SnapshotList<StyleInfo> styles) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    namespaces, workspaces, defaultStores);
+        }
+
+        Snapshot withMaps(SnapshotList<MapInfo> maps) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    namespaces, workspaces, defaultStores);
+        }
+
+        Snapshot withNamespaces(Map<String, NamespaceInfo> namespaces) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps,
+                    copy(namespaces), workspaces, defaultStores);
+        }
+
+        Snapshot withWorkspaces(Map<String, WorkspaceInfo> workspaces) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps, namespaces,
+                    copy(workspaces), defaultStores);
+        }
+
+        Snapshot withDefaultStores(Map<String, DataStoreInfo> defaultStores) {
+            return new Snapshot(stores, resources, layers, layerGroups, styles, maps, namespaces,
+                    workspaces, copy(defaultStores));
+        }
+
+        List<StoreInfo> stores() {
+            return stores;
+        }
+
+        List<ResourceInfo> resources() {
+            return resources;
+        }
+
+        List<LayerInfo> layers() {
+            return layers;
+        }
+
+        List<LayerGroupInfo> layerGroups() {
+            return layerGroups;
+        }
+
+        List<StyleInfo> styles() {
+            return styles;
+        }
+
+        List<MapInfo> maps() {
+            return maps;
+        }
+
+        <T> List<T> stores(Class<T> clazz) {
+            return byType(clazz, StoreInfo.class, stores(), storesByType);
+        }
+
+        <T> List<T> resources(Class<T> clazz) {
+            return byType(clazz, ResourceInfo.class, resources(), resourcesByType);
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> List<T> byType(Class<T> clazz, Class<?> family, List<?> all,
+                ConcurrentMap<Class<?>, List<?>> cache) {
+            if (clazz.isAssignableFrom(family)) {
+                return (List<T>) all;
+            }
+            List<?> result = cache.get(clazz);
+            if (result == null) {
+                List<T> matches = new ArrayList<T>();
+                for (Object o : all) {
+                    if (clazz.isInstance(o)) {
+                        matches.add((T) o);
+                    }
+                }
+                result = Collections.unmodifiableList(matches);
+                cache.putIfAbsent(clazz, result);
+            }
+            return (List<T>) result;
+        }
+
+        static <T> Map<String, T> copy(Map<String, T> map) {
+            return Collections.unmodifiableMap(new HashMap<String, T>(map));
+        }
+
+        static <T> List<T> withoutDefault(Map<String, T> map) {
+            List<T> result = new ArrayList<T>();
+            for (Map.Entry<String, T> e : map.entrySet()) {
+                if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                    result.add(e.getValue());
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    /**
+     * Immutable list used by the snapshots. Appending shares the backing array with the list it
+     * was appended to whenever that list is the longest one using the array and there is room
+     * left, so the copies published while adding objects one by one cost amortized constant time.
+     * The shorter lists never look past their own size, hence they are not affected by the
+     * appends. Only modified while holding the facade lock.
+     */
+    static final class SnapshotList<T> extends AbstractList<T> implements RandomAccess {
+
+        static final SnapshotList<Object> EMPTY = new SnapshotList<Object>(new Object[0], 0,
+                new AtomicInteger());
+
+        final Object[] elements;
+
+        final int size;
+
+        /**
+         * The number of slots of the array in use by the lists sharing it
+         */
+        final AtomicInteger used;
+
+        SnapshotList(Object[] elements, int size, AtomicInteger used) {
+            this.elements = elements;
+            this.size = size;
+            this.used = used;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> SnapshotList<T> empty() {
+            return (SnapshotList<T>) EMPTY;
+        }
+
+        static <T> SnapshotList<T> copyOf(Collection<? extends T> c) {
+            Object[] elements = c.toArray();
+            int size = elements.length;
+            return new SnapshotList<T>(elements, size, new AtomicInteger(size));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return (T) elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns a new list with the object added at the end
+         */
+        SnapshotList<T> append(T info) {
+            if (size < elements.length && used.compareAndSet(size, size + 1)) {
+                elements[size] = info;
+                return new SnapshotList<T>(elements, size + 1, used);
+            }
+            Object[] copy = Arrays.copyOf(elements, Math.max(16, size + (size >> 1) + 1));
+            copy[size] = info;
+            return new SnapshotList<T>(copy, size + 1, new AtomicInteger(size + 1));
+        }
+
+        /**
+         * Returns a new list without the first occurrence of the object, or this list if it does
+         * not contain it
+         */
+        SnapshotList<T> without(Object info) {
+            int index = indexOf(info);
+            if (index < 0) {
+                return this;
+            }
+            Object[] copy = new Object[size - 1];
+            System.arraycopy(elements, 0, copy, 0, index);
+            System.arraycopy(elements, index + 1, copy, index, size - index - 1);
+            return new SnapshotList<T>(copy, copy.length, new AtomicInteger(copy.length));
+        }
+    }
 }
@@ -22,8 +22,10 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.Info;
 import org.geoserver.catalog.MetadataMap;
-import org.geoserver.ows.util.ClassProperties;
-import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.catalog.impl.ModificationProxyType.Call;
+import org.geoserver.catalog.impl.ModificationProxyType.Invoker;
+import org.geoserver.catalog.impl.ModificationProxyType.Kind;
+import org.geoserver.catalog.impl.ModificationProxyType.Property;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.factory.CommonFactoryFinder;
 import org.opengis.filter.FilterFactory;
@@ -42,7 +44,11 @@ import org.opengis.filter.FilterFactory;
  * Any collections handled through this interface are cloned and client code 
  * obtains a copy. The two collections will be synced on a call to {@link #commit()}.
  * </p>
- * 
+ * <p>
+ * The classification of the intercepted methods and the calls to the proxied object go
+ * through a {@link ModificationProxyType} shared by all the proxies of the same class.
+ * </p>
+ *
  * @author Justin Deoliveira, The Open Planning Project
  * 
  * TODO: this class should use BeanUtils for all reflection stuff
@@ -56,9 +62,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     Object proxyObject;
     
     /**
-     * reflection helper
+     * dispatch table for the class of the proxy object
      */
-    transient ClassProperties cp;
+    transient ModificationProxyType type;
     
     /** 
      * "dirty" properties 
@@ -76,11 +82,11 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         this.proxyObject = proxyObject;
     }
 
-    private ClassProperties cp(){
-        if(cp == null){
-            this.cp = OwsUtils.getClassProperties(proxyObject.getClass());
+    private ModificationProxyType type() {
+        if (type == null) {
+            this.type = ModificationProxyType.get(proxyObject.getClass());
         }
-        return cp;
+        return type;
     }
     
     /**
@@ -89,80 +95,81 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
         
-        String property = null;
-        if ( ( method.getName().startsWith( "get")  || method.getName().startsWith( "is" ) ) 
-                && method.getParameterTypes().length == 0 ) {
+        Call call = type().call(method);
+        String property = call.property;
+        switch (call.kind) {
+        case SETTER:
+            //intercept setter and put new value in list
+            properties().put( property, args[0] );
+            return null;
+        case COLLECTION_GETTER:
+        case MAP_GETTER:
+        case GETTER:
             //intercept getter to check the dirty property set
-            property = method.getName().substring( 
-                method.getName().startsWith( "get") ? 3 : 2 );
-            if ( properties != null && properties().containsKey( property ) ) {
+            if ( properties != null && properties.containsKey( property ) ) {
                 //return the previously set object
-                return properties().get( property );
+                return properties.get( property );
             }
-            else {
+            if ( call.kind == Kind.COLLECTION_GETTER ) {
                 //if collection, create a wrapper
-                if ( Collection.class.isAssignableFrom( method.getReturnType() ) ) {
-                    Collection real = (Collection) method.invoke( proxyObject, null );
-                    if(real == null) {
-                        // in this case there is nothing we can do
-                        return null;
-                    }
-                    Collection wrap = ModificationProxyCloner.cloneCollection(real, true);
-                    properties().put( property, wrap );
-                    // we also need to store a clone of the initial state as the collection
-                    // might be a live one
-                    Collection clone = ModificationProxyCloner.cloneCollection(real, false);
-                    oldCollectionValues().put(property, clone);
-                    return wrap;
-                } else if(Map.class.isAssignableFrom( method.getReturnType() )) {
-                    Map real = (Map) method.invoke( proxyObject, null );
-                    if(real == null) {
-                        // in this case there is nothing we can do
-                        return null;
-                    }
-                    Map wrap = ModificationProxyCloner.cloneMap(real, true);
-                    properties().put( property, wrap );
-                    // we also need to store a clone of the initial state as the collection
-                    // might be a live one
-                    Map clone = ModificationProxyCloner.cloneMap(real, false);
-                    oldCollectionValues().put(property, clone);
-                    return wrap;
-                } else {
-                  //proceed with the invocation    
+                Collection real = (Collection) invoke( call.invoker, null );
+                if(real == null) {
+                    // in this case there is nothing we can do
+                    return null;
                 }
-                
+                Collection wrap = ModificationProxyCloner.cloneCollection(real, true);
+                properties().put( property, wrap );
+                // we also need to store a clone of the initial state as the collection
+                // might be a live one
+                Collection clone = ModificationProxyCloner.cloneCollection(real, false);
+                oldCollectionValues().put(property, clone);
+                return wrap;
+            } else if ( call.kind == Kind.MAP_GETTER ) {
+                Map real = (Map) invoke( call.invoker, null );
+                if(real == null) {
+                    // in this case there is nothing we can do
+                    return null;
+                }
+                Map wrap = ModificationProxyCloner.cloneMap(real, true);
+                properties().put( property, wrap );
+                // we also need to store a clone of the initial state as the collection
+                // might be a live one
+                Map clone = ModificationProxyCloner.cloneMap(real, false);
+                oldCollectionValues().put(property, clone);
+                return wrap;
             }
-            
-        }
-        if ( method.getName().startsWith( "set") && args.length == 1) {
-            //intercept setter and put new value in list
-            property = method.getName().substring( 3 );
-            properties().put( property, args[0] );
-            
-            return null;
+            break;
+        default:
+            //proceed with the invocation
         }
 
-        try{
-            Object result = method.invoke( proxyObject, args ); 
+        Object result = invoke( call.invoker, args );
 
-            //intercept result and wrap it in a proxy if it is another Info object
-            if ( result != null && shouldProxyProperty(result.getClass())) {
-                //avoid double proxy
-                Object o = ModificationProxy.unwrap( result );
-                if ( o == result ) {
-                    result = ModificationProxy.create( result, (Class) method.getReturnType() );
-                    
-                    //cache the proxy, in case it is modified itself
-                    properties().put( property, result );
-                }
-                else {
-                    //result was already proxied, leave as is
-                }
+        //intercept result and wrap it in a proxy if it is another Info object
+        if ( result != null && call.mayProxy && shouldProxyProperty(result.getClass())) {
+            //avoid double proxy
+            Object o = ModificationProxy.unwrap( result );
+            if ( o == result ) {
+                result = ModificationProxy.create( result, call.returnType );
+                
+                //cache the proxy, in case it is modified itself
+                properties().put( property, result );
+            }
+            else {
+                //result was already proxied, leave as is
             }
-            return result;
-        }catch(InvocationTargetException e){
-            Throwable targetException = e.getTargetException();
-            throw targetException;
+        }
+        return result;
+    }
+    
+    /**
+     * Invokes a method on the proxied object, unwrapping the exception thrown by it if any
+     */
+    private Object invoke(Invoker invoker, Object[] args) throws Throwable {
+        try {
+            return invoker.invoke( proxyObject, args );
+        } catch(InvocationTargetException e) {
+            throw e.getTargetException();
         }
     }
     
@@ -183,7 +190,8 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 
                 //use the getter to figure out the type for the setter
                 try {
-                    Method g = getter(p);
+                    Property property = type().property(p);
+                    Invoker g = property.getter();
                     
                     //handle collection case
                     if ( Collection.class.isAssignableFrom( g.getReturnType() ) ) {
@@ -195,7 +203,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                         m.clear();
                         m.putAll( (Map) v);
                     } else {
-                        Method s = setter(p,g.getReturnType());
+                        Invoker s = property.setter;
                         
                         if ( Info.class.isAssignableFrom( g.getReturnType() ) ) {
                             //another info is the changed property, it could be one of two cases
@@ -214,7 +222,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                             }
                             else if ( s != null ){
                                 //case 2, just call the setter with the new object
-                                s.invoke( proxyObject, v );
+                                s.invoke( proxyObject, new Object[] { v } );
                             }
                             else {
                                 throw new IllegalStateException( "New info object set, but no setter for it.");
@@ -222,7 +230,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                         }
                         else {
                             //call the setter
-                            s.invoke( proxyObject, v );
+                            s.invoke( proxyObject, new Object[] { v } );
                         }
                     }
                 } 
@@ -295,7 +303,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 }
             } else {
                 try {
-                    Object orig = unwrap( getter((String) e.getKey()).invoke(proxyObject, null));
+                    Object orig = unwrap( type().property((String) e.getKey()).getter().invoke(proxyObject, null));
                     if ( orig == null ) {
                         if(e.getValue() == null) {
                             continue;
@@ -326,7 +334,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     // value is not the same as the current value of the property on the object
                     Object curr = unwrap( value );
                     try {
-                        Object orig = unwrap( getter( propertyName ).invoke( proxyObject, null));
+                        Object orig = unwrap( type().property( propertyName ).getter().invoke( proxyObject, null));
                         if ( curr == orig ) {
                             continue;
                         }
@@ -367,11 +375,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 oldValues.add(oldCollectionValues.get(propertyName));
             } else {
                 try {
-                    Method g = getter(propertyName);
-                    if ( g == null ) {
-                        throw new IllegalArgumentException( "No such property: " + propertyName );
-                    }
-                    
+                    Invoker g = type().property(propertyName).getter();
                     oldValues.add( g.invoke( proxyObject, null ) );
                 } catch (Exception e) {
                     throw new RuntimeException( e );
@@ -393,49 +397,13 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         return newValues;
     }
     
-    /*
-     * Helper method for looking up a getter method.
-     */
-    Method getter( String propertyName ) {
-        Method g = null;
-        try {
-            g = proxyObject.getClass().getMethod( "get" + propertyName , null );
-        }
-        catch( NoSuchMethodException e1 ) {
-            //could be boolean
-            try {
-                g = proxyObject.getClass().getMethod( "is" + propertyName , null );    
-            }
-            catch( NoSuchMethodException e2 ) {}
-        }
-        
-        if ( g == null ) {
-            g = cp().getter(propertyName, null);
-        }
-        
-        return g;
-    }
-
-    /*
-     * Helper method for looking up a getter method.
-     */
-    Method setter( String propertyName, Class type ) {
-        Method s = null;
-        try {
-            s = proxyObject.getClass().getMethod( "set" + propertyName, type );
-        }
-        catch( NoSuchMethodException e ) {
-            s = cp().setter(propertyName, type);
-        }
-        return s;
-    }
-
     private Object readResolve() throws ObjectStreamException {
         // replace the main proxy object
         if(proxyObject instanceof CatalogInfo) {
             CatalogInfo replacement = replaceCatalogInfo((CatalogInfo) proxyObject);
             if(replacement != null) {
                 proxyObject = unwrap(replacement);
+                type = null;
             }
         }
         
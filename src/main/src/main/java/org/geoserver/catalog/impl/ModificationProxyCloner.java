@@ -52,6 +52,8 @@ class ModificationProxyCloner {
     
     static final Map<Class, Class> CATALOGINFO_INTERFACE_CACHE = new ConcurrentHashMap<Class, Class>();
 
+    static final Map<Class, Copier> COPIER_CACHE = new ConcurrentHashMap<Class, Copier>();
+
     /**
      * Best effort object cloning utility, tries different lightweight strategies, then falls back
      * on copy by XStream serialization (we use that one as we have a number of hooks to avoid deep
@@ -79,34 +81,27 @@ class ModificationProxyCloner {
 
         // if a known immutable?
         if (source instanceof String || source instanceof Byte || source instanceof Short
-                || source instanceof Integer || source instanceof Float || source instanceof Double
-                || source instanceof BigInteger || source instanceof BigDecimal) {
+                || source instanceof Integer || source instanceof Long || source instanceof Float
+                || source instanceof Double || source instanceof Boolean
+                || source instanceof Character || source instanceof BigInteger
+                || source instanceof BigDecimal || source instanceof Enum) {
             return (T) source;
         }
 
         // is it cloneable?
-        try {
-            if (source instanceof Cloneable) {
-                // methodutils does not seem to work against "clone()"...
-                // return (T) MethodUtils.invokeExactMethod(source, "clone", null, null);
-                Method method = source.getClass().getDeclaredMethod("clone");
-                if(Modifier.isPublic(method.getModifiers()) && method.getParameterTypes().length == 0) {
-                    return (T) method.invoke(source);
-                }
+        Copier copier = getCopier(source.getClass());
+        if (copier.clone != null) {
+            try {
+                return (T) copier.clone.invoke(source);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Source object clone() method failed", e);
             }
-        } catch (Exception e) {
-            LOGGER.log(
-                    Level.FINE,
-                    "Source object is cloneable, yet it does not have a public no argument method 'clone'",
-                    e);
         }
 
         // does it have a copy constructor?
-        Constructor copyConstructor = ConstructorUtils.getAccessibleConstructor(source.getClass(),
-                source.getClass());
-        if (copyConstructor != null) {
+        if (copier.copyConstructor != null) {
             try {
-                return (T) copyConstructor.newInstance(source);
+                return (T) copier.copyConstructor.newInstance(source);
             } catch (Exception e) {
                 LOGGER.log(Level.FINE,
                         "Source has a copy constructor, but it failed, skipping to XStream", e);
@@ -136,6 +131,15 @@ class ModificationProxyCloner {
         }
     }
 
+    static Copier getCopier(Class clazz) {
+        Copier copier = COPIER_CACHE.get(clazz);
+        if (copier == null) {
+            copier = new Copier(clazz);
+            COPIER_CACHE.put(clazz, copier);
+        }
+        return copier;
+    }
+
     static Class getDeepestCatalogInfoInterface(CatalogInfo object) {
         Class<? extends CatalogInfo> sourceClass = object.getClass();
         Class result = CATALOGINFO_INTERFACE_CACHE.get(sourceClass);
@@ -240,6 +244,34 @@ class ModificationProxyCloner {
         return copy;
     }
 
+    /**
+     * The public clone method and copy constructor of a class, if any, looked up once as the
+     * reflective lookups are a lot more expensive than the copy itself
+     */
+    static class Copier {
+
+        Method clone;
+
+        Constructor copyConstructor;
+
+        Copier(Class clazz) {
+            if (Cloneable.class.isAssignableFrom(clazz)) {
+                try {
+                    // methodutils does not seem to work against "clone()"...
+                    Method method = clazz.getDeclaredMethod("clone");
+                    if (Modifier.isPublic(method.getModifiers())
+                            && method.getParameterTypes().length == 0) {
+                        clone = method;
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Source object is cloneable, yet it does not have "
+                            + "a public no argument method 'clone'", e);
+                }
+            }
+            copyConstructor = ConstructorUtils.getAccessibleConstructor(clazz, clazz);
+        }
+    }
+
     /**
      * Custom object output stream used to ensure a stable class loader used.
      */
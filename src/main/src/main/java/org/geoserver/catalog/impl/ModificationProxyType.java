@@ -0,0 +1,274 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.Info;
+import org.geoserver.ows.util.ClassProperties;
+import org.geoserver.ows.util.OwsUtils;
+import org.geotools.util.logging.Logging;
+import org.springframework.cglib.reflect.FastClass;
+
+/**
+ * Type specialized dispatch tables used by {@link ModificationProxy}.
+ * <p>
+ * For each proxied class the intercepted methods are classified once (plain getter, collection
+ * or map getter, setter, other method) along with the name of the property they access, and
+ * the getters and setters used to commit a property are looked up once as well. Calls are
+ * forwarded to the proxied object through a generated {@link FastClass}, which dispatches on
+ * a method index instead of going through {@link Method#invoke(Object, Object...)}, falling
+ * back on reflection for classes that cannot be enhanced.
+ * </p>
+ */
+class ModificationProxyType {
+
+    static final Logger LOGGER = Logging.getLogger(ModificationProxyType.class);
+
+    static final Map<Class, ModificationProxyType> TYPES = new ConcurrentHashMap<Class, ModificationProxyType>();
+
+    /**
+     * The kind of an intercepted method
+     */
+    enum Kind {
+        GETTER, COLLECTION_GETTER, MAP_GETTER, SETTER, OTHER
+    }
+
+    /**
+     * Returns the dispatch table for the specified proxied class
+     */
+    static ModificationProxyType get(Class clazz) {
+        ModificationProxyType type = TYPES.get(clazz);
+        if (type == null) {
+            type = new ModificationProxyType(clazz);
+            TYPES.put(clazz, type);
+        }
+        return type;
+    }
+
+    final Class clazz;
+
+    final FastClass fastClass;
+
+    final Map<Method, Call> calls = new ConcurrentHashMap<Method, Call>();
+
+    final Map<String, Property> properties = new ConcurrentHashMap<String, Property>();
+
+    ClassProperties cp;
+
+    ModificationProxyType(Class clazz) {
+        this.clazz = clazz;
+        this.fastClass = fastClass(clazz);
+    }
+
+    static FastClass fastClass(Class clazz) {
+        if (!Modifier.isPublic(clazz.getModifiers()) || Proxy.isProxyClass(clazz)) {
+            return null;
+        }
+        try {
+            return FastClass.create(clazz);
+        } catch (Throwable t) {
+            LOGGER.log(Level.FINE, "Could not generate a fast class for " + clazz.getName()
+                    + ", falling back on reflection", t);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the classified version of a method invoked on the proxy
+     */
+    Call call(Method method) {
+        Call call = calls.get(method);
+        if (call == null) {
+            call = new Call(method, invoker(method));
+            calls.put(method, call);
+        }
+        return call;
+    }
+
+    /**
+     * Returns the getter and setter of the specified property, the property name being
+     * capitalized as in the getter and setter names
+     */
+    Property property(String name) {
+        Property property = properties.get(name);
+        if (property == null) {
+            Method getter = getter(name);
+            Method setter = getter != null ? setter(name, getter.getReturnType()) : null;
+            property = new Property(name, getter != null ? invoker(getter) : null,
+                    setter != null ? invoker(setter) : null);
+            properties.put(name, property);
+        }
+        return property;
+    }
+
+    Invoker invoker(Method method) {
+        if (fastClass != null) {
+            try {
+                int index = fastClass.getIndex(method.getName(), method.getParameterTypes());
+                if (index >= 0) {
+                    return new Invoker(method, fastClass, index);
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINER, "No fast method for " + method + ", using reflection", t);
+            }
+        }
+        return new Invoker(method, null, -1);
+    }
+
+    Method getter(String propertyName) {
+        try {
+            return clazz.getMethod("get" + propertyName);
+        } catch (NoSuchMethodException e1) {
+            // could be boolean
+            try {
+                return clazz.getMethod("is" + propertyName);
+            } catch (NoSuchMethodException e2) {
+                return cp().getter(propertyName, null);
+            }
+        }
+    }
+
+    Method setter(String propertyName, Class type) {
+        try {
+            return clazz.getMethod("set" + propertyName, type);
+        } catch (NoSuchMethodException e) {
+            return cp().setter(propertyName, type);
+        }
+    }
+
+    ClassProperties cp() {
+        if (cp == null) {
+            cp = OwsUtils.getClassProperties(clazz);
+        }
+        return cp;
+    }
+
+    /**
+     * Invokes a method on the proxied object, through the fast class if available
+     */
+    static class Invoker {
+
+        final Method method;
+
+        final FastClass fastClass;
+
+        final int index;
+
+        Invoker(Method method, FastClass fastClass, int index) {
+            this.method = method;
+            this.fastClass = fastClass;
+            this.index = index;
+        }
+
+        Object invoke(Object target, Object[] args) throws InvocationTargetException,
+                IllegalAccessException {
+            if (fastClass != null) {
+                return fastClass.invoke(index, target, args);
+            }
+            return method.invoke(target, args);
+        }
+
+        Class getReturnType() {
+            return method.getReturnType();
+        }
+    }
+
+    /**
+     * A method invoked on the proxy, classified
+     */
+    static class Call {
+
+        final Kind kind;
+
+        /**
+         * The capitalized name of the property accessed, or null if the method is not a getter or
+         * setter
+         */
+        final String property;
+
+        final Class returnType;
+
+        /**
+         * False if the method cannot return an object that needs to be proxied in turn
+         */
+        final boolean mayProxy;
+
+        final Invoker invoker;
+
+        Call(Method method, Invoker invoker) {
+            String name = method.getName();
+            int params = method.getParameterTypes().length;
+            this.returnType = method.getReturnType();
+            this.invoker = invoker;
+            if ((name.startsWith("get") || name.startsWith("is")) && params == 0) {
+                property = name.substring(name.startsWith("get") ? 3 : 2);
+                if (Collection.class.isAssignableFrom(returnType)) {
+                    kind = Kind.COLLECTION_GETTER;
+                } else if (Map.class.isAssignableFrom(returnType)) {
+                    kind = Kind.MAP_GETTER;
+                } else {
+                    kind = Kind.GETTER;
+                }
+            } else if (name.startsWith("set") && params == 1) {
+                property = name.substring(3);
+                kind = Kind.SETTER;
+            } else {
+                property = null;
+                kind = Kind.OTHER;
+            }
+            this.mayProxy = mayProxy(returnType);
+        }
+
+        /**
+         * Tells whether a value of the specified static type can be an {@link Info} that is not
+         * a {@link Catalog}, the check being repeated on the actual class of the value at runtime
+         */
+        static boolean mayProxy(Class type) {
+            if (type.isPrimitive() || type.isArray() || Catalog.class.isAssignableFrom(type)) {
+                return false;
+            }
+            if (Info.class.isAssignableFrom(type) || type.isInterface()) {
+                return true;
+            }
+            // a final class that does not implement Info cannot have an Info subclass
+            return !Modifier.isFinal(type.getModifiers());
+        }
+    }
+
+    /**
+     * The getter and setter of a property, as used when committing and comparing values
+     */
+    static class Property {
+
+        final String name;
+
+        final Invoker getter;
+
+        final Invoker setter;
+
+        Property(String name, Invoker getter, Invoker setter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Invoker getter() {
+            if (getter == null) {
+                throw new IllegalArgumentException("No such property: " + name);
+            }
+            return getter;
+        }
+    }
+}
@@ -0,0 +1,739 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.security.GeoServerSecurityManager;
+import org.geoserver.security.password.ConfigurationPasswordEncryptionHelper;
+import org.geotools.util.logging.Logging;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Binary snapshot of the catalog contents, stored in the {@link #FILE_NAME} file at the root of
+ * the data directory, used to skip parsing the XML configuration files on startup.
+ * <p>
+ * The snapshot is written with Java serialization after the catalog has been loaded from the XML
+ * files, and then again a few seconds after each catalog change. It records a fingerprint of the
+ * catalog XML files (their paths, sizes and last modification times), the GeoServer version and
+ * a checksum of its contents, and is ignored, falling back on the XML files, when any of them
+ * does not match or the snapshot cannot be read for any other reason.
+ * </p>
+ * <p>
+ * Only the persisted state of the catalog objects is stored: the stores disabled by the
+ * connectivity check of the loader are stored as enabled, and their errors are dropped, so that
+ * the check runs again on the next startup. Store passwords are encrypted in the snapshot the
+ * same way they are in the XML files. On read only the classes making up the catalog objects are
+ * deserialized, see {@link ContentsInputStream}.
+ * </p>
+ * <p>
+ * Snapshots are disabled by default, set the {@link #ENABLED_PROPERTY} system property,
+ * environment variable or servlet context parameter to <code>true</code> to enable them.
+ * </p>
+ */
+public class CatalogSnapshot implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogSnapshot.class);
+
+    public static final String ENABLED_PROPERTY = "org.geoserver.config.CatalogSnapshot.enabled";
+
+    public static final String FILE_NAME = "catalog.snapshot";
+
+    static final int MAGIC = 0x47534353;
+
+    /**
+     * Bump every time the layout of the file or of {@link Contents} changes
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Files in the workspaces directory holding catalog objects, besides the styles and layer
+     * groups directories
+     */
+    static final Set<String> CATALOG_FILES = new HashSet<String>(Arrays.asList("default.xml",
+            "workspace.xml", "namespace.xml", "datastore.xml", "coveragestore.xml",
+            "wmsstore.xml", "featuretype.xml", "coverage.xml", "wmslayer.xml", "layer.xml"));
+
+    /**
+     * Whether snapshots are enabled, see {@link #ENABLED_PROPERTY}
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(GeoServerExtensions.getProperty(ENABLED_PROPERTY));
+    }
+
+    File baseDirectory;
+
+    Catalog catalog;
+
+    /**
+     * Milliseconds to wait after a catalog change before writing the snapshot, so that a burst of
+     * changes results in a single write
+     */
+    long writeDelay = 10000;
+
+    AtomicBoolean pending = new AtomicBoolean();
+
+    ScheduledExecutorService executor;
+
+    /**
+     * Ids of the stores disabled by the connectivity check on load, still enabled in their
+     * persisted configuration
+     */
+    Set<String> disabledStores = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+
+    public CatalogSnapshot(GeoServerResourceLoader resourceLoader) {
+        this.baseDirectory = resourceLoader.getBaseDirectory();
+    }
+
+    /**
+     * Sets the ids of the stores disabled by the connectivity check of the loader
+     */
+    public void setDisabledStores(Collection<String> ids) {
+        disabledStores.clear();
+        disabledStores.addAll(ids);
+    }
+
+    File getFile() {
+        return new File(baseDirectory, FILE_NAME);
+    }
+
+    /**
+     * Reads the catalog from the snapshot.
+     *
+     * @return the catalog, or <code>null</code> if there is no snapshot, or if it is stale or
+     *         invalid
+     */
+    public CatalogImpl read() {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            Contents contents = readContents(file);
+            if (contents == null) {
+                return null;
+            }
+            return contents.toCatalog();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to read the catalog snapshot " + file
+                    + ", loading the catalog from the XML configuration", e);
+            return null;
+        }
+    }
+
+    Contents readContents(File file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                LOGGER.info("Ignoring the catalog snapshot, unknown format");
+                return null;
+            }
+            long fingerprint = buffer.getLong();
+            long length = buffer.getLong();
+            long checksum = buffer.getLong();
+            String version = new DataInputStream(new ByteBufferInputStream(buffer)).readUTF();
+            if (!version.equals(getVersion())) {
+                LOGGER.info("Ignoring the catalog snapshot, written by GeoServer " + version);
+                return null;
+            }
+            if (fingerprint != fingerprint()) {
+                LOGGER.info("Ignoring the catalog snapshot, the XML configuration changed since "
+                        + "it was written");
+                return null;
+            }
+            if (length != buffer.remaining()) {
+                LOGGER.warning("Ignoring the catalog snapshot, truncated file");
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                LOGGER.warning("Ignoring the catalog snapshot, checksum mismatch");
+                return null;
+            }
+
+            ObjectInputStream in = new ContentsInputStream(new ByteBufferInputStream(buffer));
+            return (Contents) in.readObject();
+        }
+    }
+
+    /**
+     * Writes the current contents of the catalog in the snapshot, replacing the previous one
+     */
+    public void write(Catalog catalog) throws IOException {
+        // compute the fingerprint first, any change to the files after this point will make the
+        // snapshot stale
+        long fingerprint = fingerprint();
+        Contents contents = new Contents(catalog, disabledStores);
+
+        File file = getFile();
+        File tmp = new File(baseDirectory, FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream header = new DataOutputStream(Channels.newOutputStream(channel));
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeLong(fingerprint);
+            // length and checksum are filled in once the contents are written
+            header.writeLong(0);
+            header.writeLong(0);
+            header.writeUTF(getVersion());
+            header.flush();
+            long start = channel.position();
+
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 64 * 1024), new CRC32());
+            ContentsOutputStream out = new ContentsOutputStream(checked, contents.replacements);
+            out.writeObject(contents);
+            out.flush();
+
+            ByteBuffer trailer = ByteBuffer.allocate(16);
+            trailer.putLong(channel.position() - start);
+            trailer.putLong(checked.getChecksum().getValue());
+            trailer.flip();
+            channel.write(trailer, 16);
+            channel.force(false);
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the snapshot, if any
+     */
+    public void delete() {
+        File file = getFile();
+        if (file.exists() && !file.delete()) {
+            LOGGER.warning("Unable to delete the catalog snapshot " + file);
+        }
+    }
+
+    /**
+     * Schedules writing the snapshot of the given catalog, unless a write is already pending
+     */
+    public void schedule(Catalog catalog) {
+        this.catalog = catalog;
+        if (pending.compareAndSet(false, true)) {
+            getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // changes happening while writing will schedule another write
+                    pending.set(false);
+                    try {
+                        long start = System.currentTimeMillis();
+                        write(CatalogSnapshot.this.catalog);
+                        LOGGER.info("Wrote the catalog snapshot in "
+                                + (System.currentTimeMillis() - start) + " ms");
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Unable to write the catalog snapshot", e);
+                        delete();
+                    }
+                }
+            }, writeDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+                    "CatalogSnapshot-");
+            threadFactory.setDaemon(true);
+            executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        }
+        return executor;
+    }
+
+    public synchronized void dispose() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Combines the relative path, size and last modification time of all the catalog XML files in
+     * the data directory. The combination does not depend on the order in which the files are
+     * visited.
+     */
+    long fingerprint() throws IOException {
+        final Path root = baseDirectory.toPath();
+        final long[] state = new long[2];
+        for (final String dir : new String[] { "styles", "workspaces", "layergroups" }) {
+            Path path = root.resolve(dir);
+            if (!Files.isDirectory(path)) {
+                continue;
+            }
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isCatalogFile(file, "workspaces".equals(dir))) {
+                        long h = root.relativize(file).toString().hashCode();
+                        h = h * 0x9E3779B97F4A7C15L + attrs.lastModifiedTime().toMillis();
+                        h = h * 0x9E3779B97F4A7C15L + attrs.size();
+                        state[0]++;
+                        state[1] += h ^ (h >>> 31);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return state[1] * 31 + state[0];
+    }
+
+    boolean isCatalogFile(Path file, boolean workspaces) {
+        String name = file.getFileName().toString();
+        if (!name.toLowerCase().endsWith(".xml")) {
+            return false;
+        }
+        if (!workspaces || CATALOG_FILES.contains(name)) {
+            return true;
+        }
+        String parent = file.getParent().getFileName().toString();
+        return "styles".equals(parent) || "layergroups".equals(parent);
+    }
+
+    static String getVersion() {
+        String version = GeoServerLoader.class.getPackage().getImplementationVersion();
+        return version != null ? version : "unknown";
+    }
+
+    static GeoServerSecurityManager getSecurityManager() {
+        GeoServerSecurityManager secMgr = GeoServerExtensions.bean(GeoServerSecurityManager.class);
+        return secMgr != null && secMgr.isInitialized() ? secMgr : null;
+    }
+
+    //
+    // CatalogListener, writes the snapshot when the catalog changes
+    //
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        schedule(catalog);
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        if (event.getSource() instanceof StoreInfo) {
+            disabledStores.remove(((StoreInfo) event.getSource()).getId());
+        }
+        schedule(catalog);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        // once saved the persisted state of the store is the current one
+        if (event.getSource() instanceof StoreInfo) {
+            disabledStores.remove(((StoreInfo) event.getSource()).getId());
+        }
+        schedule(catalog);
+    }
+
+    @Override
+    public void reloaded() {
+    }
+
+    /**
+     * The catalog objects stored in the snapshot
+     */
+    static class Contents implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        List<WorkspaceInfo> workspaces = new ArrayList<WorkspaceInfo>();
+
+        List<NamespaceInfo> namespaces = new ArrayList<NamespaceInfo>();
+
+        List<StyleInfo> styles = new ArrayList<StyleInfo>();
+
+        List<StoreInfo> stores = new ArrayList<StoreInfo>();
+
+        List<ResourceInfo> resources = new ArrayList<ResourceInfo>();
+
+        List<LayerInfo> layers = new ArrayList<LayerInfo>();
+
+        List<LayerGroupInfo> layerGroups = new ArrayList<LayerGroupInfo>();
+
+        String defaultWorkspace;
+
+        String defaultNamespace;
+
+        /**
+         * Default data store ids by workspace id
+         */
+        Map<String, String> defaultDataStores = new HashMap<String, String>();
+
+        /**
+         * Ids of the stores to be enabled again on read, they were disabled on load only
+         */
+        Set<String> enabledStores = new HashSet<String>();
+
+        /**
+         * Encrypted connection parameters by store id
+         */
+        Map<String, Set<String>> encryptedFields = new HashMap<String, Set<String>>();
+
+        /**
+         * Connection parameter maps to be replaced by their encrypted copies while writing
+         */
+        transient Map<Object, Object> replacements = new IdentityHashMap<Object, Object>();
+
+        Contents(Catalog catalog, Set<String> disabledStores) {
+            for (WorkspaceInfo ws : catalog.getWorkspaces()) {
+                workspaces.add(ModificationProxy.unwrap(ws));
+                DataStoreInfo ds = catalog.getDefaultDataStore(ws);
+                if (ds != null) {
+                    defaultDataStores.put(ws.getId(), ds.getId());
+                }
+            }
+            for (NamespaceInfo ns : catalog.getNamespaces()) {
+                namespaces.add(ModificationProxy.unwrap(ns));
+            }
+            for (StyleInfo s : catalog.getStyles()) {
+                styles.add(ModificationProxy.unwrap(s));
+            }
+            for (StoreInfo s : catalog.getStores(StoreInfo.class)) {
+                stores.add(ModificationProxy.unwrap(s));
+                if (!s.isEnabled() && disabledStores.contains(s.getId())) {
+                    enabledStores.add(s.getId());
+                }
+            }
+            for (ResourceInfo r : catalog.getResources(ResourceInfo.class)) {
+                resources.add(ModificationProxy.unwrap(r));
+            }
+            for (LayerInfo l : catalog.getLayers()) {
+                layers.add(ModificationProxy.unwrap(l));
+            }
+            for (LayerGroupInfo lg : catalog.getLayerGroups()) {
+                layerGroups.add(ModificationProxy.unwrap(lg));
+            }
+            WorkspaceInfo ws = catalog.getDefaultWorkspace();
+            defaultWorkspace = ws != null ? ws.getId() : null;
+            NamespaceInfo ns = catalog.getDefaultNamespace();
+            defaultNamespace = ns != null ? ns.getId() : null;
+
+            encryptPasswords();
+        }
+
+        /**
+         * Encrypts the store passwords like {@link org.geoserver.config.util.XStreamPersister}
+         * does
+         */
+        void encryptPasswords() {
+            GeoServerSecurityManager secMgr = getSecurityManager();
+            if (secMgr == null) {
+                return;
+            }
+            ConfigurationPasswordEncryptionHelper helper = secMgr
+                    .getConfigPasswordEncryptionHelper();
+            for (StoreInfo store : stores) {
+                Map<String, Serializable> params = store.getConnectionParameters();
+                Set<String> fields = helper.getEncryptedFields(store);
+                if (params == null || fields.isEmpty()) {
+                    continue;
+                }
+                Map<String, Serializable> encrypted = new HashMap<String, Serializable>(params);
+                Set<String> encryptedKeys = new HashSet<String>();
+                for (String field : fields) {
+                    Serializable value = params.get(field);
+                    if (value instanceof String) {
+                        encrypted.put(field, helper.encode((String) value));
+                        encryptedKeys.add(field);
+                    }
+                }
+                if (!encryptedKeys.isEmpty()) {
+                    replacements.put(params, encrypted);
+                    encryptedFields.put(store.getId(), encryptedKeys);
+                }
+            }
+        }
+
+        /**
+         * Builds a new catalog out of the snapshot contents
+         */
+        CatalogImpl toCatalog() throws IOException {
+            decryptPasswords();
+
+            CatalogImpl catalog = new CatalogImpl();
+            // the new catalog is not shared yet, avoid firing events while filling it, same as
+            // the XML loader
+            List<CatalogListener> listeners = new ArrayList<CatalogListener>(
+                    catalog.getListeners());
+            catalog.removeListeners(CatalogListener.class);
+
+            for (WorkspaceInfo ws : workspaces) {
+                catalog.add(ws);
+            }
+            for (NamespaceInfo ns : namespaces) {
+                catalog.add(ns);
+            }
+            if (defaultWorkspace != null) {
+                catalog.setDefaultWorkspace(catalog.getWorkspace(defaultWorkspace));
+            }
+            if (defaultNamespace != null) {
+                catalog.setDefaultNamespace(catalog.getNamespace(defaultNamespace));
+            }
+            for (StyleInfo s : styles) {
+                catalog.add(s);
+            }
+            for (StoreInfo s : stores) {
+                if (enabledStores.contains(s.getId())) {
+                    s.setEnabled(true);
+                }
+                catalog.add(s);
+            }
+            for (Map.Entry<String, String> e : defaultDataStores.entrySet()) {
+                catalog.setDefaultDataStore(catalog.getWorkspace(e.getKey()),
+                        catalog.getDataStore(e.getValue()));
+            }
+            for (ResourceInfo r : resources) {
+                catalog.add(r);
+            }
+            for (LayerInfo l : layers) {
+                catalog.add(l);
+            }
+
+            // groups can contain other groups, which might come later in the list
+            List<LayerGroupInfo> remaining = new ArrayList<LayerGroupInfo>(layerGroups);
+            while (!remaining.isEmpty()) {
+                List<LayerGroupInfo> failed = new ArrayList<LayerGroupInfo>();
+                RuntimeException failure = null;
+                for (LayerGroupInfo lg : remaining) {
+                    try {
+                        catalog.add(lg);
+                    } catch (RuntimeException e) {
+                        failed.add(lg);
+                        failure = e;
+                    }
+                }
+                if (failed.size() == remaining.size()) {
+                    throw failure;
+                }
+                remaining = failed;
+            }
+
+            for (CatalogListener listener : listeners) {
+                catalog.addListener(listener);
+            }
+            return catalog;
+        }
+
+        void decryptPasswords() throws IOException {
+            if (encryptedFields.isEmpty()) {
+                return;
+            }
+            GeoServerSecurityManager secMgr = getSecurityManager();
+            if (secMgr == null) {
+                throw new IOException("The snapshot contains encrypted passwords, but the "
+                        + "security manager is not available to decrypt them");
+            }
+            ConfigurationPasswordEncryptionHelper helper = secMgr
+                    .getConfigPasswordEncryptionHelper();
+            for (StoreInfo store : stores) {
+                Set<String> fields = encryptedFields.get(store.getId());
+                if (fields == null) {
+                    continue;
+                }
+                Map<String, Serializable> params = store.getConnectionParameters();
+                for (String field : fields) {
+                    params.put(field, helper.decode((String) params.get(field)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the encrypted copies of the connection parameters in place of the originals, and
+     * drops the store errors, which are runtime state
+     */
+    static class ContentsOutputStream extends ObjectOutputStream {
+
+        Map<Object, Object> replacements;
+
+        ContentsOutputStream(OutputStream out, Map<Object, Object> replacements)
+                throws IOException {
+            super(out);
+            this.replacements = replacements;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Throwable) {
+                return null;
+            }
+            Object replacement = replacements.get(obj);
+            return replacement != null ? replacement : obj;
+        }
+    }
+
+    /**
+     * Deserializes only the classes the catalog objects are made of, the snapshot is a file in
+     * the data directory and should not be able to instantiate anything else
+     */
+    static class ContentsInputStream extends ObjectInputStream {
+
+        /**
+         * Packages of the catalog objects and of the values they hold
+         */
+        static final String[] PACKAGES = { "org.geoserver.catalog.", "java.lang.", "java.util.",
+                "java.math.", "org.geotools.referencing.", "org.geotools.metadata.",
+                "org.geotools.geometry.", "org.geotools.coverage.grid.", "org.geotools.util.",
+                "org.geotools.measure.",
+                "org.opengis.", "javax.measure.", "com.vividsolutions.jts.geom." };
+
+        /**
+         * Classes allowed outside of {@link #PACKAGES}
+         */
+        static final Set<String> CLASSES = new HashSet<String>(Arrays.asList(
+                Contents.class.getName(), "java.net.URL", "java.net.URI", "java.io.File",
+                "java.awt.Rectangle", "java.awt.geom.AffineTransform", "java.sql.Date",
+                "java.sql.Timestamp", "java.sql.Time"));
+
+        ContentsInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            check(desc.getName());
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException,
+                ClassNotFoundException {
+            for (String name : interfaces) {
+                check(name);
+            }
+            return super.resolveProxyClass(interfaces);
+        }
+
+        static void check(String name) throws InvalidClassException {
+            // arrays, check the component type
+            String className = name.replaceFirst("^\\[+L?", "").replaceFirst(";$", "");
+            if (className.length() <= 1 && name.startsWith("[")) {
+                // array of primitives
+                return;
+            }
+            if (CLASSES.contains(className)) {
+                return;
+            }
+            for (String pkg : PACKAGES) {
+                if (className.startsWith(pkg)) {
+                    return;
+                }
+            }
+            throw new InvalidClassException(className,
+                    "Class not allowed in the catalog snapshot");
+        }
+    }
+
+    /**
+     * Reads from the current position of a (memory mapped) buffer
+     */
+    static class ByteBufferInputStream extends InputStream {
+
+        ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
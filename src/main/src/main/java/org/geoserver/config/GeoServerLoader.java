@@ -10,13 +10,24 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.catalog.Catalog;
-import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
@@ -24,7 +35,9 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
@@ -32,6 +45,7 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
@@ -67,6 +81,27 @@ public abstract class GeoServerLoader {
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
     
+    /**
+     * Number of threads used to parse the catalog configuration files, defaults to the number of
+     * available processors, 1 parses them on the loading thread
+     */
+    public static final String LOADER_THREADS_PROPERTY = "org.geoserver.config.GeoServerLoader.threads";
+    
+    /**
+     * Timings of the last catalog load
+     */
+    CatalogLoadingReport loadingReport;
+    
+    /**
+     * The binary catalog snapshot, when enabled
+     */
+    CatalogSnapshot snapshot;
+    
+    /**
+     * Ids of the data stores disabled by the connectivity check of the last catalog load
+     */
+    Set<String> disabledStores = Collections.emptySet();
+    
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
     // this ugly hack can die
@@ -213,14 +248,20 @@ public abstract class GeoServerLoader {
         // but these two fellas are attached to the new catalog as well
         catalog.removeListeners(ResourcePool.CacheClearingListener.class);
         catalog.removeListeners(GeoServerPersister.class);
+        catalog.removeListeners(CatalogSnapshot.class);
         List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
 
         //look for catalog.xml, if it exists assume we are dealing with 
         // an old data directory
         Resource f = resourceLoader.get( "catalog.xml" );
+        boolean writeSnapshot = false;
         if ( !Resources.exists(f) ) {
-            //assume 2.x style data directory
-            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
+            //assume 2.x style data directory, use the binary snapshot if enabled and up to date
+            CatalogImpl catalog2 = readCatalogSnapshot();
+            if ( catalog2 == null ) {
+                catalog2 = (CatalogImpl) readCatalog( xp );
+                writeSnapshot = snapshot != null;
+            }
             // make to remove the old resource pool catalog listener
             ((CatalogImpl)catalog).sync( catalog2 );
         } else {
@@ -234,10 +275,78 @@ public abstract class GeoServerLoader {
         for (CatalogListener listener : listeners) {
             catalog.addListener(listener);
         }
+        
+        // keep the snapshot up to date with the catalog changes
+        if ( snapshot != null ) {
+            snapshot.catalog = catalog;
+            snapshot.setDisabledStores(disabledStores);
+            catalog.addListener(snapshot);
+            if ( writeSnapshot ) {
+                snapshot.schedule(catalog);
+            }
+        }
+    }
+    
+    /**
+     * Reads the catalog from the binary snapshot, if snapshots are enabled.
+     * 
+     * @return the catalog, or null if snapshots are disabled or the snapshot is missing, stale or
+     *         invalid
+     * @see CatalogSnapshot
+     */
+    CatalogImpl readCatalogSnapshot() throws Exception {
+        if ( !CatalogSnapshot.isEnabled() || resourceLoader.getBaseDirectory() == null ) {
+            if ( snapshot != null ) {
+                snapshot.dispose();
+                snapshot = null;
+            }
+            return null;
+        }
+        if ( snapshot == null ) {
+            snapshot = new CatalogSnapshot(resourceLoader);
+        }
+        
+        CatalogLoadingReport report = new CatalogLoadingReport(1);
+        CatalogImpl catalog = snapshot.read();
+        if ( catalog == null ) {
+            return null;
+        }
+        report.phase("snapshot");
+        catalog.setResourceLoader(resourceLoader);
+        catalog.resolve();
+        report.phase("resolve");
+        
+        // the snapshot holds the persisted state of the stores, check them as the XML load does
+        List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+        for ( DataStoreInfo ds : catalog.getDataStores() ) {
+            if ( ds.isEnabled() ) {
+                dataStores.add(ModificationProxy.unwrap(ds));
+            }
+        }
+        CatalogParser parser = new CatalogParser(catalog, null, getLoaderThreads());
+        try {
+            disabledStores = checkDataStores(dataStores, parser);
+        } finally {
+            parser.dispose();
+        }
+        report.phase("store connections");
+        
+        loadingReport = report;
+        LOGGER.info(report.toString());
+        return catalog;
     }
     
     /**
      * Reads the catalog from disk.
+     * <p>
+     * The configuration files are parsed on a pool of threads, see {@link #LOADER_THREADS_PROPERTY},
+     * one level of the catalog at a time: workspaces, namespaces and global styles first, then
+     * workspace styles and stores, resources and finally layers. This way the references to the
+     * objects of the previous levels get resolved while parsing, as those are already in the
+     * catalog. The parsed objects are added to the catalog from the calling thread, in data
+     * directory order, without firing any catalog event. The time spent in each phase is logged
+     * at the end.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
         CatalogImpl catalog = new CatalogImpl();
@@ -245,13 +354,54 @@ public abstract class GeoServerLoader {
         xp.setCatalog( catalog );
         xp.setUnwrapNulls(false);
         
-        CatalogFactory factory = catalog.getFactory();
-       
+        // the only listener of the new catalog is the resource pool one, which has nothing to
+        // clean up while loading, avoid firing an event for each object added
+        List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
+        catalog.removeListeners(CatalogListener.class);
+        
+        CatalogParser parser = new CatalogParser(catalog, xp, getLoaderThreads());
+        CatalogLoadingReport report = new CatalogLoadingReport(parser.threads);
+        try {
+            readCatalog(catalog, xp, parser, report);
+        } finally {
+            parser.dispose();
+            for (CatalogListener listener : listeners) {
+                catalog.addListener(listener);
+            }
+        }
+        
+        xp.setUnwrapNulls(true);
+        catalog.resolve();
+        report.phase("resolve");
+        
+        loadingReport = report;
+        LOGGER.info(report.toString());
+        return catalog;
+    }
+
+    void readCatalog(CatalogImpl catalog, XStreamPersister xp, CatalogParser parser,
+            CatalogLoadingReport report) throws Exception {
         //global styles
-        loadStyles(resourceLoader.get( "styles" ), catalog, xp);
+        List<Parsed<StyleInfo>> styles = parser.parseStyles(resourceLoader.get( "styles" ));
 
-        //workspaces, stores, and resources
+        //workspaces and namespaces
         Resource workspaces = resourceLoader.get( "workspaces" );
+        List<WorkspaceEntry> entries = new ArrayList<WorkspaceEntry>();
+        if ( Resources.exists(workspaces) ) {
+            for ( Resource wsd : Resources.list(workspaces, Resources.DirectoryFilter.INSTANCE) ) {
+                Resource f = wsd.get("workspace.xml");
+                if ( !Resources.exists(f) ) {
+                    continue;
+                }
+                WorkspaceEntry entry = new WorkspaceEntry(wsd);
+                entry.workspace = parser.parse(f, WorkspaceInfo.class);
+                entry.namespace = parser.parse(wsd.get("namespace.xml"), NamespaceInfo.class);
+                entries.add(entry);
+            }
+        }
+        
+        addStyles(styles, catalog);
+        
         if ( Resources.exists(workspaces) ) {
             //do a first quick scan over all workspaces, setting the default
             Resource dws = workspaces.get("default.xml");
@@ -269,35 +419,30 @@ public abstract class GeoServerLoader {
                 LOGGER.warning("No default workspace was found.");
             }
             
-            for ( Resource wsd : Resources.list(workspaces, Resources.DirectoryFilter.INSTANCE) ) {
-                Resource f = wsd.get("workspace.xml");
-                if ( !Resources.exists(f) ) {
-                    continue;
-                }
-                
+            for ( WorkspaceEntry entry : entries ) {
                 WorkspaceInfo ws = null;
                 try {
-                    ws = depersist( xp, f, WorkspaceInfo.class );
+                    ws = entry.workspace.get();
                     catalog.add( ws );    
                 }
                 catch( Exception e ) {
-                    LOGGER.log( Level.WARNING, "Failed to load workspace '" + wsd.name() + "'" , e );
+                    LOGGER.log( Level.WARNING, "Failed to load workspace '" + entry.dir.name() + "'" , e );
                     continue;
                 }
+                entry.added = true;
                 
                 LOGGER.info( "Loaded workspace '" + ws.getName() +"'");
                 
                 //load the namespace
-                Resource nsf = wsd.get("namespace.xml" );
                 NamespaceInfo ns = null; 
-                if ( Resources.exists(nsf) ) {
-                    try {
-                        ns = depersist( xp, nsf, NamespaceInfo.class );
+                try {
+                    ns = entry.namespace.get();
+                    if ( ns != null ) {
                         catalog.add( ns );
                     }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, "Failed to load namespace for '" + wsd.name() + "'" , e );
-                    }
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load namespace for '" + entry.dir.name() + "'" , e );
                 }
                 
                 //set the default workspace, this value might be null in the case of coming from a 
@@ -319,210 +464,157 @@ public abstract class GeoServerLoader {
                         }
                         catch( Exception e ) {
                             LOGGER.log( Level.WARNING, "Failed to persist default workspace '" + 
-                                wsd.name() + "'" , e );
+                                entry.dir.name() + "'" , e );
                         }
                         
                     }
                 }
-
-                //load the styles for the workspace
-                Resource styles = wsd.get("styles");
-                if (styles != null) {
-                    loadStyles(styles, catalog, xp);
+            }
+        }
+        else {
+            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+        }
+        report.phase("workspaces");
+        
+        //workspace styles and stores, the workspaces are now in the catalog
+        for ( WorkspaceEntry entry : entries ) {
+            if ( !entry.added ) {
+                continue;
+            }
+            entry.styles = parser.parseStyles(entry.dir.get("styles"));
+            for ( Resource sd : Resources.list(entry.dir, Resources.DirectoryFilter.INSTANCE) ) {
+                StoreEntry store = new StoreEntry(sd);
+                for ( StoreKind kind : StoreKind.values() ) {
+                    Resource f = sd.get(kind.storeFile);
+                    if ( Resources.exists(f) ) {
+                        store.kind = kind;
+                        store.store = parser.parse(f, kind.storeClass);
+                        break;
+                    }
                 }
+                entry.stores.add(store);
             }
-            
-            for ( Resource wsd : Resources.list(workspaces, Resources.DirectoryFilter.INSTANCE )) {
-            
-                //load the stores for this workspace
-                for ( Resource sd : Resources.list(wsd, Resources.DirectoryFilter.INSTANCE) ) {
-                    Resource f = sd.get("datastore.xml");
-                    if ( Resources.exists(f)) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
-                            
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-                            
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
-                        }
-                        catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.name() + "'", e);
+        }
+        List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+        for ( WorkspaceEntry entry : entries ) {
+            if ( !entry.added ) {
+                continue;
+            }
+            addStyles(entry.styles, catalog);
+            for ( StoreEntry store : entry.stores ) {
+                if ( store.kind == null ) {
+                    if ( !isConfigDirectory(store.dir) ) {
+                        LOGGER.warning( "Ignoring store directory '" + store.dir.name() +  "'");
+                    }
+                    continue;
+                }
+                StoreInfo s = null;
+                try {
+                    s = store.store.get();
+                    catalog.add( s );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load " + store.kind.storeLabel + " '" + 
+                        store.dir.name() + "'", e);
+                    continue;
+                }
+                store.added = true;
+                
+                LOGGER.info( "Loaded " + store.kind.storeLabel + " '" + s.getName() +"'");
+                
+                if ( s instanceof DataStoreInfo && s.isEnabled() ) {
+                    dataStores.add((DataStoreInfo) s);
+                }
+            }
+        }
+        report.phase("stores");
+        
+        //connect to the datastores to determine if we should disable them
+        disabledStores = checkDataStores(dataStores, parser);
+        report.phase("store connections");
+        
+        //resources, the stores and namespaces are now in the catalog
+        for ( WorkspaceEntry entry : entries ) {
+            for ( StoreEntry store : entry.stores ) {
+                if ( !store.added ) {
+                    continue;
+                }
+                for ( Resource rd : Resources.list(store.dir, Resources.DirectoryFilter.INSTANCE) ) {
+                    ResourceEntry resource = new ResourceEntry(rd);
+                    resource.resource = parser.parse(rd.get(store.kind.resourceFile),
+                            store.kind.resourceClass);
+                    store.resources.add(resource);
+                }
+            }
+        }
+        for ( WorkspaceEntry entry : entries ) {
+            for ( StoreEntry store : entry.stores ) {
+                for ( ResourceEntry resource : store.resources ) {
+                    ResourceInfo r = null;
+                    try {
+                        r = resource.resource.get();
+                        if ( r == null ) {
+                            LOGGER.warning( "Ignoring " + store.kind.resourceLabel + " directory " + 
+                                resource.dir.path() );
                             continue;
                         }
-                        
-                        //load feature types
-                        for ( Resource ftd : Resources.list(sd, Resources.DirectoryFilter.INSTANCE) ) {
-                            f =  ftd.get("featuretype.xml" );
-                            if( Resources.exists(f) ) {
-                                FeatureTypeInfo ft = null;
-                                try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
-                                    catalog.add(ft);
-                                }
-                                catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.name() +"'", e);
-                                    continue;
-                                }
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = ftd.get("layer.xml" );
-                                if ( Resources.exists(f) ) {
-                                    try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                        catalog.add( l );
-                                        
-                                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
-                                    }
-                                }
-                            }
-                            else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.path() );
-                            }
-                        }
-                    } else {
-                        //look for a coverage store
-                        f = sd.get("coveragestore.xml" );
-                        if ( Resources.exists(f) ) {
-                            CoverageStoreInfo cs = null;
-                            try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
-                            
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
-                            }
-                            catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.name() +"'", e);
-                                continue;
-                            }
-                            
-                            //load coverages
-                            for ( Resource cd : Resources.list(sd, Resources.DirectoryFilter.INSTANCE) ) {
-                                f = cd.get("coverage.xml" );
-                                if( Resources.exists(f) ) {
-                                    CoverageInfo c = null;
-                                    try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
-                                        
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.name() +"'", e);
-                                        continue;
-                                    }
-                                    
-                                    f = cd.get("layer.xml" );
-                                    if ( Resources.exists(f) ) {
-                                        try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                            catalog.add( l );
-                                            
-                                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
-                                        }
-                                    }
-                                }
-                                else {
-                                    LOGGER.warning( "Ignoring coverage directory " + cd.path() );
-                                }
-                            }
-                        } else {
-                            f = sd.get("wmsstore.xml");
-                            if(Resources.exists(f)) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.name() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( Resource cd : Resources.list(sd,Resources.DirectoryFilter.INSTANCE) ) {
-                                    f =  cd.get("wmslayer.xml" );
-                                    if( Resources.exists(f) ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.name() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f =  cd.get("layer.xml" );
-                                        if ( Resources.exists(f) ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.path() );
-                                    }
-                                }
-                            } else if(!isConfigDirectory(sd)) {
-                                LOGGER.warning( "Ignoring store directory '" + sd.name() +  "'");
-                                continue;
-                            }
-                        }
+                        catalog.add( r );
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load " + store.kind.resourceLabel + 
+                            " '" + resource.dir.name() +"'", e);
+                        continue;
                     }
+                    resource.added = r;
+                    
+                    LOGGER.info( "Loaded " + store.kind.resourceLabel + " '" + r.getName() +"'");
                 }
-
-                //load hte layer groups for this workspace
-                Resource layergroups = wsd.get("layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
+            }
+        }
+        report.phase("resources");
+        
+        //layers, the resources and styles are now in the catalog
+        for ( WorkspaceEntry entry : entries ) {
+            for ( StoreEntry store : entry.stores ) {
+                for ( ResourceEntry resource : store.resources ) {
+                    if ( resource.added != null ) {
+                        resource.layer = parser.parse(resource.dir.get("layer.xml"), LayerInfo.class);
+                    }
                 }
             }
         }
-        else {
-            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+        for ( WorkspaceEntry entry : entries ) {
+            for ( StoreEntry store : entry.stores ) {
+                for ( ResourceEntry resource : store.resources ) {
+                    if ( resource.layer == null ) {
+                        continue;
+                    }
+                    try {
+                        LayerInfo l = resource.layer.get();
+                        if ( l != null ) {
+                            catalog.add( l );
+                            
+                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+                        }
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load layer for " + 
+                            store.kind.resourceLabel + " '" + resource.added.getName() +"'", e);
+                    }
+                }
+            }
         }
-
-        //namespaces
+        report.phase("layers");
         
-        //layergroups
+        //layer groups, loaded sequentially as they can contain each other
+        for ( WorkspaceEntry entry : entries ) {
+            loadLayerGroups(entry.dir.get("layergroups"), catalog, xp);
+        }
         Resource layergroups = resourceLoader.get( "layergroups" );
         if ( layergroups != null ) {
            loadLayerGroups(layergroups, catalog, xp);
         }
-        xp.setUnwrapNulls(true);
-        catalog.resolve();
-        return catalog;
+        report.phase("layer groups");
     }
     
     /**
@@ -682,21 +774,16 @@ public abstract class GeoServerLoader {
         }
     }
 
-    void loadStyles(Resource styles, Catalog catalog, XStreamPersister xp) {
-        for ( Resource sf : Resources.list(styles, new Resources.ExtensionFilter("XML") ) ) {
+    void addStyles(List<Parsed<StyleInfo>> styles, Catalog catalog) {
+        for ( Parsed<StyleInfo> parsed : styles ) {
             try {
-                //handle the .xml.xml case
-                if (Resources.exists(styles.get(sf.name() + ".xml"))) {
-                    continue;
-                }
-                
-                StyleInfo s = depersist( xp, sf, StyleInfo.class );
+                StyleInfo s = parsed.get();
                 catalog.add( s );
                 
                 LOGGER.info( "Loaded style '" + s.getName() + "'" );
             }
             catch( Exception e ) {
-                LOGGER.log( Level.WARNING, "Failed to load style from file '" + sf.name() + "'" , e );
+                LOGGER.log( Level.WARNING, "Failed to load style from file '" + parsed.file.name() + "'" , e );
             }
         }
     }
@@ -772,4 +859,316 @@ public abstract class GeoServerLoader {
         //dispose
         geoserver.dispose();
     }
+
+    /**
+     * The number of threads used to parse the catalog configuration files, from the
+     * {@link #LOADER_THREADS_PROPERTY} property, defaulting to the number of available processors
+     */
+    int getLoaderThreads() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String property = GeoServerExtensions.getProperty(LOADER_THREADS_PROPERTY);
+        if (property != null) {
+            try {
+                threads = Integer.parseInt(property.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + LOADER_THREADS_PROPERTY + ": " + property
+                        + ", using " + threads + " threads");
+            }
+        }
+        return Math.max(1, threads);
+    }
+
+    /**
+     * The kinds of store directories found in a workspace, with the names of the files holding
+     * the configuration of the store and of its resources
+     */
+    enum StoreKind {
+        DATA("datastore.xml", DataStoreInfo.class, "data store", "featuretype.xml",
+                FeatureTypeInfo.class, "feature type"),
+        COVERAGE("coveragestore.xml", CoverageStoreInfo.class, "coverage store", "coverage.xml",
+                CoverageInfo.class, "coverage"),
+        WMS("wmsstore.xml", WMSStoreInfo.class, "wms store", "wmslayer.xml",
+                WMSLayerInfo.class, "wms layer");
+
+        final String storeFile;
+
+        final Class<? extends StoreInfo> storeClass;
+
+        final String storeLabel;
+
+        final String resourceFile;
+
+        final Class<? extends ResourceInfo> resourceClass;
+
+        final String resourceLabel;
+
+        StoreKind(String storeFile, Class<? extends StoreInfo> storeClass, String storeLabel,
+                String resourceFile, Class<? extends ResourceInfo> resourceClass,
+                String resourceLabel) {
+            this.storeFile = storeFile;
+            this.storeClass = storeClass;
+            this.storeLabel = storeLabel;
+            this.resourceFile = resourceFile;
+            this.resourceClass = resourceClass;
+            this.resourceLabel = resourceLabel;
+        }
+    }
+
+    /**
+     * A workspace directory, along with the parsed contents of its configuration files
+     */
+    static class WorkspaceEntry {
+        final Resource dir;
+
+        Parsed<WorkspaceInfo> workspace;
+
+        Parsed<NamespaceInfo> namespace;
+
+        List<Parsed<StyleInfo>> styles;
+
+        List<StoreEntry> stores = new ArrayList<StoreEntry>();
+
+        boolean added;
+
+        WorkspaceEntry(Resource dir) {
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * A store directory, along with the parsed store and its resources
+     */
+    static class StoreEntry {
+        final Resource dir;
+
+        StoreKind kind;
+
+        Parsed<? extends StoreInfo> store;
+
+        List<ResourceEntry> resources = new ArrayList<ResourceEntry>();
+
+        boolean added;
+
+        StoreEntry(Resource dir) {
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * A resource directory, along with the parsed resource and layer
+     */
+    static class ResourceEntry {
+        final Resource dir;
+
+        Parsed<? extends ResourceInfo> resource;
+
+        Parsed<LayerInfo> layer;
+
+        ResourceInfo added;
+
+        ResourceEntry(Resource dir) {
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * The result of parsing a configuration file, null if the file does not exist
+     */
+    static class Parsed<T> {
+        final Resource file;
+
+        final Future<T> result;
+
+        Parsed(Resource file, Future<T> result) {
+            this.file = file;
+            this.result = result;
+        }
+
+        /**
+         * Waits for the file to be parsed, throwing back the parsing failure if any
+         */
+        T get() throws Exception {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Connects to the data stores, disabling the ones that fail.
+     * 
+     * @return the ids of the disabled stores
+     */
+    Set<String> checkDataStores(List<DataStoreInfo> dataStores, CatalogParser parser)
+            throws InterruptedException, ExecutionException {
+        final Set<String> disabled = Collections.synchronizedSet(new HashSet<String>());
+        List<Future<?>> connections = new ArrayList<Future<?>>();
+        for ( final DataStoreInfo ds : dataStores ) {
+            connections.add(parser.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        ds.getDataStore(null);
+                    }
+                    catch( Throwable t ) {
+                        LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                        LOGGER.log( Level.INFO, "", t );
+                        
+                        ds.setError(t);
+                        ds.setEnabled(false);
+                        disabled.add(ds.getId());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for ( Future<?> connection : connections ) {
+            connection.get();
+        }
+        return disabled;
+    }
+
+    /**
+     * Parses the catalog configuration files on a fork join pool, each worker thread using its own
+     * {@link XStreamPersister} created by the loader persister factory. With a single thread the
+     * files are parsed right away on the calling thread, with the persister provided by the
+     * caller.
+     */
+    class CatalogParser {
+
+        final int threads;
+
+        final XStreamPersister xp;
+
+        final ForkJoinPool pool;
+
+        final ThreadLocal<XStreamPersister> persisters;
+
+        CatalogParser(final Catalog catalog, XStreamPersister xp, int threads) {
+            this.threads = threads;
+            this.xp = xp;
+            if (threads > 1) {
+                pool = new ForkJoinPool(threads, new ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                                .newThread(pool);
+                        thread.setName("GeoServerLoader-" + thread.getPoolIndex());
+                        return thread;
+                    }
+                }, null, false);
+                persisters = new ThreadLocal<XStreamPersister>() {
+                    @Override
+                    protected XStreamPersister initialValue() {
+                        XStreamPersister persister = xpf.createXMLPersister();
+                        persister.setCatalog(catalog);
+                        persister.setUnwrapNulls(false);
+                        return persister;
+                    }
+                };
+            } else {
+                pool = null;
+                persisters = null;
+            }
+        }
+
+        <T> Parsed<T> parse(final Resource file, final Class<T> clazz) {
+            return new Parsed<T>(file, submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    if (!Resources.exists(file)) {
+                        return null;
+                    }
+                    return depersist(pool != null ? persisters.get() : xp, file, clazz);
+                }
+            }));
+        }
+
+        List<Parsed<StyleInfo>> parseStyles(Resource styles) {
+            List<Parsed<StyleInfo>> result = new ArrayList<Parsed<StyleInfo>>();
+            for ( Resource sf : Resources.list(styles, new Resources.ExtensionFilter("XML") ) ) {
+                //handle the .xml.xml case
+                if (Resources.exists(styles.get(sf.name() + ".xml"))) {
+                    continue;
+                }
+                result.add(parse(sf, StyleInfo.class));
+            }
+            return result;
+        }
+
+        <T> Future<T> submit(Callable<T> task) {
+            if (pool == null) {
+                FutureTask<T> future = new FutureTask<T>(task);
+                future.run();
+                return future;
+            }
+            return pool.submit(task);
+        }
+
+        void dispose() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Time spent in each phase of the catalog loading
+     */
+    static class CatalogLoadingReport {
+
+        final int threads;
+
+        final long start = System.nanoTime();
+
+        long last = start;
+
+        final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+        CatalogLoadingReport(int threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * Marks the end of a phase, which started at the end of the previous one
+         */
+        void phase(String name) {
+            long now = System.nanoTime();
+            phases.put(name, TimeUnit.NANOSECONDS.toMillis(now - last));
+            last = now;
+        }
+
+        /**
+         * The duration of each phase in milliseconds, in execution order
+         */
+        Map<String, Long> getPhases() {
+            return phases;
+        }
+
+        long getTotal() {
+            return TimeUnit.NANOSECONDS.toMillis(last - start);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Catalog loaded in ").append(getTotal())
+                    .append(" ms using ").append(threads).append(" thread(s):");
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                sb.append(" ").append(phase.getKey()).append(" ").append(phase.getValue())
+                        .append(" ms,");
+            }
+            sb.setLength(sb.length() - 1);
+            return sb.toString();
+        }
+    }
 }
+
@@ -15,7 +15,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.PlanarImage;
 import javax.xml.namespace.QName;
@@ -38,18 +46,19 @@ import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
 import org.geotools.data.DataAccess;
 import org.geotools.data.DataUtilities;
 import org.geotools.factory.GeoTools;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.feature.NameImpl;
 import org.geotools.resources.coverage.CoverageUtilities;
 import org.geotools.resources.image.ImageUtilities;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Version;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.style.ExternalGraphic;
 import org.w3c.dom.Element;
 
@@ -224,9 +233,159 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         Catalog catalog = getCatalog();
         // we actually keep two versions of the feature type in the cache, so we need it 
         // twice as big
-        assertEquals(400, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals("maximumSize=400", catalog.getResourcePool().getCacheStatistics()
+                .get(ResourcePool.FEATURETYPE_CACHE).getSpecification());
+    }
+
+    @Test public void testFeatureTypeCacheBounded() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        pool.setFeatureTypeCacheSize(1);
+
+        for (QName name : new QName[] { MockData.LAKES, MockData.BRIDGES, MockData.BUILDINGS }) {
+            FeatureTypeInfo info = getCatalog().getFeatureTypeByName(name.getNamespaceURI(),
+                    name.getLocalPart());
+            assertNotNull(pool.getFeatureType(info));
+        }
+
+        ResourceCacheStatistics stats = pool.getCacheStatistics().get(ResourcePool.FEATURETYPE_CACHE);
+        assertEquals(2, stats.getSize());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(2, pool.getFeatureTypeCache().size());
+    }
+
+    @Test public void testCacheStatistics() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        FeatureType ft1 = pool.getFeatureType(info);
+        FeatureType ft2 = pool.getFeatureType(info);
+        assertSame(ft1, ft2);
+
+        ResourceCacheStatistics stats = pool.getCacheStatistics().get(ResourcePool.FEATURETYPE_CACHE);
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertTrue(stats.getTotalLoadTime() > 0);
+
+        // the store has been loaded once as well
+        stats = pool.getCacheStatistics().get(ResourcePool.DATASTORE_CACHE);
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getSize());
+
+        // failed loads are counted and not cached
+        try {
+            pool.getCRS("EPSG:-1");
+            fail("Should have failed to decode the CRS");
+        } catch (IOException e) {
+            // fine
+        }
+        stats = pool.getCacheStatistics().get(ResourcePool.CRS_CACHE);
+        assertEquals(1, stats.getLoadExceptionCount());
+        assertEquals(0, stats.getSize());
+    }
+
+    @Test public void testCacheSpecification() throws Exception {
+        String property = ResourcePool.CACHE_SPEC_PROPERTY_PREFIX + ResourcePool.CRS_CACHE;
+        System.setProperty(property, "maximumSize=1");
+        try {
+            ResourcePool pool = new ResourcePool();
+            assertEquals("maximumSize=1", pool.getCacheStatistics().get(ResourcePool.CRS_CACHE)
+                    .getSpecification());
+            pool.getCRS("EPSG:4326");
+            pool.getCRS("EPSG:3857");
+            assertEquals(1, pool.getCrsCache().size());
+            assertTrue(pool.getCrsCache().containsKey("EPSG:3857"));
+        } finally {
+            System.clearProperty(property);
+        }
+
+        // invalid specifications fall back on the default one
+        System.setProperty(property, "maximumSize=abc");
+        try {
+            ResourcePool pool = new ResourcePool();
+            assertEquals("maximumSize=" + ResourcePool.CRS_CACHE_SIZE_DEFAULT, pool
+                    .getCacheStatistics().get(ResourcePool.CRS_CACHE).getSpecification());
+        } finally {
+            System.clearProperty(property);
+        }
     }
     
+    @Test public void testSingleFlightLoad() throws Exception {
+        final ResourcePool pool = new ResourcePool();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final Callable<CoordinateReferenceSystem> loader = new Callable<CoordinateReferenceSystem>() {
+            @Override
+            public CoordinateReferenceSystem call() throws Exception {
+                loads.incrementAndGet();
+                latch.await();
+                return DefaultGeographicCRS.WGS84;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CoordinateReferenceSystem>> results = new ArrayList<Future<CoordinateReferenceSystem>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<CoordinateReferenceSystem>() {
+                    @Override
+                    public CoordinateReferenceSystem call() throws Exception {
+                        return pool.cached(pool.crsCache, "slow", loader, 10000);
+                    }
+                }));
+            }
+
+            // other keys are not blocked by the pending load
+            assertSame(DefaultGeographicCRS.WGS84, pool.cached(pool.crsCache, "fast",
+                    new Callable<CoordinateReferenceSystem>() {
+                        @Override
+                        public CoordinateReferenceSystem call() throws Exception {
+                            return DefaultGeographicCRS.WGS84;
+                        }
+                    }, 10000));
+
+            latch.countDown();
+            for (Future<CoordinateReferenceSystem> result : results) {
+                assertSame(DefaultGeographicCRS.WGS84, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            latch.countDown();
+            executor.shutdownNow();
+            pool.dispose();
+        }
+    }
+
+    @Test public void testLoadTimeout() throws Exception {
+        ResourcePool pool = new ResourcePool();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Callable<CoordinateReferenceSystem> loader = new Callable<CoordinateReferenceSystem>() {
+            @Override
+            public CoordinateReferenceSystem call() throws Exception {
+                latch.await();
+                return DefaultGeographicCRS.WGS84;
+            }
+        };
+        try {
+            try {
+                pool.cached(pool.crsCache, "slow", loader, 50);
+                fail("Should have timed out");
+            } catch (ResourcePool.LoadTimeoutException e) {
+                // fine
+            }
+
+            // the load keeps going and caches its result
+            latch.countDown();
+            for (int i = 0; i < 100 && !pool.getCrsCache().containsKey("slow"); i++) {
+                Thread.sleep(50);
+            }
+            assertSame(DefaultGeographicCRS.WGS84, pool.cached(pool.crsCache, "slow", loader, 50));
+        } finally {
+            latch.countDown();
+            pool.dispose();
+        }
+    }
+
     @Test public void testDropCoverageStore() throws Exception {
         // build the store
         Catalog cat = getCatalog();
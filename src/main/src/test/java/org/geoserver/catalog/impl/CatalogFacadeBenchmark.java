@@ -0,0 +1,192 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.equal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * Measures {@link DefaultCatalogFacade#list} and {@link DefaultCatalogFacade#count} against
+ * catalogs of increasing size, comparing the index backed path with a plain scan of all the
+ * layers.
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CatalogFacadeBenchmark {
+
+    static final int WORKSPACES = 50;
+
+    @Param({ "1000", "10000", "100000" })
+    int layers;
+
+    DefaultCatalogFacade facade;
+
+    Filter byName;
+
+    Filter byWorkspace;
+
+    Filter byWorkspaceAndEnabled;
+
+    @Setup
+    public void setUp() {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        StyleInfo style = factory.createStyle();
+        style.setName("point");
+        style.setFilename("point.sld");
+        catalog.add(style);
+
+        DataStoreInfo[] stores = new DataStoreInfo[WORKSPACES];
+        NamespaceInfo[] namespaces = new NamespaceInfo[WORKSPACES];
+        for (int i = 0; i < WORKSPACES; i++) {
+            WorkspaceInfo ws = factory.createWorkspace();
+            ws.setName("ws" + i);
+            catalog.add(ws);
+
+            NamespaceInfo ns = factory.createNamespace();
+            ns.setPrefix("ws" + i);
+            ns.setURI("http://geoserver.org/ws" + i);
+            catalog.add(ns);
+            namespaces[i] = ns;
+
+            DataStoreInfo ds = factory.createDataStore();
+            ds.setName("ds" + i);
+            ds.setWorkspace(ws);
+            ds.setEnabled(true);
+            catalog.add(ds);
+            stores[i] = ds;
+        }
+
+        for (int i = 0; i < layers; i++) {
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName("ft" + i);
+            ft.setNativeName("ft" + i);
+            ft.setEnabled(i % 10 != 0);
+            ft.setStore(stores[i % WORKSPACES]);
+            ft.setNamespace(namespaces[i % WORKSPACES]);
+            catalog.add(ft);
+
+            LayerInfo layer = factory.createLayer();
+            layer.setResource(ft);
+            layer.setDefaultStyle(style);
+            layer.setEnabled(true);
+            catalog.add(layer);
+        }
+
+        facade = (DefaultCatalogFacade) ((CatalogImpl) catalog).getFacade();
+
+        byName = equal("name", "ft" + (layers / 2));
+        byWorkspace = equal("resource.store.workspace.name", "ws7");
+        byWorkspaceAndEnabled = and(byWorkspace, equal("resource.enabled", Boolean.TRUE));
+    }
+
+    @Benchmark
+    public void listByName(Blackhole bh) {
+        consume(bh, facade.list(LayerInfo.class, byName, null, null, (SortBy) null));
+    }
+
+    @Benchmark
+    public int countByWorkspace() {
+        return facade.count(LayerInfo.class, byWorkspace);
+    }
+
+    @Benchmark
+    public int countByWorkspaceAndEnabled() {
+        return facade.count(LayerInfo.class, byWorkspaceAndEnabled);
+    }
+
+    @Benchmark
+    public void listByWorkspacePage(Blackhole bh) {
+        consume(bh, facade.list(LayerInfo.class, byWorkspace, 20, 25, (SortBy) null));
+    }
+
+    @Benchmark
+    public Object getLayerByName() {
+        return facade.getLayerByName("ft" + (layers / 2));
+    }
+
+    /**
+     * Unsynchronized reads from all the available cores, should scale with the number of threads
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int concurrentReads() {
+        int count = 0;
+        for (LayerInfo layer : facade.getLayers()) {
+            if (layer.isEnabled()) {
+                count++;
+            }
+        }
+        return count + facade.getStores(DataStoreInfo.class).size()
+                + facade.getWorkspaces().size();
+    }
+
+    /**
+     * Baseline, evaluates the filter against every layer like the facade did before the indexes
+     */
+    @Benchmark
+    public int countByWorkspaceScan() {
+        int count = 0;
+        for (LayerInfo layer : facade.getLayers()) {
+            if (byWorkspace.evaluate(layer)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void consume(Blackhole bh, CloseableIterator<?> it) {
+        try {
+            while (it.hasNext()) {
+                bh.consume(it.next());
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CatalogFacadeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -581,6 +581,26 @@ public class CatalogImplTest {
         assertEquals(ws2, ws3);
         assertEquals( "ws2", ws3.getName() );
     }
+
+    @Test
+    public void testModifyWorkspaceUpdatesReferencingLookups() {
+        addLayer();
+        Filter byWorkspace = equal("resource.store.workspace.name", ws.getName());
+        Filter byName = equal("prefixedName", ws.getName() + ":" + ft.getName());
+        assertEquals(1, Sets.newHashSet(catalog.list(LayerInfo.class, byWorkspace)).size());
+        assertEquals(1, Sets.newHashSet(catalog.list(LayerInfo.class, byName)).size());
+
+        WorkspaceInfo ws2 = catalog.getWorkspaceByName(ws.getName());
+        ws2.setName("ws2");
+        catalog.save(ws2);
+
+        byWorkspace = equal("resource.store.workspace.name", "ws2");
+        byName = equal("prefixedName", "ws2:" + ft.getName());
+        assertEquals(1, Sets.newHashSet(catalog.list(LayerInfo.class, byWorkspace)).size());
+        assertEquals(1, Sets.newHashSet(catalog.list(LayerInfo.class, byName)).size());
+        assertEquals(1, Sets.newHashSet(catalog.list(DataStoreInfo.class,
+                equal("workspace.name", "ws2"))).size());
+    }
     
     @Test
     public void testWorkspaceEvents() {
@@ -1829,6 +1849,37 @@ public class CatalogImplTest {
         RunnerBase.checkForRunnerExceptions(runners);
     }
 
+    @Test
+    public void testReadsWithConcurrentAdd() throws Exception {
+        addDataStore();
+        addNamespace();
+
+        CountDownLatch ready = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(1);
+        RunnerBase runner = new LayerAddRunner(ready, done, 0);
+        new Thread(runner).start();
+
+        ready.countDown();
+        ready.await();
+
+        // reads work off immutable snapshots, they should never see a partially updated catalog
+        while (done.getCount() > 0) {
+            for (ResourceInfo r : catalog.getResources(ResourceInfo.class)) {
+                assertNotNull(r.getName());
+            }
+            List<LayerInfo> layers = catalog.getLayers();
+            int size = layers.size();
+            for (LayerInfo l : layers) {
+                assertNotNull(l.getId());
+            }
+            // the snapshot does not change while being iterated
+            assertEquals(size, layers.size());
+        }
+
+        RunnerBase.checkForRunnerException(runner);
+        assertEquals(GET_LAYER_BY_ID_WITH_CONCURRENT_ADD_TEST_COUNT, catalog.getLayers().size());
+    }
+
     @Test
     public void testAddLayerGroupNameConflict() throws Exception {
         addLayerGroup();
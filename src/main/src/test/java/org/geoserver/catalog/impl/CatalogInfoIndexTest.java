@@ -0,0 +1,215 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.contains;
+import static org.geoserver.catalog.Predicates.equal;
+import static org.geoserver.catalog.Predicates.or;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+public class CatalogInfoIndexTest {
+
+    CatalogInfoIndex<StyleInfo> index;
+
+    WorkspaceInfo ws1, ws2;
+
+    StyleInfo s1, s2, s3;
+
+    @Before
+    public void setUp() {
+        ws1 = workspace("ws1");
+        ws2 = workspace("ws2");
+        s1 = style("s1", "point", ws1);
+        s2 = style("s2", "line", ws1);
+        s3 = style("s3", "point", ws2);
+
+        index = new CatalogInfoIndex<StyleInfo>("name", "workspace.name");
+        index.reindex(Arrays.asList(s1, s2, s3));
+    }
+
+    @Test
+    public void testGetById() {
+        assertSame(s2, index.get("s2"));
+        assertNull(index.get("unknown"));
+        assertNull(index.get((String) null));
+    }
+
+    @Test
+    public void testEqualityQuery() {
+        assertEquals(Arrays.asList(s1, s3), index.query(equal("name", "point")));
+        assertEquals(Arrays.asList(s1, s2), index.query(equal("workspace.name", "ws1")));
+        assertEquals(Arrays.asList(s3), index.query(equal("id", "s3")));
+        assertTrue(index.query(equal("name", "polygon")).isEmpty());
+    }
+
+    @Test
+    public void testAndOr() {
+        List<StyleInfo> candidates = index.query(and(equal("name", "point"),
+                equal("workspace.name", "ws2")));
+        assertTrue(candidates.contains(s3));
+        assertTrue(!candidates.contains(s2));
+
+        assertEquals(Arrays.asList(s1, s2, s3),
+                index.query(or(equal("name", "line"), equal("workspace.name", "ws2"),
+                        equal("id", "s1"))));
+    }
+
+    @Test
+    public void testUnsupportedFallsBack() {
+        // not an indexed property
+        assertNull(index.query(equal("filename", "point.sld")));
+        // not an equality predicate
+        assertNull(index.query(contains("name", "poi")));
+        // an OR is only indexable if all its children are
+        assertNull(index.query(or(equal("name", "point"), contains("name", "lin"))));
+        // an AND is indexable if at least one of its children is
+        assertEquals(Arrays.asList(s1, s3),
+                index.query(and(equal("name", "point"), contains("filename", "sld"))));
+        // include
+        assertEquals(Arrays.asList(s1, s2, s3), index.query(Filter.INCLUDE));
+    }
+
+    @Test
+    public void testIncrementalMaintenance() {
+        // build the index
+        assertEquals(Arrays.asList(s1, s3), index.query(equal("name", "point")));
+
+        StyleInfo s4 = style("s4", "point", ws2);
+        index.add(s4);
+        assertEquals(Arrays.asList(s1, s3, s4), index.query(equal("name", "point")));
+
+        index.remove(s1);
+        assertEquals(Arrays.asList(s3, s4), index.query(equal("name", "point")));
+        assertNull(index.get("s1"));
+    }
+
+    @Test
+    public void testModified() {
+        assertEquals(Arrays.asList(s1, s3), index.query(equal("name", "point")));
+
+        s3.setName("polygon");
+        index.modified("s3", s3);
+        assertEquals(Arrays.asList(s1), index.query(equal("name", "point")));
+        assertEquals(Arrays.asList(s3), index.query(equal("name", "polygon")));
+
+        // renaming a workspace changes the properties of the objects referring to it
+        ws2.setName("ws3");
+        index.invalidate();
+        assertEquals(Arrays.asList(s3), index.query(equal("workspace.name", "ws3")));
+    }
+
+    @Test
+    public void testTargetedInvalidation() {
+        assertEquals(Arrays.asList(s1, s2), index.query(equal("workspace.name", "ws1")));
+        assertEquals(Arrays.asList(s1, s3), index.query(equal("name", "point")));
+
+        s3.setName("polygon");
+        index.modified("s3", s3, Arrays.asList("name"));
+        assertTrue(index.properties.containsKey("workspace.name"));
+        assertEquals(Arrays.asList(s3), index.query(equal("name", "polygon")));
+
+        // only the properties reached through the workspace are dropped
+        ws2.setName("ws3");
+        index.invalidate("workspace.", Arrays.asList("name"));
+        assertTrue(index.properties.containsKey("name"));
+        assertTrue(!index.properties.containsKey("workspace.name"));
+        assertEquals(Arrays.asList(s3), index.query(equal("workspace.name", "ws3")));
+
+        // unrelated changes keep everything
+        index.invalidate("workspace.", Arrays.asList("isolated"));
+        assertTrue(index.properties.containsKey("workspace.name"));
+    }
+
+    @Test
+    public void testDerivedInvalidation() {
+        CatalogInfoIndex<LayerGroupInfo> groups = new CatalogInfoIndex<LayerGroupInfo>("name",
+                "prefixedName", "mode").derived("prefixedName", "name", "workspace.name");
+        LayerGroupInfoImpl lg = new LayerGroupInfoImpl();
+        lg.setId("lg");
+        lg.setName("lg");
+        lg.setMode(LayerGroupInfo.Mode.SINGLE);
+        lg.setWorkspace(ws1);
+        groups.reindex(Arrays.<LayerGroupInfo> asList(lg));
+        assertEquals(Arrays.asList(lg), groups.query(equal("prefixedName", "ws1:lg")));
+        assertEquals(Arrays.asList(lg), groups.query(equal("mode", "SINGLE")));
+
+        ws1.setName("ws3");
+        groups.invalidate("workspace.", Arrays.asList("name"));
+        assertTrue(groups.properties.containsKey("mode"));
+        assertEquals(Arrays.asList(lg), groups.query(equal("prefixedName", "ws3:lg")));
+    }
+
+    @Test
+    public void testSortedCached() {
+        List<StyleInfo> points = index.query(equal("name", "point"));
+        assertSame(points, index.query(equal("name", "point")));
+        assertSame(index.all(), index.all());
+
+        // a change to the bucket refreshes it, other buckets are kept
+        List<StyleInfo> lines = index.query(equal("name", "line"));
+        index.add(style("s4", "point", ws2));
+        assertEquals(4, index.all().size());
+        assertEquals(3, index.query(equal("name", "point")).size());
+        assertSame(lines, index.query(equal("name", "line")));
+    }
+
+    @Test
+    public void testRemoveFromBucket() {
+        assertEquals(Arrays.asList(s1, s3), index.query(equal("name", "point")));
+        index.remove(s2);
+        assertTrue(index.query(equal("name", "line")).isEmpty());
+        assertTrue(!index.properties.get("name").buckets.containsKey("line"));
+        assertTrue(!index.properties.get("name").keys.containsKey("s2"));
+        assertEquals(Arrays.asList(s1, s3), index.query(equal("name", "point")));
+    }
+
+    @Test
+    public void testEnumAndBooleanProperties() {
+        CatalogInfoIndex<LayerGroupInfo> groups = new CatalogInfoIndex<LayerGroupInfo>("mode",
+                "queryDisabled");
+        LayerGroupInfoImpl lg1 = new LayerGroupInfoImpl();
+        lg1.setId("lg1");
+        lg1.setMode(LayerGroupInfo.Mode.SINGLE);
+        LayerGroupInfoImpl lg2 = new LayerGroupInfoImpl();
+        lg2.setId("lg2");
+        lg2.setMode(LayerGroupInfo.Mode.EO);
+        lg2.setQueryDisabled(true);
+        groups.reindex(Arrays.<LayerGroupInfo> asList(lg1, lg2));
+
+        assertEquals(Arrays.asList(lg2), groups.query(equal("mode", LayerGroupInfo.Mode.EO)));
+        assertEquals(Arrays.asList(lg1), groups.query(equal("mode", "SINGLE")));
+        assertEquals(Arrays.asList(lg2), groups.query(equal("queryDisabled", Boolean.TRUE)));
+        assertEquals(Arrays.asList(lg1), groups.query(equal("queryDisabled", "false")));
+    }
+
+    WorkspaceInfo workspace(String name) {
+        WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+        ws.setId(name);
+        ws.setName(name);
+        return ws;
+    }
+
+    StyleInfo style(String id, String name, WorkspaceInfo ws) {
+        StyleInfoImpl s = new StyleInfoImpl(null);
+        s.setId(id);
+        s.setName(name);
+        s.setWorkspace(ws);
+        return s;
+    }
+}
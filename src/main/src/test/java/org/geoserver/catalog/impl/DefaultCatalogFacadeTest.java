@@ -0,0 +1,54 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.geoserver.catalog.impl.DefaultCatalogFacade.SnapshotList;
+import org.junit.Test;
+
+public class DefaultCatalogFacadeTest {
+
+    @Test
+    public void testSnapshotListAppend() {
+        SnapshotList<String> empty = SnapshotList.empty();
+        SnapshotList<String> a = empty.append("a");
+        SnapshotList<String> ab = a.append("b");
+        SnapshotList<String> abc = ab.append("c");
+        assertTrue(empty.isEmpty());
+        assertEquals(Arrays.asList("a"), a);
+        assertEquals(Arrays.asList("a", "b"), ab);
+        assertEquals(Arrays.asList("a", "b", "c"), abc);
+        // appended in place
+        assertSame(a.elements, abc.elements);
+
+        // appending to an older list must not overwrite the newer ones
+        SnapshotList<String> ax = a.append("x");
+        assertNotSame(a.elements, ax.elements);
+        assertEquals(Arrays.asList("a", "x"), ax);
+        assertEquals(Arrays.asList("a", "b", "c"), abc);
+    }
+
+    @Test
+    public void testSnapshotListWithout() {
+        SnapshotList<String> abc = SnapshotList.copyOf(Arrays.asList("a", "b", "c"));
+        SnapshotList<String> ac = abc.without("b");
+        assertEquals(Arrays.asList("a", "c"), ac);
+        assertEquals(Arrays.asList("a", "b", "c"), abc);
+        assertSame(ac, ac.without("b"));
+        assertEquals(Arrays.asList("a", "c", "d"), ac.append("d"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotListImmutable() {
+        SnapshotList.copyOf(Collections.singletonList("a")).add("b");
+    }
+}
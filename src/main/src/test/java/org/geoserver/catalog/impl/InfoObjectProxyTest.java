@@ -53,6 +53,51 @@ public class InfoObjectProxyTest {
         assertEquals( 2, bean.getScratch().size() );
     }
     
+    @Test
+    public void testPublicBean() throws Exception {
+        PublicBeanImpl bean = new PublicBeanImpl();
+        bean.setFoo( "one" );
+        bean.setBar( 1 );
+        
+        Bean proxy = ModificationProxy.create( (Bean) bean, Bean.class );
+        ModificationProxy handler = ModificationProxy.handler( proxy );
+        assertNotNull( ModificationProxyType.get( PublicBeanImpl.class ).fastClass );
+        
+        assertEquals( "one", proxy.getFoo() );
+        assertFalse( handler.isDirty() );
+        
+        proxy.setFoo( "two" );
+        proxy.getScratch().add( "x" );
+        assertTrue( handler.isDirty() );
+        assertEquals( "two", proxy.getFoo() );
+        assertEquals( "one", bean.getFoo() );
+        
+        List<String> names = handler.getPropertyNames();
+        assertEquals( 2, names.size() );
+        assertTrue( names.contains( "foo" ) );
+        assertTrue( names.contains( "scratch" ) );
+        List<Object> oldValues = handler.getOldValues();
+        assertTrue( oldValues.contains( "one" ) );
+        List<Object> newValues = handler.getNewValues();
+        assertTrue( newValues.contains( "two" ) );
+        
+        handler.commit();
+        assertEquals( "two", bean.getFoo() );
+        assertEquals( new Integer(1), bean.getBar() );
+        assertEquals( 1, bean.getScratch().size() );
+    }
+    
+    @Test
+    public void testExceptionUnwrapped() throws Exception {
+        Bean proxy = ModificationProxy.create( (Bean) new PublicBeanImpl(), Bean.class );
+        try {
+            proxy.fail();
+            fail( "Expected the exception thrown by the proxied object" );
+        } catch( IllegalStateException e ) {
+            assertEquals( "fail", e.getMessage() );
+        }
+    }
+    
     static interface Bean {
         
         String getFoo();
@@ -64,6 +109,8 @@ public class InfoObjectProxyTest {
         void setBar( Integer bar );
         
         List getScratch();
+        
+        void fail();
     }
     
     static class BeanImpl implements Bean {
@@ -91,5 +138,12 @@ public class InfoObjectProxyTest {
         public List getScratch() {
             return scratch;
         }
+
+        public void fail() {
+            throw new IllegalStateException( "fail" );
+        }
+    }
+    
+    public static class PublicBeanImpl extends BeanImpl {
     }
 }
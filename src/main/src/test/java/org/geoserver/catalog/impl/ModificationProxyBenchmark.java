@@ -0,0 +1,271 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Info;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost of reading and committing catalog objects through {@link ModificationProxy}
+ * with the reflective dispatch it used to perform, reproduced in {@link ReflectiveProxy}, and
+ * with direct access to the unwrapped objects.
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ModificationProxyBenchmark {
+
+    @Param({ "specialized", "reflective" })
+    String proxy;
+
+    LayerInfo layer;
+
+    FeatureTypeInfo featureType;
+
+    @Setup
+    public void setUp() {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        StyleInfo style = factory.createStyle();
+        style.setName("point");
+        style.setFilename("point.sld");
+        catalog.add(style);
+
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("ws");
+        catalog.add(ws);
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix("ws");
+        ns.setURI("http://geoserver.org/ws");
+        catalog.add(ns);
+
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("ds");
+        ds.setWorkspace(ws);
+        ds.setEnabled(false);
+        catalog.add(ds);
+
+        FeatureTypeInfo ft = factory.createFeatureType();
+        ft.setName("ft");
+        ft.setNativeName("ft");
+        ft.setNamespace(ns);
+        ft.setStore(ds);
+        catalog.add(ft);
+
+        LayerInfo l = factory.createLayer();
+        l.setResource(ft);
+        l.setDefaultStyle(style);
+        catalog.add(l);
+
+        layer = ModificationProxy.unwrap(catalog.getLayerByName("ft"));
+        featureType = ModificationProxy.unwrap(catalog.getFeatureTypeByName("ft"));
+    }
+
+    <T> T wrap(T object, Class<T> clazz) {
+        if ("reflective".equals(proxy)) {
+            return ProxyUtils.createProxy(object, clazz, new ReflectiveProxy(object));
+        }
+        return ModificationProxy.create(object, clazz);
+    }
+
+    @Benchmark
+    public void gettersDirect(Blackhole bh) {
+        bh.consume(layer.getName());
+        bh.consume(layer.getResource().getName());
+        bh.consume(layer.getDefaultStyle());
+        bh.consume(layer.isEnabled());
+    }
+
+    /**
+     * Wraps and reads the layer, as done by each catalog lookup
+     */
+    @Benchmark
+    public void gettersProxy(Blackhole bh) {
+        LayerInfo proxied = wrap(layer, LayerInfo.class);
+        bh.consume(proxied.getName());
+        bh.consume(proxied.getResource().getName());
+        bh.consume(proxied.getDefaultStyle());
+        bh.consume(proxied.isEnabled());
+    }
+
+    /**
+     * Wraps, modifies and commits a feature type, as done by each catalog save
+     */
+    @Benchmark
+    public Object commit() {
+        FeatureTypeInfo proxied = wrap(featureType, FeatureTypeInfo.class);
+        proxied.setTitle("title");
+        proxied.setAbstract("abstract");
+        proxied.setEnabled(true);
+        ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(proxied);
+        h.commit();
+        return h;
+    }
+
+    /**
+     * The reflective getter and setter interception and commit {@link ModificationProxy} used
+     * before it got type specialized dispatch, kept here as a baseline.
+     */
+    static class ReflectiveProxy extends ModificationProxy {
+
+        public ReflectiveProxy(Object proxyObject) {
+            super(proxyObject);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String property = null;
+            if ((method.getName().startsWith("get") || method.getName().startsWith("is"))
+                    && method.getParameterTypes().length == 0) {
+                property = method.getName().substring(method.getName().startsWith("get") ? 3 : 2);
+                if (properties != null && properties().containsKey(property)) {
+                    return properties().get(property);
+                } else if (Collection.class.isAssignableFrom(method.getReturnType())) {
+                    Collection real = (Collection) method.invoke(proxyObject, null);
+                    if (real == null) {
+                        return null;
+                    }
+                    Collection wrap = ModificationProxyCloner.cloneCollection(real, true);
+                    properties().put(property, wrap);
+                    oldCollectionValues().put(property,
+                            ModificationProxyCloner.cloneCollection(real, false));
+                    return wrap;
+                } else if (Map.class.isAssignableFrom(method.getReturnType())) {
+                    Map real = (Map) method.invoke(proxyObject, null);
+                    if (real == null) {
+                        return null;
+                    }
+                    Map wrap = ModificationProxyCloner.cloneMap(real, true);
+                    properties().put(property, wrap);
+                    oldCollectionValues().put(property,
+                            ModificationProxyCloner.cloneMap(real, false));
+                    return wrap;
+                }
+            }
+            if (method.getName().startsWith("set") && args.length == 1) {
+                property = method.getName().substring(3);
+                properties().put(property, args[0]);
+                return null;
+            }
+
+            try {
+                Object result = method.invoke(proxyObject, args);
+                if (result != null && shouldProxyProperty(result.getClass())) {
+                    Object o = ModificationProxy.unwrap(result);
+                    if (o == result) {
+                        result = ProxyUtils.createProxy(result, (Class) method.getReturnType(),
+                                new ReflectiveProxy(result));
+                        properties().put(property, result);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+
+        @Override
+        public void commit() {
+            synchronized (proxyObject) {
+                for (Map.Entry<String, Object> e : properties().entrySet()) {
+                    String p = e.getKey();
+                    Object v = e.getValue();
+                    try {
+                        Method g = getter(p);
+                        if (Collection.class.isAssignableFrom(g.getReturnType())) {
+                            Collection c = (Collection) g.invoke(proxyObject, null);
+                            c.clear();
+                            c.addAll((Collection) v);
+                        } else if (Map.class.isAssignableFrom(g.getReturnType())) {
+                            Map m = (Map) g.invoke(proxyObject, null);
+                            m.clear();
+                            m.putAll((Map) v);
+                        } else {
+                            Method s = setter(p, g.getReturnType());
+                            if (Info.class.isAssignableFrom(g.getReturnType())) {
+                                Info original = (Info) g.invoke(proxyObject, null);
+                                Info modified = (Info) unwrap(v);
+                                if (original == modified) {
+                                    ModificationProxy h = handler(v);
+                                    if (h != null && h.isDirty()) {
+                                        h.commit();
+                                    }
+                                } else {
+                                    s.invoke(proxyObject, v);
+                                }
+                            } else {
+                                s.invoke(proxyObject, v);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+                properties = null;
+            }
+        }
+
+        Method getter(String propertyName) {
+            try {
+                return proxyObject.getClass().getMethod("get" + propertyName);
+            } catch (NoSuchMethodException e1) {
+                try {
+                    return proxyObject.getClass().getMethod("is" + propertyName);
+                } catch (NoSuchMethodException e2) {
+                    return null;
+                }
+            }
+        }
+
+        Method setter(String propertyName, Class type) {
+            try {
+                return proxyObject.getClass().getMethod("set" + propertyName, type);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ModificationProxyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
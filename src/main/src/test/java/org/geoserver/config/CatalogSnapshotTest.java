@@ -0,0 +1,200 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.data.DataUtilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CatalogSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File root;
+
+    GeoServerResourceLoader resourceLoader;
+
+    DefaultGeoServerLoader loader;
+
+    XStreamPersister xp;
+
+    CatalogSnapshot snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = CatalogSnapshotTest.class.getResource("/data_dir/nested_layer_groups");
+        root = folder.newFolder("data");
+        FileUtils.copyDirectory(DataUtilities.urlToFile(url), root);
+
+        resourceLoader = new GeoServerResourceLoader(root);
+        loader = new DefaultGeoServerLoader(resourceLoader);
+        xp = new XStreamPersisterFactory().createXMLPersister();
+        snapshot = new CatalogSnapshot(resourceLoader);
+    }
+
+    @After
+    public void tearDown() {
+        snapshot.dispose();
+        GeoServerExtensionsHelper.clear();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Catalog catalog = loader.readCatalog(xp);
+        snapshot.write(catalog);
+        assertTrue(snapshot.getFile().exists());
+
+        CatalogImpl read = snapshot.read();
+        assertNotNull(read);
+        assertEquals(catalog.getWorkspaces(), read.getWorkspaces());
+        assertEquals(catalog.getDefaultWorkspace(), read.getDefaultWorkspace());
+        assertEquals(catalog.getStyles().size(), read.getStyles().size());
+        assertEquals(catalog.getDataStores().size(), read.getDataStores().size());
+        assertEquals(2, read.getLayers().size());
+
+        LayerInfo layer = read.getLayerByName("layer1");
+        assertNotNull(layer);
+        FeatureTypeInfo ft = (FeatureTypeInfo) layer.getResource();
+        assertSame(read, ft.getCatalog());
+        assertEquals("topp", ft.getStore().getWorkspace().getName());
+        assertEquals(read.getStyleByName("style"), layer.getDefaultStyle());
+
+        LayerGroupInfo nested = read.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nested);
+        assertTrue(nested.getLayers().get(0) instanceof LayerGroupInfo);
+        assertTrue(nested.getLayers().get(1) instanceof LayerInfo);
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        snapshot.write(loader.readCatalog(xp));
+        assertNotNull(snapshot.read());
+
+        File layer = new File(root, "workspaces/topp/datastore/layer1/layer.xml");
+        assertTrue(layer.setLastModified(layer.lastModified() + 10000));
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testCorrupted() throws Exception {
+        snapshot.write(loader.readCatalog(xp));
+
+        RandomAccessFile file = new RandomAccessFile(snapshot.getFile(), "rw");
+        try {
+            long position = file.length() - 10;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(~b);
+        } finally {
+            file.close();
+        }
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testStoresDisabledOnLoad() throws Exception {
+        Catalog catalog = loader.readCatalog(xp);
+        DataStoreInfo ds = ModificationProxy.unwrap(catalog.getDataStores().get(0));
+        ds.setEnabled(false);
+        ds.setError(new IOException("Unreachable"));
+        snapshot.setDisabledStores(Collections.singleton(ds.getId()));
+        snapshot.write(catalog);
+
+        // stored with its persisted state, enabled and without the error
+        CatalogImpl read = snapshot.read();
+        DataStoreInfo readStore = read.getDataStore(ds.getId());
+        assertTrue(readStore.isEnabled());
+        assertNull(readStore.getError());
+
+        // once saved disabled it stays so
+        snapshot.handlePostModifyEvent(new CatalogPostModifyEventImpl() {
+            {
+                setSource(ds);
+            }
+        });
+        snapshot.write(catalog);
+        assertFalse(snapshot.read().getDataStore(ds.getId()).isEnabled());
+    }
+
+    @Test
+    public void testClassNotAllowed() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<Object>(Arrays.asList("a", new SimpleDateFormat())));
+        out.close();
+
+        ObjectInputStream in = new CatalogSnapshot.ContentsInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        try {
+            in.readObject();
+            fail("SimpleDateFormat should not be deserialized");
+        } catch (InvalidClassException e) {
+            assertEquals(SimpleDateFormat.class.getName(), e.classname);
+        }
+    }
+
+    @Test
+    public void testLoaderUsesSnapshot() throws Exception {
+        GeoServerExtensionsHelper.property(CatalogSnapshot.ENABLED_PROPERTY, "true");
+
+        Catalog catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        loader.readCatalog(catalog, xp);
+        assertFalse(loader.loadingReport.getPhases().containsKey("snapshot"));
+        assertNotNull(loader.snapshot);
+        assertTrue(catalog.getListeners().contains(loader.snapshot));
+
+        // don't wait for the scheduled write
+        loader.snapshot.write(catalog);
+
+        Catalog reloaded = new CatalogImpl();
+        reloaded.setResourceLoader(resourceLoader);
+        loader.readCatalog(reloaded, xp);
+        assertTrue(loader.loadingReport.getPhases().containsKey("snapshot"));
+        assertEquals(2, reloaded.getLayers().size());
+        assertNotNull(reloaded.getLayerGroupByName("topp", "simplegroup"));
+        loader.snapshot.dispose();
+    }
+}
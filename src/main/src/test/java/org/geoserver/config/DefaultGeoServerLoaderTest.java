@@ -10,6 +10,8 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -129,6 +131,33 @@ public class DefaultGeoServerLoaderTest {
         assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
     }
 
+    @Test
+    public void testLoadingReport() throws Exception {
+        loader.readCatalog(catalog, xp);
+
+        GeoServerLoader.CatalogLoadingReport report = loader.loadingReport;
+        assertNotNull(report);
+        assertEquals(Arrays.asList("workspaces", "stores", "store connections", "resources",
+                "layers", "layer groups", "resolve"),
+                new ArrayList<String>(report.getPhases().keySet()));
+        assertTrue(report.toString().startsWith("Catalog loaded in"));
+    }
+
+    @Test
+    public void testLoadSingleThreaded() throws Exception {
+        GeoServerExtensionsHelper.property(GeoServerLoader.LOADER_THREADS_PROPERTY, "1");
+        loader.readCatalog(catalog, xp);
+        assertEquals(1, loader.loadingReport.threads);
+
+        assertNotNull(catalog.getWorkspaceByName("topp"));
+        assertEquals("topp", catalog.getDefaultWorkspace().getName());
+        assertEquals(2, catalog.getLayers().size());
+        LayerGroupInfo nestedLayerGroup = catalog.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nestedLayerGroup);
+        assertTrue(nestedLayerGroup.getLayers().get(0) instanceof LayerGroupInfo);
+        assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
+    }
+
     @Test
     public void testLoadWithoutResaving() throws Exception {
         GeoServerImpl gs = new GeoServerImpl();
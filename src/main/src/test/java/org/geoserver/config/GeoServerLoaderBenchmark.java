@@ -0,0 +1,145 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures {@link GeoServerLoader#readCatalog(XStreamPersister)} against a synthetic data
+ * directory with a configurable number of layers, spread over a few workspaces, using one or more
+ * parsing threads.
+ * <p>
+ * The stores are disabled so that the benchmark measures the configuration loading only, not
+ * the connection to the stores. Not a unit test, run it with {@link #main(String[])} or the JMH
+ * command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeoServerLoaderBenchmark {
+
+    static final int WORKSPACES = 10;
+
+    @Param({ "1000", "10000", "30000" })
+    int layers;
+
+    @Param({ "1", "4", "8" })
+    int threads;
+
+    File root;
+
+    DefaultGeoServerLoader loader;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = File.createTempFile("geoserver-loader", "data");
+        root.delete();
+        createDataDirectory(root, layers);
+
+        GeoServerExtensionsHelper.property(GeoServerLoader.LOADER_THREADS_PROPERTY,
+                String.valueOf(threads));
+        loader = new DefaultGeoServerLoader(new GeoServerResourceLoader(root));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        GeoServerExtensionsHelper.clear();
+        FileUtils.deleteQuietly(root);
+    }
+
+    @Benchmark
+    public Catalog readCatalog() throws Exception {
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        Catalog catalog = loader.readCatalog(xp);
+        if (catalog.getLayers().size() != layers) {
+            throw new IllegalStateException("Expected " + layers + " layers, got "
+                    + catalog.getLayers().size() + ", " + loader.loadingReport);
+        }
+        return catalog;
+    }
+
+    /**
+     * Writes a data directory with one data store per workspace and the given number of feature
+     * types and layers, spread evenly among the stores
+     */
+    static void createDataDirectory(File root, int layers) throws IOException {
+        write(new File(root, "styles/point.xml"), "<style><id>StyleInfoImpl-point</id>"
+                + "<name>point</name><filename>point.sld</filename></style>");
+        write(new File(root, "workspaces/default.xml"),
+                "<workspace><id>WorkspaceInfoImpl-ws0</id><name>ws0</name></workspace>");
+
+        for (int i = 0; i < WORKSPACES; i++) {
+            File ws = new File(root, "workspaces/ws" + i);
+            write(new File(ws, "workspace.xml"), "<workspace><id>WorkspaceInfoImpl-ws" + i
+                    + "</id><name>ws" + i + "</name></workspace>");
+            write(new File(ws, "namespace.xml"), "<namespace><id>NamespaceInfoImpl-ws" + i
+                    + "</id><prefix>ws" + i + "</prefix><uri>http://geoserver.org/ws" + i
+                    + "</uri></namespace>");
+            write(new File(ws, "ds/datastore.xml"), "<dataStore><id>DataStoreInfoImpl-ws" + i
+                    + "</id><name>ds</name><type>Property</type><enabled>false</enabled>"
+                    + "<workspace><id>WorkspaceInfoImpl-ws" + i + "</id></workspace>"
+                    + "<connectionParameters><entry key=\"directory\">file:data/ws" + i
+                    + "</entry></connectionParameters></dataStore>");
+        }
+
+        for (int j = 0; j < layers; j++) {
+            int i = j % WORKSPACES;
+            File ft = new File(root, "workspaces/ws" + i + "/ds/ft" + j);
+            write(new File(ft, "featuretype.xml"), "<featureType><id>FeatureTypeInfoImpl-ft" + j
+                    + "</id><name>ft" + j + "</name><nativeName>ft" + j + "</nativeName>"
+                    + "<namespace><id>NamespaceInfoImpl-ws" + i + "</id></namespace>"
+                    + "<title>Feature type " + j + "</title><srs>EPSG:4326</srs>"
+                    + "<nativeBoundingBox><minx>-180</minx><maxx>180</maxx><miny>-90</miny>"
+                    + "<maxy>90</maxy><crs>EPSG:4326</crs></nativeBoundingBox>"
+                    + "<latLonBoundingBox><minx>-180</minx><maxx>180</maxx><miny>-90</miny>"
+                    + "<maxy>90</maxy><crs>EPSG:4326</crs></latLonBoundingBox>"
+                    + "<projectionPolicy>FORCE_DECLARED</projectionPolicy><enabled>true</enabled>"
+                    + "<store class=\"dataStore\"><id>DataStoreInfoImpl-ws" + i + "</id></store>"
+                    + "</featureType>");
+            write(new File(ft, "layer.xml"), "<layer><name>ft" + j + "</name>"
+                    + "<id>LayerInfoImpl-ft" + j + "</id><type>VECTOR</type>"
+                    + "<defaultStyle><id>StyleInfoImpl-point</id></defaultStyle>"
+                    + "<resource class=\"featureType\"><id>FeatureTypeInfoImpl-ft" + j
+                    + "</id></resource><enabled>true</enabled></layer>");
+        }
+    }
+
+    static void write(File file, String contents) throws IOException {
+        FileUtils.writeStringToFile(file, contents, "UTF-8");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeoServerLoaderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -374,10 +374,11 @@ public class Dispatcher extends AbstractController {
                 request.setInput(reader(httpRequest));
             }
 
-            char[] req = new char[xmlPostRequestLogBufferSize];
-            int read = request.getInput().read(req, 0, xmlPostRequestLogBufferSize);
-
+            int read;
             if (logger.isLoggable(Level.FINE)) {
+                char[] req = new char[xmlPostRequestLogBufferSize];
+                read = request.getInput().read(req, 0, xmlPostRequestLogBufferSize);
+
                 if (read == -1) {
                     request.setInput(null);
                 } else if (read < xmlPostRequestLogBufferSize) {
@@ -387,6 +388,11 @@ public class Dispatcher extends AbstractController {
                 } else {
                     logger.fine("Raw XML request starts with: " + new String(req) + "...");
                 }
+            } else if (xmlPostRequestLogBufferSize > 0) {
+                // no logging, just check the body is not empty
+                read = request.getInput().read();
+            } else {
+                read = 0;
             }
             if (read == -1)
                 request.setInput(null);
@@ -24,7 +24,12 @@ public class KvpMap extends HashMap {
     }
     
     public KvpMap( Map other ) {
-        this();
+        super(other.size() * 4 / 3 + 1);
+        if ( other instanceof KvpMap ) {
+            //keys are already upper case
+            super.putAll( other );
+            return;
+        }
         for ( Iterator e = other.entrySet().iterator(); e.hasNext(); ) {
             Map.Entry entry = (Map.Entry) e.next();
             put( entry.getKey(), entry.getValue() );
@@ -0,0 +1,150 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.ows.KvpParser;
+
+/**
+ * Index of {@link KvpParser} objects by service, version, request and key.
+ * <p>
+ * {@link KvpUtils#parse(Map)} used to purge the full list of parsers and then scan it again for
+ * each parameter of each request. The index applies the same selection rules, those of
+ * {@link KvpUtils#purgeParsers(List, String, String, String)} and
+ * {@link KvpUtils#findParser(String, String, String, String, java.util.Collection)}, once for
+ * each combination of service, version and request, and keeps the result in a map keyed by the
+ * upper cased parameter name.
+ * </p>
+ * <p>
+ * An index is valid for the list of parsers it has been built from, {@link #get(List)} builds a
+ * new one when the parser extensions change.
+ * </p>
+ */
+class KvpParserIndex {
+
+    /**
+     * Maximum number of service, version and request combinations cached, as those come from
+     * the client
+     */
+    static final int MAX_REQUESTS = 256;
+
+    static volatile KvpParserIndex current;
+
+    /**
+     * Returns the index for the specified parsers, reusing the last one built if the parsers
+     * are the same
+     */
+    static KvpParserIndex get(List<KvpParser> parsers) {
+        KvpParserIndex index = current;
+        if (index == null || !index.matches(parsers)) {
+            index = new KvpParserIndex(parsers);
+            current = index;
+        }
+        return index;
+    }
+
+    final KvpParser[] parsers;
+
+    final Map<String, Lookup> lookups = new ConcurrentHashMap<String, Lookup>();
+
+    KvpParserIndex(List<KvpParser> parsers) {
+        this.parsers = parsers.toArray(new KvpParser[parsers.size()]);
+    }
+
+    boolean matches(List<KvpParser> parsers) {
+        if (parsers.size() != this.parsers.length) {
+            return false;
+        }
+        int i = 0;
+        for (KvpParser parser : parsers) {
+            if (parser != this.parsers[i++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the parsers applicable to the specified service, version and request, any of which
+     * can be null
+     */
+    Lookup lookup(String service, String version, String request) {
+        String id = id(service) + '\u0000' + (version == null ? "\u0001" : version) + '\u0000'
+                + id(request);
+        Lookup lookup = lookups.get(id);
+        if (lookup == null) {
+            lookup = new Lookup(parsers, service, version, request);
+            if (lookups.size() < MAX_REQUESTS) {
+                lookups.put(id, lookup);
+            }
+        }
+        return lookup;
+    }
+
+    static String id(String value) {
+        // service and request are compared ignoring case
+        return value == null ? "\u0001" : upper(value);
+    }
+
+    static String upper(String key) {
+        return key.toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The parsers applicable to a service, version and request, by key
+     */
+    static class Lookup {
+
+        final Map<String, Object> parsers = new HashMap<String, Object>();
+
+        Lookup(KvpParser[] all, String service, String version, String request) {
+            List<KvpParser> purged = new ArrayList<KvpParser>(Arrays.asList(all));
+            KvpUtils.purgeParsers(purged, service, version, request);
+            for (KvpParser parser : purged) {
+                String key = upper(parser.getKey());
+                if (!parsers.containsKey(key)) {
+                    try {
+                        parsers.put(key, KvpUtils.findParser(parser.getKey(), service, request,
+                                version, purged));
+                    } catch (IllegalStateException e) {
+                        parsers.put(key, new Ambiguous(e.getMessage()));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the parser for the specified key, or null if there is none
+         *
+         * @throws IllegalStateException if more than one candidate parser is found
+         */
+        KvpParser find(String key) {
+            Object parser = parsers.get(upper(key));
+            if (parser instanceof Ambiguous) {
+                throw new IllegalStateException(((Ambiguous) parser).message);
+            }
+            return (KvpParser) parser;
+        }
+    }
+
+    /**
+     * Marks a key for which no single parser could be selected
+     */
+    static class Ambiguous {
+
+        final String message;
+
+        Ambiguous(String message) {
+            this.message = message;
+        }
+    }
+}
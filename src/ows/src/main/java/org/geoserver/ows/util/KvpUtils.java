@@ -357,8 +357,8 @@ public class KvpUtils {
                 }
             }
             
-            //convert key to lowercase 
-            normalizedKvp.put(key.toLowerCase(), value);
+            //the normalized map upper cases the key
+            normalizedKvp.put(key, value);
         }
         
         return normalizedKvp;
@@ -395,13 +395,31 @@ public class KvpUtils {
 
         // look up parser objects
         List<KvpParser> parsers = GeoServerExtensions.extensions(KvpParser.class);
+        return parse(kvp, parsers);
+    }
+
+    /**
+     * Parses a map of key value pairs with the specified parsers, as described in
+     * {@link #parse(Map)}.
+     * <p>
+     * The parsers matching the service, version and request of the kvp are looked up once and
+     * indexed by key, the index being reused for as long as the same parsers are passed in.
+     * </p>
+     * 
+     * @param kvp raw or unparsed kvp.
+     * @param parsers the candidate parsers, this list is not modified
+     * 
+     * @return A list of errors that occured.
+     */
+    public static List<Throwable> parse(Map kvp, List<KvpParser> parsers) {
 
         //strip out parsers which do not match current service/request/version
         String service = KvpUtils.getSingleValue(kvp, "service");
         String version = KvpUtils.getSingleValue(kvp, "version");
         String request = KvpUtils.getSingleValue(kvp, "request");
         
-        purgeParsers(parsers, service, version, request);
+        KvpParserIndex.Lookup lookup = KvpParserIndex.get(parsers).lookup(service, version,
+                request);
 
         // parser the kvp's
         ArrayList<Throwable> errors = new ArrayList<Throwable>();
@@ -410,7 +428,7 @@ public class KvpUtils {
             String key = (String) entry.getKey();
 
             // find the parser for this key value pair
-            KvpParser parser = findParser(key, service, request, version, parsers);
+            KvpParser parser = lookup.find(key);
 
             // parse the value
             Object parsed = null;
@@ -11,6 +11,7 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.geoserver.ows.KvpParser;
 import org.geoserver.ows.util.KvpUtils;
 
 public class KvpUtilsTest extends TestCase {
@@ -78,6 +79,49 @@ public class KvpUtilsTest extends TestCase {
         assertKvp(expected, actual);
     }
     
+    public void testParseWithParsers() {
+        IntegerKvpParser generic = new IntegerKvpParser("width");
+        DoubleKvpParser wms = new DoubleKvpParser("width");
+        wms.setService("WMS");
+        List<KvpParser> parsers = Arrays.asList(generic, wms);
+
+        Map kvp = KvpUtils.normalize(KvpUtils.parseQueryString(
+                "wms?SERVICE=WMS&request=GetMap&WIDTH=10&height=20"));
+        assertTrue(KvpUtils.parse(kvp, parsers).isEmpty());
+        assertEquals(10d, kvp.get("width"));
+        assertEquals("20", kvp.get("height"));
+        assertEquals(2, parsers.size());
+
+        // same parsers, different service
+        kvp = KvpUtils.normalize(KvpUtils.parseQueryString("wfs?service=WFS&width=10"));
+        assertTrue(KvpUtils.parse(kvp, parsers).isEmpty());
+        assertEquals(10, kvp.get("width"));
+
+        // parse errors are collected
+        kvp = KvpUtils.normalize(KvpUtils.parseQueryString("wfs?service=WFS&width=abc"));
+        assertEquals(1, KvpUtils.parse(kvp, parsers).size());
+        assertEquals("abc", kvp.get("width"));
+    }
+
+    public void testParseAmbiguous() {
+        IntegerKvpParser p1 = new IntegerKvpParser("width");
+        p1.setService("WMS");
+        DoubleKvpParser p2 = new DoubleKvpParser("width");
+        p2.setService("WMS");
+        List<KvpParser> parsers = Arrays.asList(p1, p2);
+
+        Map kvp = KvpUtils.normalize(KvpUtils.parseQueryString("wms?service=WMS&height=10"));
+        assertTrue(KvpUtils.parse(kvp, parsers).isEmpty());
+
+        kvp = KvpUtils.normalize(KvpUtils.parseQueryString("wms?service=WMS&width=10"));
+        try {
+            KvpUtils.parse(kvp, parsers);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Multiple kvp parsers"));
+        }
+    }
+
     private void assertKvp(String[] expected, List actual){
         List expectedList = Arrays.asList(expected);
         assertEquals(expectedList.size(), actual.size());
@@ -0,0 +1,161 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.ows.KvpParser;
+import org.geoserver.ows.kvp.BooleanKvpParser;
+import org.geoserver.ows.kvp.IntegerKvpParser;
+import org.geotools.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Replays GetMap and GetFeature query strings through the dispatcher KVP pipeline (query string
+ * parsing, normalization, raw kvp copy and value parsing) against a set of parsers similar in
+ * size and shape to the ones registered by a full GeoServer, comparing the indexed parser
+ * lookup of {@link KvpUtils#parse(Map, List)} with the purge and scan it replaced.
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KvpParseBenchmark {
+
+    static final String[] SERVICES = { "WMS", "WFS", "WCS", "WPS", "WMTS", "CSW" };
+
+    static final String[] KEYS = { "layers", "styles", "bbox", "srs", "crs", "format",
+            "exceptions", "bgcolor", "time", "elevation", "sld", "sld_body", "filter",
+            "cql_filter", "featureid", "propertyname", "typename", "typenames", "sortby",
+            "srsname", "outputformat", "resultType", "startIndex", "count", "maxfeatures",
+            "namespace", "identifier", "interpolation", "palette", "tiled", "tilesorigin",
+            "buffer", "env", "angle", "scalemethod", "interpolations", "clip", "sections",
+            "acceptversions", "acceptformats", "language", "storeExecuteResponse" };
+
+    static final String[] QUERIES = {
+            "wms?SERVICE=WMS&VERSION=1.1.1&REQUEST=GetMap&FORMAT=image%2Fpng&TRANSPARENT=true"
+                    + "&LAYERS=topp%3Astates&STYLES=&SRS=EPSG%3A900913&WIDTH=256&HEIGHT=256"
+                    + "&BBOX=-10018754.17,5009377.08,-7514065.62,7514065.62&TILED=true"
+                    + "&TILESORIGIN=-20037508.34,-20037508.34",
+            "wms?service=WMS&version=1.3.0&request=GetMap&layers=nurc:Arc_Sample,topp:roads"
+                    + "&styles=,&crs=EPSG:4326&bbox=-90,-180,90,180&width=768&height=384"
+                    + "&format=image/png8&format_options=antialias:none;dpi:180"
+                    + "&env=color:ff0000&time=2016-01-01",
+            "wfs?service=WFS&version=1.1.0&request=GetFeature&typeName=topp:states"
+                    + "&maxFeatures=50&outputFormat=application/json&srsName=EPSG:4326"
+                    + "&propertyName=STATE_NAME,PERSONS&cql_filter=PERSONS>1000000",
+            "wfs?service=WFS&version=2.0.0&request=GetFeature&typeNames=topp:states"
+                    + "&count=100&startIndex=200&sortBy=STATE_NAME&outputFormat=GML3"
+                    + "&viewParams=low:10;high:20" };
+
+    @Param({ "indexed", "scan" })
+    String lookup;
+
+    List<KvpParser> parsers;
+
+    @Setup
+    public void setUp() {
+        parsers = new ArrayList<KvpParser>();
+        parsers.add(new IntegerKvpParser("width"));
+        parsers.add(new IntegerKvpParser("height"));
+        parsers.add(new BooleanKvpParser("transparent"));
+        parsers.add(new StringParser("format_options", null, null));
+        parsers.add(new StringParser("viewParams", null, null));
+        for (String service : SERVICES) {
+            for (String key : KEYS) {
+                parsers.add(new StringParser(key, service, null));
+            }
+            parsers.add(new StringParser("version", service, "1.0.0"));
+            parsers.add(new StringParser("version", service, "1.1.0"));
+        }
+    }
+
+    @Benchmark
+    public Object parse() {
+        Object last = null;
+        for (String query : QUERIES) {
+            Map kvp = KvpUtils.normalize(KvpUtils.parseQueryString(query));
+            Map raw = new KvpMap(kvp);
+            if ("indexed".equals(lookup)) {
+                KvpUtils.parse(kvp, parsers);
+            } else {
+                scan(kvp, new ArrayList<KvpParser>(parsers));
+            }
+            last = raw;
+        }
+        return last;
+    }
+
+    /**
+     * The parsing loop used before the introduction of {@link KvpParserIndex}
+     */
+    static List<Throwable> scan(Map kvp, List<KvpParser> parsers) {
+        String service = KvpUtils.getSingleValue(kvp, "service");
+        String version = KvpUtils.getSingleValue(kvp, "version");
+        String request = KvpUtils.getSingleValue(kvp, "request");
+        KvpUtils.purgeParsers(parsers, service, version, request);
+
+        List<Throwable> errors = new ArrayList<Throwable>();
+        for (Iterator<Map.Entry<Object, Object>> itr = kvp.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<Object, Object> entry = itr.next();
+            KvpParser parser = KvpUtils.findParser((String) entry.getKey(), service, request,
+                    version, parsers);
+            if (parser != null && entry.getValue() instanceof String) {
+                try {
+                    Object parsed = parser.parse((String) entry.getValue());
+                    if (parsed != null) {
+                        entry.setValue(parsed);
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }
+        }
+        return errors;
+    }
+
+    static class StringParser extends KvpParser {
+
+        StringParser(String key, String service, String version) {
+            super(key, String.class);
+            setService(service);
+            if (version != null) {
+                setVersion(new Version(version));
+            }
+        }
+
+        @Override
+        public Object parse(String value) throws Exception {
+            return value;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(KvpParseBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
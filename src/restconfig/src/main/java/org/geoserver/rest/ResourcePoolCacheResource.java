@@ -0,0 +1,47 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCacheStatistics;
+
+/**
+ * Reports the size and the hit, miss and load statistics of the resource pool caches.
+ */
+public class ResourcePoolCacheResource extends MapResource {
+
+    Catalog catalog;
+
+    public ResourcePoolCacheResource(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> caches = new LinkedHashMap<String, Object>();
+        for (ResourceCacheStatistics stats : catalog.getResourcePool().getCacheStatistics()
+                .values()) {
+            Map<String, Object> cache = new LinkedHashMap<String, Object>();
+            cache.put("specification", stats.getSpecification());
+            cache.put("size", stats.getSize());
+            cache.put("hitCount", stats.getHitCount());
+            cache.put("missCount", stats.getMissCount());
+            cache.put("hitRate", stats.getHitRate());
+            cache.put("loadSuccessCount", stats.getLoadSuccessCount());
+            cache.put("loadExceptionCount", stats.getLoadExceptionCount());
+            cache.put("totalLoadTime", stats.getTotalLoadTime());
+            cache.put("averageLoadPenalty", stats.getAverageLoadPenalty());
+            cache.put("evictionCount", stats.getEvictionCount());
+            caches.put(stats.getName(), cache);
+        }
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("caches", caches);
+        return map;
+    }
+}
@@ -0,0 +1,46 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.data.test.MockData;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ResourcePoolCacheTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        Document dom = getAsDOM("/rest/resourcepool/caches.xml");
+        assertEquals("root", dom.getDocumentElement().getNodeName());
+        assertNotNull(getFirstElementByTagName(dom, ResourcePool.DATASTORE_CACHE));
+        assertNotNull(getFirstElementByTagName(dom, ResourcePool.FEATURETYPE_CACHE));
+        assertNotNull(getFirstElementByTagName(dom, "hitCount"));
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(getLayerId(MockData.LAKES));
+        getCatalog().getResourcePool().getFeatureType(info);
+        getCatalog().getResourcePool().getFeatureType(info);
+
+        JSON json = getAsJSON("/rest/resourcepool/caches.json");
+        assertTrue(json instanceof JSONObject);
+        JSONObject caches = ((JSONObject) json).getJSONObject("caches");
+        JSONObject featureTypes = caches.getJSONObject(ResourcePool.FEATURETYPE_CACHE);
+        assertTrue(featureTypes.getLong("size") > 0);
+        assertTrue(featureTypes.getLong("hitCount") > 0);
+        assertTrue(featureTypes.getString("specification").startsWith("maximumSize="));
+    }
+}
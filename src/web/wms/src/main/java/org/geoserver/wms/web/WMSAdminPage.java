@@ -130,6 +130,12 @@ public class WMSAdminPage extends BaseServiceAdminPage<WMSInfo> {
         TextField<Integer> maxErrors = new TextField<Integer>("maxRenderingErrors");
         maxErrors.add(new MinimumValidator<Integer>(0));
         form.add(maxErrors);
+        TextField<Integer> maxThreads = new TextField<Integer>("maxRenderingThreads");
+        maxThreads.add(new MinimumValidator<Integer>(0));
+        form.add(maxThreads);
+        TextField<Integer> maxQueued = new TextField<Integer>("maxQueuedRenderings");
+        maxQueued.add(new MinimumValidator<Integer>(0));
+        form.add(maxQueued);
     	// watermark
     	form.add(new CheckBox("watermark.enabled"));
     	TextField watermarkUrlField = new TextField("watermark.uRL", new FileModel(new PropertyModel<String>(form.getModel(), "watermark.URL")));
@@ -0,0 +1,320 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.DataAccessLimits;
+import org.geoserver.security.SecureCatalogImpl;
+import org.geotools.data.DataAccess;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.Hints;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the feature counts used to compute numberMatched in WFS 2.0, so that paging through the
+ * results of a query does not run the same count for every page.
+ * <p>
+ * The counts are keyed by feature type, normalized filter, view parameters, user and the data
+ * version of the feature type, which is bumped by every transaction event touching it. Changes
+ * made to the data outside of WFS transactions, or by the other nodes of a cluster, are picked up
+ * only once the cached counts expire: until then numberMatched can be stale, and a stale total
+ * lower than the actual one makes the response miss its next link. For this reason caching is
+ * disabled unless a size is configured, it should be enabled only for data that is edited through
+ * the WFS transactions of a single node, or if totals a few seconds old are acceptable.
+ * </p>
+ * <p>
+ * In estimated mode the statistics of the store are used instead when counting would be too
+ * expensive. For PostgreSQL tables larger than the threshold the planner row estimate is returned
+ * as the count of queries reading the whole table, that is, unfiltered queries on layers without a
+ * CQL filter and without read limits for the current user, while the count of the other queries
+ * is reported as unknown. Smaller tables, and stores without statistics, are counted exactly.
+ * </p>
+ * <p>
+ * Configured with the following system properties:
+ * <ul>
+ * <li>{@link #SIZE_PROPERTY}: max number of cached counts, 0 disables caching (default 0)</li>
+ * <li>{@link #TTL_PROPERTY}: seconds a count, or a row estimate, is cached for (default 60)</li>
+ * <li>{@link #ESTIMATE_PROPERTY}: enables the estimated mode (default false)</li>
+ * <li>{@link #THRESHOLD_PROPERTY}: estimated rows past which counts are not run in estimated
+ * mode (default 1000000)</li>
+ * </ul>
+ * </p>
+ */
+public class CountCache implements TransactionListener {
+
+    static final Logger LOGGER = Logging.getLogger(CountCache.class);
+
+    public static final String SIZE_PROPERTY = "org.geoserver.wfs.CountCache.size";
+
+    public static final String TTL_PROPERTY = "org.geoserver.wfs.CountCache.ttl";
+
+    public static final String ESTIMATE_PROPERTY = "org.geoserver.wfs.CountCache.estimate";
+
+    public static final String THRESHOLD_PROPERTY = "org.geoserver.wfs.CountCache.threshold";
+
+    static final long DEFAULT_SIZE = 0;
+
+    static final long DEFAULT_TTL = 60;
+
+    /**
+     * Max number of cached row estimates, they are statistics hence approximate already
+     */
+    static final long ROWS_SIZE = 1000;
+
+    static final long DEFAULT_THRESHOLD = 1000000;
+
+    /**
+     * The count returned when it is unknown
+     */
+    static final int UNKNOWN = -1;
+
+    static final String ROWS_QUERY = "SELECT c.reltuples FROM pg_class c "
+            + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+            + "WHERE c.relname = ? AND n.nspname = coalesce(?, current_schema())";
+
+    final Cache<String, Integer> counts;
+
+    /**
+     * Table row estimates, they are cheap to get but not free
+     */
+    final Cache<String, Long> rows;
+
+    final ConcurrentHashMap<String, AtomicLong> versions =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    final boolean estimate;
+
+    final long threshold;
+
+    public CountCache() {
+        this(getLongProperty(SIZE_PROPERTY, DEFAULT_SIZE), getLongProperty(TTL_PROPERTY,
+                DEFAULT_TTL), Boolean.parseBoolean(GeoServerExtensions
+                .getProperty(ESTIMATE_PROPERTY)), getLongProperty(THRESHOLD_PROPERTY,
+                DEFAULT_THRESHOLD));
+    }
+
+    CountCache(long size, long ttl, boolean estimate, long threshold) {
+        if (size > 0) {
+            counts = CacheBuilder.newBuilder().maximumSize(size)
+                    .expireAfterWrite(ttl, TimeUnit.SECONDS).build();
+        } else {
+            counts = null;
+        }
+        if (estimate && ttl > 0) {
+            rows = CacheBuilder.newBuilder().maximumSize(ROWS_SIZE)
+                    .expireAfterWrite(ttl, TimeUnit.SECONDS).build();
+        } else {
+            rows = null;
+        }
+        this.estimate = estimate;
+        this.threshold = threshold;
+    }
+
+    static long getLongProperty(String name, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the number of features matched by the query, from the cache if possible
+     *
+     * @param estimated whether an unknown count is acceptable
+     * @return the count, or -1 if unknown
+     */
+    public int getCount(FeatureTypeInfo meta, FeatureSource<?, ?> source, Query query,
+            boolean estimated) throws IOException {
+        String key = getKey(meta, query);
+        if (key != null) {
+            Integer count = counts.getIfPresent(key);
+            if (count != null) {
+                return count;
+            }
+        }
+
+        if (estimate && estimated && getEstimatedRows(meta) > threshold) {
+            return UNKNOWN;
+        }
+
+        // make sure we get a count by getting a feature collection,
+        // FeatureSource.getCount(...) can return -1
+        int count = source.getFeatures(query).size();
+        if (key != null && count >= 0) {
+            counts.put(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the row estimate of the table as the count of the query, if the query reads the
+     * whole table and the table is too large to be counted
+     *
+     * @return the estimated count, or -1 if the query has to be counted
+     */
+    public int getEstimatedCount(FeatureTypeInfo meta, Query query) throws IOException {
+        if (!estimate || (query.getFilter() != null && query.getFilter() != Filter.INCLUDE)
+                || (meta.getCqlFilter() != null && !meta.getCqlFilter().trim().isEmpty())
+                || hasReadLimits(meta)) {
+            return UNKNOWN;
+        }
+        long tableRows = getEstimatedRows(meta);
+        if (tableRows <= threshold) {
+            return UNKNOWN;
+        }
+        return (int) Math.min(tableRows, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether the current user can read only part of the features of the feature type, in
+     * which case the row estimate of the table is not a count of what the user gets to see
+     */
+    protected boolean hasReadLimits(FeatureTypeInfo meta) {
+        SecureCatalogImpl secureCatalog = GeoServerExtensions.bean(SecureCatalogImpl.class);
+        if (secureCatalog == null || secureCatalog.getResourceAccessManager() == null) {
+            return false;
+        }
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        DataAccessLimits limits = secureCatalog.getResourceAccessManager().getAccessLimits(user,
+                meta);
+        return limits != null && limits.getReadFilter() != null
+                && limits.getReadFilter() != Filter.INCLUDE;
+    }
+
+    /**
+     * Builds the cache key of the query, or returns null if the count cannot be cached
+     */
+    String getKey(FeatureTypeInfo meta, Query query) {
+        if (counts == null || !query.getJoins().isEmpty()) {
+            return null;
+        }
+        // the same query might match a different set of features depending on the user
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        StringBuilder sb = new StringBuilder(meta.prefixedName());
+        sb.append('|').append(getVersion(meta.getName()));
+        sb.append('|').append(meta.getCqlFilter());
+        sb.append('|').append(query.getFilter());
+        Hints hints = query.getHints();
+        sb.append('|').append(hints != null ? hints.get(Hints.VIRTUAL_TABLE_PARAMETERS) : null);
+        sb.append('|').append(query.getVersion());
+        sb.append('|').append(user != null ? user.getName() : null);
+        return sb.toString();
+    }
+
+    long getVersion(String typeName) {
+        AtomicLong version = versions.get(typeName);
+        return version != null ? version.get() : 0;
+    }
+
+    /**
+     * Returns the row estimate of the table backing the feature type, or -1 if not available
+     */
+    long getEstimatedRows(FeatureTypeInfo meta) throws IOException {
+        String key = meta.getId();
+        if (rows != null && key != null) {
+            Long cached = rows.getIfPresent(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long result = estimateRows(meta);
+        if (rows != null && key != null) {
+            rows.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Asks the store an estimate of the rows in the table backing the feature type, supports
+     * PostgreSQL tables, returns -1 for other stores or SQL views
+     */
+    protected long estimateRows(FeatureTypeInfo meta) throws IOException {
+        if (meta.getMetadata().containsKey(FeatureTypeInfo.JDBC_VIRTUAL_TABLE)) {
+            return -1;
+        }
+        DataAccess<?, ?> store = meta.getStore().getDataStore(null);
+        if (!(store instanceof JDBCDataStore)) {
+            return -1;
+        }
+        JDBCDataStore jdbc = (JDBCDataStore) store;
+        Connection cx = jdbc.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            if (!"PostgreSQL".equals(cx.getMetaData().getDatabaseProductName())) {
+                return -1;
+            }
+            PreparedStatement ps = cx.prepareStatement(ROWS_QUERY);
+            try {
+                ps.setString(1, meta.getNativeName());
+                ps.setString(2, jdbc.getDatabaseSchema());
+                ResultSet rs = ps.executeQuery();
+                try {
+                    // reltuples is negative or zero for tables that have never been analyzed
+                    return rs.next() && rs.getFloat(1) > 0 ? (long) rs.getFloat(1) : -1;
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Could not estimate the rows of " + meta.prefixedName(), e);
+            return -1;
+        } finally {
+            jdbc.closeSafe(cx);
+        }
+    }
+
+    /**
+     * Bumps the data version of the feature type changed by the transaction, making the cached
+     * counts unreachable
+     */
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName layerName = event.getLayerName();
+        if (layerName == null) {
+            return;
+        }
+        // the local name only, some requests do not qualify the type names
+        String typeName = layerName.getLocalPart();
+        AtomicLong version = versions.get(typeName);
+        if (version == null) {
+            AtomicLong existing = versions.putIfAbsent(typeName, version = new AtomicLong());
+            if (existing != null) {
+                version = existing;
+            }
+        }
+        version.incrementAndGet();
+    }
+
+}
@@ -7,6 +7,7 @@ package org.geoserver.wfs;
 
 import java.io.IOException;
 
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 
@@ -27,11 +28,31 @@ class CountExecutor {
 
     int providedCount = COUNT_UNSET;
 
+    CountCache cache;
+
+    FeatureTypeInfo meta;
+
+    boolean estimated;
+
+    boolean estimate;
+
     public CountExecutor(FeatureSource source, Query query) {
         this.source = source;
         this.query = query;
     }
 
+    /**
+     * Runs the count through the cache, which might also return an estimate, or an unknown count,
+     * if allowed
+     */
+    public CountExecutor(FeatureSource source, Query query, CountCache cache,
+            FeatureTypeInfo meta, boolean estimated) {
+        this(source, query);
+        this.cache = cache;
+        this.meta = meta;
+        this.estimated = estimated;
+    }
+
     public CountExecutor(int providedCount) {
         this.providedCount = providedCount;
     }
@@ -39,6 +60,15 @@ class CountExecutor {
     public int getCount() throws IOException {
         if(providedCount != COUNT_UNSET) {
             return providedCount;
+        } else if (cache != null) {
+            if (estimated) {
+                int count = cache.getEstimatedCount(meta, query);
+                if (count >= 0) {
+                    estimate = true;
+                    return count;
+                }
+            }
+            return cache.getCount(meta, source, query, estimated);
         } else {
             // make sure we get a count by getting a feature colleciton
             // FeatureSource.getCount(...) can return -1
@@ -46,4 +76,11 @@ class CountExecutor {
         }
     }
 
+    /**
+     * Returns true if the last count returned is an estimate, to be used as a hint only
+     */
+    public boolean isEstimate() {
+        return estimate;
+    }
+
 }
@@ -27,6 +27,7 @@ import net.opengis.wfs20.ValueCollectionType;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.request.DescribeFeatureTypeRequest;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetCapabilitiesRequest;
@@ -94,6 +95,7 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
         GetFeature gf = new GetFeature(getServiceInfo(), getCatalog());
         gf.setFilterFactory(filterFactory);
         gf.setStoredQueryProvider(getStoredQueryProvider());
+        gf.setCountCache(GeoServerExtensions.bean(CountCache.class, context));
         
         return gf.run(new GetFeatureRequest.WFS20(request));
     }
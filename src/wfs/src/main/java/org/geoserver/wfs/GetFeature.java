@@ -180,6 +180,9 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /** numberMatched count cache */
+    CountCache countCache;
+
     /**
      * Creates the WFS 1.0/1.1 GetFeature operation.
      */
@@ -225,6 +228,13 @@ public class GetFeature {
         this.storedQueryProvider = storedQueryProvider;
     }
 
+    /**
+     * Sets the cache used to compute numberMatched
+     */
+    public void setCountCache(CountCache countCache) {
+        this.countCache = countCache;
+    }
+
     public FeatureCollectionResponse run(GetFeatureRequest request)
         throws WFSException {
         List<Query> queries = request.getQueries();
@@ -320,6 +330,7 @@ public class GetFeature {
 
         List results = new ArrayList();
         final List<CountExecutor> totalCountExecutors = new ArrayList<CountExecutor>();
+        KeysetPaging keyset = null;
         try {
             for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
 
@@ -501,14 +512,47 @@ public class GetFeature {
                 if (metaMaxFeatures > 0 && metaMaxFeatures < queryMaxFeatures) {
                     queryMaxFeatures = metaMaxFeatures;
                 }
+                // keyset paging, if the feature type opted in
+                if (queries.size() == 1 && joins == null && request.getVersion().startsWith("2")
+                        && !request.isResultTypeHits() && maxFeatures < Integer.MAX_VALUE) {
+                    keyset = KeysetPaging.create(meta, sortBy, filter, filterFactory);
+                }
+                if (keyset != null) {
+                    String cursor = getCursor();
+                    if (cursor != null) {
+                        try {
+                            keyset.setCursor(cursor);
+                        } catch (IllegalArgumentException e) {
+                            throw new WFSException(request, "Invalid cursor: " + e.getMessage(),
+                                    "InvalidParameterValue").locator(KeysetPaging.CURSOR);
+                        }
+                        // the cursor replaces the start index
+                        offset = -1;
+                        totalOffset = keyset.getPosition();
+                    } else {
+                        keyset.setPosition(offset);
+                    }
+                    keyset.setPropertyNames(allPropNames.get(0));
+                }
+
                 Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
                 org.geotools.data.Query gtQuery = toDataQuery(query, filter, offset,
                         queryMaxFeatures, source, request, allPropNames.get(0), viewParam,
                             joins, primaryTypeName, primaryAlias);
+                if (keyset != null) {
+                    keyset.apply(gtQuery);
+                }
 
                 LOGGER.fine("Query is " + query + "\n To gt2: " + gtQuery);
 
-                FeatureCollection<? extends FeatureType, ? extends Feature> features = getFeatures(request, source, gtQuery);
+                FeatureCollection<? extends FeatureType, ? extends Feature> features;
+                if (keyset != null) {
+                    // one more feature tells whether there is a next page
+                    features = getFeatures(request, source, keyset.pageQuery(gtQuery));
+                    features = keyset.readPage(features, source, gtQuery);
+                } else {
+                    features = getFeatures(request, source, gtQuery);
+                }
 
                 // For complex features, we need the targetCrs and version in scenario where we have
                 // a top level feature that does not contain a geometry(therefore no crs) and has a
@@ -563,15 +607,23 @@ public class GetFeature {
                 isNumberMatchedSkipped = meta.getSkipNumberMatched()
                         && !request.isResultTypeHits();
                 if (!isNumberMatchedSkipped) {
-                        if (calculateSize
+                    if (keyset != null && keyset.getMatched() >= 0) {
+                        // computed on the first page and carried along by the cursor
+                        totalCountExecutors.add(new CountExecutor(keyset.getMatched()));
+                    } else if (calculateSize
                                 && (queryMaxFeatures == Integer.MAX_VALUE || size < queryMaxFeatures)
-                                && offset <= 0) {
+                                && offset <= 0 && (keyset == null || !keyset.hasCursor())) {
                         totalCountExecutors.add(new CountExecutor(size));
                     } else {
                         org.geotools.data.Query qTotal = toDataQuery(query, filter, 0,
                                 Integer.MAX_VALUE, source, request, allPropNames.get(0), viewParam,
                                 joins, primaryTypeName, primaryAlias);
-                        totalCountExecutors.add(new CountExecutor(source, qTotal));
+                        if (countCache != null) {
+                            totalCountExecutors.add(new CountExecutor(source, qTotal, countCache,
+                                    primaryMeta, !request.isResultTypeHits()));
+                        } else {
+                            totalCountExecutors.add(new CountExecutor(source, qTotal));
+                        }
                     }
                 }
 
@@ -619,7 +671,8 @@ public class GetFeature {
             if (isNumberMatchedSkipped) {
                 totalCount = BigInteger.valueOf(-1);
                 totalOffset = 0;
-            } else if(count < maxFeatures && calculateSize) {
+            } else if(count < maxFeatures && calculateSize
+                    && (keyset == null || !keyset.hasCursor())) {
                  // optimization: if count < max features then total count == count
                  totalCount = BigInteger.valueOf(count);
             } else {
@@ -627,12 +680,12 @@ public class GetFeature {
                 // We do so lazily, not all output formats need it, leveraging the fact that BigInteger
                 // is not final to wrap it in a lazy loading proxy
                 Enhancer enhancer = new Enhancer();
-                enhancer.setSuperclass(BigInteger.class);
                 enhancer.setCallback(new LazyLoader() {
                     
                     @Override
                     public Object loadObject() throws Exception {
                         long totalCount = 0;
+                        boolean estimate = false;
                         for (CountExecutor q : totalCountExecutors) {
                             int result = q.getCount();
                             // if the count is unknown for one, we don't know the total, period
@@ -641,11 +694,13 @@ public class GetFeature {
                                 break;
                             } else {
                                 totalCount += result;
+                                estimate |= q.isEstimate();
                             }
                         }
-                        return BigInteger.valueOf(totalCount);
+                        return new TotalCount(String.valueOf(totalCount), estimate);
                     }
                 });
+                enhancer.setSuperclass(TotalCount.class);
                 totalCount = (BigInteger) enhancer.create(new Class[] {String.class}, new Object[] {"0"});
             }
         } catch (IOException e) {
@@ -685,7 +740,58 @@ public class GetFeature {
             lockId = response.getLockId();
         }
 
-        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
+        FeatureCollectionResponse result = buildResults(request, totalOffset, maxFeatures, count,
+                totalCount, results, lockId);
+        if (keyset != null) {
+            buildKeysetLinks(request, keyset, maxFeatures, totalCount, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keyset paging cursor found in the request, if any
+     */
+    String getCursor() {
+        Request req = Dispatcher.REQUEST.get();
+        if (req == null || req.getRawKvp() == null) {
+            return null;
+        }
+        Object cursor = req.getRawKvp().get(KeysetPaging.CURSOR);
+        return cursor != null ? cursor.toString() : null;
+    }
+
+    /**
+     * Replaces the startIndex based previous and next links with keyset cursor ones
+     */
+    void buildKeysetLinks(GetFeatureRequest request, KeysetPaging keyset, int maxFeatures,
+            BigInteger total, FeatureCollectionResponse result) {
+        if (!keyset.hasNext() && !keyset.hasPrevious()) {
+            result.setNext(null);
+            result.setPrevious(null);
+            return;
+        }
+
+        // pass along the count, the following pages won't need to compute it again
+        int matched = total.signum() < 0 || TotalCount.isEstimate(total) ? -1 : total.intValue();
+        KvpMap kvp = buildPagingKvp(request);
+        kvp.remove("STARTINDEX");
+        kvp.put("count", String.valueOf(maxFeatures));
+
+        String previous = keyset.getPreviousCursor(matched);
+        if (previous != null) {
+            kvp.put(KeysetPaging.CURSOR, previous);
+            result.setPrevious(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
+        } else if (!keyset.hasPrevious()) {
+            result.setPrevious(null);
+        }
+
+        String next = keyset.getNextCursor(matched);
+        if (next != null) {
+            kvp.put(KeysetPaging.CURSOR, next);
+            result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
+        } else if (!keyset.hasNext()) {
+            result.setNext(null);
+        }
     }
 
 
@@ -731,25 +837,7 @@ public class GetFeature {
 
         if (offset > 0 || count < Integer.MAX_VALUE) {
             //paged request, set the values of previous and next
-
-            //get the Request thread local since we need to know about the request, whether it is 
-            // GET or POST some kvp information if the former
-            Request req = Dispatcher.REQUEST.get();
-            
-            //grab the original kvp params if this is a GET request
-            //for POST, do nothing, make the client post the same content
-            //TODO: try to encode the request as best we can in a GET request, only issue should
-            // be the filter and encoding it property... especially for joins that might be 
-            // tricky, and it also may cause the request to be too large for a get request
-            //TODO: figure out what the spec says about this... 
-            Map<String,String> kvp = null; 
-            if (req.isGet()) {
-                kvp = new KvpMap(req.getRawKvp()); 
-            }
-            else {
-                //generate kvp map from request object
-                kvp = buildKvpFromRequest(request);
-            }
+            Map<String,String> kvp = buildPagingKvp(request);
 
             if (offset > 0) {
                 //previous
@@ -769,7 +857,9 @@ public class GetFeature {
 
                 //calculate the count of the next result set 
                 int nextCount = total.intValue() - (offset + count);
-                if (nextCount > 0) {
+                // with an unknown or estimated total a full page might be followed by more
+                boolean exact = total.signum() >= 0 && !TotalCount.isEstimate(total);
+                if (nextCount > 0 || (!exact && count >= maxFeatures)) {
                     kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
                     //kvp.put("count", String.valueOf(nextCount));
                     kvp.put("count", String.valueOf(maxFeatures));
@@ -781,6 +871,57 @@ public class GetFeature {
         return result;
     }
 
+    /**
+     * The total count of the matched features, flagged when one of the counts summed up is an
+     * estimate, in which case it cannot be trusted to tell whether there is a next page
+     */
+    public static class TotalCount extends BigInteger {
+
+        private static final long serialVersionUID = -2876543287906581034L;
+
+        boolean estimate;
+
+        public TotalCount(String value) {
+            this(value, false);
+        }
+
+        public TotalCount(String value, boolean estimate) {
+            super(value);
+            this.estimate = estimate;
+        }
+
+        public boolean isEstimate() {
+            return estimate;
+        }
+
+        static boolean isEstimate(BigInteger total) {
+            return total instanceof TotalCount && ((TotalCount) total).isEstimate();
+        }
+    }
+
+    /**
+     * Returns the kvp parameters to be used as the base of the previous and next links
+     */
+    KvpMap buildPagingKvp(GetFeatureRequest request) {
+        //get the Request thread local since we need to know about the request, whether it is 
+        // GET or POST some kvp information if the former
+        Request req = Dispatcher.REQUEST.get();
+
+        //grab the original kvp params if this is a GET request
+        //for POST, do nothing, make the client post the same content
+        //TODO: try to encode the request as best we can in a GET request, only issue should
+        // be the filter and encoding it property... especially for joins that might be 
+        // tricky, and it also may cause the request to be too large for a get request
+        //TODO: figure out what the spec says about this... 
+        if (req.isGet()) {
+            return new KvpMap(req.getRawKvp()); 
+        }
+        else {
+            //generate kvp map from request object
+            return buildKvpFromRequest(request);
+        }
+    }
+
     KvpMap buildKvpFromRequest(GetFeatureRequest request) {
         
         // FILTER_LANGUAGE
@@ -0,0 +1,550 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Base64;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.sort.SortedSimpleFeatureCollection;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.Converters;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Keyset paging support for WFS 2.0 GetFeature. Instead of skipping startIndex features, which
+ * stores usually implement with an OFFSET that is linear in the page depth, the next and previous
+ * links carry an opaque {@link #CURSOR} holding the sort values of the last (first) feature of the
+ * current page, and the following (preceding) page is extracted with a range filter on the sort
+ * attributes, that an index on them can answer in constant time at any depth.
+ * <p>
+ * The mode is opt-in, enabled on a feature type by listing the attributes making up a unique,
+ * non null key (e.g., the exposed primary key columns) in its {@link #KEY_ATTRIBUTES} metadata
+ * entry. The key attributes are appended to the requested sortBy to make the order total. The
+ * cursor also carries the numberMatched computed on the first page, so that the following pages
+ * do not need to count the matching features again.
+ * </p>
+ * <p>
+ * Features having a null value in one of the sort attributes cannot be reached by a cursor.
+ * </p>
+ */
+public class KeysetPaging {
+
+    /**
+     * Feature type metadata key listing the comma separated attributes making up a unique key
+     */
+    public static final String KEY_ATTRIBUTES = "keysetPagingKey";
+
+    /**
+     * The KVP parameter carrying the cursor in the next and previous links
+     */
+    public static final String CURSOR = "cursor";
+
+    static final byte VERSION = 1;
+
+    /**
+     * Max number of features of a page held in memory, also used while restoring the order of a
+     * backwards page too large to be held
+     */
+    static final int MAX_IN_MEMORY = 1000;
+
+    final SortBy[] sortBy;
+
+    final String[] names;
+
+    final Class<?>[] bindings;
+
+    final int fingerprint;
+
+    final FilterFactory2 ff;
+
+    boolean forward = true;
+
+    Object[] cursor;
+
+    int position;
+
+    int matched = -1;
+
+    int pageSize;
+
+    int returned;
+
+    Object[] first;
+
+    Object[] last;
+
+    boolean previous;
+
+    boolean next;
+
+    boolean sortPropertiesLoaded = true;
+
+    KeysetPaging(SortBy[] sortBy, String[] names, Class<?>[] bindings, int fingerprint,
+            FilterFactory2 ff) {
+        this.sortBy = sortBy;
+        this.names = names;
+        this.bindings = bindings;
+        this.fingerprint = fingerprint;
+        this.ff = ff;
+    }
+
+    /**
+     * Sets up keyset paging for the specified feature type, or returns null if the feature type
+     * did not opt in, or the query cannot be paged by keyset
+     */
+    static KeysetPaging create(FeatureTypeInfo meta, List<SortBy> sortBy, Filter filter,
+            FilterFactory2 ff) throws IOException {
+        String key = meta.getMetadata().get(KEY_ATTRIBUTES, String.class);
+        if (key == null || key.trim().isEmpty()) {
+            return null;
+        }
+        FeatureType featureType = meta.getFeatureType();
+        if (!(featureType instanceof SimpleFeatureType)) {
+            return null;
+        }
+        SimpleFeatureType schema = (SimpleFeatureType) featureType;
+
+        // the requested order first, then the key to make it total
+        List<SortBy> keyset = new ArrayList<SortBy>();
+        Set<String> names = new LinkedHashSet<String>();
+        if (sortBy != null) {
+            for (SortBy sb : sortBy) {
+                PropertyName property = sb.getPropertyName();
+                if (property == null) {
+                    // natural order, not something we can express as a range
+                    return null;
+                }
+                Object descriptor = property.evaluate(schema);
+                if (!(descriptor instanceof AttributeDescriptor)) {
+                    return null;
+                }
+                String name = ((AttributeDescriptor) descriptor).getLocalName();
+                if (names.add(name)) {
+                    keyset.add(ff.sort(name, sb.getSortOrder()));
+                }
+            }
+        }
+        for (String name : key.split(",")) {
+            name = name.trim();
+            if (schema.getDescriptor(name) == null) {
+                throw new IOException("Keyset paging key attribute " + name
+                        + " not found in " + meta.prefixedName());
+            }
+            if (names.add(name)) {
+                keyset.add(ff.sort(name, SortOrder.ASCENDING));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(meta.prefixedName()).append('|').append(filter);
+        Class<?>[] bindings = new Class<?>[keyset.size()];
+        int i = 0;
+        for (String name : names) {
+            bindings[i] = schema.getDescriptor(name).getType().getBinding();
+            if (!Number.class.isAssignableFrom(bindings[i]) && !String.class.equals(bindings[i])
+                    && !Date.class.isAssignableFrom(bindings[i])
+                    && !Boolean.class.equals(bindings[i])) {
+                return null;
+            }
+            sb.append('|').append(name).append(' ').append(keyset.get(i).getSortOrder());
+            i++;
+        }
+
+        return new KeysetPaging(keyset.toArray(new SortBy[keyset.size()]),
+                names.toArray(new String[names.size()]), bindings, sb.toString().hashCode(), ff);
+    }
+
+    /**
+     * Positions the paging on the specified cursor, as found in a next or previous link
+     *
+     * @throws IllegalArgumentException if the cursor is malformed, or was built for another query
+     */
+    void setCursor(String encoded) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Base64.decodeBase64(encoded)));
+        try {
+            if (in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Unsupported cursor version");
+            }
+            if (in.readInt() != fingerprint) {
+                throw new IllegalArgumentException(
+                        "The cursor was not generated by the same query and sort order");
+            }
+            forward = in.readBoolean();
+            position = in.readInt();
+            matched = in.readInt();
+            int size = in.readUnsignedByte();
+            if (size != sortBy.length) {
+                throw new IllegalArgumentException("The cursor does not match the sort order");
+            }
+            cursor = new Object[size];
+            for (int i = 0; i < size; i++) {
+                cursor[i] = fromString(in.readUTF(), bindings[i]);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    /**
+     * Positions the paging at the specified start index, for the first page requested without a
+     * cursor
+     */
+    void setPosition(int position) {
+        this.position = Math.max(position, 0);
+    }
+
+    boolean hasCursor() {
+        return cursor != null;
+    }
+
+    /**
+     * The start index of the current page
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * The numberMatched carried by the cursor, or -1 if not known
+     */
+    int getMatched() {
+        return matched;
+    }
+
+    /**
+     * Records the property names requested by the client, the cursors can be built from the
+     * page only if they include all the sort attributes. The requested properties are never
+     * extended, the response must not contain attributes the client did not ask for.
+     */
+    void setPropertyNames(List<PropertyName> properties) {
+        if (properties == null) {
+            sortPropertiesLoaded = true;
+            return;
+        }
+        Set<String> loaded = new LinkedHashSet<String>();
+        for (PropertyName property : properties) {
+            String name = property.getPropertyName();
+            loaded.add(name.substring(name.indexOf(':') + 1));
+        }
+        sortPropertiesLoaded = loaded.containsAll(Arrays.asList(names));
+    }
+
+    /**
+     * Sorts the query by keyset, and restricts it to the features following (preceding) the
+     * cursor
+     */
+    void apply(Query query) {
+        query.setSortBy(forward ? sortBy : reverse(sortBy));
+        if (cursor != null) {
+            Filter range = rangeFilter(cursor, forward);
+            if (query.getFilter() == null || query.getFilter() == Filter.INCLUDE) {
+                query.setFilter(range);
+            } else {
+                query.setFilter(ff.and(query.getFilter(), range));
+            }
+        }
+    }
+
+    /**
+     * Returns the query extracting the page, with room for one more feature telling whether
+     * there are more features after it, or the query itself if the page is too large to be held
+     * in memory
+     */
+    Query pageQuery(Query query) {
+        pageSize = query.getMaxFeatures();
+        if (!buffered()) {
+            return query;
+        }
+        Query lookAhead = new Query(query);
+        lookAhead.setMaxFeatures(pageSize + 1);
+        return lookAhead;
+    }
+
+    boolean buffered() {
+        return sortPropertiesLoaded && pageSize <= MAX_IN_MEMORY;
+    }
+
+    /**
+     * Reads the page extracted by the {@link #pageQuery(Query) page query}, recording the sort
+     * values of its first and last features and whether there are more features after it, and
+     * returns it in keyset order.
+     * <p>
+     * The page is held in memory, so the store is hit once. Pages larger than
+     * {@link #MAX_IN_MEMORY}, or whose property names leave out some of the sort attributes, are
+     * left streaming instead, their sort values are read with a second query loading only the
+     * sort attributes.
+     * </p>
+     */
+    FeatureCollection<? extends FeatureType, ? extends Feature> readPage(
+            FeatureCollection<? extends FeatureType, ? extends Feature> features,
+            FeatureSource<? extends FeatureType, ? extends Feature> source, Query query)
+            throws IOException {
+        if (!buffered() || !(features instanceof SimpleFeatureCollection)) {
+            readKeys(source, query);
+            return sort(features);
+        }
+
+        List<SimpleFeature> page = new ArrayList<SimpleFeature>();
+        boolean more = false;
+        SimpleFeatureIterator it = ((SimpleFeatureCollection) features).features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                if (page.size() == pageSize) {
+                    more = true;
+                    break;
+                }
+                page.add(feature);
+            }
+        } finally {
+            it.close();
+        }
+        if (!forward) {
+            // extracted in reverse order
+            Collections.reverse(page);
+        }
+        returned = page.size();
+        Object[] head = page.isEmpty() ? null : values(page.get(0));
+        Object[] tail = page.isEmpty() ? null : values(page.get(page.size() - 1));
+        setPage(head, tail, more);
+        return new ListFeatureCollection(((SimpleFeatureCollection) features).getSchema(), page);
+    }
+
+    /**
+     * A backwards page is extracted in reverse order, sorts it back
+     */
+    FeatureCollection<? extends FeatureType, ? extends Feature> sort(
+            FeatureCollection<? extends FeatureType, ? extends Feature> features) {
+        if (forward || !(features instanceof SimpleFeatureCollection)) {
+            return features;
+        }
+        return new SortedSimpleFeatureCollection((SimpleFeatureCollection) features, sortBy,
+                MAX_IN_MEMORY);
+    }
+
+    /**
+     * Reads the sort values of the page extracted by the query, and whether there are more
+     * features after it. Only the sort attributes are loaded, which an index can usually provide
+     * without touching the table.
+     */
+    void readKeys(FeatureSource<? extends FeatureType, ? extends Feature> source, Query query)
+            throws IOException {
+        Query keys = new Query(query);
+        keys.setPropertyNames(names);
+        if (pageSize < Query.DEFAULT_MAX) {
+            keys.setMaxFeatures(pageSize + 1);
+        }
+
+        Object[] head = null;
+        Object[] tail = null;
+        boolean more = false;
+        returned = 0;
+        FeatureIterator<? extends Feature> it = source.getFeatures(keys).features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature feature = (SimpleFeature) it.next();
+                if (returned == pageSize) {
+                    more = true;
+                    break;
+                }
+                tail = values(feature);
+                if (returned == 0) {
+                    head = tail;
+                }
+                returned++;
+            }
+        } finally {
+            it.close();
+        }
+
+        if (forward) {
+            setPage(head, tail, more);
+        } else {
+            // read in reverse order
+            setPage(tail, head, more);
+        }
+    }
+
+    /**
+     * Records the sort values of the first and last features of the page, in keyset order, and
+     * whether more features follow it in the direction it was read
+     */
+    void setPage(Object[] head, Object[] tail, boolean more) {
+        first = head;
+        last = tail;
+        if (forward) {
+            previous = position > 0;
+            next = more;
+        } else {
+            previous = more;
+            next = true;
+            if (!more) {
+                position = 0;
+            }
+        }
+    }
+
+    boolean hasNext() {
+        return next;
+    }
+
+    boolean hasPrevious() {
+        return previous;
+    }
+
+    /**
+     * The cursor to the page following the current one, or null if it cannot be built
+     */
+    String getNextCursor(int matched) {
+        if (!next || last == null) {
+            return null;
+        }
+        return encode(true, position + returned, matched, last);
+    }
+
+    /**
+     * The cursor to the page preceding the current one, or null if it cannot be built
+     */
+    String getPreviousCursor(int matched) {
+        if (!previous || first == null) {
+            return null;
+        }
+        return encode(false, Math.max(position - pageSize, 0), matched, first);
+    }
+
+    String encode(boolean forward, int position, int matched, Object[] values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(fingerprint);
+            out.writeBoolean(forward);
+            out.writeInt(position);
+            out.writeInt(matched);
+            out.writeByte(values.length);
+            for (Object value : values) {
+                out.writeUTF(toString(value));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // cannot happen writing in memory
+            throw new RuntimeException(e);
+        }
+        return Base64.encodeBase64URLSafeString(bytes.toByteArray());
+    }
+
+    /**
+     * Builds the filter extracting the features after (or before) the specified sort values, that
+     * is, for sort attributes a, b, c: <code>a > va OR (a = va AND b > vb) OR
+     * (a = va AND b = vb AND c > vc)</code>, with the comparison flipped for descending
+     * attributes
+     */
+    Filter rangeFilter(Object[] values, boolean after) {
+        List<Filter> alternatives = new ArrayList<Filter>();
+        for (int i = 0; i < sortBy.length; i++) {
+            List<Filter> terms = new ArrayList<Filter>();
+            for (int j = 0; j < i; j++) {
+                terms.add(ff.equal(ff.property(names[j]), ff.literal(values[j]), true));
+            }
+            terms.add(compare(i, values[i], after, false));
+            alternatives.add(terms.size() == 1 ? terms.get(0) : ff.and(terms));
+        }
+        if (alternatives.size() == 1) {
+            return alternatives.get(0);
+        }
+        // the redundant bound on the leading attribute lets the store use a range scan on its index
+        return ff.and(compare(0, values[0], after, true), ff.or(alternatives));
+    }
+
+    Filter compare(int i, Object value, boolean after, boolean inclusive) {
+        PropertyName property = ff.property(names[i]);
+        Literal literal = ff.literal(value);
+        boolean greater = after == (sortBy[i].getSortOrder() != SortOrder.DESCENDING);
+        if (greater) {
+            return inclusive ? ff.greaterOrEqual(property, literal) : ff.greater(property,
+                    literal);
+        } else {
+            return inclusive ? ff.lessOrEqual(property, literal) : ff.less(property, literal);
+        }
+    }
+
+    SortBy[] reverse(SortBy[] sortBy) {
+        SortBy[] result = new SortBy[sortBy.length];
+        for (int i = 0; i < sortBy.length; i++) {
+            SortOrder order = sortBy[i].getSortOrder() == SortOrder.DESCENDING ? SortOrder.ASCENDING
+                    : SortOrder.DESCENDING;
+            result[i] = ff.sort(names[i], order);
+        }
+        return result;
+    }
+
+    /**
+     * The sort values of the feature, or null if any is null, in which case no cursor can be built
+     */
+    Object[] values(SimpleFeature feature) {
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = feature.getAttribute(names[i]);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    static String toString(Object value) {
+        if (value instanceof Date) {
+            // the millis round trip, the string representations might not
+            return String.valueOf(((Date) value).getTime());
+        }
+        return value.toString();
+    }
+
+    static Object fromString(String value, Class<?> binding) {
+        Object result;
+        if (Date.class.isAssignableFrom(binding)) {
+            Date date = new Date(Long.parseLong(value));
+            result = Converters.convert(date, binding);
+            if (result == null) {
+                result = date;
+            }
+        } else {
+            result = Converters.convert(value, binding);
+        }
+        if (result == null) {
+            throw new IllegalArgumentException("Invalid cursor value " + value + " for type "
+                    + binding.getSimpleName());
+        }
+        return result;
+    }
+}
@@ -44,6 +44,10 @@ public class GeoJSONBuilder extends JSONBuilder {
     
     private CRS.AxisOrder axisOrder = CRS.AxisOrder.EAST_NORTH;
 
+    private int numDecimals = -1;
+
+    private double scale;
+
     public GeoJSONBuilder(Writer w) {
         super(w);
     }
@@ -159,14 +163,14 @@ public class GeoJSONBuilder extends JSONBuilder {
     private JSONBuilder writeCoordinate(double x, double y, double z) {
         this.array();
         if(axisOrder==CRS.AxisOrder.NORTH_EAST){
-            this.value(y);
-            this.value(x);
+            this.value(round(y));
+            this.value(round(x));
         } else {
-            this.value(x);
-            this.value(y);
+            this.value(round(x));
+            this.value(round(y));
         }
         if(!Double.isNaN(z)) {
-            this.value(z);
+            this.value(round(z));
         }
 
         return this.endArray();
@@ -183,15 +187,15 @@ public class GeoJSONBuilder extends JSONBuilder {
         this.key("bbox");
         this.array();
         if(axisOrder==CRS.AxisOrder.NORTH_EAST) {
-            this.value(env.getMinY());
-            this.value(env.getMinX());
-            this.value(env.getMaxY());
-            this.value(env.getMaxX());
+            this.value(round(env.getMinY()));
+            this.value(round(env.getMinX()));
+            this.value(round(env.getMaxY()));
+            this.value(round(env.getMaxX()));
         } else {
-            this.value(env.getMinX());
-            this.value(env.getMinY());
-            this.value(env.getMaxX());
-            this.value(env.getMaxY());
+            this.value(round(env.getMinX()));
+            this.value(round(env.getMinY()));
+            this.value(round(env.getMaxX()));
+            this.value(round(env.getMaxY()));
         }
         return this.endArray();
     }
@@ -302,6 +306,30 @@ public class GeoJSONBuilder extends JSONBuilder {
         return this;
     }
     
+    /**
+     * Rounds an ordinate to the configured number of decimals, if any
+     */
+    private double round(double value) {
+        if (numDecimals < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        double scaled = value * scale;
+        if (Math.abs(scaled) >= GeoJSONWriter.MAX_SCALED) {
+            return value;
+        }
+        return Math.round(scaled) / scale;
+    }
+
+    /**
+     * Sets the number of decimals coordinates are rounded to, a negative number (the default)
+     * leaves them at full precision
+     * @param numDecimals
+     */
+    public void setNumberOfDecimals(int numDecimals) {
+        this.numDecimals = Math.min(numDecimals, GeoJSONWriter.MAX_DECIMALS);
+        this.scale = numDecimals < 0 ? 0 : GeoJSONWriter.POWERS_OF_TEN[this.numDecimals];
+    }
+
     /**
      * Set the axis order to assume all input will be provided in. Has no effect on geometries 
      * that have already been written.
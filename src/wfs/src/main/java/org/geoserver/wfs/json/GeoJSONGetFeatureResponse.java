@@ -11,8 +11,11 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -106,18 +109,153 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         if (request != null) {
             id_option = JSONType.getIdPolicy( request.getKvp() );
         }
-        // prepare to write out
-        OutputStreamWriter osw = null;
-        Writer outWriter = null;
-        boolean hasGeom = false;
 
         // get feature count for request
         BigInteger totalNumberOfFeatures = featureCollection.getTotalNumberOfFeatures();
         BigInteger featureCount = (totalNumberOfFeatures != null && totalNumberOfFeatures.longValue() < 0)
                 ? null : totalNumberOfFeatures;
 
+        List<FeatureCollection> resultsList = featureCollection.getFeature();
+        int numDecimals = getNumDecimals(resultsList, gs, gs.getCatalog());
+
+        String charset = gs.getGlobal().getSettings().getCharset();
+        if (isUTF8(charset)) {
+            writeStreaming(resultsList, featureCount, featureBounding, id_option, numDecimals,
+                    output);
+        } else {
+            writeWithBuilder(resultsList, featureCount, featureBounding, id_option, numDecimals,
+                    charset, output);
+        }
+    }
+
+    private boolean isUTF8(String charset) {
+        try {
+            return charset != null && GeoJSONWriter.UTF8.equals(Charset.forName(charset));
+        } catch (IllegalArgumentException e) {
+            // let the builder path report the invalid charset
+            return false;
+        }
+    }
+
+    /**
+     * Encodes the features straight to the output in UTF-8 with a {@link GeoJSONWriter}
+     */
+    private void writeStreaming(List<FeatureCollection> resultsList, BigInteger featureCount,
+            boolean featureBounding, String idOption, int numDecimals, OutputStream output)
+            throws IOException {
+        final GeoJSONWriter jsonWriter = new GeoJSONWriter(output, numDecimals);
+        if (jsonp) {
+            jsonWriter.writeRaw(getCallbackFunction() + "(");
+        }
+
+        jsonWriter.object().key("type").value("FeatureCollection");
+        if (featureCount != null) {
+            jsonWriter.key("totalFeatures").value(featureCount);
+        } else {
+            jsonWriter.key("totalFeatures").value("unknown");
+        }
+        jsonWriter.key("features");
+        jsonWriter.array();
+
+        boolean hasGeom = false;
+        CoordinateReferenceSystem crs = null;
+        Map<SimpleFeatureType, FeatureTypeEncoder> encoders =
+                new IdentityHashMap<SimpleFeatureType, FeatureTypeEncoder>();
+        for (FeatureCollection collection : resultsList) {
+            FeatureIterator iterator = collection.features();
+            try {
+                while (iterator.hasNext()) {
+                    SimpleFeature feature = (SimpleFeature) iterator.next();
+                    SimpleFeatureType fType = feature.getFeatureType();
+                    FeatureTypeEncoder encoder = encoders.get(fType);
+                    if (encoder == null) {
+                        encoder = new FeatureTypeEncoder(fType, idOption);
+                        encoders.put(fType, encoder);
+                    }
+                    if (crs == null) {
+                        crs = encoder.crs;
+                    }
+                    hasGeom |= encoder.write(jsonWriter, feature, featureBounding);
+                }
+            } finally {
+                iterator.close();
+            }
+        }
+        jsonWriter.endArray(); // end features
+
+        // Coordinate Referense System
         try {
-            osw = new OutputStreamWriter(output, gs.getGlobal().getSettings().getCharset());
+            if ("true".equals(GeoServerExtensions.getProperty("GEOSERVER_GEOJSON_LEGACY_CRS"))) {
+                NamedIdentifier legacyIdentifier = getLegacyCrsIdentifier(crs);
+                if (legacyIdentifier != null) {
+                    jsonWriter.key("crs");
+                    jsonWriter.object();
+                    jsonWriter.key("type").value("EPSG");
+                    jsonWriter.key("properties");
+                    jsonWriter.object();
+                    jsonWriter.key("code").value(legacyIdentifier.getCode());
+                    jsonWriter.endObject(); // end properties
+                    jsonWriter.endObject(); // end crs
+                }
+            } else if (crs != null) {
+                jsonWriter.key("crs");
+                jsonWriter.object();
+                jsonWriter.key("type").value("name");
+                jsonWriter.key("properties");
+                jsonWriter.object();
+                jsonWriter.key("name").value(getCrsIdentifier(crs));
+                jsonWriter.endObject(); // end properties
+                jsonWriter.endObject(); // end crs
+            } else {
+                jsonWriter.key("crs").nullValue();
+            }
+        } catch (FactoryException e) {
+            throw (IOException) new IOException("Error looking up crs identifier").initCause(e);
+        }
+
+        // Bounding box for featurecollection
+        if (hasGeom && featureBounding) {
+            ReferencedEnvelope e = getBounds(resultsList);
+            if (e != null) {
+                jsonWriter.setAxisOrder(CRS.getAxisOrder(e.getCoordinateReferenceSystem()));
+                jsonWriter.writeBoundingBox(e);
+            }
+        }
+
+        jsonWriter.endObject(); // end featurecollection
+
+        if (jsonp) {
+            jsonWriter.writeRaw(")");
+        }
+        jsonWriter.flush();
+    }
+
+    private ReferencedEnvelope getBounds(List<FeatureCollection> resultsList) {
+        ReferencedEnvelope e = null;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = resultsList.get(i);
+            if (e == null) {
+                e = collection.getBounds();
+            } else {
+                e.expandToInclude(collection.getBounds());
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Encodes the features with a {@link GeoJSONBuilder}, for charsets other than UTF-8
+     */
+    private void writeWithBuilder(List<FeatureCollection> resultsList, BigInteger featureCount,
+            boolean featureBounding, String id_option, int numDecimals, String charset,
+            OutputStream output) throws IOException {
+        // prepare to write out
+        OutputStreamWriter osw = null;
+        Writer outWriter = null;
+        boolean hasGeom = false;
+
+        try {
+            osw = new OutputStreamWriter(output, charset);
             outWriter = new BufferedWriter(osw);
 
             if (jsonp) {
@@ -125,6 +263,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             }
 
             final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
+            jsonWriter.setNumberOfDecimals(numDecimals);
             jsonWriter.object().key("type").value("FeatureCollection");
             if(featureCount != null) {
                 jsonWriter.key("totalFeatures").value(featureCount);
@@ -138,7 +277,6 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             // including the lockID
             //
             // execute should also fail if all of the locks could not be aquired
-            List<FeatureCollection> resultsList = featureCollection.getFeature();
             CoordinateReferenceSystem crs = null;
             for (int i = 0; i < resultsList.size(); i++) {
                 FeatureCollection collection = resultsList.get(i);
@@ -267,17 +405,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             
             // Bounding box for featurecollection
             if (hasGeom && featureBounding) {
-                ReferencedEnvelope e = null;
-                for (int i = 0; i < resultsList.size(); i++) {
-                    FeatureCollection collection = resultsList.get(i);
-                    if (e == null) {
-                        e = collection.getBounds();
-                    } else {
-                        e.expandToInclude(collection.getBounds());
-                    }
-
-                }
-
+                ReferencedEnvelope e = getBounds(resultsList);
                 if (e != null) {
                     jsonWriter.setAxisOrder(CRS.getAxisOrder(e.getCoordinateReferenceSystem()));
                     jsonWriter.writeBoundingBox(e);
@@ -303,15 +431,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
     private void writeCrs(final GeoJSONBuilder jsonWriter,
             CoordinateReferenceSystem crs) throws FactoryException {
         if (crs != null) {
-            String identifier = null;
-            Integer code = CRS.lookupEpsgCode(crs, true);
-            if(code != null) {
-                if (code != null) {
-                    identifier = SrsSyntax.OGC_URN.getPrefix() + code;
-                }
-            } else {
-                identifier = CRS.lookupIdentifier(crs, true);
-            }
+            String identifier = getCrsIdentifier(crs);
             
             jsonWriter.key("crs");
             jsonWriter.object();
@@ -328,31 +448,49 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
     
+    private String getCrsIdentifier(CoordinateReferenceSystem crs) throws FactoryException {
+        Integer code = CRS.lookupEpsgCode(crs, true);
+        if (code != null) {
+            return SrsSyntax.OGC_URN.getPrefix() + code;
+        } else {
+            return CRS.lookupIdentifier(crs, true);
+        }
+    }
+
     // Doesn't follow spec, but GeoServer used to do this.
     private void writeCrsLegacy(final GeoJSONBuilder jsonWriter,
             CoordinateReferenceSystem crs) {
         // Coordinate Referense System, currently only if the namespace is
         // EPSG
+        NamedIdentifier namedIdent = getLegacyCrsIdentifier(crs);
+        if (namedIdent != null) {
+            jsonWriter.key("crs");
+            jsonWriter.object();
+            jsonWriter.key("type").value("EPSG");
+            jsonWriter.key("properties");
+            jsonWriter.object();
+            jsonWriter.key("code");
+            jsonWriter.value(namedIdent.getCode());
+            jsonWriter.endObject(); // end properties
+            jsonWriter.endObject(); // end crs
+        }
+    }
+
+    /**
+     * Returns the first identifier of the CRS if it is an EPSG one, null otherwise
+     */
+    private NamedIdentifier getLegacyCrsIdentifier(CoordinateReferenceSystem crs) {
         if (crs != null) {
             Set<ReferenceIdentifier> ids = crs.getIdentifiers();
             // WKT defined crs might not have identifiers at all
             if (ids != null && ids.size() > 0) {
                 NamedIdentifier namedIdent = (NamedIdentifier) ids.iterator().next();
-                String csStr = namedIdent.getCodeSpace().toUpperCase();
-
-                if (csStr.equals("EPSG")) {
-                    jsonWriter.key("crs");
-                    jsonWriter.object();
-                    jsonWriter.key("type").value(csStr);
-                    jsonWriter.key("properties");
-                    jsonWriter.object();
-                    jsonWriter.key("code");
-                    jsonWriter.value(namedIdent.getCode());
-                    jsonWriter.endObject(); // end properties
-                    jsonWriter.endObject(); // end crs
+                if (namedIdent.getCodeSpace().toUpperCase().equals("EPSG")) {
+                    return namedIdent;
                 }
             }
         }
+        return null;
     }
 
     private String getCallbackFunction() {
@@ -368,4 +506,156 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
     public String getCharset(Operation operation){
         return gs.getGlobal().getSettings().getCharset();
     }
+
+    /**
+     * Writes the features of a feature type, with the keys, axis order and property encoding
+     * worked out once for the type
+     */
+    static class FeatureTypeEncoder {
+
+        static final byte[] TYPE = GeoJSONWriter.encodeKey("type");
+
+        static final byte[] ID = GeoJSONWriter.encodeKey("id");
+
+        static final byte[] GEOMETRY = GeoJSONWriter.encodeKey("geometry");
+
+        static final byte[] GEOMETRY_NAME = GeoJSONWriter.encodeKey("geometry_name");
+
+        static final byte[] PROPERTIES = GeoJSONWriter.encodeKey("properties");
+
+        /** Property kinds, for the bindings written without looking up the value class */
+        static final int OTHER = 0, STRING = 1, INTEGRAL = 2, DOUBLE = 3, BOOLEAN = 4;
+
+        final String idOption;
+
+        final CoordinateReferenceSystem crs;
+
+        final CRS.AxisOrder axisOrder;
+
+        final String geometryName;
+
+        final byte[][] keys;
+
+        final int[] kinds;
+
+        /** The attribute used as the feature id, skipped in the properties */
+        final boolean[] idAttributes;
+
+        /** The default geometry, written out of the properties */
+        final boolean[] defaultGeometries;
+
+        FeatureTypeEncoder(SimpleFeatureType fType, String idOption) {
+            this.idOption = idOption;
+            GeometryDescriptor defaultGeomType = fType.getGeometryDescriptor();
+            if (defaultGeomType != null) {
+                crs = defaultGeomType.getCoordinateReferenceSystem();
+                axisOrder = CRS.getAxisOrder(crs);
+                geometryName = defaultGeomType.getLocalName();
+            } else {
+                crs = null;
+                // If we don't know, assume EAST_NORTH so that no swapping occurs
+                axisOrder = CRS.AxisOrder.EAST_NORTH;
+                geometryName = null;
+            }
+
+            List<AttributeDescriptor> types = fType.getAttributeDescriptors();
+            int count = types.size();
+            keys = new byte[count][];
+            kinds = new int[count];
+            idAttributes = new boolean[count];
+            defaultGeometries = new boolean[count];
+            for (int j = 0; j < count; j++) {
+                AttributeDescriptor ad = types.get(j);
+                keys[j] = GeoJSONWriter.encodeKey(ad.getLocalName());
+                idAttributes[j] = idOption != null && idOption.equals(ad.getLocalName());
+                defaultGeometries[j] = ad.equals(defaultGeomType);
+                Class<?> binding = ad.getType().getBinding();
+                if (String.class.equals(binding)) {
+                    kinds[j] = STRING;
+                } else if (Integer.class.equals(binding) || Long.class.equals(binding)
+                        || Short.class.equals(binding) || Byte.class.equals(binding)) {
+                    kinds[j] = INTEGRAL;
+                } else if (Double.class.equals(binding)) {
+                    kinds[j] = DOUBLE;
+                } else if (Boolean.class.equals(binding)) {
+                    kinds[j] = BOOLEAN;
+                } else {
+                    kinds[j] = OTHER;
+                }
+            }
+        }
+
+        /**
+         * Writes a feature, returns true if a geometry was written
+         */
+        boolean write(GeoJSONWriter jsonWriter, SimpleFeature feature, boolean featureBounding)
+                throws IOException {
+            jsonWriter.object();
+            jsonWriter.key(TYPE).value("Feature");
+            if (idOption == null) {
+                jsonWriter.key(ID).value(feature.getID());
+            } else if (idOption.length() != 0) {
+                jsonWriter.key(ID).value(feature.getAttribute(idOption));
+            }
+
+            jsonWriter.setAxisOrder(axisOrder);
+            jsonWriter.key(GEOMETRY);
+            Geometry aGeom = (Geometry) feature.getDefaultGeometry();
+            if (aGeom == null) {
+                // In case the default geometry is not set, we will
+                // just use the first geometry we find
+                for (int j = 0; j < keys.length && aGeom == null; j++) {
+                    Object value = feature.getAttribute(j);
+                    if (value instanceof Geometry) {
+                        aGeom = (Geometry) value;
+                    }
+                }
+            }
+            // Write the geometry, whether it is a null or not
+            if (aGeom != null) {
+                jsonWriter.writeGeom(aGeom);
+            } else {
+                jsonWriter.nullValue();
+            }
+            if (geometryName != null) {
+                jsonWriter.key(GEOMETRY_NAME).value(geometryName);
+            }
+
+            jsonWriter.key(PROPERTIES);
+            jsonWriter.object();
+            for (int j = 0; j < keys.length; j++) {
+                if (idAttributes[j]) {
+                    continue; // skip this value as it is used as the id
+                }
+                Object value = feature.getAttribute(j);
+                if (value instanceof Geometry && defaultGeometries[j]) {
+                    continue; // written above
+                }
+                jsonWriter.key(keys[j]);
+                if (value == null) {
+                    jsonWriter.nullValue();
+                } else if (kinds[j] == STRING && value instanceof String) {
+                    jsonWriter.value((String) value);
+                } else if (kinds[j] == INTEGRAL && value instanceof Number) {
+                    jsonWriter.value(((Number) value).longValue());
+                } else if (kinds[j] == DOUBLE && value instanceof Double) {
+                    jsonWriter.value(((Double) value).doubleValue());
+                } else if (kinds[j] == BOOLEAN && value instanceof Boolean) {
+                    jsonWriter.value(((Boolean) value).booleanValue());
+                } else {
+                    jsonWriter.value(value);
+                }
+            }
+            // Bounding box for feature in properties
+            if (featureBounding) {
+                ReferencedEnvelope refenv = ReferencedEnvelope.reference(feature.getBounds());
+                if (!refenv.isEmpty()) {
+                    jsonWriter.writeBoundingBox(refenv);
+                }
+            }
+            jsonWriter.endObject(); // end the properties
+            jsonWriter.endObject(); // end the feature
+            return aGeom != null;
+        }
+    }
 }
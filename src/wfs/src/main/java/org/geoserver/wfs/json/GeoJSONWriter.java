@@ -0,0 +1,602 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Date;
+
+import net.sf.json.util.JSONUtils;
+
+import org.geotools.geometry.jts.coordinatesequence.CoordinateSequences;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+
+/**
+ * A streaming GeoJSON encoder writing UTF-8 bytes straight to an output stream, a faster
+ * alternative to {@link GeoJSONBuilder} for large outputs.
+ * <p>
+ * Unlike the builder it does not validate the structure being written, and does not go through
+ * {@link String} conversions for numbers: coordinates are rounded to the configured number of
+ * decimals and formatted straight into the output buffer. Keys used for every feature can be
+ * encoded once with {@link #encodeKey(String)}. Values are otherwise encoded like the builder
+ * does, save for NaN and infinite numbers which are written as <code>null</code>.
+ * </p>
+ * <p>
+ * The output is buffered, call {@link #flush()} once done.
+ * </p>
+ */
+public class GeoJSONWriter {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Past it the double to long rounding used to format coordinates is no longer exact */
+    static final double MAX_SCALED = 9e15;
+
+    static final int MAX_DECIMALS = 15;
+
+    static final long[] POWERS_OF_TEN = new long[MAX_DECIMALS + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    static final byte[] NULL = "null".getBytes(UTF8);
+
+    static final byte[] TRUE = "true".getBytes(UTF8);
+
+    static final byte[] FALSE = "false".getBytes(UTF8);
+
+    static final byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+
+    static final byte[] TYPE = encodeKey("type");
+
+    static final byte[] COORDINATES = encodeKey("coordinates");
+
+    static final byte[] GEOMETRIES = encodeKey("geometries");
+
+    static final byte[] BBOX = encodeKey("bbox");
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[8192];
+
+    private int count;
+
+    /** Scratch space for the digits of a long */
+    private final byte[] digits = new byte[20];
+
+    private final int numDecimals;
+
+    private final double scale;
+
+    /** Whether the next value is the first of its object or array, by nesting level */
+    private boolean[] first = new boolean[16];
+
+    private int depth;
+
+    private boolean afterKey;
+
+    private CRS.AxisOrder axisOrder = CRS.AxisOrder.EAST_NORTH;
+
+    /**
+     * @param out the stream to write to
+     * @param numDecimals the number of decimals coordinates are rounded to, or a negative number
+     *        to write them at full precision
+     */
+    public GeoJSONWriter(OutputStream out, int numDecimals) {
+        this.out = out;
+        this.numDecimals = Math.min(numDecimals, MAX_DECIMALS);
+        this.scale = numDecimals < 0 ? 0 : POWERS_OF_TEN[this.numDecimals];
+    }
+
+    /**
+     * Encodes a key, including its quotes and the colon following it, to be written with
+     * {@link #key(byte[])}
+     */
+    public static byte[] encodeKey(String key) {
+        return (JSONUtils.quote(key) + ":").getBytes(UTF8);
+    }
+
+    /**
+     * Set the axis order to assume all input will be provided in. Has no effect on geometries
+     * that have already been written.
+     */
+    public void setAxisOrder(CRS.AxisOrder axisOrder) {
+        this.axisOrder = axisOrder;
+    }
+
+    public GeoJSONWriter object() throws IOException {
+        separator();
+        push();
+        write('{');
+        return this;
+    }
+
+    public GeoJSONWriter endObject() throws IOException {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    public GeoJSONWriter array() throws IOException {
+        separator();
+        push();
+        write('[');
+        return this;
+    }
+
+    public GeoJSONWriter endArray() throws IOException {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    public GeoJSONWriter key(String key) throws IOException {
+        separator();
+        writeString(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a key encoded with {@link #encodeKey(String)}
+     */
+    public GeoJSONWriter key(byte[] encodedKey) throws IOException {
+        separator();
+        write(encodedKey);
+        afterKey = true;
+        return this;
+    }
+
+    public GeoJSONWriter nullValue() throws IOException {
+        separator();
+        write(NULL);
+        return this;
+    }
+
+    public GeoJSONWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separator();
+        writeString(value);
+        return this;
+    }
+
+    public GeoJSONWriter value(boolean value) throws IOException {
+        separator();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public GeoJSONWriter value(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a number at full precision
+     */
+    public GeoJSONWriter value(double value) throws IOException {
+        separator();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+        } else if (value == (long) value && Math.abs(value) < MAX_SCALED) {
+            writeLong((long) value);
+        } else {
+            writeAscii(JSONUtils.numberToString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Writes any value, dates and calendars as ISO 8601 strings, geometries as GeoJSON
+     * geometries, and anything else like {@link GeoJSONBuilder#value(Object)} does
+     */
+    public GeoJSONWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            return value(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            float f = ((Float) value).floatValue();
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                return nullValue();
+            }
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Date || value instanceof Calendar) {
+            return value(Converters.convert(value, String.class));
+        } else if (value instanceof Geometry) {
+            return writeGeom((Geometry) value);
+        } else if (value instanceof BigInteger) {
+            separator();
+            writeAscii(value.toString());
+            return this;
+        }
+        separator();
+        writeString(JSONUtils.valueToString(value), false);
+        return this;
+    }
+
+    /**
+     * Writes strings straight to the output, e.g. a JSONP callback, without any separator
+     */
+    public GeoJSONWriter writeRaw(String text) throws IOException {
+        writeString(text, false);
+        return this;
+    }
+
+    /**
+     * Writes any geometry object
+     */
+    public GeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key(TYPE);
+        value(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType == GeoJSONBuilder.MULTIGEOMETRY) {
+            key(GEOMETRIES);
+            array();
+            GeometryCollection collection = (GeometryCollection) geometry;
+            for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
+                writeGeom(collection.getGeometryN(i));
+            }
+            endArray();
+            return endObject();
+        }
+
+        key(COORDINATES);
+        switch (geometryType) {
+        case GeoJSONBuilder.POINT:
+            Coordinate c = ((Point) geometry).getCoordinate();
+            writeCoordinate(c.x, c.y, c.z);
+            break;
+        case GeoJSONBuilder.LINESTRING:
+            writeCoordinates(((LineString) geometry).getCoordinateSequence());
+            break;
+        case GeoJSONBuilder.MULTIPOINT:
+            writeCoordinates(new CoordinateArraySequence(geometry.getCoordinates()));
+            break;
+        case GeoJSONBuilder.POLYGON:
+            writePolygon((Polygon) geometry);
+            break;
+        case GeoJSONBuilder.MULTILINESTRING:
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeCoordinates(((LineString) geometry.getGeometryN(i)).getCoordinateSequence());
+            }
+            endArray();
+            break;
+        case GeoJSONBuilder.MULTIPOLYGON:
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writePolygon((Polygon) geometry.getGeometryN(i));
+            }
+            endArray();
+            break;
+        }
+        return endObject();
+    }
+
+    private void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    private void writeCoordinates(CoordinateSequence coords) throws IOException {
+        array();
+        int dim = CoordinateSequences.coordinateDimension(coords);
+        for (int i = 0, n = coords.size(); i < n; i++) {
+            writeCoordinate(coords.getX(i), coords.getY(i),
+                    dim > 2 ? coords.getOrdinate(i, 2) : Double.NaN);
+        }
+        endArray();
+    }
+
+    private void writeCoordinate(double x, double y, double z) throws IOException {
+        separator();
+        write('[');
+        if (axisOrder == CRS.AxisOrder.NORTH_EAST) {
+            writeOrdinate(y);
+            write(',');
+            writeOrdinate(x);
+        } else {
+            writeOrdinate(x);
+            write(',');
+            writeOrdinate(y);
+        }
+        if (!Double.isNaN(z)) {
+            write(',');
+            writeOrdinate(z);
+        }
+        write(']');
+    }
+
+    /**
+     * Turns an envelope into an array [minX,minY,maxX,maxY]
+     */
+    public GeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key(BBOX);
+        separator();
+        write('[');
+        if (axisOrder == CRS.AxisOrder.NORTH_EAST) {
+            writeOrdinate(env.getMinY());
+            write(',');
+            writeOrdinate(env.getMinX());
+            write(',');
+            writeOrdinate(env.getMaxY());
+            write(',');
+            writeOrdinate(env.getMaxX());
+        } else {
+            writeOrdinate(env.getMinX());
+            write(',');
+            writeOrdinate(env.getMinY());
+            write(',');
+            writeOrdinate(env.getMaxX());
+            write(',');
+            writeOrdinate(env.getMaxY());
+        }
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes an ordinate rounded to the configured number of decimals, without trailing zeros
+     */
+    void writeOrdinate(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+            return;
+        }
+        if (numDecimals >= 0) {
+            double scaled = value * scale;
+            if (scaled > -MAX_SCALED && scaled < MAX_SCALED) {
+                long units = Math.round(scaled);
+                if (units < 0) {
+                    write('-');
+                    units = -units;
+                }
+                long unit = POWERS_OF_TEN[numDecimals];
+                writeLong(units / unit);
+                long fraction = units % unit;
+                if (fraction != 0) {
+                    int decimals = numDecimals;
+                    while (fraction % 10 == 0) {
+                        fraction /= 10;
+                        decimals--;
+                    }
+                    write('.');
+                    for (int i = decimals - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i--) {
+                        write('0');
+                    }
+                    writeLong(fraction);
+                }
+                return;
+            }
+        }
+        if (value == (long) value && Math.abs(value) < MAX_SCALED) {
+            writeLong((long) value);
+        } else {
+            writeAscii(JSONUtils.numberToString(value));
+        }
+    }
+
+    private void separator() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else if (depth > 0) {
+            if (first[depth]) {
+                first[depth] = false;
+            } else {
+                write(',');
+            }
+        }
+    }
+
+    private void push() {
+        depth++;
+        if (depth == first.length) {
+            boolean[] grown = new boolean[first.length * 2];
+            System.arraycopy(first, 0, grown, 0, first.length);
+            first = grown;
+        }
+        first[depth] = true;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensure(digits.length - pos);
+        System.arraycopy(digits, pos, buffer, count, digits.length - pos);
+        count += digits.length - pos;
+    }
+
+    private void writeAscii(String s) throws IOException {
+        int length = s.length();
+        if (length > buffer.length) {
+            writeString(s, false);
+            return;
+        }
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        write('"');
+        writeString(s, true);
+        write('"');
+    }
+
+    /**
+     * Writes a string as UTF-8, escaping it as a JSON string content like
+     * {@link JSONUtils#quote(String)} does if requested
+     */
+    private void writeString(String s, boolean escape) throws IOException {
+        char previous = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            // enough for the longest escape sequence
+            ensure(6);
+            if (escape) {
+                switch (c) {
+                case '"':
+                case '\\':
+                    buffer[count++] = '\\';
+                    buffer[count++] = (byte) c;
+                    previous = c;
+                    continue;
+                case '/':
+                    if (previous == '<') {
+                        buffer[count++] = '\\';
+                    }
+                    buffer[count++] = '/';
+                    previous = c;
+                    continue;
+                case '\b':
+                    writeEscape('b');
+                    previous = c;
+                    continue;
+                case '\t':
+                    writeEscape('t');
+                    previous = c;
+                    continue;
+                case '\n':
+                    writeEscape('n');
+                    previous = c;
+                    continue;
+                case '\f':
+                    writeEscape('f');
+                    previous = c;
+                    continue;
+                case '\r':
+                    writeEscape('r');
+                    previous = c;
+                    continue;
+                }
+                if (c < ' ' || (c >= '\u0080' && c < '\u00a0')
+                        || (c >= '\u2000' && c < '\u2100')) {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 'u';
+                    buffer[count++] = HEX[(c >> 12) & 0xF];
+                    buffer[count++] = HEX[(c >> 8) & 0xF];
+                    buffer[count++] = HEX[(c >> 4) & 0xF];
+                    buffer[count++] = HEX[c & 0xF];
+                    previous = c;
+                    continue;
+                }
+            }
+            previous = c;
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | (cp >> 18));
+                buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like the JDK encoder does
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeEscape(char c) {
+        buffer[count++] = '\\';
+        buffer[count++] = (byte) c;
+    }
+
+    private void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flushBuffer();
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (count + length > buffer.length) {
+            flushBuffer();
+            if (length > buffer.length) {
+                throw new IllegalArgumentException("Cannot buffer " + length + " bytes");
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes out the buffered output and flushes the stream
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+}
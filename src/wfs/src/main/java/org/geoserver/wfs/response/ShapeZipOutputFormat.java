@@ -9,13 +9,11 @@ import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
@@ -28,12 +26,14 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.SimpleTimeZone;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -68,6 +68,7 @@ import org.geotools.wfs.v1_1.WFSConfiguration;
 import org.geotools.xml.Encoder;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -98,6 +99,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private GeoServerResourceLoader resourceLoader;
     private long maxShpSize = Long.getLong("GS_SHP_MAX_SIZE", Integer.MAX_VALUE);
     private long maxDbfSize = Long.getLong("GS_DBF_MAX_SIZE", Integer.MAX_VALUE);
+    private boolean streaming = Boolean.getBoolean("GS_SHP_STREAMING");
     
     /**
      * @deprecated use {@link #ShapeZipOutputFormat(GeoServer)}
@@ -188,7 +190,72 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         final GetFeatureRequest request) throws IOException, ServiceException {
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
-        final File tempDir = IOUtils.createTempDirectory("shpziptemp");
+        ZipOutputStream zipOut = new ZipOutputStream(output);
+        ShapeZipStreamer streamer = null;
+        if (streaming) {
+            streamer = new ShapeZipStreamer(charset, maxShpSize, maxDbfSize);
+        }
+        // the collections that cannot be streamed are dumped in a temp directory first
+        File tempDir = null;
+        ShapefileDumper dumper = null;
+        
+        try {
+            // if an empty result out of feature type with unknown geometry is created, the
+            // zip file will be empty and the zip output stream will break
+            boolean shapefileCreated = false;
+            for (SimpleFeatureCollection collection : collections) {
+                if (streamer != null && streamer.canStream(collection.getSchema())
+                        && streamShapefile(streamer, collection, request, zipOut)) {
+                    shapefileCreated = true;
+                    continue;
+                }
+                if (dumper == null) {
+                    tempDir = IOUtils.createTempDirectory("shpziptemp");
+                    dumper = createDumper(tempDir, charset, request);
+                }
+                shapefileCreated |= dumper.dump(collection);
+            }
+            
+            // zip all the files dumped
+            if (tempDir != null) {
+                final FilenameFilter filter = new FilenameFilter() {
+                
+                    public boolean accept(File dir, String name) {
+                        name = name.toLowerCase();
+                        return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
+                               || name.endsWith(".prj") || name.endsWith(".cst");
+                    }
+                };
+                IOUtils.zipDirectory(tempDir, zipOut, filter);
+            }
+            
+            // take care of the case the output is completely empty
+            if(!shapefileCreated) {
+                createEmptyZipWarning(zipOut);
+            }
+            
+            // dump the request
+            createRequestDump(zipOut, request, collections.get(0));
+            
+            zipOut.finish();
+
+            // This is an error, because this closes the output stream too... it's
+            // not the right place to do so
+            // zipOut.close();
+        } finally {
+            // make sure we remove the temp directory and its contents completely now
+            if (tempDir != null) {
+                try {
+                    FileUtils.deleteDirectory(tempDir);
+                } catch(IOException e) {
+                    LOGGER.warning("Could not delete temp directory: " + tempDir.getAbsolutePath() + " due to: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private ShapefileDumper createDumper(final File tempDir, Charset charset,
+            final GetFeatureRequest request) {
         ShapefileDumper dumper = new ShapefileDumper(tempDir) {
 
             @Override
@@ -213,69 +280,55 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         dumper.setMaxDbfSize(maxDbfSize);
         dumper.setMaxShpSize(maxShpSize);
         dumper.setCharset(charset);
-        
-        
-        // target charset
-        
-        try {
-            // if an empty result out of feature type with unknown geometry is created, the
-            // zip file will be empty and the zip output stream will break
-            boolean shapefileCreated = false;
-            for (SimpleFeatureCollection collection : collections) {
-                shapefileCreated |= dumper.dump(collection);
-            }
-            
-            // take care of the case the output is completely empty
-            if(!shapefileCreated) {
-                createEmptyZipWarning(tempDir);
-            }
-            
-            // dump the request
-            createRequestDump(tempDir, request, collections.get(0));
-            
-            // zip all the files produced
-            final FilenameFilter filter = new FilenameFilter() {
-            
-                public boolean accept(File dir, String name) {
-                    name = name.toLowerCase();
-                    return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
-                           || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
-                }
-            };
-            ZipOutputStream zipOut = new ZipOutputStream(output);
-            IOUtils.zipDirectory(tempDir, zipOut, filter);
-            zipOut.finish();
+        return dumper;
+    }
 
-            // This is an error, because this closes the output stream too... it's
-            // not the right place to do so
-            // zipOut.close();
-        } finally {
-            // make sure we remove the temp directory and its contents completely now
+    /**
+     * Streams the collection straight into the zip file, returns false if it has to be dumped
+     * instead
+     */
+    private boolean streamShapefile(ShapeZipStreamer streamer, SimpleFeatureCollection collection,
+            GetFeatureRequest request, ZipOutputStream zipOut) throws IOException {
+        SimpleFeatureType schema = collection.getSchema();
+        FeatureTypeInfo ftInfo = getFeatureTypeInfo(schema);
+        String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, "");
+        
+        String prj = null;
+        CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+        if (crs != null) {
             try {
-                FileUtils.deleteDirectory(tempDir);
-            } catch(IOException e) {
-                LOGGER.warning("Could not delete temp directory: " + tempDir.getAbsolutePath() + " due to: " + e.getMessage());
+                if (isESRIFormat(request)) {
+                    prj = getESRIWKT(crs);
+                }
+            } catch (FactoryException e) {
+                throw new IOException("Failed to write out the ESRI style prj file", e);
+            }
+            if (prj == null) {
+                // same as the shapefile datastore, ESRI software does not like line breaks in there
+                prj = crs.toWKT().replaceAll("\n", "").replaceAll("  ", "");
             }
         }
+        
+        return streamer.write(collection, fileName, prj, zipOut);
     }
 
     /**
      * Dumps the request
      * @param simpleFeatureCollection
      */
-    private void createRequestDump(File tempDir, GetFeatureRequest gft, SimpleFeatureCollection fc) {
+    private void createRequestDump(ZipOutputStream zipOut, GetFeatureRequest gft, SimpleFeatureCollection fc) {
         final Request request = Dispatcher.REQUEST.get();
         if(request == null || gft == null) {
             // we're probably running in a unit test
             return;
         }
         
-        // build the target file
+        // build the target entry
         FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc.getSchema());
         String fileName = new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
-        File target = new File(tempDir, fileName);
         
         try {
+            zipOut.putNextEntry(new ZipEntry(fileName));
             if(request.isGet()) {
                 final HttpServletRequest httpRequest = request.getHttpRequest();
                 String baseUrl = ResponseUtils.baseURL(httpRequest);
@@ -285,7 +338,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 StringBuilder url = new StringBuilder();
                 String parameters = httpRequest.getQueryString();
                 url.append(mangledUrl).append("?").append(parameters);
-                FileUtils.writeStringToFile(target, url.toString());
+                zipOut.write(url.toString().getBytes());
             } else {
                 org.geotools.xml.Configuration cfg = null;
                 QName elementName = null;
@@ -296,33 +349,24 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                     cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
                     elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
                 }
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(target);
-                    Encoder encoder = new Encoder(cfg);
-                    encoder.setIndenting(true);
-                    encoder.setIndentSize(2);
-                    encoder.encode(gft, elementName, fos);
-                } finally {
-                    if(fos != null)
-                        fos.close();
-                }
+                Encoder encoder = new Encoder(cfg);
+                encoder.setIndenting(true);
+                encoder.setIndentSize(2);
+                // do not let the encoder close the zip stream
+                encoder.encode(gft, elementName, new CloseShieldOutputStream(zipOut));
             }
+            zipOut.closeEntry();
         } catch(IOException e) {
             throw new WFSException(gft, "Failed to dump the WFS request");
         }
         
     }
 
-    private void createEmptyZipWarning(File tempDir) throws IOException {
-        PrintWriter pw = null;
-        try {
-            pw = new PrintWriter(new File(tempDir, "README.TXT"));
-            pw.print("The query result is empty, and the geometric type of the features is unknwon:"
-                    + "an empty point shapefile has been created to fill the zip file");
-        } finally {
-            pw.close();
-        }
+    private void createEmptyZipWarning(ZipOutputStream zipOut) throws IOException {
+        zipOut.putNextEntry(new ZipEntry("README.TXT"));
+        zipOut.write(("The query result is empty, and the geometric type of the features is unknwon:"
+                + "an empty point shapefile has been created to fill the zip file").getBytes());
+        zipOut.closeEntry();
     }   
 
     
@@ -361,12 +405,18 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private void changeWKTFormatIfFileFormatIsESRI(File tempDir, GetFeatureRequest request,
             String fileName, SimpleFeatureType remappedSchema) throws FactoryException,
             IOException, FileNotFoundException {
-        
-        boolean useEsriFormat = false;
-        
+        if (isESRIFormat(request)) {
+            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+        }
+    }
+
+    /**
+     * Returns true if the request, or the service configuration, asks for ESRI WKT in the .prj files
+     */
+    private boolean isESRIFormat(GetFeatureRequest request) {
         // if the request originates from the WPS we won't actually have any GetFeatureType request
         if(request == null) {
-            return;
+            return false;
         }
         
         Map<String, ?> formatOptions = request.getFormatOptions();
@@ -375,24 +425,39 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             WFSInfo bean = gs.getService(WFSInfo.class);
             MetadataMap metadata = bean.getMetadata();
             Boolean defaultIsEsri = metadata.get(SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI, Boolean.class);
-            useEsriFormat = defaultIsEsri != null && defaultIsEsri.booleanValue();
+            return defaultIsEsri != null && defaultIsEsri.booleanValue();
         }else{
-            useEsriFormat = "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
-        }
-        
-        if (useEsriFormat) {
-            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+            return "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
         }
     }
 
     private void replaceOGCPrjFileByESRIPrjFile(File tempDir, String fileName,
             SimpleFeatureType remappedSchema) throws FactoryException, IOException,
             FileNotFoundException {
-        final Integer epsgCode = CRS.lookupEpsgCode(remappedSchema.getGeometryDescriptor()
-                .getCoordinateReferenceSystem(), true);
+        String data = getESRIWKT(remappedSchema.getGeometryDescriptor()
+                .getCoordinateReferenceSystem());
+        if (data != null) {
+            File prjShapeFile = new File(tempDir, fileName + ".prj");
+            prjShapeFile.delete();
+
+            BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Looks up the ESRI WKT of the CRS in user_projections/esri.properties, returns null if not
+     * found
+     */
+    private String getESRIWKT(CoordinateReferenceSystem crs) throws FactoryException, IOException {
+        final Integer epsgCode = CRS.lookupEpsgCode(crs, true);
         if(epsgCode == null){
             LOGGER.info("Can't find the EPSG code for the shapefile CRS");
-            return;
+            return null;
         }
         Resource file = resourceLoader.get("user_projections/esri.properties");
 
@@ -409,22 +474,14 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
 
             String data = (String) properties.get(epsgCode.toString());
 
-            if (data != null) {
-                File prjShapeFile = new File(tempDir, fileName + ".prj");
-                prjShapeFile.delete();
-
-                BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
-                try {
-                    out.write(data);
-                } finally {
-                    out.close();
-                }
-            } else {
+            if (data == null) {
                 LOGGER.info("Requested shapefile with ESRI WKT .prj format but couldn't find an entry for ESPG code "
                         + epsgCode + " in esri.properties");
             }
+            return data;
         } else {
             LOGGER.info("Requested shapefile with ESRI WKT .prj format but the esri.properties file does not exist in the user_projections directory");
+            return null;
         }
     }
 
@@ -474,6 +531,20 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     public void setMaxDbfSize(long maxDbfSize) {
         this.maxDbfSize = maxDbfSize;
     }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Enables writing the shapefiles straight into the zip file, reading each collection twice
+     * instead of dumping it in a temp directory first (disabled by default). Collections with
+     * mixed geometry types or attributes not fitting a dbf field are still dumped. A streamed
+     * shapefile is not split when larger than the max shp size, the request fails instead
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
     
     
     static class FileNameSource {
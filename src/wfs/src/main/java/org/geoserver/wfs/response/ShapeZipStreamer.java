@@ -0,0 +1,404 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.data.shapefile.shp.JTSUtilities;
+import org.geotools.data.shapefile.shp.ShapeHandler;
+import org.geotools.data.shapefile.shp.ShapeType;
+import org.geotools.data.shapefile.shp.ShapefileHeader;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureTypes;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes a feature collection as a shapefile straight into the entries of a zip stream, without
+ * going through temporary files.
+ * <p>
+ * The collection is read twice: the first read writes the .dbf entry, using the collection size
+ * for the header, while computing the bounds and the record offsets of the .shp file. The offsets
+ * are kept in a spill buffer that moves to disk past {@link #SHX_MEMORY_THRESHOLD} bytes and become
+ * the .shx entry. The second read writes the .shp entry, whose header is known by then.
+ * </p>
+ * <p>
+ * Only collections with a single geometry of a concrete type and attributes that map directly to
+ * dbf fields can be streamed, the others should be handled by the
+ * {@link org.geotools.data.shapefile.ShapefileDumper}.
+ * </p>
+ */
+class ShapeZipStreamer {
+
+    /**
+     * Size of the .shx spill buffer kept in memory, holds the index of 128k features
+     */
+    static final int SHX_MEMORY_THRESHOLD = 1024 * 1024;
+
+    static final String GEOMETRY_NAME = "the_geom";
+
+    Charset charset;
+
+    long maxShpSize;
+
+    long maxDbfSize;
+
+    public ShapeZipStreamer(Charset charset, long maxShpSize, long maxDbfSize) {
+        this.charset = charset;
+        this.maxShpSize = maxShpSize;
+        this.maxDbfSize = maxDbfSize;
+    }
+
+    /**
+     * Returns true if the features of the given type can be streamed
+     */
+    public boolean canStream(SimpleFeatureType schema) {
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        if (gd == null || getShapeType(gd.getType().getBinding()) == null) {
+            return false;
+        }
+        for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+            if (ad != gd && getFieldType(ad.getType().getBinding()) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the collection as the .dbf, .shx, .shp, .prj and .cst entries of the zip file.
+     *
+     * @param fileName the name of the shapefile, without extension
+     * @param prj the contents of the .prj file, or null to skip it
+     * @return false, without writing anything, if the collection is too large to fit in a single
+     *         shapefile
+     */
+    public boolean write(SimpleFeatureCollection collection, String fileName, String prj,
+            ZipOutputStream zip) throws IOException {
+        SimpleFeatureType schema = collection.getSchema();
+        int count = collection.size();
+        if (count < 0) {
+            return false;
+        }
+        List<Integer> attributes = new ArrayList<Integer>();
+        DbaseFileHeader dbfHeader = createDbaseHeader(schema, attributes);
+        dbfHeader.setNumRecords(count);
+        long dbfSize = dbfHeader.getHeaderLength() + (long) dbfHeader.getRecordLength() * count
+                + 1;
+        if (dbfSize > maxDbfSize) {
+            return false;
+        }
+
+        RecordWriter records = new RecordWriter(schema);
+        DeferredFileOutputStream shx = new DeferredFileOutputStream(SHX_MEMORY_THRESHOLD,
+                "shpzip", ".shx", null);
+        try {
+            // first read, the dbf along with the shx contents
+            zip.putNextEntry(new ZipEntry(fileName + ".dbf"));
+            DataOutputStream shxOut = new DataOutputStream(new BufferedOutputStream(shx));
+            DbaseFileWriter dbf = new DbaseFileWriter(dbfHeader, channel(zip), charset);
+            Object[] values = new Object[attributes.size()];
+            SimpleFeatureIterator fi = collection.features();
+            try {
+                while (fi.hasNext()) {
+                    SimpleFeature f = fi.next();
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = f.getAttribute(attributes.get(i));
+                    }
+                    dbf.write(values);
+                    records.index(f, shxOut);
+                }
+            } finally {
+                fi.close();
+            }
+            dbf.close();
+            shxOut.close();
+            zip.closeEntry();
+            if (records.count != count) {
+                throw new IOException("The collection returned " + records.count
+                        + " features while " + count + " were expected, the data changed while "
+                        + "writing " + fileName);
+            }
+            if (records.length > maxShpSize) {
+                throw new IOException("The shapefile " + fileName + " is " + records.length
+                        + " bytes, exceeding the maximum size of " + maxShpSize
+                        + " bytes, disable streaming to split it in multiple files");
+            }
+
+            zip.putNextEntry(new ZipEntry(fileName + ".shx"));
+            records.writeHeader(zip, 50 + 4 * records.count);
+            shx.writeTo(zip);
+            zip.closeEntry();
+
+            // second read, the shp
+            zip.putNextEntry(new ZipEntry(fileName + ".shp"));
+            records.writeHeader(zip, (int) (records.length / 2));
+            records.write(collection, zip);
+            zip.closeEntry();
+        } finally {
+            shx.close();
+            FileUtils.deleteQuietly(shx.getFile());
+        }
+
+        if (prj != null) {
+            writeEntry(zip, fileName + ".prj", prj);
+        }
+        writeEntry(zip, fileName + ".cst", charset.name());
+
+        return true;
+    }
+
+    void writeEntry(ZipOutputStream zip, String name, String contents) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes(charset));
+        zip.closeEntry();
+    }
+
+    /**
+     * Maps the attributes to dbf fields, filling the list with the indexes of the mapped attributes
+     */
+    DbaseFileHeader createDbaseHeader(SimpleFeatureType schema, List<Integer> attributes)
+            throws IOException {
+        DbaseFileHeader header = new DbaseFileHeader();
+        Set<String> usedNames = new HashSet<String>();
+        usedNames.add(GEOMETRY_NAME.toUpperCase());
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            AttributeDescriptor ad = schema.getDescriptor(i);
+            if (ad instanceof GeometryDescriptor) {
+                continue;
+            }
+            Class<?> binding = ad.getType().getBinding();
+            int length = FeatureTypes.getFieldLength(ad);
+            if (length == FeatureTypes.ANY_LENGTH) {
+                length = 255;
+            }
+            String name = getFieldName(ad.getLocalName(), usedNames);
+            char type = getFieldType(binding);
+            if (type == 'C') {
+                header.addColumn(name, type, Math.min(254, length), 0);
+            } else if (type == 'N' && binding == Long.class) {
+                header.addColumn(name, type, Math.min(length, 19), 0);
+            } else if (type == 'N' && binding == BigInteger.class) {
+                header.addColumn(name, type, Math.min(length, 33), 0);
+            } else if (type == 'N' && (binding == Integer.class || binding == Short.class
+                    || binding == Byte.class)) {
+                header.addColumn(name, type, Math.min(length, 9), 0);
+            } else if (type == 'N') {
+                int l = Math.min(length, 33);
+                header.addColumn(name, type, l, Math.max(l - 2, 0));
+            } else {
+                header.addColumn(name, type, type == 'L' ? 1 : 8, 0);
+            }
+            attributes.add(i);
+        }
+        return header;
+    }
+
+    /**
+     * Cuts the name to the 10 chars allowed in dbf, numbering it if already in use
+     */
+    static String getFieldName(String name, Set<String> usedNames) {
+        if (name.length() > 10) {
+            name = name.substring(0, 10);
+        }
+        String result = name;
+        for (int i = 0; usedNames.contains(result.toUpperCase()); i++) {
+            String suffix = String.valueOf(i);
+            result = name.substring(0, Math.min(name.length(), 10 - suffix.length())) + suffix;
+        }
+        usedNames.add(result.toUpperCase());
+        return result;
+    }
+
+    /**
+     * Returns the dbf field type of the binding, or 0 if it is not supported
+     */
+    static char getFieldType(Class<?> binding) {
+        if (CharSequence.class.isAssignableFrom(binding)) {
+            return 'C';
+        } else if (Number.class.isAssignableFrom(binding)) {
+            return 'N';
+        } else if (binding == Boolean.class) {
+            return 'L';
+        } else if (binding == java.util.Date.class || binding == java.sql.Date.class) {
+            return 'D';
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the 2D shape type of the geometry binding, or null if it is not a concrete type
+     */
+    static ShapeType getShapeType(Class<?> binding) {
+        if (binding == Point.class) {
+            return ShapeType.POINT;
+        } else if (binding == MultiPoint.class) {
+            return ShapeType.MULTIPOINT;
+        } else if (binding == LineString.class || binding == MultiLineString.class) {
+            return ShapeType.ARC;
+        } else if (binding == Polygon.class || binding == MultiPolygon.class) {
+            return ShapeType.POLYGON;
+        }
+        return null;
+    }
+
+    static WritableByteChannel channel(OutputStream out) {
+        return Channels.newChannel(new CloseShieldOutputStream(out));
+    }
+
+    /**
+     * Encodes the geometries of the collection as shp records, keeping track of the file length and
+     * bounds while indexing them
+     */
+    static class RecordWriter {
+
+        SimpleFeatureType schema;
+
+        ShapeType shapeType;
+
+        ShapeHandler handler;
+
+        Envelope bounds = new Envelope();
+
+        int count;
+
+        /**
+         * Length of the shp file in bytes
+         */
+        long length = 100;
+
+        RecordWriter(SimpleFeatureType schema) {
+            this.schema = schema;
+        }
+
+        /**
+         * Returns the geometry of the feature as it will be encoded, or null
+         */
+        Geometry getGeometry(SimpleFeature f) throws IOException {
+            Geometry g = (Geometry) f.getDefaultGeometry();
+            if (g == null || g.isEmpty()) {
+                return null;
+            }
+            if (shapeType == null) {
+                // same as the shapefile writer, the dimension is guessed from the first geometry
+                shapeType = JTSUtilities.getShapeType(g,
+                        JTSUtilities.guessCoorinateDims(g.getCoordinates()));
+                handler = shapeType.getShapeHandler(new GeometryFactory());
+            }
+            return JTSUtilities.convertToCollection(g, shapeType);
+        }
+
+        int getLength(Geometry g) {
+            return g == null ? 4 : handler.getLength(g);
+        }
+
+        /**
+         * Adds the feature to the shx index
+         */
+        void index(SimpleFeature f, DataOutputStream shx) throws IOException {
+            Geometry g = getGeometry(f);
+            int recordLength = getLength(g);
+            shx.writeInt((int) (length / 2));
+            shx.writeInt(recordLength / 2);
+            if (g != null) {
+                bounds.expandToInclude(g.getEnvelopeInternal());
+            }
+            length += 8 + recordLength;
+            count++;
+        }
+
+        /**
+         * Writes the shp or shx header, the length is expressed in 16 bit words
+         */
+        void writeHeader(OutputStream out, int fileLength) throws IOException {
+            if (shapeType == null) {
+                shapeType = getShapeType(schema.getGeometryDescriptor().getType().getBinding());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            double minX = bounds.isNull() ? 0 : bounds.getMinX();
+            double minY = bounds.isNull() ? 0 : bounds.getMinY();
+            double maxX = bounds.isNull() ? 0 : bounds.getMaxX();
+            double maxY = bounds.isNull() ? 0 : bounds.getMaxY();
+            new ShapefileHeader().write(buffer, shapeType, count, fileLength, minX, minY, maxX,
+                    maxY);
+            out.write(buffer.array());
+        }
+
+        /**
+         * Writes the records of the collection, checking they match the indexed ones
+         */
+        void write(SimpleFeatureCollection collection, OutputStream out) throws IOException {
+            WritableByteChannel channel = channel(out);
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            int written = 0;
+            long writtenLength = 100;
+            SimpleFeatureIterator fi = collection.features();
+            try {
+                while (fi.hasNext()) {
+                    Geometry g = getGeometry(fi.next());
+                    int recordLength = getLength(g);
+                    if (buffer.capacity() < recordLength + 8) {
+                        buffer = ByteBuffer.allocate(recordLength + 8);
+                    }
+                    buffer.clear();
+                    buffer.order(ByteOrder.BIG_ENDIAN);
+                    buffer.putInt(++written);
+                    buffer.putInt(recordLength / 2);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                    if (g == null) {
+                        buffer.putInt(ShapeType.NULL.id);
+                    } else {
+                        buffer.putInt(shapeType.id);
+                        handler.write(buffer, g);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    writtenLength += 8 + recordLength;
+                }
+            } finally {
+                fi.close();
+            }
+            if (written != count || writtenLength != length) {
+                throw new IOException("The geometries changed between the two reads of "
+                        + schema.getTypeName() + ", the shapefile would be corrupted");
+            }
+        }
+    }
+}
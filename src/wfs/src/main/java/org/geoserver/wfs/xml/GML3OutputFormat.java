@@ -46,6 +46,7 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSException;
@@ -54,6 +55,7 @@ import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Query;
+import org.geoserver.wfs.xml.gml3.CompiledFeatureCollectionEncoderDelegate;
 import org.geoserver.wfs.xml.v1_1_0.WFS;
 import org.geoserver.wfs.xml.v1_1_0.WFSConfiguration;
 import org.geotools.feature.FeatureCollection;
@@ -74,6 +76,12 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     public static final boolean OPTIMIZED_ENCODING = Boolean.parseBoolean(System.getProperty(
             "GML_OPTIMIZED_ENCODING", "true"));
 
+    /**
+     * Enables the encoders compiled per feature type, see
+     * {@link CompiledFeatureCollectionEncoderDelegate}
+     */
+    public static final String COMPILED_ENCODING = "GML_COMPILED_ENCODING";
+
     GeoServer geoServer;
     Catalog catalog;
     WFSConfiguration configuration;
@@ -199,6 +207,14 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
             configuration.getProperties().remove(GMLConfiguration.OPTIMIZED_ENCODING);
         }
 
+        if (isCompiledEncoding()) {
+            configuration.getProperties().add(
+                    CompiledFeatureCollectionEncoderDelegate.COMPILED_ENCODING);
+        } else {
+            configuration.getProperties().remove(
+                    CompiledFeatureCollectionEncoderDelegate.COMPILED_ENCODING);
+        }
+
 
         //set up the srsname syntax
         configuration.setSrsSyntax(wfs.getGML().get(WFSInfo.Version.V_11).getSrsNameStyle().toSrsSyntax());
@@ -281,6 +297,14 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         
     }
     
+    /**
+     * Whether the compiled encoders are enabled, read on each request so that it can be
+     * switched on and off without a restart
+     */
+    protected boolean isCompiledEncoding() {
+        return Boolean.parseBoolean(GeoServerExtensions.getProperty(COMPILED_ENCODING));
+    }
+
     protected void setNumDecimals(int numDecimals) {
         GMLConfiguration gml = configuration.getDependency(GMLConfiguration.class);
         if (gml != null) {
@@ -0,0 +1,786 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml.gml3;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.wfs.xml.WFSXmlUtils;
+import org.geoserver.wfs.xml.xs.DateBinding;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.jts.CurvedGeometry;
+import org.geotools.geometry.jts.coordinatesequence.CoordinateSequences;
+import org.geotools.gml2.SrsSyntax;
+import org.geotools.gml2.simple.GMLWriter;
+import org.geotools.gml3.GML;
+import org.geotools.gml3.GMLConfiguration;
+import org.geotools.gml3.simple.GenericGeometryEncoder;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.geotools.xml.Configuration;
+import org.geotools.xml.Encoder;
+import org.geotools.xml.EncoderDelegate;
+import org.geotools.xs.bindings.XSDateTimeBinding;
+import org.geotools.xs.bindings.XSTimeBinding;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Encodes simple feature collections as GML 3.1 feature members, using a template compiled once
+ * per feature type instead of walking the schema and looking up the bindings for every feature
+ * and attribute.
+ * <p>
+ * The template holds the qualified names, the srsName and the value encoding of each attribute,
+ * and is cached per feature type. Only the types whose attributes are all plain values, dates or
+ * linear geometries can be compiled, {@link #create(List, Encoder)} returns null for the others
+ * so that the caller can fall back on the generic encoding. Geometries declared as linear that
+ * turn out to hold arcs are handed to the standard GML3 geometry encoder.
+ * </p>
+ */
+public class CompiledFeatureCollectionEncoderDelegate implements EncoderDelegate {
+
+    static final Logger LOGGER = Logging.getLogger(CompiledFeatureCollectionEncoderDelegate.class);
+
+    /**
+     * Configuration property enabling the compiled encoding
+     */
+    public static final QName COMPILED_ENCODING = new QName("org.geoserver.wfs",
+            "compiledEncoding");
+
+    static final Map<SimpleFeatureType, FeatureTypeTemplate> TEMPLATES = Collections
+            .synchronizedMap(new WeakHashMap<SimpleFeatureType, FeatureTypeTemplate>());
+
+    static final String GML_URI = GML.NAMESPACE;
+
+    static final AttributesImpl EMPTY = new AttributesImpl();
+
+    /**
+     * The attributes {@link org.geoserver.wfs.xml.FeatureTypeSchemaBuilder.GML3} leaves out of
+     * the schema as they are inherited from gml:AbstractFeatureType, encoded in the gml namespace
+     */
+    static final List<String> GML_PROPERTIES = Arrays.asList("description", "name");
+
+    /** The inherited properties with a structure that is not compiled */
+    static final List<String> UNSUPPORTED_GML_PROPERTIES = Arrays.asList("metaDataProperty",
+            "boundedBy", "location");
+
+    static final int MAX_DECIMALS = 15;
+
+    static final double MAX_SCALED = 9e15;
+
+    static final long[] POWERS_OF_TEN = new long[MAX_DECIMALS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /** Attribute kinds */
+    static final int GEOMETRY = 0;
+
+    static final int TEXT = 1;
+
+    static final int DECIMAL = 2;
+
+    static final int FLOATING = 3;
+
+    static final int DATE = 4;
+
+    static final int TIME = 5;
+
+    static final int DATE_TIME = 6;
+
+    final List<SimpleFeatureCollection> collections;
+
+    final List<FeatureTypeTemplate> templates;
+
+    final Encoder encoder;
+
+    final String gmlPrefix;
+
+    final boolean encodeFeatureMember;
+
+    final boolean featureBounds;
+
+    final boolean srsDimension;
+
+    final int numDecimals;
+
+    final double scale;
+
+    final AttributesImpl attributes = new AttributesImpl();
+
+    /** Reused for coordinate lists and values, handed to the content handler in chunks */
+    final char[] buffer = new char[4096];
+
+    int count;
+
+    ContentHandler output;
+
+    /** Encodes the curved geometries, created on first use */
+    GenericGeometryEncoder curveEncoder;
+
+    GMLWriter curveWriter;
+
+    CompiledFeatureCollectionEncoderDelegate(List<SimpleFeatureCollection> collections,
+            List<FeatureTypeTemplate> templates, String gmlPrefix, Encoder encoder) {
+        this.collections = collections;
+        this.templates = templates;
+        this.encoder = encoder;
+        this.gmlPrefix = gmlPrefix;
+        Configuration configuration = encoder.getConfiguration();
+        this.encodeFeatureMember = configuration.getProperties().contains(
+                GMLConfiguration.ENCODE_FEATURE_MEMBER);
+        this.featureBounds = !configuration.getProperties().contains(
+                GMLConfiguration.NO_FEATURE_BOUNDS);
+        this.srsDimension = !configuration.getProperties().contains(
+                GMLConfiguration.NO_SRS_DIMENSION);
+        GMLConfiguration gml = configuration.getDependency(GMLConfiguration.class);
+        int decimals = gml != null ? gml.getNumDecimals() : -1;
+        this.numDecimals = Math.min(decimals, MAX_DECIMALS);
+        this.scale = numDecimals < 0 ? 0 : POWERS_OF_TEN[numDecimals];
+    }
+
+    /**
+     * Builds a delegate encoding the given collections, or returns null if any of them has a
+     * feature type that cannot be compiled
+     */
+    public static CompiledFeatureCollectionEncoderDelegate create(
+            List<FeatureCollection> collections, Encoder encoder) {
+        NamespaceSupport namespaces = encoder.getNamespaces();
+        String gmlPrefix = namespaces.getPrefix(GML_URI);
+        SrsSyntax srsSyntax = WFSXmlUtils.getSrsSyntax(encoder.getConfiguration());
+        if (gmlPrefix == null || srsSyntax == null) {
+            return null;
+        }
+
+        List<SimpleFeatureCollection> simple = new ArrayList<SimpleFeatureCollection>();
+        List<FeatureTypeTemplate> templates = new ArrayList<FeatureTypeTemplate>();
+        for (FeatureCollection collection : collections) {
+            if (!(collection instanceof SimpleFeatureCollection)) {
+                return null;
+            }
+            SimpleFeatureType type = ((SimpleFeatureCollection) collection).getSchema();
+            FeatureTypeTemplate template = getTemplate(type, namespaces, gmlPrefix, srsSyntax);
+            if (template == null) {
+                return null;
+            }
+            simple.add((SimpleFeatureCollection) collection);
+            templates.add(template);
+        }
+        return new CompiledFeatureCollectionEncoderDelegate(simple, templates, gmlPrefix,
+                encoder);
+    }
+
+    static FeatureTypeTemplate getTemplate(SimpleFeatureType type, NamespaceSupport namespaces,
+            String gmlPrefix, SrsSyntax srsSyntax) {
+        String prefix = namespaces.getPrefix(type.getName().getNamespaceURI());
+        if (prefix == null) {
+            return null;
+        }
+        FeatureTypeTemplate template = TEMPLATES.get(type);
+        // the prefix and srs syntax are configurable, make sure the cached one is still valid
+        if (template == null || !template.matches(prefix, gmlPrefix, srsSyntax)) {
+            template = FeatureTypeTemplate.compile(type, prefix, gmlPrefix, srsSyntax);
+            if (template != null) {
+                TEMPLATES.put(type, template);
+            }
+        }
+        return template;
+    }
+
+    @Override
+    public void encode(ContentHandler output) throws Exception {
+        this.output = output;
+        String members = gmlPrefix + ":featureMembers";
+        String member = gmlPrefix + ":featureMember";
+        if (!encodeFeatureMember) {
+            startElement(GML_URI, "featureMembers", members);
+        }
+        for (int i = 0; i < collections.size(); i++) {
+            FeatureTypeTemplate template = templates.get(i);
+            SimpleFeatureIterator it = collections.get(i).features();
+            try {
+                while (it.hasNext()) {
+                    SimpleFeature feature = it.next();
+                    if (encodeFeatureMember) {
+                        startElement(GML_URI, "featureMember", member);
+                    }
+                    encodeFeature(template, feature);
+                    if (encodeFeatureMember) {
+                        endElement(GML_URI, "featureMember", member);
+                    }
+                }
+            } finally {
+                it.close();
+            }
+        }
+        if (!encodeFeatureMember) {
+            endElement(GML_URI, "featureMembers", members);
+        }
+    }
+
+    void encodeFeature(FeatureTypeTemplate template, SimpleFeature feature) throws Exception {
+        attributes.clear();
+        attributes.addAttribute(GML_URI, "id", gmlPrefix + ":id", "ID", feature.getID());
+        output.startElement(template.namespaceURI, template.localName, template.qualifiedName,
+                attributes);
+
+        for (int j = 0; j < template.order.length; j++) {
+            if (j == template.gmlProperties) {
+                // the bounds follow gml:description and gml:name
+                encodeBounds(template, feature);
+            }
+            int i = template.order[j];
+            Object value = feature.getAttribute(i);
+            if (value == null) {
+                continue;
+            }
+            output.startElement(template.namespaceURIs[i], template.localNames[i],
+                    template.qualifiedNames[i], EMPTY);
+            switch (template.kinds[i]) {
+            case GEOMETRY:
+                if (isCurved((Geometry) value)) {
+                    encodeCurved((Geometry) value, template.srsNames[i]);
+                } else {
+                    encodeGeometry((Geometry) value, template.srsNames[i]);
+                }
+                break;
+            case DECIMAL:
+                characters(value instanceof BigDecimal ? ((BigDecimal) value).toPlainString()
+                        : value.toString());
+                break;
+            case FLOATING:
+                characters(encodeFloating(value));
+                break;
+            case DATE:
+                characters(value instanceof Date ? template.dates.encode(value, null) : value
+                        .toString());
+                break;
+            case TIME:
+                characters(value instanceof Date ? template.times.encode(value, null) : value
+                        .toString());
+                break;
+            case DATE_TIME:
+                characters(value instanceof Date || value instanceof Calendar ? template.dateTimes
+                        .encode(value, null) : value.toString());
+                break;
+            default:
+                characters(value.toString());
+            }
+            flushCharacters();
+            output.endElement(template.namespaceURIs[i], template.localNames[i],
+                    template.qualifiedNames[i]);
+        }
+
+        output.endElement(template.namespaceURI, template.localName, template.qualifiedName);
+    }
+
+    String encodeFloating(Object value) {
+        if (!(value instanceof Number)) {
+            return value.toString();
+        }
+        double d = ((Number) value).doubleValue();
+        if (Double.isNaN(d)) {
+            return "NaN";
+        } else if (Double.isInfinite(d)) {
+            return d > 0 ? "INF" : "-INF";
+        }
+        return value.toString();
+    }
+
+    void encodeBounds(FeatureTypeTemplate template, SimpleFeature feature) throws SAXException {
+        if (!featureBounds || !template.hasGeometry) {
+            return;
+        }
+        BoundingBox bounds = feature.getBounds();
+        if (bounds == null || bounds.isEmpty()) {
+            return;
+        }
+        String srsName = template.srsName;
+        int dimension = Math.min(getDimension(bounds, feature), bounds.getDimension());
+        startElement(GML_URI, "boundedBy", gmlPrefix + ":boundedBy");
+        attributes.clear();
+        if (srsName != null) {
+            attributes.addAttribute("", "srsName", "srsName", "CDATA", srsName);
+        }
+        if (srsDimension) {
+            attributes.addAttribute("", "srsDimension", "srsDimension", "CDATA",
+                    String.valueOf(dimension));
+        }
+        output.startElement(GML_URI, "Envelope", gmlPrefix + ":Envelope", attributes);
+        startElement(GML_URI, "lowerCorner", gmlPrefix + ":lowerCorner");
+        for (int i = 0; i < dimension; i++) {
+            if (i > 0) {
+                append(' ');
+            }
+            ordinate(bounds.getMinimum(i));
+        }
+        flushCharacters();
+        endElement(GML_URI, "lowerCorner", gmlPrefix + ":lowerCorner");
+        startElement(GML_URI, "upperCorner", gmlPrefix + ":upperCorner");
+        for (int i = 0; i < dimension; i++) {
+            if (i > 0) {
+                append(' ');
+            }
+            ordinate(bounds.getMaximum(i));
+        }
+        flushCharacters();
+        endElement(GML_URI, "upperCorner", gmlPrefix + ":upperCorner");
+        endElement(GML_URI, "Envelope", gmlPrefix + ":Envelope");
+        endElement(GML_URI, "boundedBy", gmlPrefix + ":boundedBy");
+    }
+
+    /**
+     * The dimension of the feature bounds, from their CRS, or from the coordinates of the default
+     * geometry if the CRS is unknown
+     */
+    int getDimension(BoundingBox bounds, SimpleFeature feature) {
+        CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+        if (crs != null) {
+            return crs.getCoordinateSystem().getDimension();
+        }
+        Object geometry = feature.getDefaultGeometry();
+        return geometry instanceof Geometry ? getDimension((Geometry) geometry) : 2;
+    }
+
+    /**
+     * Returns true if the geometry, or any of its members, holds arcs
+     */
+    static boolean isCurved(Geometry geometry) {
+        if (geometry instanceof CurvedGeometry) {
+            return true;
+        }
+        if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+                if (polygon.getInteriorRingN(i) instanceof CurvedGeometry) {
+                    return true;
+                }
+            }
+            return polygon.getExteriorRing() instanceof CurvedGeometry;
+        }
+        if (geometry instanceof GeometryCollection) {
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                if (isCurved(geometry.getGeometryN(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a geometry holding arcs with the standard GML3 geometry encoder, which writes them
+     * as curves instead of linearizing them
+     */
+    void encodeCurved(Geometry geometry, String srsName) throws Exception {
+        flushCharacters();
+        if (curveEncoder == null) {
+            curveEncoder = new GenericGeometryEncoder(encoder, gmlPrefix, GML_URI);
+            curveWriter = new GMLWriter(output, encoder.getNamespaces(), numDecimals, false,
+                    gmlPrefix);
+        }
+        attributes.clear();
+        if (srsName != null) {
+            attributes.addAttribute("", "srsName", "srsName", "CDATA", srsName);
+        }
+        if (srsDimension) {
+            attributes.addAttribute("", "srsDimension", "srsDimension", "CDATA",
+                    String.valueOf(getDimension(geometry)));
+        }
+        curveEncoder.encode(geometry, attributes, curveWriter);
+    }
+
+    /**
+     * Encodes a linear geometry, the srsName and srsDimension going on the outermost element only
+     */
+    void encodeGeometry(Geometry geometry, String srsName) throws SAXException {
+        if (geometry instanceof Point) {
+            startGeometry("Point", geometry, srsName);
+            encodePosition(((Point) geometry).getCoordinateSequence(), "pos");
+            endElement(GML_URI, "Point", gmlPrefix + ":Point");
+        } else if (geometry instanceof LineString) {
+            startGeometry("LineString", geometry, srsName);
+            encodePosition(((LineString) geometry).getCoordinateSequence(), "posList");
+            endElement(GML_URI, "LineString", gmlPrefix + ":LineString");
+        } else if (geometry instanceof Polygon) {
+            startGeometry("Polygon", geometry, srsName);
+            encodePolygonRings((Polygon) geometry);
+            endElement(GML_URI, "Polygon", gmlPrefix + ":Polygon");
+        } else if (geometry instanceof MultiPoint) {
+            encodeMulti(geometry, srsName, "MultiPoint", "pointMember");
+        } else if (geometry instanceof MultiLineString) {
+            encodeMulti(geometry, srsName, "MultiCurve", "curveMember");
+        } else if (geometry instanceof MultiPolygon) {
+            encodeMulti(geometry, srsName, "MultiSurface", "surfaceMember");
+        } else if (geometry instanceof GeometryCollection) {
+            encodeMulti(geometry, srsName, "MultiGeometry", "geometryMember");
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type "
+                    + geometry.getGeometryType());
+        }
+    }
+
+    void encodeMulti(Geometry geometry, String srsName, String name, String memberName)
+            throws SAXException {
+        String qualifiedName = gmlPrefix + ":" + name;
+        String memberQualifiedName = gmlPrefix + ":" + memberName;
+        startGeometry(name, geometry, srsName);
+        for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+            startElement(GML_URI, memberName, memberQualifiedName);
+            encodeGeometry(geometry.getGeometryN(i), null);
+            endElement(GML_URI, memberName, memberQualifiedName);
+        }
+        endElement(GML_URI, name, qualifiedName);
+    }
+
+    void encodePolygonRings(Polygon polygon) throws SAXException {
+        encodeRing("exterior", polygon.getExteriorRing());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            encodeRing("interior", polygon.getInteriorRingN(i));
+        }
+    }
+
+    void encodeRing(String name, LineString ring) throws SAXException {
+        startElement(GML_URI, name, gmlPrefix + ":" + name);
+        startElement(GML_URI, "LinearRing", gmlPrefix + ":LinearRing");
+        encodePosition(ring.getCoordinateSequence(), "posList");
+        endElement(GML_URI, "LinearRing", gmlPrefix + ":LinearRing");
+        endElement(GML_URI, name, gmlPrefix + ":" + name);
+    }
+
+    void startGeometry(String name, Geometry geometry, String srsName) throws SAXException {
+        attributes.clear();
+        if (srsName != null) {
+            attributes.addAttribute("", "srsName", "srsName", "CDATA", srsName);
+        }
+        if (srsDimension) {
+            attributes.addAttribute("", "srsDimension", "srsDimension", "CDATA",
+                    String.valueOf(getDimension(geometry)));
+        }
+        output.startElement(GML_URI, name, gmlPrefix + ":" + name, attributes);
+    }
+
+    int getDimension(Geometry geometry) {
+        if (geometry instanceof Point) {
+            return CoordinateSequences.coordinateDimension(((Point) geometry)
+                    .getCoordinateSequence());
+        } else if (geometry instanceof LineString) {
+            return CoordinateSequences.coordinateDimension(((LineString) geometry)
+                    .getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            return getDimension(((Polygon) geometry).getExteriorRing());
+        } else if (geometry.getNumGeometries() > 0) {
+            return getDimension(geometry.getGeometryN(0));
+        }
+        return 2;
+    }
+
+    void encodePosition(CoordinateSequence coordinates, String name) throws SAXException {
+        String qualifiedName = gmlPrefix + ":" + name;
+        startElement(GML_URI, name, qualifiedName);
+        int dimension = Math.min(3, CoordinateSequences.coordinateDimension(coordinates));
+        for (int i = 0, n = coordinates.size(); i < n; i++) {
+            if (i > 0) {
+                append(' ');
+            }
+            ordinate(coordinates.getX(i));
+            append(' ');
+            ordinate(coordinates.getY(i));
+            if (dimension > 2) {
+                append(' ');
+                ordinate(coordinates.getOrdinate(i, 2));
+            }
+        }
+        flushCharacters();
+        endElement(GML_URI, name, qualifiedName);
+    }
+
+    /**
+     * Appends an ordinate rounded to the configured number of decimals, without trailing zeros
+     */
+    void ordinate(double value) throws SAXException {
+        // room for the longest formatted double
+        ensure(32);
+        if (numDecimals >= 0 && !Double.isNaN(value)) {
+            double scaled = value * scale;
+            if (scaled > -MAX_SCALED && scaled < MAX_SCALED) {
+                long units = Math.round(scaled);
+                if (units < 0) {
+                    buffer[count++] = '-';
+                    units = -units;
+                }
+                long unit = POWERS_OF_TEN[numDecimals];
+                appendLong(units / unit);
+                long fraction = units % unit;
+                if (fraction != 0) {
+                    int decimals = numDecimals;
+                    while (fraction % 10 == 0) {
+                        fraction /= 10;
+                        decimals--;
+                    }
+                    buffer[count++] = '.';
+                    for (int i = decimals - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i--) {
+                        buffer[count++] = '0';
+                    }
+                    appendLong(fraction);
+                }
+                return;
+            }
+        }
+        String s = String.valueOf(value);
+        s.getChars(0, s.length(), buffer, count);
+        count += s.length();
+    }
+
+    void appendLong(long value) {
+        // value is positive and at most 16 digits long
+        int start = count;
+        do {
+            buffer[count++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+    }
+
+    void append(char c) throws SAXException {
+        ensure(1);
+        buffer[count++] = c;
+    }
+
+    void characters(String s) throws SAXException {
+        int offset = 0;
+        int length = s.length();
+        while (offset < length) {
+            ensure(1);
+            int chunk = Math.min(length - offset, buffer.length - count);
+            s.getChars(offset, offset + chunk, buffer, count);
+            count += chunk;
+            offset += chunk;
+        }
+    }
+
+    void ensure(int length) throws SAXException {
+        if (count + length > buffer.length) {
+            flushCharacters();
+        }
+    }
+
+    void flushCharacters() throws SAXException {
+        if (count > 0) {
+            output.characters(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    void startElement(String uri, String localName, String qualifiedName) throws SAXException {
+        output.startElement(uri, localName, qualifiedName, EMPTY);
+    }
+
+    void endElement(String uri, String localName, String qualifiedName) throws SAXException {
+        output.endElement(uri, localName, qualifiedName);
+    }
+
+    /**
+     * The names and value encodings of a feature type, resolved once
+     */
+    static class FeatureTypeTemplate {
+
+        final String prefix;
+
+        final String gmlPrefix;
+
+        final SrsSyntax srsSyntax;
+
+        final String namespaceURI;
+
+        final String localName;
+
+        final String qualifiedName;
+
+        /** The attribute indexes in encoding order, the gml properties coming first */
+        final int[] order;
+
+        /** The number of attributes encoded as gml properties */
+        final int gmlProperties;
+
+        final String[] namespaceURIs;
+
+        final String[] localNames;
+
+        final String[] qualifiedNames;
+
+        final int[] kinds;
+
+        /** The srsName of each geometry attribute */
+        final String[] srsNames;
+
+        /** The srsName of the default geometry, used for the feature bounds */
+        final String srsName;
+
+        final boolean hasGeometry;
+
+        final DateBinding dates = new DateBinding();
+
+        final XSTimeBinding times = new XSTimeBinding();
+
+        final XSDateTimeBinding dateTimes = new XSDateTimeBinding();
+
+        FeatureTypeTemplate(SimpleFeatureType type, String prefix, String gmlPrefix,
+                SrsSyntax srsSyntax, int[] kinds, String[] srsNames) {
+            this.prefix = prefix;
+            this.gmlPrefix = gmlPrefix;
+            this.srsSyntax = srsSyntax;
+            this.namespaceURI = type.getName().getNamespaceURI();
+            this.localName = type.getName().getLocalPart();
+            this.qualifiedName = prefix + ":" + localName;
+            this.kinds = kinds;
+            this.srsNames = srsNames;
+
+            int count = type.getAttributeCount();
+            order = new int[count];
+            namespaceURIs = new String[count];
+            localNames = new String[count];
+            qualifiedNames = new String[count];
+            int position = 0;
+            // same order as gml:AbstractFeatureType
+            for (String name : GML_PROPERTIES) {
+                int i = type.indexOf(name);
+                if (i >= 0) {
+                    order[position++] = i;
+                    namespaceURIs[i] = GML_URI;
+                    localNames[i] = name;
+                    qualifiedNames[i] = gmlPrefix + ":" + name;
+                }
+            }
+            gmlProperties = position;
+            boolean geometries = false;
+            for (int i = 0; i < count; i++) {
+                geometries |= kinds[i] == GEOMETRY;
+                if (namespaceURIs[i] == null) {
+                    order[position++] = i;
+                    namespaceURIs[i] = namespaceURI;
+                    localNames[i] = type.getDescriptor(i).getLocalName();
+                    qualifiedNames[i] = prefix + ":" + localNames[i];
+                }
+            }
+            this.hasGeometry = geometries;
+            GeometryDescriptor geometry = type.getGeometryDescriptor();
+            this.srsName = geometry != null ? srsNames[type.indexOf(geometry.getLocalName())]
+                    : null;
+        }
+
+        boolean matches(String prefix, String gmlPrefix, SrsSyntax srsSyntax) {
+            return this.prefix.equals(prefix) && this.gmlPrefix.equals(gmlPrefix)
+                    && this.srsSyntax == srsSyntax;
+        }
+
+        /**
+         * Compiles the template for a feature type, or returns null if any of its attributes
+         * cannot be encoded without the generic machinery
+         */
+        static FeatureTypeTemplate compile(SimpleFeatureType type, String prefix,
+                String gmlPrefix, SrsSyntax srsSyntax) {
+            int count = type.getAttributeCount();
+            int[] kinds = new int[count];
+            String[] srsNames = new String[count];
+            for (int i = 0; i < count; i++) {
+                AttributeDescriptor descriptor = type.getDescriptor(i);
+                Class<?> binding = descriptor.getType().getBinding();
+                kinds[i] = getKind(binding);
+                if (kinds[i] < 0 || UNSUPPORTED_GML_PROPERTIES.contains(descriptor.getLocalName())
+                        || (kinds[i] != TEXT && GML_PROPERTIES.contains(descriptor
+                                .getLocalName()))) {
+                    return null;
+                }
+                if (kinds[i] == GEOMETRY) {
+                    CoordinateReferenceSystem crs = ((GeometryDescriptor) descriptor)
+                            .getCoordinateReferenceSystem();
+                    if (crs != null) {
+                        srsNames[i] = getSrsName(crs, srsSyntax);
+                        if (srsNames[i] == null) {
+                            return null;
+                        }
+                    }
+                }
+            }
+            return new FeatureTypeTemplate(type, prefix, gmlPrefix, srsSyntax, kinds, srsNames);
+        }
+
+        static String getSrsName(CoordinateReferenceSystem crs, SrsSyntax srsSyntax) {
+            try {
+                Integer code = CRS.lookupEpsgCode(crs, false);
+                return code != null ? srsSyntax.getPrefix() + code : null;
+            } catch (FactoryException e) {
+                LOGGER.log(Level.FINE, "Could not look up the EPSG code of " + crs, e);
+                return null;
+            }
+        }
+
+        static int getKind(Class<?> binding) {
+            if (binding == Point.class || binding == LineString.class
+                    || binding == Polygon.class || binding == MultiPoint.class
+                    || binding == MultiLineString.class || binding == MultiPolygon.class) {
+                return GEOMETRY;
+            } else if (binding == String.class || binding == Character.class
+                    || binding == Boolean.class || binding == Integer.class
+                    || binding == Long.class || binding == Short.class
+                    || binding == Byte.class || binding == BigInteger.class) {
+                return TEXT;
+            } else if (binding == BigDecimal.class) {
+                return DECIMAL;
+            } else if (binding == Double.class || binding == Float.class) {
+                return FLOATING;
+            } else if (binding == java.sql.Date.class) {
+                return DATE;
+            } else if (binding == java.sql.Time.class) {
+                return TIME;
+            } else if (binding == Date.class || binding == java.sql.Timestamp.class) {
+                return DATE_TIME;
+            }
+            return -1;
+        }
+    }
+}
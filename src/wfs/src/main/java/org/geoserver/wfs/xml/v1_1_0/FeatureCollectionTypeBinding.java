@@ -15,6 +15,7 @@ import net.opengis.wfs.WfsFactory;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.feature.CompositeFeatureCollection;
+import org.geoserver.wfs.xml.gml3.CompiledFeatureCollectionEncoderDelegate;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -222,6 +223,18 @@ public class FeatureCollectionTypeBinding extends AbstractComplexEMFBinding {
             result = (FeatureCollection) featureCollection.getFeature().iterator().next();
         }
 
+        if (isSimpleFeatureCollection(result)
+                && encoder.getConfiguration().hasProperty(
+                        CompiledFeatureCollectionEncoderDelegate.COMPILED_ENCODING)) {
+            CompiledFeatureCollectionEncoderDelegate delegate =
+                    CompiledFeatureCollectionEncoderDelegate.create(
+                            featureCollection.getFeature(), encoder);
+            // null if any of the feature types cannot be compiled
+            if (delegate != null) {
+                return delegate;
+            }
+        }
+
         if (isSimpleFeatureCollection(result)
                 && encoder.getConfiguration().hasProperty(
                         GMLConfiguration.OPTIMIZED_ENCODING)) {
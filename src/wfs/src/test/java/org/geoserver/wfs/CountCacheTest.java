@@ -0,0 +1,232 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.geoserver.wfs.CountCache.UNKNOWN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+public class CountCacheTest {
+
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+
+    FeatureTypeInfo meta;
+
+    SimpleFeatureCollection features;
+
+    Filter filter = ff.greater(ff.property("num"), ff.literal(5));
+
+    @Before
+    public void setUp() {
+        meta = createMock(FeatureTypeInfo.class);
+        expect(meta.getId()).andReturn("fifteen").anyTimes();
+        expect(meta.getName()).andReturn("Fifteen").anyTimes();
+        expect(meta.prefixedName()).andReturn("cdf:Fifteen").anyTimes();
+        expect(meta.getCqlFilter()).andReturn(null).anyTimes();
+        replay(meta);
+
+        features = createMock(SimpleFeatureCollection.class);
+        expect(features.size()).andReturn(9).anyTimes();
+        replay(features);
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        FeatureSource source = source(2);
+        CountCache cache = new CountCache(10, 60, false, 0);
+
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        // a different filter is counted again
+        Query other = new Query("Fifteen", ff.less(ff.property("num"), ff.literal(5)));
+        assertEquals(9, cache.getCount(meta, source, other, true));
+        assertEquals(9, cache.getCount(meta, source, other, true));
+        verify(source);
+    }
+
+    @Test
+    public void testInvalidatedByTransaction() throws Exception {
+        FeatureSource source = source(2);
+        CountCache cache = new CountCache(10, 60, false, 0);
+
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_UPDATE, null,
+                new QName("http://www.opengis.net/cite/data", "Fifteen"), null));
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        verify(source);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        FeatureSource source = source(2);
+        CountCache cache = new CountCache(0, 60, false, 0);
+
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        verify(source);
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        FeatureSource source = source(2);
+        CountCache cache = new CountCache();
+
+        assertNull(cache.counts);
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        verify(source);
+    }
+
+    @Test
+    public void testEstimatedNotCached() throws Exception {
+        // never counted
+        FeatureSource source = createMock(FeatureSource.class);
+        replay(source);
+        CountCache cache = new CountCache(0, 60, true, 100) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+        };
+
+        assertEquals(1000, cache.getEstimatedCount(meta, new Query("Fifteen")));
+        assertEquals(UNKNOWN, cache.getEstimatedCount(meta, new Query("Fifteen", filter)));
+        assertEquals(UNKNOWN, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        verify(source);
+    }
+
+    @Test
+    public void testEstimated() throws Exception {
+        FeatureSource source = source(1);
+        CountCache cache = new CountCache(10, 60, true, 100) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+        };
+
+        // unfiltered, the estimate is returned
+        assertEquals(1000, cache.getEstimatedCount(meta, new Query("Fifteen")));
+        // filtered on a table too large to count
+        assertEquals(-1, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        // unless an exact count is required
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), false));
+        // which is then cached
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        verify(source);
+    }
+
+    @Test
+    public void testEstimatedUnderThreshold() throws Exception {
+        FeatureSource source = source(1);
+        CountCache cache = new CountCache(10, 60, true, 10000) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+        };
+
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen", filter), true));
+        verify(source);
+    }
+
+    @Test
+    public void testEstimatedUnfilteredUnderThreshold() throws Exception {
+        FeatureSource source = source(1);
+        CountCache cache = new CountCache(10, 60, true, 10000) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+        };
+
+        // small enough to be counted exactly
+        assertEquals(UNKNOWN, cache.getEstimatedCount(meta, new Query("Fifteen")));
+        assertEquals(9, cache.getCount(meta, source, new Query("Fifteen"), true));
+        verify(source);
+    }
+
+    @Test
+    public void testEstimatedCqlFilter() throws Exception {
+        FeatureTypeInfo filtered = createMock(FeatureTypeInfo.class);
+        expect(filtered.getId()).andReturn("fifteen").anyTimes();
+        expect(filtered.getCqlFilter()).andReturn("num > 5").anyTimes();
+        replay(filtered);
+        CountCache cache = new CountCache(0, 60, true, 100) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+        };
+
+        // the table rows are not the features of the layer
+        assertEquals(UNKNOWN, cache.getEstimatedCount(filtered, new Query("Fifteen")));
+    }
+
+    @Test
+    public void testEstimatedReadLimits() throws Exception {
+        CountCache cache = new CountCache(0, 60, true, 100) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+
+            @Override
+            protected boolean hasReadLimits(FeatureTypeInfo meta) {
+                return true;
+            }
+        };
+
+        // the user does not get to see all the rows
+        assertEquals(UNKNOWN, cache.getEstimatedCount(meta, new Query("Fifteen")));
+    }
+
+    @Test
+    public void testExecutorFlagsEstimate() throws Exception {
+        FeatureSource source = source(1);
+        CountCache cache = new CountCache(0, 60, true, 100) {
+            @Override
+            protected long estimateRows(FeatureTypeInfo meta) {
+                return 1000;
+            }
+        };
+
+        CountExecutor estimated = new CountExecutor(source, new Query("Fifteen"), cache, meta,
+                true);
+        assertEquals(1000, estimated.getCount());
+        assertTrue(estimated.isEstimate());
+        CountExecutor exact = new CountExecutor(source, new Query("Fifteen"), cache, meta, false);
+        assertEquals(9, exact.getCount());
+        assertFalse(exact.isEstimate());
+        verify(source);
+    }
+
+    FeatureSource source(int counts) throws Exception {
+        FeatureSource source = createMock(FeatureSource.class);
+        expect(source.getFeatures((Query) anyObject())).andReturn(features).times(counts);
+        replay(source);
+        return source;
+    }
+}
@@ -0,0 +1,142 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.config.impl.GeoServerInfoImpl;
+import org.geoserver.wfs.WFSInfoImpl;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.opengis.wfs.FeatureCollectionType;
+import net.opengis.wfs.WfsFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Measures the features per second {@link GeoJSONGetFeatureResponse} encodes, comparing the
+ * streaming UTF-8 path with the {@link GeoJSONBuilder} one, used for the other charsets.
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GeoJSONGetFeatureResponseBenchmark {
+
+    static final int FEATURES = 10000;
+
+    static final int VERTICES = 20;
+
+    @Param({ "UTF-8", "ISO-8859-1" })
+    String charset;
+
+    GeoJSONGetFeatureResponse response;
+
+    FeatureCollectionResponse features;
+
+    @Setup
+    public void setUp() throws Exception {
+        GeoServerImpl gs = new GeoServerImpl();
+        gs.setCatalog(new CatalogImpl());
+        GeoServerInfoImpl global = new GeoServerInfoImpl(gs);
+        global.setId("geoserver");
+        global.getSettings().setCharset(charset);
+        gs.setGlobal(global);
+        WFSInfoImpl wfs = new WFSInfoImpl();
+        wfs.setId("wfs");
+        wfs.setName("WFS");
+        wfs.setFeatureBounding(true);
+        gs.add(wfs);
+        response = new GeoJSONGetFeatureResponse(gs, JSONType.json);
+
+        SimpleFeatureType type = DataUtilities.createType("poi",
+                "the_geom:Polygon:srid=4326,name:String,population:Integer,area:Double,"
+                        + "visible:Boolean");
+        ListFeatureCollection collection = new ListFeatureCollection(type);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        GeometryFactory gf = new GeometryFactory();
+        Random random = new Random(0);
+        for (int i = 0; i < FEATURES; i++) {
+            double x = random.nextDouble() * 360 - 180;
+            double y = random.nextDouble() * 180 - 90;
+            Coordinate[] ring = new Coordinate[VERTICES + 1];
+            for (int j = 0; j < VERTICES; j++) {
+                double angle = Math.PI * 2 * j / VERTICES;
+                ring[j] = new Coordinate(x + Math.cos(angle) * 0.01, y + Math.sin(angle) * 0.01);
+            }
+            ring[VERTICES] = ring[0];
+            fb.add(gf.createPolygon(gf.createLinearRing(ring), null));
+            fb.add("Point of interest number " + i);
+            fb.add(random.nextInt(1000000));
+            fb.add(random.nextDouble() * 1000);
+            fb.add(random.nextBoolean());
+            collection.add(fb.buildFeature("poi." + i));
+        }
+        FeatureCollectionType fct = WfsFactory.eINSTANCE.createFeatureCollectionType();
+        fct.getFeature().add(collection);
+        features = FeatureCollectionResponse.adapt(fct);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FEATURES)
+    public long encode() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        response.write(features, out, null);
+        return out.count;
+    }
+
+    /**
+     * Discards the output, keeping its size so that the encoding cannot be optimized away
+     */
+    static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(
+                GeoJSONGetFeatureResponseBenchmark.class.getSimpleName()).build()).run();
+    }
+}
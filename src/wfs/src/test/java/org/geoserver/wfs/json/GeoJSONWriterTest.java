@@ -0,0 +1,145 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.geotools.referencing.CRS;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONWriterTest {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    String output(GeoJSONWriter writer) throws Exception {
+        writer.flush();
+        return new String(bytes.toByteArray(), "UTF-8");
+    }
+
+    @Test
+    public void testWriteGeometries() throws Exception {
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, -1);
+        Geometry g = new WKTReader().read(
+                "GEOMETRYCOLLECTION(POINT(2 0),MULTILINESTRING((0 0, 1 1)),"
+                        + "POLYGON((0 0 0, 0 10 1, 10 10 2, 0 0 0)))");
+        writer.writeGeom(g);
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":["
+                + "{\"type\":\"Point\",\"coordinates\":[2,0]},"
+                + "{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]]]},"
+                + "{\"type\":\"Polygon\",\"coordinates\":[[[0,0,0],[0,10,1],[10,10,2],[0,0,0]]]}"
+                + "]}", output(writer));
+    }
+
+    @Test
+    public void testSameAsBuilder() throws Exception {
+        Geometry g = new WKTReader().read(
+                "MULTIPOLYGON(((0 0, 0 10.5, 10.25 10, 0 0),(1 1, 1 2, 2 2, 1 1)),"
+                        + "((20 20, 20 30, 30 30, 20 20)))");
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, -1);
+        writer.writeGeom(g);
+
+        StringWriter sw = new StringWriter();
+        new GeoJSONBuilder(sw).writeGeom(g);
+        assertEquals(sw.toString(), output(writer));
+    }
+
+    @Test
+    public void testNumDecimals() throws Exception {
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, 4);
+        writer.array();
+        writer.writeGeom(new WKTReader().read("POINT(55.17399999 -0.00004)"));
+        writer.writeGeom(new WKTReader().read("POINT(-12.34565 120.0)"));
+        writer.writeGeom(new WKTReader().read("POINT(0.00012 1.00501)"));
+        writer.endArray();
+        assertEquals("[{\"type\":\"Point\",\"coordinates\":[55.174,0]},"
+                + "{\"type\":\"Point\",\"coordinates\":[-12.3457,120]},"
+                + "{\"type\":\"Point\",\"coordinates\":[0.0001,1.005]}]", output(writer));
+    }
+
+    @Test
+    public void testOrdinatesOutOfRange() throws Exception {
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, 6);
+        writer.writeGeom(new GeometryFactory().createPoint(new Coordinate(1e20, 2)));
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[1.0E20,2]}", output(writer));
+    }
+
+    @Test
+    public void testBoundingBox() throws Exception {
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, 2);
+        writer.setAxisOrder(CRS.AxisOrder.NORTH_EAST);
+        writer.object();
+        writer.writeBoundingBox(new Envelope(1.234, 5.678, -1, 2));
+        writer.endObject();
+        assertEquals("{\"bbox\":[-1,1.23,2,5.68]}", output(writer));
+    }
+
+    @Test
+    public void testKeysAndValues() throws Exception {
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, -1);
+        writer.object();
+        writer.key("string").value("abc");
+        writer.key(GeoJSONWriter.encodeKey("long")).value(12L);
+        writer.key("double").value(1.5);
+        writer.key("integral").value(3.0);
+        writer.key("nan").value(Double.NaN);
+        writer.key("boolean").value(true);
+        writer.key("null").value((Object) null);
+        writer.key("array").array().value(1L).value("a").endArray();
+        writer.endObject();
+        assertEquals("{\"string\":\"abc\",\"long\":12,\"double\":1.5,\"integral\":3,"
+                + "\"nan\":null,\"boolean\":true,\"null\":null,\"array\":[1,\"a\"]}",
+                output(writer));
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, -1);
+        writer.object();
+        writer.key("quo\"te").value("a\\b/c\n\t\u0001</x>");
+        writer.key("unicode").value("\u00e8\u20ac\ud83d\ude00");
+        writer.endObject();
+        assertEquals("{\"quo\\\"te\":\"a\\\\b/c\\n\\t\\u0001<\\/x>\","
+                + "\"unicode\":\"\u00e8\\u20ac\ud83d\ude00\"}", output(writer));
+    }
+
+    @Test
+    public void testLongString() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("\u00e8a");
+        }
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, -1);
+        writer.value(sb.toString());
+        assertEquals("\"" + sb + "\"", output(writer));
+    }
+
+    @Test
+    public void testWriteDate() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        GeoJSONWriter writer = new GeoJSONWriter(bytes, -1);
+        writer.object();
+        writer.key("date").value((Object) new java.sql.Date(cal.getTimeInMillis()));
+        writer.key("cal").value((Object) cal);
+        writer.endObject();
+        assertEquals("{\"date\":\"2011-10-25Z\",\"cal\":\"2011-10-25T00:00:00Z\"}",
+                output(writer));
+    }
+}
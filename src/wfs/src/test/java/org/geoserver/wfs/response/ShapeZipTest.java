@@ -282,6 +282,41 @@ public class ShapeZipTest extends WFSTestSupport {
         assertTrue("Did not find readme file", foundReadme);
     }
 
+    @Test
+    public void testStreaming() throws Exception {
+        byte[] zip = writeOutStreaming(getFeatureSource(LONGNAMES).getFeatures());
+
+        checkShapefileIntegrity(new String[] { "longnames" }, new ByteArrayInputStream(zip));
+        SimpleFeatureType schema = checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+        checkLongNamesSchema(schema);
+    }
+
+    @Test
+    public void testStreamingNullGeometries() throws Exception {
+        byte[] zip = writeOutStreaming(getFeatureSource(NULLGEOM).getFeatures());
+
+        checkShapefileIntegrity(new String[] { "nullgeom" }, new ByteArrayInputStream(zip));
+    }
+
+    @Test
+    public void testStreamingEmptyResult() throws Exception {
+        byte[] zip = writeOutStreaming(getFeatureSource(SystemTestData.BASIC_POLYGONS)
+                .getFeatures(Filter.EXCLUDE));
+
+        checkShapefileIntegrity(new String[] { "BasicPolygons" }, new ByteArrayInputStream(zip));
+    }
+
+    @Test
+    public void testStreamingMultiType() throws Exception {
+        // mixed geometry types cannot be streamed, the dumper is used instead
+        byte[] zip = writeOutStreaming(getFeatureSource(ALL_TYPES).getFeatures());
+
+        final String[] expectedTypes = new String[] { "AllTypesPoint", "AllTypesMPoint",
+                "AllTypesPolygon", "AllTypesLine" };
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
+        checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+    }
+
     @Test
     public void testTemplateSingleType() throws Exception {
         // copy the new template to the data dir
@@ -517,6 +552,20 @@ public class ShapeZipTest extends WFSTestSupport {
         return bos.toByteArray();
     }
 
+    /**
+     * Same as {@link #writeOut(FeatureCollection)}, with streaming enabled
+     */
+    byte[] writeOutStreaming(FeatureCollection fc) throws IOException {
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        zip.setStreaming(true);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(fc);
+        zip.write(fct, bos, op);
+        return bos.toByteArray();
+    }
+
     private File createTempFolder(String prefix) throws IOException {
         File temp = File.createTempFile(prefix, null);
 
@@ -21,6 +21,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wfs.KeysetPaging;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -554,6 +555,111 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         assertFalse(doc.getDocumentElement().hasAttribute("next"));
     }
     
+    @Test
+    public void testKeysetPaging() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("gs", "Fifteen");
+        ft.getMetadata().put(KeysetPaging.KEY_ATTRIBUTES, "num");
+        getCatalog().save(ft);
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                    "typename=gs:Fifteen&count=6");
+            assertNums(doc, 0, 1, 2, 3, 4, 5);
+            assertFalse(doc.getDocumentElement().hasAttribute("previous"));
+            
+            doc = followLink(doc, "next");
+            assertNums(doc, 6, 7, 8, 9, 10, 11);
+            XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched", doc);
+            
+            doc = followLink(doc, "next");
+            assertNums(doc, 12, 13, 14);
+            assertFalse(doc.getDocumentElement().hasAttribute("next"));
+            
+            doc = followLink(doc, "previous");
+            assertNums(doc, 6, 7, 8, 9, 10, 11);
+            
+            doc = followLink(doc, "previous");
+            assertNums(doc, 0, 1, 2, 3, 4, 5);
+            assertFalse(doc.getDocumentElement().hasAttribute("previous"));
+            
+            // a start index can still be used to jump, the links then carry a cursor
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                    "typename=gs:Fifteen&startIndex=10&count=4&sortBy=num DESC");
+            assertNums(doc, 4, 3, 2, 1);
+            doc = followLink(doc, "next");
+            assertNums(doc, 0);
+            doc = followLink(doc, "previous");
+            assertNums(doc, 4, 3, 2, 1);
+            doc = followLink(doc, "previous");
+            assertNums(doc, 8, 7, 6, 5);
+        } finally {
+            ft.getMetadata().remove(KeysetPaging.KEY_ATTRIBUTES);
+            getCatalog().save(ft);
+        }
+    }
+    
+    @Test
+    public void testKeysetPagingPropertyName() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("gs", "Fifteen");
+        ft.getMetadata().put(KeysetPaging.KEY_ATTRIBUTES, "num");
+        getCatalog().save(ft);
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                    "typename=gs:Fifteen&count=6&propertyName=pointProperty");
+            // the key is not returned, as it was not requested
+            XMLAssert.assertXpathEvaluatesTo("6", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("6", "count(//gs:Fifteen/gs:pointProperty)", doc);
+            XMLAssert.assertXpathEvaluatesTo("0", "count(//gs:num)", doc);
+
+            doc = followLink(doc, "next");
+            XMLAssert.assertXpathEvaluatesTo("6", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("0", "count(//gs:num)", doc);
+
+            doc = followLink(doc, "next");
+            XMLAssert.assertXpathEvaluatesTo("3", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("0", "count(//gs:num)", doc);
+            assertFalse(doc.getDocumentElement().hasAttribute("next"));
+        } finally {
+            ft.getMetadata().remove(KeysetPaging.KEY_ATTRIBUTES);
+            getCatalog().save(ft);
+        }
+    }
+
+    @Test
+    public void testKeysetPagingInvalidCursor() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("gs", "Fifteen");
+        ft.getMetadata().put(KeysetPaging.KEY_ATTRIBUTES, "num");
+        getCatalog().save(ft);
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                    "typename=gs:Fifteen&count=6");
+            String next = doc.getDocumentElement().getAttribute("next");
+            
+            // same cursor, different query
+            doc = getAsDOM(next.substring(next.indexOf("wfs?")) + "&sortBy=num DESC");
+            XMLAssert.assertXpathEvaluatesTo("InvalidParameterValue", 
+                    "//ows:Exception/@exceptionCode", doc);
+            XMLAssert.assertXpathEvaluatesTo("cursor", "//ows:Exception/@locator", doc);
+        } finally {
+            ft.getMetadata().remove(KeysetPaging.KEY_ATTRIBUTES);
+            getCatalog().save(ft);
+        }
+    }
+    
+    Document followLink(Document doc, String link) throws Exception {
+        String url = doc.getDocumentElement().getAttribute(link);
+        assertTrue(url.contains(KeysetPaging.CURSOR + "="));
+        assertFalse(url.toLowerCase().contains("startindex"));
+        return getAsDOM(url.substring(url.indexOf("wfs?")));
+    }
+    
+    void assertNums(Document doc, int... nums) throws Exception {
+        XMLAssert.assertXpathEvaluatesTo(String.valueOf(nums.length), "count(//gs:Fifteen)", doc);
+        for (int i = 0; i < nums.length; i++) {
+            XMLAssert.assertXpathEvaluatesTo(String.valueOf(nums[i]), 
+                    "(//gs:Fifteen)[" + (i + 1) + "]/gs:num", doc);
+        }
+    }
+    
     @Test
     public void testCountZero() throws Exception {
         Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
@@ -0,0 +1,140 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml.gml3;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathExists;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.GML3OutputFormat;
+import org.geotools.geometry.jts.CurvedGeometryFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.w3c.dom.Document;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class CompiledFeatureCollectionEncoderDelegateTest extends WFSTestSupport {
+
+    @Before
+    public void enableCompiledEncoding() {
+        System.setProperty(GML3OutputFormat.COMPILED_ENCODING, "true");
+    }
+
+    @After
+    public void disableCompiledEncoding() {
+        System.clearProperty(GML3OutputFormat.COMPILED_ENCODING);
+    }
+
+    @Test
+    public void testFeatureMembers() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                + getLayerId(SystemTestData.BUILDINGS));
+        assertTrue(isCompiled("Buildings"));
+
+        assertXpathEvaluatesTo("2", "count(//gml:featureMembers/cite:Buildings)", dom);
+        assertXpathEvaluatesTo("113",
+                "//cite:Buildings[@gml:id='Buildings.1107531701010']/cite:FID", dom);
+        assertXpathEvaluatesTo("123 Main Street",
+                "//cite:Buildings[@gml:id='Buildings.1107531701010']/cite:ADDRESS", dom);
+        assertXpathExists("//cite:Buildings/cite:the_geom/gml:MultiSurface[@srsName]"
+                + "/gml:surfaceMember/gml:Polygon/gml:exterior/gml:LinearRing/gml:posList", dom);
+    }
+
+    @Test
+    public void testFeatureMember() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setEncodeFeatureMember(true);
+        getGeoServer().save(wfs);
+        try {
+            Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                    + getLayerId(SystemTestData.BUILDINGS));
+            assertXpathEvaluatesTo("0", "count(//gml:featureMembers)", dom);
+            assertXpathEvaluatesTo("2", "count(//gml:featureMember/cite:Buildings)", dom);
+        } finally {
+            wfs.setEncodeFeatureMember(false);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testFeatureBounds() throws Exception {
+        WFSInfo wfs = getWFS();
+        boolean featureBounding = wfs.isFeatureBounding();
+        wfs.setFeatureBounding(true);
+        getGeoServer().save(wfs);
+        try {
+            Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                    + getLayerId(SystemTestData.BUILDINGS));
+            assertXpathEvaluatesTo("2",
+                    "count(//cite:Buildings/gml:boundedBy/gml:Envelope[@srsName])", dom);
+            assertXpathExists("//cite:Buildings/gml:boundedBy/gml:Envelope/gml:lowerCorner", dom);
+        } finally {
+            wfs.setFeatureBounding(featureBounding);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testGmlProperties() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                + getLayerId(SystemTestData.AGGREGATEGEOFEATURE)
+                + "&featureId=AggregateGeoFeature.f005");
+        assertTrue(isCompiled("AggregateGeoFeature"));
+
+        String feature = "//sf:AggregateGeoFeature[@gml:id='AggregateGeoFeature.f005']";
+        assertXpathEvaluatesTo("description-f005", feature + "/gml:description", dom);
+        assertXpathEvaluatesTo("name-f005", feature + "/gml:name", dom);
+        assertXpathEvaluatesTo("0", "count(" + feature + "/sf:name)", dom);
+        // gml:description and gml:name come first, as in gml:AbstractFeatureType
+        assertXpathEvaluatesTo("description", "local-name(" + feature + "/*[1])", dom);
+        assertXpathEvaluatesTo("3", "count(" + feature
+                + "/sf:multiPointProperty/gml:MultiPoint/gml:pointMember/gml:Point/gml:pos)",
+                dom);
+        assertXpathEvaluatesTo("2012.78", feature + "/sf:doubleProperty", dom);
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        // has an URI attribute, not compiled
+        Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typename="
+                + getLayerId(SystemTestData.PRIMITIVEGEOFEATURE));
+        assertFalse(isCompiled("PrimitiveGeoFeature"));
+        assertXpathExists("//gml:Point[@srsDimension = '2']", dom);
+    }
+
+    @Test
+    public void testIsCurved() throws Exception {
+        CurvedGeometryFactory factory = new CurvedGeometryFactory(0.1);
+        LineString arc = factory.createCircularString(2, 0, 0, 1, 1, 2, 0);
+        LineString line = (LineString) new WKTReader().read("LINESTRING(0 0, 1 1, 2 0)");
+        assertTrue(CompiledFeatureCollectionEncoderDelegate.isCurved(arc));
+        assertFalse(CompiledFeatureCollectionEncoderDelegate.isCurved(line));
+        // a linear collection holding arcs
+        assertTrue(CompiledFeatureCollectionEncoderDelegate.isCurved(factory
+                .createMultiLineString(new LineString[] { line, arc })));
+        assertFalse(CompiledFeatureCollectionEncoderDelegate.isCurved(factory
+                .createMultiLineString(new LineString[] { line })));
+    }
+
+    boolean isCompiled(String typeName) {
+        synchronized (CompiledFeatureCollectionEncoderDelegate.TEMPLATES) {
+            for (SimpleFeatureType type : CompiledFeatureCollectionEncoderDelegate.TEMPLATES
+                    .keySet()) {
+                if (typeName.equals(type.getTypeName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
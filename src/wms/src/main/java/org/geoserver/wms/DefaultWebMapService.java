@@ -8,8 +8,6 @@ package org.geoserver.wms;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import net.opengis.wfs.FeatureCollectionType;
@@ -113,9 +111,9 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
     public static Boolean TRANSPARENT = Boolean.TRUE;
 
     /**
-     * default for 'transparent' parameter.
+     * The rendering pool shared by all requests, see {@link #getRenderingPool(WMS)}
      */
-    public static ExecutorService RENDERING_POOL;
+    public static RenderingPool RENDERING_POOL;
 
     /**
      * default for 'bbox' paramter
@@ -674,11 +672,11 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      * 
      * @return
      */
-    public static ExecutorService getRenderingPool() {
+    public static RenderingPool getRenderingPool() {
         if(USE_GLOBAL_RENDERING_POOL && RENDERING_POOL == null) {
             synchronized (DefaultWebMapService.class) {
                 if(RENDERING_POOL == null) {
-                    RENDERING_POOL = Executors.newCachedThreadPool();
+                    RENDERING_POOL = new RenderingPool(0, 0);
                 }
             }
         }
@@ -686,6 +684,21 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the app wide rendering pool, sized according to the WMS configuration, or null if
+     * the global rendering pool is disabled
+     * 
+     * @param wms
+     * @return
+     */
+    public static RenderingPool getRenderingPool(WMS wms) {
+        RenderingPool pool = getRenderingPool();
+        if (pool != null) {
+            pool.configure(wms.getMaxRenderingThreads(), wms.getMaxQueuedRenderings());
+        }
+        return pool;
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
@@ -61,11 +61,20 @@ public class RasterCleaner extends AbstractDispatcherCallback {
 
     @Override
     public void finished(Request request) {
+        dispose();
+    }
+
+    /**
+     * Disposes the images and coverages scheduled for cleanup by the current thread. Only needed
+     * by threads working on behalf of a request, the request ones are cleaned up when the request
+     * is finished.
+     */
+    public static void dispose() {
         disposeCoverages();
         disposeImages();
     }
 
-    private void disposeImages() {
+    private static void disposeImages() {
         List<RenderedImage> list = images.get();
         if (list != null) {
             images.remove();
@@ -83,7 +92,7 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         }
     }
 
-    private void disposeImage(RenderedImage image) {
+    private static void disposeImage(RenderedImage image) {
         if (image instanceof PlanarImage) {
             ImageUtilities.disposePlanarImageChain((PlanarImage) image);
         } else if (image instanceof BufferedImage) {
@@ -92,7 +101,7 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         } 
     }
 
-    private void disposeCoverages() {
+    private static void disposeCoverages() {
         List<GridCoverage2D> list = coverages.get();
         if (list != null) {
             coverages.remove();
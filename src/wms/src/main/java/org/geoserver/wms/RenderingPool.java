@@ -0,0 +1,262 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bounded thread pool running the painter threads of the WMS renderers.
+ * <p>
+ * The pool runs at most {@link WMSInfo#getMaxRenderingThreads()} threads, idle threads are
+ * released after a minute. Requests that cannot be served right away wait in a queue ordered by
+ * deadline, so that the requests closest to their max rendering time are painted first, and a
+ * request timed out while waiting, whose renderer has already been stopped, releases its resources
+ * as soon as possible. Requests without a rendering time limit are served in arrival order after
+ * those with one. When the queue holds {@link WMSInfo#getMaxQueuedRenderings()} requests, further
+ * requests are rejected with a {@link RejectedExecutionException}.
+ * </p>
+ * <p>
+ * Renderers get the pool through {@link #forRequest(int)}, which returns an executor tagging each
+ * submitted task with the deadline of the request.
+ * </p>
+ */
+public class RenderingPool extends ThreadPoolExecutor {
+
+    /**
+     * Number of threads used when no limit is configured
+     */
+    public static final int DEFAULT_MAX_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    static final long KEEP_ALIVE_SECONDS = 60;
+
+    final AtomicLong sequence = new AtomicLong();
+
+    final AtomicLong rejected = new AtomicLong();
+
+    final AtomicLong queueTime = new AtomicLong();
+
+    final AtomicLong dequeued = new AtomicLong();
+
+    volatile int maxThreads;
+
+    volatile int maxQueued;
+
+    /**
+     * Creates a new pool
+     *
+     * @param maxThreads the max number of threads, or zero or less to use
+     *        {@link #DEFAULT_MAX_THREADS}
+     * @param maxQueued the max number of queued requests, or zero or less for no limit
+     */
+    public RenderingPool(int maxThreads, int maxQueued) {
+        super(threads(maxThreads), threads(maxThreads), KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new RenderingThreadFactory());
+        allowCoreThreadTimeOut(true);
+        this.maxThreads = maxThreads;
+        this.maxQueued = maxQueued;
+    }
+
+    static int threads(int maxThreads) {
+        return maxThreads > 0 ? maxThreads : DEFAULT_MAX_THREADS;
+    }
+
+    /**
+     * Applies new limits, resizing the pool if needed. Running tasks are not affected.
+     */
+    public void configure(int maxThreads, int maxQueued) {
+        this.maxQueued = maxQueued;
+        if (maxThreads == this.maxThreads) {
+            return;
+        }
+        synchronized (this) {
+            int threads = threads(maxThreads);
+            if (threads > getMaximumPoolSize()) {
+                setMaximumPoolSize(threads);
+                setCorePoolSize(threads);
+            } else {
+                setCorePoolSize(threads);
+                setMaximumPoolSize(threads);
+            }
+            this.maxThreads = maxThreads;
+        }
+    }
+
+    /**
+     * Returns an executor for the tasks of a single rendering request, queued according to the
+     * request deadline
+     *
+     * @param maxRenderingTime the max rendering time of the request in milliseconds, or zero if
+     *        unlimited
+     * @throws RejectedExecutionException if too many requests are already queued
+     */
+    public ExecutorService forRequest(int maxRenderingTime) {
+        int max = maxQueued;
+        if (max > 0 && getQueue().size() >= max) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("There are already " + max
+                    + " rendering requests waiting for a thread");
+        }
+        long deadline = maxRenderingTime > 0 ? System.currentTimeMillis() + maxRenderingTime
+                : Long.MAX_VALUE;
+        return new RequestExecutor(deadline);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PrioritizedTask<T>(runnable, value, Long.MAX_VALUE, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PrioritizedTask<T>(callable, Long.MAX_VALUE, sequence.getAndIncrement());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!(command instanceof PrioritizedTask)) {
+            // the queue only accepts comparable tasks
+            command = new PrioritizedTask<Object>(command, null, Long.MAX_VALUE,
+                    sequence.getAndIncrement());
+        }
+        super.execute(command);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof PrioritizedTask) {
+            queueTime.addAndGet(System.nanoTime() - ((PrioritizedTask<?>) r).queued);
+            dequeued.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a thread
+     */
+    public int getQueuedCount() {
+        return getQueue().size();
+    }
+
+    /**
+     * Returns the number of requests rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the average time, in milliseconds, a task waited for a thread
+     */
+    public double getAverageQueueTime() {
+        long count = dequeued.get();
+        return count == 0 ? 0 : queueTime.get() / 1e6 / count;
+    }
+
+    /**
+     * A task ordered by deadline first, submission order second
+     */
+    static class PrioritizedTask<T> extends FutureTask<T> implements
+            Comparable<PrioritizedTask<?>> {
+
+        final long deadline;
+
+        final long sequence;
+
+        final long queued = System.nanoTime();
+
+        PrioritizedTask(Runnable runnable, T value, long deadline, long sequence) {
+            super(runnable, value);
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        PrioritizedTask(Callable<T> callable, long deadline, long sequence) {
+            super(callable);
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(PrioritizedTask<?> other) {
+            if (deadline != other.deadline) {
+                return deadline < other.deadline ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * The view of the pool handed to a single renderer. Shutting it down has no effect, the pool
+     * is shared.
+     */
+    class RequestExecutor extends AbstractExecutorService {
+
+        final long deadline;
+
+        RequestExecutor(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new PrioritizedTask<T>(runnable, value, deadline, sequence.getAndIncrement());
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new PrioritizedTask<T>(callable, deadline, sequence.getAndIncrement());
+        }
+
+        public void execute(Runnable command) {
+            if (!(command instanceof PrioritizedTask)) {
+                command = newTaskFor(command, null);
+            }
+            RenderingPool.this.execute(command);
+        }
+
+        public void shutdown() {
+            // shared pool
+        }
+
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+            return RenderingPool.this.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return RenderingPool.this.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return RenderingPool.this.awaitTermination(timeout, unit);
+        }
+    }
+
+    static class RenderingThreadFactory implements ThreadFactory {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServer rendering thread " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
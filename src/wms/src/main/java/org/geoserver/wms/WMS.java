@@ -595,6 +595,14 @@ public class WMS implements ApplicationContextAware {
         return getServiceInfo().getMaxRenderingErrors();
     }
 
+    public int getMaxRenderingThreads() {
+        return getServiceInfo().getMaxRenderingThreads();
+    }
+
+    public int getMaxQueuedRenderings() {
+        return getServiceInfo().getMaxQueuedRenderings();
+    }
+
     public String getKmlReflectorMode() {
         String value = (String) getServiceInfo().getMetadata().get(KML_REFLECTOR_MODE);
         return value != null ? value : KML_REFLECTOR_MODE_DEFAULT;
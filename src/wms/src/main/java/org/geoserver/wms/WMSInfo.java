@@ -134,6 +134,32 @@ public interface WMSInfo extends ServiceInfo {
      * @param maxRenderingTime
      */
     void setMaxRenderingErrors(int maxRenderingTime);
+
+    /**
+     * The max number of threads painting maps at the same time. Requests exceeding it wait for a
+     * free thread. Zero or less means twice the number of available processors.
+     */
+    int getMaxRenderingThreads();
+
+    /**
+     * Sets the max number of threads painting maps at the same time
+     * 
+     * @param maxRenderingThreads
+     */
+    void setMaxRenderingThreads(int maxRenderingThreads);
+
+    /**
+     * The max number of requests waiting for a rendering thread, further requests are rejected.
+     * Zero or less means no limit.
+     */
+    int getMaxQueuedRenderings();
+
+    /**
+     * Sets the max number of requests waiting for a rendering thread
+     * 
+     * @param maxQueuedRenderings
+     */
+    void setMaxQueuedRenderings(int maxQueuedRenderings);
     
     /**
      * Defines the list of authority URLs for the root WMS layer
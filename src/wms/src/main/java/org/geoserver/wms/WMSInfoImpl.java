@@ -58,6 +58,10 @@ public class WMSInfoImpl extends ServiceInfoImpl implements WMSInfo {
 
     int maxRenderingErrors;
 
+    int maxRenderingThreads;
+
+    int maxQueuedRenderings;
+
     private String capabilitiesErrorHandling;
 
     public WMSInfoImpl() {
@@ -135,6 +139,22 @@ public class WMSInfoImpl extends ServiceInfoImpl implements WMSInfo {
         this.maxRenderingErrors = maxRenderingErrors;
     }
 
+    public int getMaxRenderingThreads() {
+        return maxRenderingThreads;
+    }
+
+    public void setMaxRenderingThreads(int maxRenderingThreads) {
+        this.maxRenderingThreads = maxRenderingThreads;
+    }
+
+    public int getMaxQueuedRenderings() {
+        return maxQueuedRenderings;
+    }
+
+    public void setMaxQueuedRenderings(int maxQueuedRenderings) {
+        this.maxQueuedRenderings = maxQueuedRenderings;
+    }
+
     @Override
     public List<AuthorityURLInfo> getAuthorityURLs() {
         return authorityURLs;
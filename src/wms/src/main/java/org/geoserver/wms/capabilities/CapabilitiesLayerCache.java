@@ -0,0 +1,394 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedType;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListener;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
+import org.geoserver.wms.capabilities.FragmentContentHandler.Fragment;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the <code>Layer</code> elements of the WMS capabilities documents, as SAX event
+ * {@link Fragment}s that the capabilities translators replay instead of encoding the layer again.
+ * <p>
+ * A fragment is cached for each capabilities version, layer, request base URL, virtual service
+ * workspace and authenticated principal (user name and roles), so that anything the security
+ * subsystem and the URL manglers could change in the output is part of the key. The list of
+ * layers advertised by a document is still computed for each request, only the encoding of
+ * each layer is cached.
+ * </p>
+ * <p>
+ * The fragments of a layer are evicted when the layer, its resource, its store or one of its
+ * styles is modified or removed. Changes to namespaces, workspaces, the global settings or the
+ * WMS service configuration, and catalog or configuration reloads, clear the whole cache. Layers
+ * whose elements depend on data rather than configuration, that is, cascaded WMS layers and
+ * layers with enabled dimensions, are never cached.
+ * </p>
+ * <p>
+ * The cache can be disabled with the {@value #ENABLED_PROPERTY} property, its size is set in
+ * bytes with the {@value #MAX_SIZE_PROPERTY} property (64MB by default).
+ * </p>
+ */
+public class CapabilitiesLayerCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesLayerCache.class);
+
+    public static final String ENABLED_PROPERTY = "org.geoserver.wms.capabilities.CapabilitiesLayerCache.enabled";
+
+    public static final String MAX_SIZE_PROPERTY = "org.geoserver.wms.capabilities.CapabilitiesLayerCache.maxSize";
+
+    static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    final GeoServer geoServer;
+
+    final boolean enabled;
+
+    final Cache<String, Entry> fragments;
+
+    /**
+     * Incremented on each invalidation, used to avoid caching fragments encoded while the objects
+     * they depend on were being modified
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final ConfigurationListener configurationListener = new ConfigurationListenerAdapter() {
+
+        @Override
+        public void handlePostGlobalChange(GeoServerInfo global) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsAdded(SettingsInfo settings) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsPostModified(SettingsInfo settings) {
+            clear();
+        }
+
+        @Override
+        public void handleSettingsRemoved(SettingsInfo settings) {
+            clear();
+        }
+
+        @Override
+        public void handlePostServiceChange(ServiceInfo service) {
+            if (service instanceof WMSInfo) {
+                clear();
+            }
+        }
+
+        @Override
+        public void handleServiceRemove(ServiceInfo service) {
+            if (service instanceof WMSInfo) {
+                clear();
+            }
+        }
+
+        @Override
+        public void reloaded() {
+            clear();
+        }
+    };
+
+    public CapabilitiesLayerCache(GeoServer geoServer) {
+        this(geoServer, isEnabledByProperty(), getMaxSizeProperty());
+    }
+
+    CapabilitiesLayerCache(GeoServer geoServer, boolean enabled, long maxSize) {
+        this.geoServer = geoServer;
+        this.enabled = enabled && maxSize > 0;
+        this.fragments = CacheBuilder.newBuilder().maximumWeight(Math.max(maxSize, 0))
+                .weigher(new Weigher<String, Entry>() {
+
+                    public int weigh(String key, Entry entry) {
+                        return key.length() * 2 + entry.fragment.weight;
+                    }
+                }).build();
+        if (this.enabled) {
+            geoServer.getCatalog().addListener(this);
+            geoServer.addListener(configurationListener);
+        }
+    }
+
+    static boolean isEnabledByProperty() {
+        String value = GeoServerExtensions.getProperty(ENABLED_PROPERTY);
+        return value == null || Boolean.parseBoolean(value);
+    }
+
+    static long getMaxSizeProperty() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_PROPERTY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + MAX_SIZE_PROPERTY + ": " + value
+                        + ", using the default", e);
+            }
+        }
+        return DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Returns the cache to be used when encoding a capabilities document for the specified
+     * {@link WMS}, or null if caching is disabled or the {@link WMS} is not backed by the
+     * configuration the cache listens to
+     */
+    static CapabilitiesLayerCache get(WMS wms) {
+        CapabilitiesLayerCache cache = GeoServerExtensions.bean(CapabilitiesLayerCache.class);
+        if (cache == null || !cache.isEnabled() || cache.geoServer != wms.getGeoServer()) {
+            return null;
+        }
+        return cache;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the key of the fragment encoding the specified layer in the current request, or
+     * null if the layer element cannot be cached
+     */
+    String key(String version, LayerInfo layer, String baseUrl) {
+        if (!isCacheable(layer)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(version).append('\u0000').append(layer.getId()).append('\u0000');
+        sb.append(baseUrl).append('\u0000');
+        WorkspaceInfo localWorkspace = LocalWorkspace.get();
+        if (localWorkspace != null) {
+            sb.append(localWorkspace.getName());
+        }
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            sb.append('\u0000').append(auth.getName());
+            List<String> roles = new ArrayList<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+            for (String role : roles) {
+                sb.append('\u0000').append(role);
+            }
+        }
+        return sb.toString();
+    }
+
+    boolean isCacheable(LayerInfo layer) {
+        if (layer.getId() == null
+                || (layer.getType() != PublishedType.VECTOR && layer.getType() != PublishedType.RASTER)) {
+            return false;
+        }
+        ResourceInfo resource = layer.getResource();
+        if (resource == null) {
+            return false;
+        }
+        // dimension values are read from the data
+        for (Object value : resource.getMetadata().values()) {
+            if (value instanceof DimensionInfo && ((DimensionInfo) value).isEnabled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current generation, to be passed to
+     * {@link #put(String, LayerInfo, Fragment, long)} for a fragment encoded afterwards
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the cached fragment for the specified key, or null
+     */
+    Fragment get(String key) {
+        Entry entry = fragments.getIfPresent(key);
+        return entry == null ? null : entry.fragment;
+    }
+
+    /**
+     * Caches the fragment encoding a layer, unless the cache has been invalidated since the
+     * specified generation
+     */
+    void put(String key, LayerInfo layer, Fragment fragment, long generation) {
+        if (fragment == null || this.generation.get() != generation) {
+            return;
+        }
+        fragments.put(key, new Entry(fragment, dependencies(layer)));
+        // an invalidation might have run between the check and the put
+        if (this.generation.get() != generation) {
+            fragments.invalidate(key);
+        }
+    }
+
+    /**
+     * The identifiers of the objects a layer element is built from
+     */
+    static String[] dependencies(LayerInfo layer) {
+        List<String> ids = new ArrayList<String>();
+        ids.add(layer.getId());
+        ResourceInfo resource = layer.getResource();
+        ids.add(resource.getId());
+        if (resource.getStore() != null) {
+            ids.add(resource.getStore().getId());
+        }
+        if (layer.getDefaultStyle() != null) {
+            ids.add(layer.getDefaultStyle().getId());
+        }
+        if (layer.getStyles() != null) {
+            for (StyleInfo style : layer.getStyles()) {
+                ids.add(style.getId());
+            }
+        }
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    /**
+     * Evicts the fragments depending on the object with the specified identifier
+     */
+    void invalidate(String id) {
+        generation.incrementAndGet();
+        for (Iterator<Map.Entry<String, Entry>> it = fragments.asMap().entrySet().iterator(); it
+                .hasNext();) {
+            if (it.next().getValue().dependsOn(id)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Evicts all fragments
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        fragments.invalidateAll();
+    }
+
+    /**
+     * Returns the number of cached fragments
+     */
+    public long size() {
+        return fragments.size();
+    }
+
+    void handleChange(CatalogInfo source) {
+        if (source instanceof NamespaceInfo || source instanceof WorkspaceInfo) {
+            // prefixes and URIs are used everywhere
+            clear();
+        } else if (!(source instanceof LayerGroupInfo) && source.getId() != null) {
+            invalidate(source.getId());
+        }
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // new objects do not affect the cached layers
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        handleChange(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event, the change is not applied yet
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        handleChange(event.getSource());
+    }
+
+    public void reloaded() {
+        clear();
+    }
+
+    public void onReset() {
+        clear();
+    }
+
+    public void onDispose() {
+        if (enabled) {
+            geoServer.getCatalog().removeListener(this);
+            geoServer.removeListener(configurationListener);
+        }
+        clear();
+    }
+
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    public void onReload() {
+        clear();
+    }
+
+    /**
+     * A cached fragment, along with the identifiers of the objects it depends on
+     */
+    static class Entry {
+
+        final Fragment fragment;
+
+        final String[] dependencies;
+
+        Entry(Fragment fragment, String[] dependencies) {
+            this.fragment = fragment;
+            this.dependencies = dependencies;
+        }
+
+        boolean dependsOn(String id) {
+            for (String dependency : dependencies) {
+                if (id.equals(dependency)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -154,8 +154,14 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
 
     @Override
     public Translator createTranslator(ContentHandler handler) {
+        CapabilitiesLayerCache layerCache = CapabilitiesLayerCache.get(wmsConfig);
+        if (layerCache != null) {
+            FragmentContentHandler fragments = new FragmentContentHandler(handler);
+            return new Capabilities_1_3_0_Translator(fragments, wmsConfig, getMapFormats,
+                    extCapsProviders, schemaBaseURL, layerCache, fragments);
+        }
         return new Capabilities_1_3_0_Translator(handler, wmsConfig, getMapFormats,
-                extCapsProviders, schemaBaseURL);
+                extCapsProviders, schemaBaseURL, null, null);
     }
 
     /**
@@ -192,6 +198,14 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
         
         private LegendSample legendSample;
 
+        /**
+         * The layer element cache and the handler recording the layer elements, both null if
+         * caching is disabled
+         */
+        private CapabilitiesLayerCache layerCache;
+
+        private FragmentContentHandler fragments;
+
         /**
          * Creates a new CapabilitiesTranslator object.
          * 
@@ -199,16 +213,23 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
          *            content handler to send sax events to.
          * @param schemaBaseURL
          * @param schemaLoc
+         * @param layerCache
+         *            the layer element cache, or null
+         * @param fragments
+         *            the handler recording the layer elements, same as {@code handler}, or null
          * 
          */
         public Capabilities_1_3_0_Translator(ContentHandler handler, WMS wmsConfig,
                 Collection<GetMapOutputFormat> getMapFormats,
-                Collection<ExtendedCapabilitiesProvider> extCapsProviders, String schemaBaseURL) {
+                Collection<ExtendedCapabilitiesProvider> extCapsProviders, String schemaBaseURL,
+                CapabilitiesLayerCache layerCache, FragmentContentHandler fragments) {
             super(handler, null, null);
             this.wmsConfig = wmsConfig;
             this.getMapFormats = getMapFormats;
             this.extCapsProviders = extCapsProviders;
             this.schemaBaseURL = schemaBaseURL;
+            this.layerCache = layerCache;
+            this.fragments = fragments;
             
             this.dimensionHelper = new DimensionHelper(Mode.WMS13, wmsConfig) {
                 
@@ -875,11 +896,29 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
         }
 
         private void doHandleLayer(LayerInfo layer) {
+            String key = null;
+            long generation = 0;
+            if (layerCache != null) {
+                key = layerCache.key("1.3.0", layer, request.getBaseUrl());
+                if (key != null && fragments.replay(layerCache.get(key))) {
+                    return;
+                }
+                generation = layerCache.getGeneration();
+            }
             try {
                 mark();
+                if (key != null) {
+                    fragments.startRecording();
+                }
                 handleLayer(layer);
                 commit();
+                if (key != null) {
+                    layerCache.put(key, layer, fragments.stopRecording(), generation);
+                }
             } catch (Exception e) {
+                if (key != null) {
+                    fragments.stopRecording();
+                }
                 // report what layer we failed on to help the admin locate and fix it
                 if (skipping) {
                     reset();
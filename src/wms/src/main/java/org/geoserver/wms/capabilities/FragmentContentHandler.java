@@ -0,0 +1,409 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A content handler forwarding SAX events to a delegate, that can record the events it receives
+ * into a {@link Fragment} and later replay a fragment into the delegate.
+ * <p>
+ * Used to cache the layer elements of the capabilities documents, see
+ * {@link CapabilitiesLayerCache}.
+ * </p>
+ */
+class FragmentContentHandler implements ContentHandler, LexicalHandler {
+
+    final ContentHandler delegate;
+
+    final LexicalHandler lexicalDelegate;
+
+    List<Event> recording;
+
+    public FragmentContentHandler(ContentHandler delegate) {
+        this.delegate = delegate;
+        this.lexicalDelegate = delegate instanceof LexicalHandler ? (LexicalHandler) delegate
+                : null;
+    }
+
+    /**
+     * Starts recording the events forwarded to the delegate
+     */
+    public void startRecording() {
+        recording = new ArrayList<Event>();
+    }
+
+    /**
+     * Stops recording, returning the events recorded since {@link #startRecording()}, or null if
+     * no recording was in progress
+     */
+    public Fragment stopRecording() {
+        List<Event> events = recording;
+        recording = null;
+        return events == null ? null : new Fragment(events.toArray(new Event[events.size()]));
+    }
+
+    /**
+     * Sends the events of a previously recorded fragment to the delegate
+     *
+     * @return false if the fragment is null, true otherwise
+     */
+    public boolean replay(Fragment fragment) {
+        if (fragment == null) {
+            return false;
+        }
+        try {
+            for (Event event : fragment.events) {
+                event.replay(delegate, lexicalDelegate);
+            }
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    void record(Event event) {
+        if (recording != null) {
+            recording.add(event);
+        }
+    }
+
+    public void setDocumentLocator(Locator locator) {
+        delegate.setDocumentLocator(locator);
+    }
+
+    public void startDocument() throws SAXException {
+        delegate.startDocument();
+    }
+
+    public void endDocument() throws SAXException {
+        delegate.endDocument();
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        record(new StartPrefixMapping(prefix, uri));
+        delegate.startPrefixMapping(prefix, uri);
+    }
+
+    public void endPrefixMapping(String prefix) throws SAXException {
+        record(new EndPrefixMapping(prefix));
+        delegate.endPrefixMapping(prefix);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+            throws SAXException {
+        record(new StartElement(uri, localName, qName, atts));
+        delegate.startElement(uri, localName, qName, atts);
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        record(new EndElement(uri, localName, qName));
+        delegate.endElement(uri, localName, qName);
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        record(new Characters(ch, start, length, false));
+        delegate.characters(ch, start, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        record(new Characters(ch, start, length, true));
+        delegate.ignorableWhitespace(ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        record(new ProcessingInstruction(target, data));
+        delegate.processingInstruction(target, data);
+    }
+
+    public void skippedEntity(String name) throws SAXException {
+        delegate.skippedEntity(name);
+    }
+
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        if (lexicalDelegate != null) {
+            lexicalDelegate.startDTD(name, publicId, systemId);
+        }
+    }
+
+    public void endDTD() throws SAXException {
+        if (lexicalDelegate != null) {
+            lexicalDelegate.endDTD();
+        }
+    }
+
+    public void startEntity(String name) throws SAXException {
+        if (lexicalDelegate != null) {
+            lexicalDelegate.startEntity(name);
+        }
+    }
+
+    public void endEntity(String name) throws SAXException {
+        if (lexicalDelegate != null) {
+            lexicalDelegate.endEntity(name);
+        }
+    }
+
+    public void startCDATA() throws SAXException {
+        record(new CDATA(true));
+        if (lexicalDelegate != null) {
+            lexicalDelegate.startCDATA();
+        }
+    }
+
+    public void endCDATA() throws SAXException {
+        record(new CDATA(false));
+        if (lexicalDelegate != null) {
+            lexicalDelegate.endCDATA();
+        }
+    }
+
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        record(new Comment(ch, start, length));
+        if (lexicalDelegate != null) {
+            lexicalDelegate.comment(ch, start, length);
+        }
+    }
+
+    /**
+     * A recorded sequence of SAX events
+     */
+    static class Fragment {
+
+        final Event[] events;
+
+        /**
+         * Rough estimate of the memory used by the fragment, in bytes
+         */
+        final int weight;
+
+        Fragment(Event[] events) {
+            this.events = events;
+            int weight = 16 + events.length * 4;
+            for (Event event : events) {
+                weight += event.weight();
+            }
+            this.weight = weight;
+        }
+    }
+
+    static abstract class Event {
+
+        abstract void replay(ContentHandler handler, LexicalHandler lexicalHandler)
+                throws SAXException;
+
+        /**
+         * Rough estimate of the memory used by the event, in bytes
+         */
+        abstract int weight();
+
+        static int weight(String s) {
+            return s == null ? 0 : 40 + s.length() * 2;
+        }
+    }
+
+    static class StartElement extends Event {
+
+        final String uri;
+
+        final String localName;
+
+        final String qName;
+
+        final Attributes atts;
+
+        StartElement(String uri, String localName, String qName, Attributes atts) {
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+            this.atts = new AttributesImpl(atts);
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            handler.startElement(uri, localName, qName, atts);
+        }
+
+        @Override
+        int weight() {
+            // element names are usually shared constants, count the attribute values only
+            int weight = 40;
+            for (int i = 0; i < atts.getLength(); i++) {
+                weight += 32 + weight(atts.getValue(i));
+            }
+            return weight;
+        }
+    }
+
+    static class EndElement extends Event {
+
+        final String uri;
+
+        final String localName;
+
+        final String qName;
+
+        EndElement(String uri, String localName, String qName) {
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            handler.endElement(uri, localName, qName);
+        }
+
+        @Override
+        int weight() {
+            return 24;
+        }
+    }
+
+    static class Characters extends Event {
+
+        final char[] ch;
+
+        final boolean ignorable;
+
+        Characters(char[] ch, int start, int length, boolean ignorable) {
+            this.ch = new char[length];
+            System.arraycopy(ch, start, this.ch, 0, length);
+            this.ignorable = ignorable;
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            if (ignorable) {
+                handler.ignorableWhitespace(ch, 0, ch.length);
+            } else {
+                handler.characters(ch, 0, ch.length);
+            }
+        }
+
+        @Override
+        int weight() {
+            return 32 + ch.length * 2;
+        }
+    }
+
+    static class Comment extends Event {
+
+        final char[] ch;
+
+        Comment(char[] ch, int start, int length) {
+            this.ch = new char[length];
+            System.arraycopy(ch, start, this.ch, 0, length);
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            if (lexicalHandler != null) {
+                lexicalHandler.comment(ch, 0, ch.length);
+            }
+        }
+
+        @Override
+        int weight() {
+            return 32 + ch.length * 2;
+        }
+    }
+
+    static class CDATA extends Event {
+
+        final boolean start;
+
+        CDATA(boolean start) {
+            this.start = start;
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            if (lexicalHandler != null) {
+                if (start) {
+                    lexicalHandler.startCDATA();
+                } else {
+                    lexicalHandler.endCDATA();
+                }
+            }
+        }
+
+        @Override
+        int weight() {
+            return 16;
+        }
+    }
+
+    static class StartPrefixMapping extends Event {
+
+        final String prefix;
+
+        final String uri;
+
+        StartPrefixMapping(String prefix, String uri) {
+            this.prefix = prefix;
+            this.uri = uri;
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            handler.startPrefixMapping(prefix, uri);
+        }
+
+        @Override
+        int weight() {
+            return 24 + weight(prefix) + weight(uri);
+        }
+    }
+
+    static class EndPrefixMapping extends Event {
+
+        final String prefix;
+
+        EndPrefixMapping(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            handler.endPrefixMapping(prefix);
+        }
+
+        @Override
+        int weight() {
+            return 16 + weight(prefix);
+        }
+    }
+
+    static class ProcessingInstruction extends Event {
+
+        final String target;
+
+        final String data;
+
+        ProcessingInstruction(String target, String data) {
+            this.target = target;
+            this.data = data;
+        }
+
+        @Override
+        void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+            handler.processingInstruction(target, data);
+        }
+
+        @Override
+        int weight() {
+            return 24 + weight(target) + weight(data);
+        }
+    }
+}
@@ -167,8 +167,14 @@ public class GetCapabilitiesTransformer extends TransformerBase {
 
     @Override
     public Translator createTranslator(ContentHandler handler) {
+        CapabilitiesLayerCache layerCache = CapabilitiesLayerCache.get(wmsConfig);
+        if (layerCache != null) {
+            FragmentContentHandler fragments = new FragmentContentHandler(handler);
+            return new CapabilitiesTranslator(fragments, wmsConfig, getMapFormats,
+                    getLegendGraphicFormats, extCapsProviders, layerCache, fragments);
+        }
         return new CapabilitiesTranslator(handler, wmsConfig, getMapFormats,
-                getLegendGraphicFormats, extCapsProviders);
+                getLegendGraphicFormats, extCapsProviders, null, null);
     }
 
     /**
@@ -242,22 +248,37 @@ public class GetCapabilitiesTransformer extends TransformerBase {
 
         private WMSInfo serviceInfo;
 
+        /**
+         * The layer element cache and the handler recording the layer elements, both null if
+         * caching is disabled
+         */
+        private CapabilitiesLayerCache layerCache;
+
+        private FragmentContentHandler fragments;
+
         /**
          * Creates a new CapabilitiesTranslator object.
          * 
          * @param handler
          *            content handler to send sax events to.
          * @param wmsConfig2
+         * @param layerCache
+         *            the layer element cache, or null
+         * @param fragments
+         *            the handler recording the layer elements, same as {@code handler}, or null
          */
         public CapabilitiesTranslator(ContentHandler handler, WMS wmsConfig,
                 Set<String> getMapFormats, Set<String> getLegendGraphicFormats,
-                Collection<ExtendedCapabilitiesProvider> extCapsProviders) {
+                Collection<ExtendedCapabilitiesProvider> extCapsProviders,
+                CapabilitiesLayerCache layerCache, FragmentContentHandler fragments) {
             super(handler, null, null);
             this.wmsConfig = wmsConfig;
             this.getMapFormats = getMapFormats;
             this.getLegendGraphicFormats = getLegendGraphicFormats;
             this.extCapsProviders = extCapsProviders;
             this.serviceInfo = wmsConfig.getServiceInfo();
+            this.layerCache = layerCache;
+            this.fragments = fragments;
             
             this.dimensionHelper = new DimensionHelper(Mode.WMS11, wmsConfig) {
                 
@@ -827,11 +848,29 @@ public class GetCapabilitiesTransformer extends TransformerBase {
                 // ask for enabled() instead of isEnabled() to account for disabled resource/store
                 // don't expose a geometryless layer through wms
                 if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
+                    String key = null;
+                    long generation = 0;
+                    if (layerCache != null) {
+                        key = layerCache.key("1.1.1", layer, request.getBaseUrl());
+                        if (key != null && fragments.replay(layerCache.get(key))) {
+                            continue;
+                        }
+                        generation = layerCache.getGeneration();
+                    }
                     try {
                         mark();
+                        if (key != null) {
+                            fragments.startRecording();
+                        }
                         handleLayer(layer);
                         commit();
+                        if (key != null) {
+                            layerCache.put(key, layer, fragments.stopRecording(), generation);
+                        }
                     } catch (Exception e) {
+                        if (key != null) {
+                            fragments.stopRecording();
+                        }
                         if (skipping) {
                             reset();
                             LOGGER.log(
@@ -0,0 +1,495 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.geoserver.platform.GeoServerExtensions;
+
+/**
+ * Builds a bitmask paletted version of an RGB or RGBA image, working on primitive arrays only.
+ * <p>
+ * Images with no more colors than the palette can hold are indexed exactly. Otherwise the palette
+ * is built by median cut over a 15 bits color histogram, each palette entry being the average of
+ * the pixels falling in its box, and each histogram cell is then mapped to the closest palette
+ * entry, so that the per pixel work is a table lookup. Pixels whose alpha is below the threshold
+ * become fully transparent, all the others fully opaque.
+ * </p>
+ * <p>
+ * Used by {@link ImageUtils#forceIndexed8Bitmask} in place of the GeoTools
+ * <code>CustomPaletteBuilder</code>, unless the {@value #ENABLED_PROPERTY} property is set to
+ * false.
+ * </p>
+ */
+public class FastPaletteBuilder {
+
+    public static final String ENABLED_PROPERTY = "org.geoserver.wms.map.FastPaletteBuilder.enabled";
+
+    static final boolean ENABLED = !"false".equalsIgnoreCase(GeoServerExtensions
+            .getProperty(ENABLED_PROPERTY));
+
+    static final int HISTOGRAM_SIZE = 1 << 15;
+
+    static final int EMPTY = 0;
+
+    /**
+     * Marker for transparent pixels, opaque pixels always have a 0xFF alpha
+     */
+    static final int TRANSPARENT = 0;
+
+    final RenderedImage image;
+
+    final int maxColors;
+
+    final int alphaThreshold;
+
+    /**
+     * @param image the image to be quantized, see {@link #accepts(RenderedImage)}
+     * @param maxColors the max number of colors in the palette, transparency included, up to 256
+     * @param alphaThreshold pixels with a lower alpha become transparent
+     */
+    public FastPaletteBuilder(RenderedImage image, int maxColors, int alphaThreshold) {
+        this.image = image;
+        this.maxColors = Math.max(2, Math.min(256, maxColors));
+        this.alphaThreshold = alphaThreshold;
+    }
+
+    /**
+     * Returns true if the builder is enabled and supports the image structure, 8 bits RGB or RGBA
+     * with non premultiplied alpha
+     */
+    public static boolean accepts(RenderedImage image) {
+        if (!ENABLED) {
+            return false;
+        }
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm == null || cm instanceof IndexColorModel || cm.isAlphaPremultiplied()
+                || cm.getColorSpace().getType() != ColorSpace.TYPE_RGB
+                || cm.getNumComponents() != sm.getNumBands()) {
+            return false;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        int bands = sm.getNumBands();
+        return bands == 3 || (bands == 4 && cm.hasAlpha());
+    }
+
+    /**
+     * Builds the palette and returns the image indexed against it
+     */
+    public BufferedImage buildIndexedImage() {
+        int[] pixels = readPixels();
+
+        Palette palette = buildExactPalette(pixels);
+        if (palette == null) {
+            palette = buildMedianCutPalette(pixels);
+        }
+
+        IndexColorModel icm = palette.toColorModel();
+        WritableRaster raster = icm.createCompatibleWritableRaster(image.getWidth(),
+                image.getHeight());
+        byte[] indexes = ((DataBufferByte) raster.getDataBuffer()).getData();
+        palette.index(pixels, indexes);
+        return new BufferedImage(icm, raster, false, null);
+    }
+
+    /**
+     * Reads the image as opaque ARGB values, with {@link #TRANSPARENT} for the pixels below the
+     * alpha threshold
+     */
+    int[] readPixels() {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bands = image.getSampleModel().getNumBands();
+        int[] pixels = new int[width * height];
+        Raster raster = image.getData(new Rectangle(image.getMinX(), image.getMinY(), width,
+                height));
+        int[] samples = new int[width * bands];
+        int p = 0;
+        for (int y = 0; y < height; y++) {
+            getRow(raster, image.getMinX(), image.getMinY() + y, width, bands, samples);
+            for (int i = 0; i < samples.length; i += bands) {
+                if (bands == 4 && samples[i + 3] < alphaThreshold) {
+                    pixels[p++] = TRANSPARENT;
+                } else {
+                    pixels[p++] = 0xFF000000 | (samples[i] << 16) | (samples[i + 1] << 8)
+                            | samples[i + 2];
+                }
+            }
+        }
+        return pixels;
+    }
+
+    static void getRow(Raster raster, int x, int y, int width, int bands, int[] samples) {
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (sm instanceof ComponentSampleModel && buffer instanceof DataBufferByte
+                && buffer.getNumBanks() == 1) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int pixelStride = csm.getPixelStride();
+            int[] offsets = new int[bands];
+            for (int b = 0; b < bands; b++) {
+                offsets[b] = buffer.getOffset()
+                        + csm.getOffset(x - raster.getSampleModelTranslateX(),
+                                y - raster.getSampleModelTranslateY(), b);
+            }
+            int i = 0;
+            for (int p = 0; p < width; p++) {
+                int base = p * pixelStride;
+                for (int b = 0; b < bands; b++) {
+                    samples[i++] = data[offsets[b] + base] & 0xFF;
+                }
+            }
+        } else {
+            raster.getPixels(x, y, width, 1, samples);
+        }
+    }
+
+    /**
+     * Returns a palette holding exactly the image colors, or null if there are too many
+     */
+    Palette buildExactPalette(int[] pixels) {
+        // open addressing hash set of the colors, TRANSPARENT is the empty marker
+        int[] table = new int[1024];
+        int mask = table.length - 1;
+        int colors = 0;
+        boolean transparent = false;
+        int last = TRANSPARENT;
+        for (int pixel : pixels) {
+            if (pixel == TRANSPARENT) {
+                transparent = true;
+                continue;
+            } else if (pixel == last) {
+                continue;
+            }
+            last = pixel;
+            int slot = hash(pixel) & mask;
+            while (table[slot] != EMPTY && table[slot] != pixel) {
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == EMPTY) {
+                table[slot] = pixel;
+                colors++;
+                if (colors + (transparent ? 1 : 0) > maxColors) {
+                    return null;
+                }
+            }
+        }
+        if (colors + (transparent ? 1 : 0) > maxColors) {
+            return null;
+        }
+
+        int[] palette = new int[colors];
+        int c = 0;
+        for (int color : table) {
+            if (color != EMPTY) {
+                palette[c++] = color;
+            }
+        }
+        Arrays.sort(palette);
+        return new ExactPalette(palette, transparent);
+    }
+
+    static int hash(int color) {
+        int h = color * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int bin(int pixel) {
+        return ((pixel >> 9) & 0x7C00) | ((pixel >> 6) & 0x03E0) | ((pixel >> 3) & 0x001F);
+    }
+
+    /**
+     * Builds the palette by median cut over a 5 bits per channel histogram
+     */
+    Palette buildMedianCutPalette(int[] pixels) {
+        int[] counts = new int[HISTOGRAM_SIZE];
+        long[] sums = new long[HISTOGRAM_SIZE * 3];
+        boolean transparent = false;
+        for (int pixel : pixels) {
+            if (pixel == TRANSPARENT) {
+                transparent = true;
+                continue;
+            }
+            int bin = bin(pixel);
+            counts[bin]++;
+            sums[bin * 3] += (pixel >> 16) & 0xFF;
+            sums[bin * 3 + 1] += (pixel >> 8) & 0xFF;
+            sums[bin * 3 + 2] += pixel & 0xFF;
+        }
+
+        int maxBoxes = transparent ? maxColors - 1 : maxColors;
+        // boxes as [rmin, rmax, gmin, gmax, bmin, bmax] in histogram coordinates
+        int[][] boxes = new int[maxBoxes][];
+        long[] populations = new long[maxBoxes];
+        boxes[0] = new int[] { 0, 31, 0, 31, 0, 31 };
+        populations[0] = shrink(boxes[0], counts);
+        int boxCount = 1;
+        while (boxCount < maxBoxes) {
+            // split the most populated box that can still be split, favoring the larger ones
+            int target = -1;
+            long best = 0;
+            for (int i = 0; i < boxCount; i++) {
+                int[] box = boxes[i];
+                int side = Math.max(box[1] - box[0], Math.max(box[3] - box[2], box[5] - box[4]));
+                long score = populations[i] * side;
+                if (side > 0 && score > best) {
+                    best = score;
+                    target = i;
+                }
+            }
+            if (target < 0) {
+                break;
+            }
+            int[] box = boxes[target];
+            int[] other = split(box, counts);
+            populations[target] = shrink(box, counts);
+            boxes[boxCount] = other;
+            populations[boxCount] = shrink(other, counts);
+            boxCount++;
+        }
+
+        // average color of each box
+        int[] palette = new int[boxCount];
+        for (int i = 0; i < boxCount; i++) {
+            int[] box = boxes[i];
+            long r = 0, g = 0, b = 0, n = 0;
+            for (int ri = box[0]; ri <= box[1]; ri++) {
+                for (int gi = box[2]; gi <= box[3]; gi++) {
+                    for (int bi = box[4]; bi <= box[5]; bi++) {
+                        int bin = (ri << 10) | (gi << 5) | bi;
+                        int count = counts[bin];
+                        if (count > 0) {
+                            n += count;
+                            r += sums[bin * 3];
+                            g += sums[bin * 3 + 1];
+                            b += sums[bin * 3 + 2];
+                        }
+                    }
+                }
+            }
+            if (n > 0) {
+                palette[i] = 0xFF000000 | ((int) (r / n) << 16) | ((int) (g / n) << 8)
+                        | (int) (b / n);
+            } else {
+                palette[i] = 0xFF000000;
+            }
+        }
+        return new MedianCutPalette(palette, transparent, counts, sums);
+    }
+
+    /**
+     * Shrinks the box to the occupied cells, returning its population
+     */
+    static long shrink(int[] box, int[] counts) {
+        int rmin = 31, rmax = 0, gmin = 31, gmax = 0, bmin = 31, bmax = 0;
+        long population = 0;
+        for (int r = box[0]; r <= box[1]; r++) {
+            for (int g = box[2]; g <= box[3]; g++) {
+                int base = (r << 10) | (g << 5);
+                for (int b = box[4]; b <= box[5]; b++) {
+                    int count = counts[base | b];
+                    if (count > 0) {
+                        population += count;
+                        rmin = Math.min(rmin, r);
+                        rmax = Math.max(rmax, r);
+                        gmin = Math.min(gmin, g);
+                        gmax = Math.max(gmax, g);
+                        bmin = Math.min(bmin, b);
+                        bmax = Math.max(bmax, b);
+                    }
+                }
+            }
+        }
+        if (population > 0) {
+            box[0] = rmin;
+            box[1] = rmax;
+            box[2] = gmin;
+            box[3] = gmax;
+            box[4] = bmin;
+            box[5] = bmax;
+        }
+        return population;
+    }
+
+    /**
+     * Splits the box at the median of its longest side, the box keeps the lower half and the
+     * upper one is returned
+     */
+    static int[] split(int[] box, int[] counts) {
+        int axis = 0;
+        int longest = box[1] - box[0];
+        if (box[3] - box[2] > longest) {
+            axis = 1;
+            longest = box[3] - box[2];
+        }
+        if (box[5] - box[4] > longest) {
+            axis = 2;
+        }
+
+        int min = box[axis * 2];
+        int max = box[axis * 2 + 1];
+        long[] slices = new long[max - min + 1];
+        long total = 0;
+        for (int r = box[0]; r <= box[1]; r++) {
+            for (int g = box[2]; g <= box[3]; g++) {
+                for (int b = box[4]; b <= box[5]; b++) {
+                    int count = counts[(r << 10) | (g << 5) | b];
+                    if (count > 0) {
+                        int v = axis == 0 ? r : (axis == 1 ? g : b);
+                        slices[v - min] += count;
+                        total += count;
+                    }
+                }
+            }
+        }
+
+        // the last slice of the lower half, leaving at least one slice in the upper one
+        int cut = min;
+        long cumulated = slices[0];
+        while (cut < max - 1 && cumulated * 2 < total) {
+            cut++;
+            cumulated += slices[cut - min];
+        }
+
+        int[] upper = box.clone();
+        box[axis * 2 + 1] = cut;
+        upper[axis * 2] = cut + 1;
+        return upper;
+    }
+
+    abstract static class Palette {
+
+        final int[] colors;
+
+        final boolean transparent;
+
+        Palette(int[] colors, boolean transparent) {
+            this.colors = colors;
+            this.transparent = transparent;
+        }
+
+        /**
+         * The index of the transparent entry, the last one
+         */
+        int getTransparentIndex() {
+            return transparent ? colors.length : -1;
+        }
+
+        IndexColorModel toColorModel() {
+            int size = colors.length + (transparent ? 1 : 0);
+            byte[] r = new byte[size];
+            byte[] g = new byte[size];
+            byte[] b = new byte[size];
+            for (int i = 0; i < colors.length; i++) {
+                r[i] = (byte) (colors[i] >> 16);
+                g[i] = (byte) (colors[i] >> 8);
+                b[i] = (byte) colors[i];
+            }
+            return new IndexColorModel(8, size, r, g, b, getTransparentIndex());
+        }
+
+        abstract void index(int[] pixels, byte[] indexes);
+    }
+
+    static class ExactPalette extends Palette {
+
+        ExactPalette(int[] colors, boolean transparent) {
+            super(colors, transparent);
+        }
+
+        @Override
+        void index(int[] pixels, byte[] indexes) {
+            byte transparentIndex = (byte) getTransparentIndex();
+            int last = TRANSPARENT;
+            byte lastIndex = transparentIndex;
+            for (int i = 0; i < pixels.length; i++) {
+                int pixel = pixels[i];
+                if (pixel != last) {
+                    last = pixel;
+                    lastIndex = pixel == TRANSPARENT ? transparentIndex : (byte) Arrays
+                            .binarySearch(colors, pixel);
+                }
+                indexes[i] = lastIndex;
+            }
+        }
+    }
+
+    static class MedianCutPalette extends Palette {
+
+        final int[] counts;
+
+        final long[] sums;
+
+        MedianCutPalette(int[] colors, boolean transparent, int[] counts, long[] sums) {
+            super(colors, transparent);
+            this.counts = counts;
+            this.sums = sums;
+        }
+
+        @Override
+        void index(int[] pixels, byte[] indexes) {
+            byte transparentIndex = (byte) getTransparentIndex();
+            // inverse color map, histogram cell to palette entry, filled on demand
+            short[] lookup = new short[HISTOGRAM_SIZE];
+            Arrays.fill(lookup, (short) -1);
+            for (int i = 0; i < pixels.length; i++) {
+                int pixel = pixels[i];
+                if (pixel == TRANSPARENT) {
+                    indexes[i] = transparentIndex;
+                    continue;
+                }
+                int bin = bin(pixel);
+                short index = lookup[bin];
+                if (index < 0) {
+                    index = closest(bin);
+                    lookup[bin] = index;
+                }
+                indexes[i] = (byte) index;
+            }
+        }
+
+        /**
+         * Returns the palette entry closest to the average color of the histogram cell
+         */
+        short closest(int bin) {
+            long n = counts[bin];
+            int r = (int) (sums[bin * 3] / n);
+            int g = (int) (sums[bin * 3 + 1] / n);
+            int b = (int) (sums[bin * 3 + 2] / n);
+            int best = 0;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < colors.length; i++) {
+                int color = colors[i];
+                int dr = ((color >> 16) & 0xFF) - r;
+                int dg = ((color >> 8) & 0xFF) - g;
+                int db = (color & 0xFF) - b;
+                int distance = dr * dr + dg * dg + db * db;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+            return (short) best;
+        }
+    }
+}
@@ -1194,7 +1194,7 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      * 
      * @throws ServiceException
      */
-    private static void checkStyle(Style style, MapLayerInfo mapLayerInfo) throws ServiceException {
+    public static void checkStyle(Style style, MapLayerInfo mapLayerInfo) throws ServiceException {
         if (mapLayerInfo.getType() == mapLayerInfo.TYPE_RASTER) {
             // REVISIT: hey, don't we have to check it for rasters now that we support raster
             // symbolizer?
@@ -329,25 +329,33 @@ public class ImageUtils {
                 	writeRenderedImage(image, "forceComponentColorModel");
                 }                  
 
-                // //
-                //
-                // Build the CustomPaletteBuilder doing some good subsampling.
-                //
-                // //
-                int subsx = 1 + (int) (Math.log(image.getWidth()) / Math.log(32));
-                int subsy = 1 + (int) (Math.log(image.getHeight()) / Math.log(32));
-                if (LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("CustomPaletteBuilder[subsx="+subsx+",subsy="+subsy+"]");
-                    LOGGER.finer("InputImage is:"+image.toString());
-                }      
-                CustomPaletteBuilder cpb=new CustomPaletteBuilder(image, 256, subsx, subsy, 1).buildPalette();
-                image = cpb.getIndexedImage();
-                if (LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("Computed Palette:"+paletteRepresentation(cpb.getIndexColorModel()));
-                }                   
-                if(DEBUG){
-                	writeRenderedImage(image, "buildPalette");
-                }  
+                if (FastPaletteBuilder.accepts(image)) {
+                    // quick palette build for the common RGB(A) images
+                    image = new FastPaletteBuilder(image, 256, 1).buildIndexedImage();
+                    if(DEBUG){
+                        writeRenderedImage(image, "buildPalette");
+                    }
+                } else {
+                    // //
+                    //
+                    // Build the CustomPaletteBuilder doing some good subsampling.
+                    //
+                    // //
+                    int subsx = 1 + (int) (Math.log(image.getWidth()) / Math.log(32));
+                    int subsy = 1 + (int) (Math.log(image.getHeight()) / Math.log(32));
+                    if (LOGGER.isLoggable(Level.FINER)) {
+                        LOGGER.finer("CustomPaletteBuilder[subsx="+subsx+",subsy="+subsy+"]");
+                        LOGGER.finer("InputImage is:"+image.toString());
+                    }      
+                    CustomPaletteBuilder cpb=new CustomPaletteBuilder(image, 256, subsx, subsy, 1).buildPalette();
+                    image = cpb.getIndexedImage();
+                    if (LOGGER.isLoggable(Level.FINER)) {
+                        LOGGER.finer("Computed Palette:"+paletteRepresentation(cpb.getIndexColorModel()));
+                    }                   
+                    if(DEBUG){
+                    	writeRenderedImage(image, "buildPalette");
+                    }  
+                }
             }
         }
 
@@ -79,4 +79,9 @@ public final class JPEGMapResponse extends RenderedImageMapResponse {
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
     }
+
+    @Override
+    protected boolean isTileEncodingReusable() {
+        return true;
+    }
 }
@@ -0,0 +1,51 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.io.IOException;
+
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.QuickTileCache.CacheElement;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geoserver.wms.map.QuickTileCache.TileEncoder;
+
+/**
+ * A tile served out of a meta tile cached by the {@link QuickTileCache}. Depending on the state of
+ * the cache the tile is available as an image, or already encoded in the requested format.
+ */
+class MetaTileMap extends RenderedImageMap {
+
+    final QuickTileCache cache;
+
+    final MetaTileKey key;
+
+    final CacheElement element;
+
+    final int index;
+
+    MetaTileMap(WMSMapContent mapContent, QuickTileCache cache, MetaTileKey key,
+            CacheElement element, int index, String mimeType) {
+        super(mapContent, element.tiles == null ? null : element.tiles[index], mimeType);
+        this.cache = cache;
+        this.key = key;
+        this.element = element;
+        this.index = index;
+    }
+
+    /**
+     * Returns the encoded tile, or null if the cache only holds its image
+     */
+    public byte[] getEncodedTile() {
+        return element.encoded == null ? null : element.encoded[index];
+    }
+
+    /**
+     * Encodes the tile, along with the other tiles of the meta tile if they have not been encoded
+     * yet
+     */
+    public byte[] encodeTiles(TileEncoder encoder) throws IOException {
+        return cache.encodeTiles(key, element, index, encoder);
+    }
+}
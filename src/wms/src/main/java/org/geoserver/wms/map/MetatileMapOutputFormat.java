@@ -13,8 +13,8 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +30,6 @@ import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.filter.function.EnvFunction;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.resources.i18n.ErrorKeys;
@@ -119,25 +118,17 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
      */
-    public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-        // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
-        // with each other
-        // (the first eventually builds the meta-tile, the second finds it ready
-        // to be used)
-        QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
-
-        synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
-
-            if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
-                        + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
-            }
+    public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException, IOException {
+        // get the key that identifies the meta tile. The cache makes sure two threads asking for
+        // the same meta tile will wait on each other (the first builds the meta-tile, the second
+        // finds it ready to be used)
+        final QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
+
+        // holds the meta tile map if it gets built by this thread
+        final RenderedImageMap[] metaTileMap = new RenderedImageMap[1];
+        QuickTileCache.CacheElement tiles = tileCache.getTiles(key, new Callable<RenderedImage[]>() {
 
-            if (tile == null) {
+            public RenderedImage[] call() throws Exception {
                 // compute the meta-tile
                 if (LOGGER.isLoggable(Level.FINER)) {
                     LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
@@ -160,18 +151,23 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                 EnvFunction.setLocalValue("wms_width", mapContent.getMapWidth());
                 EnvFunction.setLocalValue("wms_height", mapContent.getMapHeight());
 
-                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
-
-                RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
+                metaTileMap[0] = delegate.produceMap(mapContent);
+                return split(key, metaTileMap[0].getImage());
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
+        });
+
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y + "in cache: "
+                    + ((metaTileMap[0] == null) ? "hit!" : "miss"));
+        }
+
+        RenderedImageMap tileMap = new MetaTileMap(mapContent, tileCache, key, tiles,
+                tileCache.getTileIndex(key, request), getMimeType());
+        if (metaTileMap[0] != null) {
+            tileMap.setRenderedCoverages(metaTileMap[0].getRenderedCoverages());
         }
+        return tileMap;
     }
 
     /**
@@ -123,4 +123,9 @@ public class PNGMapResponse extends RenderedImageMapResponse {
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
     }
+
+    @Override
+    protected boolean isTileEncodingReusable() {
+        return true;
+    }
 }
@@ -8,13 +8,29 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -23,19 +39,52 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Cache of the tiles split out of the meta tiles rendered for <code>tiled=true</code> GetMap
+ * requests.
+ * <p>
+ * The cache is bounded by the estimated memory used by the tiles, set in bytes with the
+ * {@value #MAX_SIZE_PROPERTY} property (64MB by default), and evicts the least recently used meta
+ * tiles first. Lookups do not lock the cache, and concurrent requests for tiles of the same meta
+ * tile wait for a single rendering, see {@link #getTiles(MetaTileKey, Callable)}.
+ * </p>
+ * <p>
+ * For the formats whose encoding only depends on the image, the first request writing a tile
+ * encodes all the tiles of its meta tile in parallel, and the cache keeps the encoded tiles
+ * instead of the images, so that further requests write them out without encoding them again.
+ * This can be disabled with the {@value #ENCODED_TILES_PROPERTY} property.
+ * </p>
+ * <p>
+ * The cache is cleared by WFS transactions, configuration changes and reloads.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    public static final String MAX_SIZE_PROPERTY = "org.geoserver.wms.map.QuickTileCache.maxSize";
+
+    public static final String ENCODED_TILES_PROPERTY = "org.geoserver.wms.map.QuickTileCache.encodedTiles";
+
+    static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -54,27 +103,42 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         ignoredParameters.add("EXCEPTIONS");
     }
 
+    private final Cache<MetaTileKey, CacheElement> tileCache;
+
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * The meta tiles being rendered, used to make concurrent requests wait for the rendering
+     * instead of repeating it
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
+    private final Map<MetaTileKey, FutureTask<CacheElement>> rendering = new ConcurrentHashMap<MetaTileKey, FutureTask<CacheElement>>();
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * Incremented each time the cache is cleared, meta tiles rendered before are not stored
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicInteger renderWaiters = new AtomicInteger();
+
+    private final AtomicLong renderWaits = new AtomicLong();
+
+    private final boolean encodedTiles;
+
+    private volatile ExecutorService encodingPool;
 
     public QuickTileCache(GeoServer geoServer) {
+        this(getMaxSizeProperty(), isEncodedTilesProperty());
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -83,12 +147,41 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        this(DEFAULT_MAX_SIZE, true);
+    }
+
+    QuickTileCache(long maxSize, boolean encodedTiles) {
+        this.encodedTiles = encodedTiles;
+        tileCache = CacheBuilder.newBuilder().maximumWeight(maxSize)
+                .weigher(new Weigher<MetaTileKey, CacheElement>() {
+
+                    public int weigh(MetaTileKey key, CacheElement element) {
+                        return element.weight;
+                    }
+                }).recordStats().build();
+    }
+
+    static boolean isEncodedTilesProperty() {
+        String value = GeoServerExtensions.getProperty(ENCODED_TILES_PROPERTY);
+        return value == null || Boolean.parseBoolean(value);
+    }
+
+    static long getMaxSizeProperty() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_PROPERTY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + MAX_SIZE_PROPERTY + ": " + value
+                        + ", using the default", e);
+            }
+        }
+        return DEFAULT_MAX_SIZE;
     }
 
     /**
      * Given a tiled request, builds a key that can be used to access the cache looking for a
-     * specific meta-tile, and also as a synchronization tool to avoid multiple requests to trigger
-     * parallel computation of the same meta-tile
+     * specific meta-tile
      * 
      * @param request
      * @return
@@ -111,12 +204,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
-
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return metaTileKeys.unique(key);
+        return new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -232,6 +320,13 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return sb.toString();
     }
 
+    /**
+     * Encodes a tile in the format of the request
+     */
+    interface TileEncoder {
+        byte[] encode(RenderedImage tile) throws IOException;
+    }
+
     /**
      * Key defining a tiling layer in a map
      */
@@ -335,10 +430,10 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.getIfPresent(key);
 
-        if (ce == null) {
+        if (ce == null || ce.tiles == null) {
             return null;
         }
 
@@ -353,6 +448,13 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public RenderedImage getTile(MetaTileKey key, GetMapRequest request, RenderedImage[] tiles) {
+        return tiles[getTileIndex(key, request)];
+    }
+
+    /**
+     * Returns the position of the requested tile in the tiles of its meta tile
+     */
+    int getTileIndex(MetaTileKey key, GetMapRequest request) {
         Envelope bbox = request.getBbox();
         if(CRS.getAxisOrder(request.getCrs()) == AxisOrder.NORTH_EAST) {
             bbox = new Envelope(bbox.getMinY(), bbox.getMaxY(), bbox.getMinX(), bbox.getMaxX());
@@ -360,7 +462,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         
         Point tileCoord = getTileOffsetsInMeta(bbox, key.getMetaTileEnvelope());
 
-        return tiles[tileCoord.x + (tileCoord.y * key.getMetaFactor())];
+        return tileCoord.x + (tileCoord.y * key.getMetaFactor());
     }
 
     /**
@@ -371,15 +473,297 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
         tileCache.put(key, new CacheElement(tiles));
     }
 
-    class CacheElement {
-        RenderedImage[] tiles;
+    /**
+     * Returns the tiles of a meta tile, from the cache if available, otherwise calling the
+     * renderer and caching its result. Concurrent calls for the same meta tile wait for the
+     * rendering started by the first one instead of rendering it again.
+     * <p>
+     * The returned element holds either the tiles, or their encoded form once
+     * {@link #encodeTiles(MetaTileKey, CacheElement, int, TileEncoder)} has been called.
+     * </p>
+     * 
+     * @param key the meta tile key
+     * @param renderer renders the meta tile and splits it into tiles
+     * @return the cached meta tile
+     * @throws IOException if the rendering failed
+     */
+    CacheElement getTiles(MetaTileKey key, final Callable<RenderedImage[]> renderer)
+            throws IOException {
+        // counts the request as a hit or a miss, the later checks go through the map view so
+        // that they are not counted again
+        CacheElement ce = tileCache.getIfPresent(key);
+        if (ce != null) {
+            return ce;
+        }
+        while (true) {
+            FutureTask<CacheElement> task = new FutureTask<CacheElement>(
+                    new Callable<CacheElement>() {
+
+                        public CacheElement call() throws Exception {
+                            return new CacheElement(renderer.call());
+                        }
+                    });
+            FutureTask<CacheElement> running = rendering.putIfAbsent(key, task);
+            if (running == null) {
+                // we own the rendering, unless it has been completed in the meantime
+                try {
+                    ce = tileCache.asMap().get(key);
+                    if (ce != null) {
+                        return ce;
+                    }
+                    long gen = generation.get();
+                    task.run();
+                    ce = get(task);
+                    if (generation.get() == gen) {
+                        tileCache.put(key, ce);
+                    }
+                    return ce;
+                } finally {
+                    rendering.remove(key, task);
+                }
+            }
+
+            // wait for the rendering in progress
+            renderWaiters.incrementAndGet();
+            renderWaits.incrementAndGet();
+            try {
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Interrupted while waiting for meta tile rendering", e);
+            } catch (ExecutionException e) {
+                // the other request failed, try again on our own
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Concurrent rendering of meta tile " + key
+                            + " failed, trying again", e.getCause());
+                }
+            } finally {
+                renderWaiters.decrementAndGet();
+            }
+
+            ce = tileCache.asMap().get(key);
+            if (ce != null) {
+                return ce;
+            }
+        }
+    }
+
+    static <T> T get(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while rendering meta tile", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Encodes one of the tiles of a meta tile. The first time this is called for a cached meta
+     * tile, all of its tiles are encoded in parallel, and the meta tile is replaced in the cache
+     * by the encoded tiles, so that further requests write them out as they are.
+     * 
+     * @param key the meta tile key
+     * @param element the cached meta tile, as returned by
+     *        {@link #getTiles(MetaTileKey, Callable)}
+     * @param index the position of the requested tile in the meta tile
+     * @param encoder encodes the tiles in the requested format
+     * @return the encoded tile
+     * @throws IOException if the requested tile could not be encoded
+     */
+    byte[] encodeTiles(MetaTileKey key, final CacheElement element, int index,
+            final TileEncoder encoder) throws IOException {
+        if (element.encoded != null) {
+            return element.encoded[index];
+        }
+        if (!encodedTiles || tileCache.asMap().get(key) != element
+                || !element.encoding.compareAndSet(false, true)) {
+            // not cached, or someone else is encoding it already
+            return encoder.encode(element.tiles[index]);
+        }
+
+        long gen = generation.get();
+        final RenderedImage[] tiles = element.tiles;
+        final Thread caller = Thread.currentThread();
+        List<FutureTask<byte[]>> tasks = new ArrayList<FutureTask<byte[]>>(tiles.length);
+        for (int i = 0; i < tiles.length; i++) {
+            final RenderedImage tile = tiles[i];
+            FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+                public byte[] call() throws Exception {
+                    try {
+                        return encoder.encode(tile);
+                    } finally {
+                        if (Thread.currentThread() != caller) {
+                            // no request will clean up after us in this thread
+                            RasterCleaner.dispose();
+                        }
+                    }
+                }
+            });
+            tasks.add(task);
+            if (i != index) {
+                getEncodingPool().execute(task);
+            }
+        }
+
+        // encode the requested tile first, then help with the ones the pool has not started yet
+        byte[][] encoded = new byte[tiles.length][];
+        tasks.get(index).run();
+        encoded[index] = get(tasks.get(index));
+        try {
+            for (int i = 0; i < tiles.length; i++) {
+                if (i != index) {
+                    FutureTask<byte[]> task = tasks.get(i);
+                    task.run();
+                    encoded[i] = task.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(tasks);
+            return encoded[index];
+        } catch (ExecutionException e) {
+            // keep the tiles as images, the other requests will encode their own
+            LOGGER.log(Level.FINE, "Failed to encode the tiles of meta tile " + key, e.getCause());
+            cancel(tasks);
+            return encoded[index];
+        }
+
+        if (generation.get() == gen) {
+            tileCache.asMap().replace(key, element, new CacheElement(encoded));
+        }
+        return encoded[index];
+    }
+
+    static void cancel(List<FutureTask<byte[]>> tasks) {
+        for (FutureTask<byte[]> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    ExecutorService getEncodingPool() {
+        if (encodingPool == null) {
+            synchronized (this) {
+                if (encodingPool == null) {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60,
+                            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                final AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "GeoServer tile encoding thread "
+                                            + count.incrementAndGet());
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+                    pool.allowCoreThreadTimeOut(true);
+                    encodingPool = pool;
+                }
+            }
+        }
+        return encodingPool;
+    }
+
+    /**
+     * Removes all the tiles from the cache
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        tileCache.invalidateAll();
+    }
+
+    /**
+     * Returns the ratio of tile lookups served from the cache
+     */
+    public double getHitRatio() {
+        return tileCache.stats().hitRate();
+    }
+
+    /**
+     * Returns the number of requests currently waiting for a meta tile rendered by another request
+     */
+    public int getRenderWaiters() {
+        return renderWaiters.get();
+    }
+
+    /**
+     * Returns the number of requests that waited for a meta tile rendered by another request
+     */
+    public long getRenderWaits() {
+        return renderWaits.get();
+    }
+
+    /**
+     * Returns the number of meta tiles in the cache
+     */
+    public long size() {
+        return tileCache.size();
+    }
+
+    /**
+     * A cached meta tile, holding either the tiles split out of it, or their encoded form
+     */
+    static class CacheElement {
+        final RenderedImage[] tiles;
+
+        final byte[][] encoded;
+
+        /**
+         * Estimated size of the tiles, in bytes
+         */
+        final int weight;
+
+        /**
+         * Set by the first request encoding all the tiles
+         */
+        final AtomicBoolean encoding = new AtomicBoolean();
 
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            this.encoded = null;
+            long weight = 0;
+            for (RenderedImage tile : tiles) {
+                weight += weight(tile);
+            }
+            this.weight = (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+
+        public CacheElement(byte[][] encoded) {
+            this.tiles = null;
+            this.encoded = encoded;
+            long weight = 0;
+            for (byte[] tile : encoded) {
+                weight += 16 + tile.length;
+            }
+            this.weight = (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+
+        static long weight(RenderedImage tile) {
+            if (tile == null) {
+                return 0;
+            }
+            SampleModel sm = tile.getSampleModel();
+            int bits = 0;
+            for (int size : sm.getSampleSize()) {
+                bits += size;
+            }
+            return (long) tile.getWidth() * tile.getHeight() * Math.max(bits, 1) / 8;
         }
     }
 
@@ -388,18 +772,22 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
+        if (encodingPool != null) {
+            encodingPool.shutdown();
+            encodingPool = null;
+        }
     }
 
     public void beforeReload() {
@@ -408,6 +796,6 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
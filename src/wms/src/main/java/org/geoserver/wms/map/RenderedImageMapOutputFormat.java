@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,6 +53,7 @@ import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.RenderingPool;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSInfo.WMSInterpolation;
@@ -411,7 +413,6 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         RenderingHints hints = new RenderingHints(hintsMap);
         StreamingRenderer renderer = buildRenderer();
-        renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
         renderer.setMapContent(mapContent);
         renderer.setJava2DHints(hints);
 
@@ -527,6 +528,18 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             }
         }
         int maxRenderingTime = getMaxRenderingTime(localMaxRenderingTime);
+
+        // queue the painter on the shared pool according to the request deadline
+        RenderingPool pool = DefaultWebMapService.getRenderingPool(wms);
+        if (pool != null) {
+            try {
+                renderer.setThreadPool(pool.forRequest(maxRenderingTime));
+            } catch (RejectedExecutionException e) {
+                graphic.dispose();
+                throw new ServiceException("Too many map rendering requests are waiting, "
+                        + "please try again later", e);
+            }
+        }
         
         ServiceException serviceException = null;
         boolean saveMap = (request.getRawKvp() != null && WMSServiceExceptionHandler
@@ -13,6 +13,7 @@ import it.geosolutions.jaiext.colorindexer.Quantizer;
 import java.awt.Transparency;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
@@ -120,7 +121,12 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
             final List<GridCoverage2D> renderedCoverages = imageMap.getRenderedCoverages();
             final WMSMapContent mapContent = imageMap.getMapContext();
             try {
-                formatImageOutputStream(image, output, mapContent);
+                byte[] encoded = getEncodedTile(imageMap);
+                if (encoded != null) {
+                    output.write(encoded);
+                } else {
+                    formatImageOutputStream(image, output, mapContent);
+                }
                 output.flush();
             } finally {
                 // let go of the coverages created for rendering
@@ -134,6 +140,41 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
         }
     }
     
+    /**
+     * Returns true if the output of {@link #formatImageOutputStream} only depends on the image and
+     * on the request format options, so that the tiles of a meta tile can be encoded once and
+     * reused by the other requests for the same tiles. Formats embedding the position of the
+     * image in the output should return false, which is the default.
+     */
+    protected boolean isTileEncodingReusable() {
+        return false;
+    }
+
+    /**
+     * Returns the encoded tile if the map is a tile of a cached meta tile that can be written
+     * without encoding it again, or null if the image has to be encoded
+     */
+    private byte[] getEncodedTile(RenderedImageMap imageMap) throws IOException {
+        if (!(imageMap instanceof MetaTileMap)) {
+            return null;
+        }
+        MetaTileMap tileMap = (MetaTileMap) imageMap;
+        byte[] encoded = tileMap.getEncodedTile();
+        if (encoded != null || !isTileEncodingReusable()) {
+            return encoded;
+        }
+
+        final WMSMapContent mapContent = imageMap.getMapContext();
+        return tileMap.encodeTiles(new QuickTileCache.TileEncoder() {
+
+            public byte[] encode(RenderedImage tile) throws IOException {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                formatImageOutputStream(tile, bos, mapContent);
+                return bos.toByteArray();
+            }
+        });
+    }
+
     /**
      * Applies a transformation to 8 bits + palette in case the user requested a specific palette or
      * the palette format has been requested, applying a bitmask or translucent palette inverter
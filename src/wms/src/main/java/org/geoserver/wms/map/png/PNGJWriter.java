@@ -36,6 +36,18 @@ public class PNGJWriter {
             WMSMapContent mapContent) {
         // what kind of scaline filtering are we going to use?
         FilterType filterType = getFilterType(mapContent);
+        // large images are better off using all the cores
+        if (ParallelPNGEncoder.accepts(image)) {
+            int level = Math.round(9 * (1 - quality));
+            try {
+                new ParallelPNGEncoder(level, filterType == FilterType.FILTER_SUB).encode(image,
+                        outStream);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to encode the PNG", e);
+                throw new ServiceException(e);
+            }
+            return image;
+        }
         // Creation of a new PNGWriter object
         PNGWriter writer = new PNGWriter();
         // Check if a Scanline is supported by the writer
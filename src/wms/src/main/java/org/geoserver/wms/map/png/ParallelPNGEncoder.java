@@ -0,0 +1,510 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Encodes large images in PNG using all the available cores.
+ * <p>
+ * The image is split in bands of rows, each band is filtered and deflated on its own thread into
+ * a sequence of byte aligned, non final deflate blocks, using the end of the previous band as the
+ * preset dictionary, and the bands are then written out in order as a single zlib stream, whose
+ * checksum is combined from the ones of the bands. The output is a standard PNG file, slightly
+ * larger than a sequentially encoded one.
+ * </p>
+ * <p>
+ * Supports 8 bits gray, gray alpha, RGB and RGBA images, and images with a palette of up to 256
+ * colors, such as the ones produced by the paletted PNG output formats. Images smaller than
+ * {@value #MIN_PIXELS_PROPERTY} pixels (one million by default) are not worth the overhead,
+ * setting the property to zero or less disables parallel encoding.
+ * </p>
+ */
+public class ParallelPNGEncoder {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelPNGEncoder.class);
+
+    public static final String MIN_PIXELS_PROPERTY = "org.geoserver.wms.map.png.ParallelPNGEncoder.minPixels";
+
+    static final int DEFAULT_MIN_PIXELS = 1024 * 1024;
+
+    static final int MIN_PIXELS = getMinPixels();
+
+    /**
+     * Target amount of uncompressed data in each band
+     */
+    static final int BAND_SIZE = 256 * 1024;
+
+    /**
+     * The deflate window size, that is, the max useful dictionary size
+     */
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final byte FILTER_NONE = 0;
+
+    static final byte FILTER_SUB = 1;
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    static volatile ExecutorService pool;
+
+    final int compressionLevel;
+
+    final boolean subFilter;
+
+    /**
+     * @param compressionLevel the deflate compression level, between 0 and 9
+     * @param subFilter whether to use the SUB scanline filter, ignored for paletted images
+     */
+    public ParallelPNGEncoder(int compressionLevel, boolean subFilter) {
+        this.compressionLevel = Math.max(0, Math.min(9, compressionLevel));
+        this.subFilter = subFilter;
+    }
+
+    static int getMinPixels() {
+        String value = GeoServerExtensions.getProperty(MIN_PIXELS_PROPERTY);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + MIN_PIXELS_PROPERTY + ": "
+                        + value + ", using the default", e);
+            }
+        }
+        return DEFAULT_MIN_PIXELS;
+    }
+
+    /**
+     * Returns true if the image is large enough to be encoded in parallel, and has a supported
+     * structure
+     */
+    public static boolean accepts(RenderedImage image) {
+        return MIN_PIXELS > 0 && (long) image.getWidth() * image.getHeight() >= MIN_PIXELS
+                && getColorType(image) >= 0;
+    }
+
+    /**
+     * Returns the PNG color type the image would be encoded with, or -1 if the image structure is
+     * not supported
+     */
+    static int getColorType(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm == null) {
+            return -1;
+        }
+        if (cm instanceof IndexColorModel) {
+            return sm.getNumBands() == 1 && sm.getSampleSize(0) <= 8
+                    && ((IndexColorModel) cm).getMapSize() <= 256 ? COLOR_PALETTE : -1;
+        }
+        if (cm.isAlphaPremultiplied() || cm.getNumComponents() != sm.getNumBands()) {
+            return -1;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return -1;
+            }
+        }
+        int bands = sm.getNumBands();
+        int space = cm.getColorSpace().getType();
+        if (space == ColorSpace.TYPE_GRAY) {
+            if (bands == 1) {
+                return COLOR_GRAY;
+            } else if (bands == 2 && cm.hasAlpha()) {
+                return COLOR_GRAY_ALPHA;
+            }
+        } else if (space == ColorSpace.TYPE_RGB) {
+            if (bands == 3) {
+                return COLOR_RGB;
+            } else if (bands == 4 && cm.hasAlpha()) {
+                return COLOR_RGBA;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the image in PNG
+     *
+     * @throws IllegalArgumentException if the image structure is not supported
+     */
+    public void encode(final RenderedImage image, OutputStream output) throws IOException {
+        final int colorType = getColorType(image);
+        if (colorType < 0) {
+            throw new IllegalArgumentException("Unsupported image structure, color model: "
+                    + image.getColorModel() + ", sample model: " + image.getSampleModel());
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int pixelSize = image.getSampleModel().getNumBands();
+        final boolean sub = subFilter && colorType != COLOR_PALETTE;
+        final int rowSize = 1 + width * pixelSize;
+        final int bandRows = Math.max(1, BAND_SIZE / rowSize);
+        final int dictionaryRows = Math.min((DICTIONARY_SIZE + rowSize - 1) / rowSize, bandRows);
+
+        // schedule the bands, the calling thread will help with the ones not started yet
+        List<FutureTask<Band>> tasks = new ArrayList<FutureTask<Band>>();
+        for (int y = 0; y < height; y += bandRows) {
+            final int startRow = y;
+            final int endRow = Math.min(y + bandRows, height);
+            final boolean last = endRow == height;
+            FutureTask<Band> task = new FutureTask<Band>(new Callable<Band>() {
+
+                public Band call() throws Exception {
+                    int firstRow = Math.max(0, startRow - dictionaryRows);
+                    byte[] data = getFilteredRows(image, firstRow, endRow, pixelSize, sub);
+                    int offset = (startRow - firstRow) * rowSize;
+                    return deflate(data, offset, last);
+                }
+            });
+            tasks.add(task);
+        }
+        if (tasks.size() > 1) {
+            ExecutorService executor = getPool();
+            for (int i = 1; i < tasks.size(); i++) {
+                executor.execute(tasks.get(i));
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, colorType);
+        if (colorType == COLOR_PALETTE) {
+            writePalette(out, (IndexColorModel) image.getColorModel());
+        }
+
+        try {
+            long adler = 1;
+            for (int i = 0; i < tasks.size(); i++) {
+                FutureTask<Band> task = tasks.get(i);
+                task.run();
+                Band band = task.get();
+                adler = combineAdler32(adler, band.adler, band.length);
+
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream(band.data.length + 6);
+                if (i == 0) {
+                    chunk.write(getZlibHeader());
+                }
+                chunk.write(band.data, 0, band.data.length);
+                if (i == tasks.size() - 1) {
+                    chunk.write((int) (adler >>> 24) & 0xFF);
+                    chunk.write((int) (adler >>> 16) & 0xFF);
+                    chunk.write((int) (adler >>> 8) & 0xFF);
+                    chunk.write((int) adler & 0xFF);
+                }
+                writeChunk(out, "IDAT", chunk.toByteArray());
+            }
+        } catch (InterruptedException e) {
+            cancel(tasks);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding the PNG image");
+        } catch (ExecutionException e) {
+            cancel(tasks);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (RuntimeException e) {
+            cancel(tasks);
+            throw e;
+        } catch (IOException e) {
+            // the client went away most likely
+            cancel(tasks);
+            throw e;
+        }
+
+        writeChunk(out, "IEND", new byte[0]);
+        out.flush();
+    }
+
+    static void cancel(List<FutureTask<Band>> tasks) {
+        for (FutureTask<Band> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Reads the rows in the specified interval, and returns them filtered and prefixed by the
+     * filter type, as they have to be deflated
+     */
+    static byte[] getFilteredRows(RenderedImage image, int startRow, int endRow, int pixelSize,
+            boolean sub) {
+        int width = image.getWidth();
+        int rowSize = 1 + width * pixelSize;
+        int rows = endRow - startRow;
+        byte[] result = new byte[rows * rowSize];
+
+        int minX = image.getMinX();
+        int minY = image.getMinY() + startRow;
+        Raster raster = image.getData(new Rectangle(minX, minY, width, rows));
+        int[] samples = new int[width * pixelSize];
+        int offset = 0;
+        for (int r = 0; r < rows; r++) {
+            getRow(raster, minX, minY + r, width, pixelSize, samples);
+            result[offset++] = sub ? FILTER_SUB : FILTER_NONE;
+            if (sub) {
+                for (int i = 0; i < pixelSize; i++) {
+                    result[offset++] = (byte) samples[i];
+                }
+                for (int i = pixelSize; i < samples.length; i++) {
+                    result[offset++] = (byte) (samples[i] - samples[i - pixelSize]);
+                }
+            } else {
+                for (int i = 0; i < samples.length; i++) {
+                    result[offset++] = (byte) samples[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a row of samples, directly from the data buffer for the common byte interleaved
+     * images
+     */
+    static void getRow(Raster raster, int x, int y, int width, int pixelSize, int[] samples) {
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (sm instanceof ComponentSampleModel && buffer instanceof DataBufferByte
+                && buffer.getNumBanks() == 1) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int pixelStride = csm.getPixelStride();
+            int[] bankIndices = csm.getBankIndices();
+            int[] offsets = new int[pixelSize];
+            boolean singleBank = true;
+            for (int b = 0; b < pixelSize; b++) {
+                singleBank &= bankIndices[b] == 0;
+                offsets[b] = buffer.getOffset()
+                        + csm.getOffset(x - raster.getSampleModelTranslateX(),
+                                y - raster.getSampleModelTranslateY(), b);
+            }
+            if (singleBank) {
+                int i = 0;
+                for (int p = 0; p < width; p++) {
+                    int base = p * pixelStride;
+                    for (int b = 0; b < pixelSize; b++) {
+                        samples[i++] = data[offsets[b] + base] & 0xFF;
+                    }
+                }
+                return;
+            }
+        }
+        raster.getPixels(x, y, width, 1, samples);
+    }
+
+    /**
+     * Deflates the data past the offset, using the data before it as the dictionary
+     */
+    Band deflate(byte[] data, int offset, boolean last) {
+        int length = data.length - offset;
+        Adler32 adler = new Adler32();
+        adler.update(data, offset, length);
+
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (offset > 0) {
+                int dictionaryLength = Math.min(offset, DICTIONARY_SIZE);
+                deflater.setDictionary(data, offset - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(data, offset, length);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    bos.write(buffer, 0, count);
+                }
+            } else {
+                // end on a byte boundary, without marking the block as the final one
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    bos.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return new Band(bos.toByteArray(), adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    byte[] getZlibHeader() {
+        // deflate with a 32k window, and the compression level hint
+        int cmf = 0x78;
+        int level = compressionLevel < 2 ? 0 : (compressionLevel < 6 ? 1
+                : (compressionLevel == 6 ? 2 : 3));
+        int flg = level << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[] { (byte) cmf, (byte) flg };
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive blocks of data, the same way as
+     * zlib's adler32_combine
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    static void writeHeader(DataOutputStream out, int width, int height, int colorType)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(13);
+        DataOutputStream header = new DataOutputStream(bos);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8); // bit depth
+        header.writeByte(colorType);
+        header.writeByte(0); // deflate
+        header.writeByte(0); // adaptive filtering
+        header.writeByte(0); // no interlace
+        writeChunk(out, "IHDR", bos.toByteArray());
+    }
+
+    static void writePalette(DataOutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", palette);
+
+        // the bitmask palettes have a single transparent entry, the translucent ones many
+        if (lastTranslucent >= 0) {
+            byte[] alphas = new byte[lastTranslucent + 1];
+            for (int i = 0; i < alphas.length; i++) {
+                alphas[i] = (byte) icm.getAlpha(i);
+            }
+            writeChunk(out, "tRNS", alphas);
+        }
+    }
+
+    static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    static ExecutorService getPool() {
+        if (pool == null) {
+            synchronized (ParallelPNGEncoder.class) {
+                if (pool == null) {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+                            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                final AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "GeoServer PNG encoding thread "
+                                            + count.incrementAndGet());
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+                    executor.allowCoreThreadTimeOut(true);
+                    pool = executor;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * A deflated band of rows
+     */
+    static class Band {
+        final byte[] data;
+
+        final long adler;
+
+        final int length;
+
+        Band(byte[] data, long adler, int length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RenderingPoolTest {
+
+    RenderingPool pool;
+
+    @After
+    public void shutdown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testDeadlineOrder() throws Exception {
+        pool = new RenderingPool(1, 0);
+        CountDownLatch latch = block(pool);
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        futures.add(pool.forRequest(0).submit(record(order, "unlimited")));
+        futures.add(pool.forRequest(60000).submit(record(order, "late")));
+        futures.add(pool.forRequest(1000).submit(record(order, "early")));
+        assertEquals(3, pool.getQueuedCount());
+
+        latch.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("early", "late", "unlimited"), order);
+    }
+
+    @Test
+    public void testQueueLimit() throws Exception {
+        pool = new RenderingPool(1, 1);
+        CountDownLatch latch = block(pool);
+        Future<?> queued = pool.forRequest(0).submit(new Runnable() {
+            public void run() {
+            }
+        });
+
+        try {
+            pool.forRequest(0);
+            fail("The queue is full, should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // fine
+        }
+        assertEquals(1, pool.getRejectedCount());
+
+        latch.countDown();
+        queued.get(10, TimeUnit.SECONDS);
+        // there is room again
+        pool.forRequest(0);
+    }
+
+    @Test
+    public void testConfigure() {
+        pool = new RenderingPool(2, 0);
+        assertEquals(2, pool.getMaximumPoolSize());
+        pool.configure(4, 0);
+        assertEquals(4, pool.getCorePoolSize());
+        assertEquals(4, pool.getMaximumPoolSize());
+        pool.configure(1, 0);
+        assertEquals(1, pool.getCorePoolSize());
+        assertEquals(1, pool.getMaximumPoolSize());
+        pool.configure(0, 0);
+        assertEquals(RenderingPool.DEFAULT_MAX_THREADS, pool.getMaximumPoolSize());
+    }
+
+    /**
+     * Occupies the only thread of the pool until the returned latch is released
+     */
+    CountDownLatch block(RenderingPool pool) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        pool.submit(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return latch;
+    }
+
+    Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+}
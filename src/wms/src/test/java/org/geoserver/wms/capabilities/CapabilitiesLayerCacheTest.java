@@ -0,0 +1,89 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CapabilitiesLayerCacheTest extends WMSTestSupport {
+
+    static final String CAPS_111 = "wms?service=WMS&version=1.1.1&request=GetCapabilities";
+
+    static final String CAPS_130 = "wms?service=WMS&version=1.3.0&request=GetCapabilities";
+
+    CapabilitiesLayerCache cache;
+
+    @Before
+    public void clearCache() {
+        cache = GeoServerExtensions.bean(CapabilitiesLayerCache.class);
+        assertNotNull(cache);
+        cache.clear();
+    }
+
+    @After
+    public void logoutUser() {
+        logout();
+    }
+
+    @Test
+    public void testReplayedLayers() throws Exception {
+        String first = getAsString(CAPS_130);
+        long size = cache.size();
+        assertTrue(size > 0);
+
+        // same document, no new fragment
+        String second = getAsString(CAPS_130);
+        assertEquals(first, second);
+        assertEquals(size, cache.size());
+
+        // each version has its own fragments
+        getAsString(CAPS_111);
+        assertTrue(cache.size() > size);
+    }
+
+    @Test
+    public void testInvalidatedOnResourceChange() throws Exception {
+        String xpath = "//Layer[Name='" + getLayerId(MockData.BASIC_POLYGONS) + "']/Title";
+        Document dom = getAsDOM(CAPS_111);
+        assertXpathEvaluatesTo("BasicPolygons", xpath, dom);
+
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        String title = ft.getTitle();
+        ft.setTitle("Modified title");
+        catalog.save(ft);
+        try {
+            dom = getAsDOM(CAPS_111);
+            assertXpathEvaluatesTo("Modified title", xpath, dom);
+        } finally {
+            ft = catalog.getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+            ft.setTitle(title);
+            catalog.save(ft);
+        }
+    }
+
+    @Test
+    public void testKeyedByPrincipal() throws Exception {
+        getAsString(CAPS_111);
+        long size = cache.size();
+        assertTrue(size > 0);
+
+        login("admin", "geoserver", "ROLE_ADMINISTRATOR");
+        getAsString(CAPS_111);
+        assertTrue(cache.size() > size);
+    }
+}
@@ -0,0 +1,128 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastPaletteBuilderTest {
+
+    @Test
+    public void testExactPalette() {
+        BufferedImage image = paint(BufferedImage.TYPE_3BYTE_BGR, false);
+        BufferedImage indexed = new FastPaletteBuilder(image, 256, 1).buildIndexedImage();
+
+        IndexColorModel icm = (IndexColorModel) indexed.getColorModel();
+        // background plus the line colors
+        assertEquals(9, icm.getMapSize());
+        assertEquals(Transparency.OPAQUE, icm.getTransparency());
+        assertEquals(Double.POSITIVE_INFINITY, psnr(image, indexed), 0d);
+    }
+
+    @Test
+    public void testMedianCut() {
+        BufferedImage image = paint(BufferedImage.TYPE_3BYTE_BGR, true);
+        BufferedImage indexed = new FastPaletteBuilder(image, 256, 1).buildIndexedImage();
+
+        IndexColorModel icm = (IndexColorModel) indexed.getColorModel();
+        assertEquals(256, icm.getMapSize());
+        assertEquals(-1, icm.getTransparentPixel());
+        assertTrue(psnr(image, indexed) > 30);
+    }
+
+    @Test
+    public void testBitmask() {
+        BufferedImage image = paint(BufferedImage.TYPE_4BYTE_ABGR, true);
+        BufferedImage indexed = new FastPaletteBuilder(image, 256, 1).buildIndexedImage();
+
+        IndexColorModel icm = (IndexColorModel) indexed.getColorModel();
+        assertEquals(Transparency.BITMASK, icm.getTransparency());
+        assertTrue(icm.getTransparentPixel() >= 0);
+        // the background stays transparent, the lines opaque
+        assertEquals(0, indexed.getRGB(0, 0) >>> 24);
+        assertTrue(psnr(image, indexed) > 30);
+    }
+
+    @Test
+    public void testAccepts() {
+        assertTrue(FastPaletteBuilder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_4BYTE_ABGR)));
+        assertTrue(FastPaletteBuilder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_RGB)));
+        assertFalse(FastPaletteBuilder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_GRAY)));
+        assertFalse(FastPaletteBuilder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(FastPaletteBuilder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_INDEXED)));
+    }
+
+    /**
+     * Lines in a few colors, over a white background if the image is opaque
+     */
+    static BufferedImage paint(int type, boolean antialias) {
+        BufferedImage image = new BufferedImage(512, 512, type);
+        Graphics2D graphics = image.createGraphics();
+        if (antialias) {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        if (!image.getColorModel().hasAlpha()) {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        }
+        Random random = new Random(0);
+        Color[] colors = new Color[8];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+        for (int i = 0; i < 300; i++) {
+            graphics.setColor(colors[i % colors.length]);
+            graphics.setStroke(new BasicStroke(1 + random.nextInt(3)));
+            graphics.drawLine(random.nextInt(512), random.nextInt(512), random.nextInt(512),
+                    random.nextInt(512));
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Peak signal to noise ratio of the opaque pixels, in dB
+     */
+    static double psnr(BufferedImage original, BufferedImage indexed) {
+        double error = 0;
+        long samples = 0;
+        for (int y = 0; y < original.getHeight(); y++) {
+            for (int x = 0; x < original.getWidth(); x++) {
+                int p = original.getRGB(x, y);
+                int q = indexed.getRGB(x, y);
+                if ((p >>> 24) == 0) {
+                    continue;
+                }
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int d = ((p >> shift) & 0xFF) - ((q >> shift) & 0xFF);
+                    error += d * d;
+                }
+                samples += 3;
+            }
+        }
+        if (error == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 10 * Math.log10(255 * 255 / (error / samples));
+    }
+}
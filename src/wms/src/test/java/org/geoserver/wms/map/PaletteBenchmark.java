@@ -0,0 +1,92 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.image.palette.CustomPaletteBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link FastPaletteBuilder} with the GeoTools {@link CustomPaletteBuilder} it
+ * replaces in the <code>image/png8</code> bitmask path, on opaque and transparent vector maps
+ * with and without antialiasing. The quality of both, as the PSNR of the paletted image against
+ * the original, is printed during the setup.
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PaletteBenchmark {
+
+    @Param({ "opaque", "transparent" })
+    String background;
+
+    @Param({ "true", "false" })
+    boolean antialias;
+
+    BufferedImage image;
+
+    @Setup
+    public void setup() {
+        int type = "opaque".equals(background) ? BufferedImage.TYPE_3BYTE_BGR
+                : BufferedImage.TYPE_4BYTE_ABGR;
+        image = FastPaletteBuilderTest.paint(type, antialias);
+
+        System.out.println();
+        System.out.println("PSNR fast: " + FastPaletteBuilderTest.psnr(image, toBuffered(fast())));
+        System.out.println("PSNR custom: "
+                + FastPaletteBuilderTest.psnr(image, toBuffered(custom())));
+    }
+
+    BufferedImage toBuffered(RenderedImage image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_4BYTE_ABGR);
+        result.createGraphics().drawRenderedImage(image, null);
+        return result;
+    }
+
+    @Benchmark
+    public RenderedImage fast() {
+        return new FastPaletteBuilder(image, 256, 1).buildIndexedImage();
+    }
+
+    @Benchmark
+    public RenderedImage custom() {
+        // same setup as ImageUtils.forceIndexed8Bitmask
+        int subsx = 1 + (int) (Math.log(image.getWidth()) / Math.log(32));
+        int subsy = 1 + (int) (Math.log(image.getHeight()) / Math.log(32));
+        return new CustomPaletteBuilder(image, 256, subsx, subsy, 1).buildPalette()
+                .getIndexedImage();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PaletteBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
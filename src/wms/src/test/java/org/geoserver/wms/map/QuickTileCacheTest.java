@@ -6,10 +6,31 @@
 package org.geoserver.wms.map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.wms.map.QuickTileCache.CacheElement;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geoserver.wms.map.QuickTileCache.TileEncoder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -67,4 +88,139 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    @Test
+    public void testSingleRendering() throws Exception {
+        final MetaTileKey key = key(0, 0);
+        final AtomicInteger renderings = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Callable<RenderedImage[]> renderer = new Callable<RenderedImage[]>() {
+            public RenderedImage[] call() throws Exception {
+                renderings.incrementAndGet();
+                latch.await();
+                return tiles();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CacheElement>> futures = new ArrayList<Future<CacheElement>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<CacheElement>() {
+                    public CacheElement call() throws Exception {
+                        return cache.getTiles(key, renderer);
+                    }
+                }));
+            }
+            // wait for the other threads to queue up behind the rendering one
+            long start = System.currentTimeMillis();
+            while (cache.getRenderWaiters() < 3 && System.currentTimeMillis() - start < 10000) {
+                Thread.sleep(10);
+            }
+            latch.countDown();
+            CacheElement tiles = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<CacheElement> future : futures) {
+                assertSame(tiles, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, renderings.get());
+        assertEquals(3, cache.getRenderWaits());
+        assertEquals(0, cache.getRenderWaiters());
+        // each request counted once, as a miss
+        assertEquals(0, cache.getHitRatio(), 0);
+    }
+
+    @Test
+    public void testHitRatio() throws Exception {
+        MetaTileKey key = key(0, 0);
+        Callable<RenderedImage[]> renderer = new Callable<RenderedImage[]>() {
+            public RenderedImage[] call() throws Exception {
+                return tiles();
+            }
+        };
+        CacheElement element = cache.getTiles(key, renderer);
+        assertSame(element, cache.getTiles(key, renderer));
+        assertEquals(0.5, cache.getHitRatio(), 0);
+    }
+
+    @Test
+    public void testClearedOnTransaction() throws Exception {
+        MetaTileKey key = key(0, 0);
+        RenderedImage[] tiles = tiles();
+        cache.storeTiles(key, tiles);
+        assertEquals(1, cache.size());
+        assertSame(tiles, cache.getTiles(key, null).tiles);
+
+        cache.dataStoreChange(null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        // room for a single meta tile of 3x3 256x256 RGB tiles
+        cache = new QuickTileCache(9 * 256 * 256 * 3, true);
+        cache.storeTiles(key(0, 0), tiles());
+        cache.storeTiles(key(3, 0), tiles());
+        assertTrue(cache.size() < 2);
+    }
+
+    @Test
+    public void testEncodedTiles() throws Exception {
+        MetaTileKey key = key(0, 0);
+        cache.storeTiles(key, tiles());
+        CacheElement element = cache.getTiles(key, null);
+
+        final AtomicInteger encodings = new AtomicInteger();
+        TileEncoder encoder = new TileEncoder() {
+            public byte[] encode(RenderedImage tile) throws IOException {
+                encodings.incrementAndGet();
+                return new byte[] { (byte) tile.getWidth() };
+            }
+        };
+        assertNotNull(cache.encodeTiles(key, element, 4, encoder));
+        // all the tiles got encoded, and replaced the images in the cache
+        assertEquals(9, encodings.get());
+        CacheElement encoded = cache.getTiles(key, null);
+        assertNull(encoded.tiles);
+        assertEquals(9, encoded.encoded.length);
+
+        // no further encoding
+        assertNotNull(cache.encodeTiles(key, encoded, 2, encoder));
+        assertEquals(9, encodings.get());
+    }
+
+    @Test
+    public void testEncodedTilesDisabled() throws Exception {
+        cache = new QuickTileCache(QuickTileCache.DEFAULT_MAX_SIZE, false);
+        MetaTileKey key = key(0, 0);
+        cache.storeTiles(key, tiles());
+        CacheElement element = cache.getTiles(key, null);
+
+        final AtomicInteger encodings = new AtomicInteger();
+        TileEncoder encoder = new TileEncoder() {
+            public byte[] encode(RenderedImage tile) throws IOException {
+                encodings.incrementAndGet();
+                return new byte[0];
+            }
+        };
+        cache.encodeTiles(key, element, 0, encoder);
+        assertEquals(1, encodings.get());
+        assertSame(element, cache.getTiles(key, null));
+    }
+
+    MetaTileKey key(int x, int y) {
+        MapKey mapKey = new MapKey("test", 1, new Point2D.Double(0, 0));
+        return new MetaTileKey(mapKey, new Point(x, y), new ReferencedEnvelope(x * 256,
+                (x + 3) * 256, y * 256, (y + 3) * 256, null));
+    }
+
+    RenderedImage[] tiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR);
+        }
+        return tiles;
+    }
 }
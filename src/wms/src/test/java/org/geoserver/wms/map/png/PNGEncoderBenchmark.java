@@ -0,0 +1,127 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import it.geosolutions.imageio.plugins.png.PNGWriter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ar.com.hjg.pngj.FilterType;
+
+/**
+ * Compares the sequential PNGJ encoder with the {@link ParallelPNGEncoder} on map like RGBA and
+ * paletted images of growing size, at the compression levels matching the PNG compression
+ * setting of 0 (level 9), 25 (the default, level 2) and 75 (level 7).
+ * <p>
+ * Not a unit test, run it with {@link #main(String[])} or the JMH command line.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PNGEncoderBenchmark {
+
+    @Param({ "1024", "2048", "4096" })
+    int size;
+
+    @Param({ "0.0", "0.75", "0.25" })
+    float quality;
+
+    @Param({ "rgba", "palette" })
+    String imageType;
+
+    BufferedImage image;
+
+    @Setup
+    public void setup() {
+        if ("palette".equals(imageType)) {
+            byte[] rgb = new byte[256];
+            for (int i = 0; i < rgb.length; i++) {
+                rgb[i] = (byte) i;
+            }
+            IndexColorModel icm = new IndexColorModel(8, 256, rgb, rgb, rgb, 255);
+            image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        } else {
+            image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+
+        // lines and polygons over a mostly empty background, like a vector map
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(0);
+        for (int i = 0; i < size / 4; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random
+                    .nextInt(256), 128 + random.nextInt(128)));
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            if (i % 2 == 0) {
+                graphics.fillRect(x, y, random.nextInt(size / 8), random.nextInt(size / 8));
+            } else {
+                graphics.drawLine(x, y, random.nextInt(size), random.nextInt(size));
+            }
+        }
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public long pngj() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        new PNGWriter().writePNG(image, out, quality, FilterType.FILTER_NONE);
+        return out.count;
+    }
+
+    @Benchmark
+    public long parallel() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        new ParallelPNGEncoder(Math.round(9 * (1 - quality)), false).encode(image, out);
+        return out.count;
+    }
+
+    static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PNGEncoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,113 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class ParallelPNGEncoderTest {
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(700, 900, BufferedImage.TYPE_4BYTE_ABGR)), true);
+        assertRoundTrip(paint(new BufferedImage(700, 900, BufferedImage.TYPE_INT_ARGB)), false);
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(700, 900, BufferedImage.TYPE_3BYTE_BGR)), true);
+        assertRoundTrip(paint(new BufferedImage(700, 900, BufferedImage.TYPE_INT_RGB)), false);
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(700, 900, BufferedImage.TYPE_BYTE_GRAY)), true);
+    }
+
+    @Test
+    public void testBitmaskPalette() throws Exception {
+        // same structure as the images built by ImageUtils.forceIndexed8Bitmask
+        byte[] rgb = new byte[256];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = (byte) i;
+        }
+        IndexColorModel icm = new IndexColorModel(8, 256, rgb, rgb, rgb, 255);
+        BufferedImage image = paint(new BufferedImage(700, 900, BufferedImage.TYPE_BYTE_INDEXED,
+                icm));
+        BufferedImage read = assertRoundTrip(image, true);
+        IndexColorModel readIcm = (IndexColorModel) read.getColorModel();
+        assertEquals(Transparency.BITMASK, readIcm.getTransparency());
+        assertEquals(255, readIcm.getTransparentPixel());
+    }
+
+    @Test
+    public void testTranslucentPalette() throws Exception {
+        byte[] rgb = new byte[16];
+        byte[] alpha = new byte[16];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = (byte) (i * 16);
+            alpha[i] = (byte) (255 - i * 8);
+        }
+        IndexColorModel icm = new IndexColorModel(8, 16, rgb, rgb, rgb, alpha);
+        BufferedImage image = paint(new BufferedImage(700, 900, BufferedImage.TYPE_BYTE_INDEXED,
+                icm));
+        BufferedImage read = assertRoundTrip(image, false);
+        assertEquals(Transparency.TRANSLUCENT, read.getColorModel().getTransparency());
+    }
+
+    @Test
+    public void testAccepts() {
+        assertFalse(ParallelPNGEncoder.accepts(new BufferedImage(256, 256,
+                BufferedImage.TYPE_4BYTE_ABGR)));
+        assertTrue(ParallelPNGEncoder.accepts(new BufferedImage(2048, 2048,
+                BufferedImage.TYPE_4BYTE_ABGR)));
+        // premultiplied alpha would need to be converted first
+        assertFalse(ParallelPNGEncoder.accepts(new BufferedImage(2048, 2048,
+                BufferedImage.TYPE_INT_ARGB_PRE)));
+    }
+
+    BufferedImage assertRoundTrip(BufferedImage image, boolean subFilter) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ParallelPNGEncoder(4, subFilter).encode(image, bos);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) != read.getRGB(x, y)) {
+                    assertEquals("Pixel " + x + ", " + y, image.getRGB(x, y), read.getRGB(x, y));
+                }
+            }
+        }
+        return read;
+    }
+
+    BufferedImage paint(BufferedImage image) {
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random
+                    .nextInt(256), random.nextInt(256)));
+            graphics.fillOval(random.nextInt(image.getWidth()), random.nextInt(image.getHeight()),
+                    random.nextInt(200), random.nextInt(200));
+        }
+        graphics.dispose();
+        return image;
+    }
+}